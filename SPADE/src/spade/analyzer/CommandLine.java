@@ -31,6 +31,7 @@ import java.util.logging.Logger;
 import spade.core.AbstractAnalyzer;
 import spade.core.AbstractStorage;
 import spade.core.Kernel;
+import spade.core.GraphChunk;
 import spade.core.Query;
 import spade.core.Settings;
 import spade.query.quickgrail.QuickGrailExecutor;
@@ -141,10 +142,12 @@ public class CommandLine extends AbstractAnalyzer{
 					Socket queryClientSocket = queryServerListenerSocket.accept();
 					try{
 						QueryConnection thisConnection = new QueryConnection(queryClientSocket, Kernel.getDefaultQueryStorage());
-						Thread connectionThread = new Thread(thisConnection);
-						connectionThread.start(); // Start
-						// Add to the list at the end
+						// Add to the list before it can run (and remove itself)
 						addQueryClientConnection(thisConnection);
+						if(!Kernel.getQueryServer().startQueryConnection(thisConnection)){
+							logger.log(Level.WARNING, "Query server busy. Rejected the new query client connection");
+							thisConnection.reject("Query server busy. Too many query client connections. Try again later");
+						}
 					}catch(Exception e){
 						logger.log(Level.SEVERE, "Failed setup for accepted query client socket", e);
 						closeClientSocket(queryClientSocket);
@@ -229,6 +232,14 @@ public class CommandLine extends AbstractAnalyzer{
 		@Override
 		public void writeToClient(Query query) throws Exception{
 			queryOutputWriter.writeObject(query);
+			queryOutputWriter.reset(); // Don't hold on to the written objects
+			queryOutputWriter.flush();
+		}
+
+		@Override
+		public void writeChunkToClient(GraphChunk chunk) throws Exception{
+			queryOutputWriter.writeObject(chunk);
+			queryOutputWriter.reset();
 			queryOutputWriter.flush();
 		}
 
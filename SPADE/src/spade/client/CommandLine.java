@@ -28,6 +28,7 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
@@ -51,7 +52,11 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang.mutable.MutableBoolean;
 
 import jline.ConsoleReader;
+import spade.core.AbstractEdge;
+import spade.core.AbstractStorage;
+import spade.core.AbstractVertex;
 import spade.core.Graph;
+import spade.core.GraphChunk;
 import spade.core.Kernel;
 import spade.core.Query;
 import spade.core.Settings;
@@ -74,6 +79,8 @@ public class CommandLine{
 			SPADE_ROOT + File.separatorChar + Settings.getDefaultConfigFilePath(CommandLine.class));
 	private static final String COMMAND_PROMPT = "-> ";
 	private static String RESULT_EXPORT_PATH = null;
+	// Graphs are received from the server in chunks of this many vertices and edges
+	private static final int EXPORT_CHUNK_SIZE = 10000;
 	
 	private static boolean batchMode = false;
 
@@ -513,6 +520,7 @@ public class CommandLine{
 
 			final String queryNonce = null; // Keep the nonce null to indicate that the query is local
 			Query spadeQuery = new Query(localHostName, localHostName, line, queryNonce);
+			spadeQuery.setStreamChunkSize(EXPORT_CHUNK_SIZE);
 
 			clientOutputWriter.writeObject(spadeQuery);
 			clientOutputWriter.flush();
@@ -543,6 +551,8 @@ public class CommandLine{
 									writeToUser(graph);
 									return "Output exported to STDOUT";
 								}
+							}else if(spadeResult instanceof GraphChunk){
+								return writeToUser(clientInputReader, (GraphChunk)spadeResult, error);
 							}else{
 								return String.valueOf(spadeResult);
 							}
@@ -585,6 +595,77 @@ public class CommandLine{
 		}
 	}
 	
+	/*
+	 * Reads all the chunks (even if writing fails) to keep the connection in sync
+	 */
+	private final static String writeToUser(final ObjectInputStream clientInputReader, GraphChunk chunk,
+			final MutableBoolean error) throws Exception{
+		final String exportPath = RESULT_EXPORT_PATH;
+		AbstractStorage storage = null;
+		Exception writeException = null;
+		try{
+			if(exportPath != null){
+				final ExportGraph.Format format = exportPath.toLowerCase().endsWith(".json") 
+						? ExportGraph.Format.kJson : ExportGraph.Format.kDot;
+				storage = Graph.createExportStorage(format, new BufferedWriter(new FileWriter(exportPath)), true);
+			}else{
+				boolean closeSystemOut = false;
+				storage = Graph.createExportStorage(ExportGraph.Format.kJson, 
+						new BufferedWriter(new OutputStreamWriter(System.out)), closeSystemOut);
+			}
+		}catch(Exception e){
+			writeException = e;
+		}
+		try{
+			while(true){
+				if(writeException == null){
+					try{
+						for(final AbstractVertex vertex : chunk.getVertices()){
+							storage.putVertex(vertex);
+						}
+						for(final AbstractEdge edge : chunk.getEdges()){
+							storage.putEdge(edge);
+						}
+					}catch(Exception e){
+						writeException = e;
+					}
+				}
+				if(chunk.isLast()){
+					break;
+				}
+				final Object chunkObject = clientInputReader.readObject();
+				if(chunkObject == null){ // EOF
+					throw new Exception("Connection closed by the server!");
+				}
+				chunk = (GraphChunk)chunkObject;
+			}
+		}finally{
+			if(storage != null){
+				try{
+					storage.shutdown();
+				}catch(Exception e){
+					// ignore
+				}
+			}
+		}
+		if(chunk.getError() != null){
+			error.setValue(true);
+			final Object errorObject = chunk.getError();
+			if(errorObject instanceof Throwable){
+				return "Error: " + ((Throwable)errorObject).getMessage();
+			}else{
+				return "Error: " + errorObject;
+			}
+		}else if(writeException != null){
+			error.setValue(true);
+			return "Error: Failed to export graph: " + writeException.getMessage();
+		}else if(exportPath != null){
+			return "Output exported to file: " + exportPath;
+		}else{
+			return "Output exported to STDOUT";
+		}
+	}
+	
 	private final static void writeToUser(final String str, final boolean newLine){
 		if(!batchMode){
 			if(str != null){
@@ -20,11 +20,13 @@ import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.ObjectOutputStream;
+import java.security.Signature;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import spade.client.QueryMetaData;
+import spade.query.quickgrail.core.ExportCursor;
 import spade.utility.FileUtility;
 import spade.utility.HelperFunctions;
 import spade.utility.Result;
@@ -266,16 +268,40 @@ public abstract class AbstractAnalyzer{
 							}else{
 								// Can execute query finally
 								try{
-									spadeQuery = executeQuery(spadeQuery);
-									
-									boolean isResultAGraph = spadeQuery != null && spadeQuery.getResult() instanceof spade.core.Graph;
-									if(isResultAGraph){
-										Graph finalGraph = (spade.core.Graph)spadeQuery.getResult();
-										if(useTransformer){
-											finalGraph = iterateTransformers(finalGraph, spadeQuery.getQueryMetaData());
+									// Wait for a turn on the storage
+									final QueryServer queryServer = Kernel.getQueryServer();
+									final QueryServer.Admission admission = queryServer == null ? null : queryServer.admitQuery(thisStorage);
+									boolean streamed = false;
+									try{
+										spadeQuery = executeQuery(spadeQuery);
+
+										if(spadeQuery != null && spadeQuery.getResult() instanceof ExportCursor){
+											final ExportCursor cursor = (ExportCursor)spadeQuery.getResult();
+											try{
+												if(useTransformer){
+													// Transformers need the whole graph
+													spadeQuery.querySucceeded(readCursorAsGraph(cursor, spadeQuery.getStreamChunkSize()));
+												}else{
+													streamed = streamCursorToClient(spadeQuery, cursor);
+												}
+											}finally{
+												cursor.close();
+											}
+										}
+
+										boolean isResultAGraph = spadeQuery != null && spadeQuery.getResult() instanceof spade.core.Graph;
+										if(isResultAGraph){
+											Graph finalGraph = (spade.core.Graph)spadeQuery.getResult();
+											if(useTransformer){
+												finalGraph = iterateTransformers(finalGraph, spadeQuery.getQueryMetaData());
+											}
+											finalGraph.setHostName(Kernel.getHostName()); // Set it here because the graph might be modified by the transformers
+											finalGraph.addSignature(spadeQuery.queryNonce);
+										}
+									}finally{
+										if(queryServer != null){
+											queryServer.finishQuery(admission);
 										}
-										finalGraph.setHostName(Kernel.getHostName()); // Set it here because the graph might be modified by the transformers
-										finalGraph.addSignature(spadeQuery.queryNonce);
 									}
 									
 									if(spadeQuery.getError() != null){
@@ -303,7 +329,9 @@ public abstract class AbstractAnalyzer{
 										}
 									}
 									
-									safeWriteToClient(spadeQuery);
+									if(!streamed){
+										safeWriteToClient(spadeQuery);
+									}
 								}catch(Exception e){
 									logger.log(Level.SEVERE, "Failed to execute query: '" + spadeQuery.query + "'", e);
 									spadeQuery.queryFailed(new Exception("Failed to execute query: " + e.getMessage(), e));
@@ -318,6 +346,22 @@ public abstract class AbstractAnalyzer{
 			this.shutdown();
 
 			// Exited the main loop
+			releaseCurrentStorage();
+		}
+
+		/**
+		 * Sends the message as the error of the client's next query and closes the connection. Used instead of 'run'
+		 * when the connection is not allowed to run.
+		 */
+		public final void reject(final String message){
+			final Query spadeQuery = new Query("<NULL>", "<NULL>", "<NULL>", "<NULL>");
+			spadeQuery.queryFailed(message);
+			safeWriteToClient(spadeQuery);
+			this.shutdown();
+			releaseCurrentStorage();
+		}
+
+		private final void releaseCurrentStorage(){
 			AbstractStorage thisStorage = getCurrentStorage();
 			if(thisStorage != null){
 				try{
@@ -334,6 +378,11 @@ public abstract class AbstractAnalyzer{
 
 		public abstract void writeToClient(Query query) throws Exception;
 
+		/**
+		 * Write a chunk of a streamed graph after the query (which had the first chunk as the result)
+		 */
+		public abstract void writeChunkToClient(GraphChunk chunk) throws Exception;
+
 		public abstract void doQueryingSetupForCurrentStorage() throws Exception;
 
 		public abstract void doQueryingShutdownForCurrentStorage() throws Exception;
@@ -353,6 +402,75 @@ public abstract class AbstractAnalyzer{
 			}
 		}
 
+		private final Graph readCursorAsGraph(final ExportCursor cursor, final int chunkSize){
+			final Graph graph = new Graph();
+			GraphChunk chunk;
+			do{
+				chunk = cursor.nextChunk(chunkSize);
+				graph.vertexSet().addAll(chunk.getVertices());
+				graph.edgeSet().addAll(chunk.getEdges());
+			}while(!chunk.isLast());
+			return graph;
+		}
+
+		/*
+		 * The first chunk is sent as the result of the query. An error before that is thrown and sent as the query
+		 * error. Any error after that is sent in the last chunk. The permits of the query are given up while a chunk
+		 * is written, and taken back before the next one is read.
+		 * 
+		 * Returns true if the first chunk was sent.
+		 */
+		private final boolean streamCursorToClient(final Query spadeQuery, final ExportCursor cursor) throws Exception{
+			final int chunkSize = spadeQuery.getStreamChunkSize();
+			final Signature signer = GraphChunk.createSigner();
+			final QueryServer queryServer = Kernel.getQueryServer();
+			
+			GraphChunk chunk = cursor.nextChunk(chunkSize);
+			chunk.setHostName(Kernel.getHostName());
+			boolean first = true;
+			try{
+				while(true){
+					if(signer != null){
+						chunk.updateSignature(signer);
+					}
+					if(chunk.isLast() && signer != null){
+						chunk.setSignature(GraphChunk.sign(signer, spadeQuery.queryNonce));
+					}
+					// The turn on the storage is not needed while writing to the client (which can be slow)
+					final boolean paused = queryServer != null && queryServer.pauseQuery();
+					if(first){
+						spadeQuery.querySucceeded(chunk);
+						writeToClient(spadeQuery);
+						first = false;
+					}else{
+						writeChunkToClient(chunk);
+					}
+					if(chunk.isLast()){
+						break;
+					}
+					try{
+						if(paused){
+							queryServer.resumeQuery();
+						}
+						chunk = cursor.nextChunk(chunkSize);
+					}catch(Exception e){
+						logger.log(Level.SEVERE, "Failed to read next chunk of graph for query: '" + spadeQuery.query + "'", e);
+						chunk = new GraphChunk();
+						chunk.setLast(true);
+						chunk.setError(new Exception("Failed to read next chunk of graph: " + e.getMessage()));
+						writeChunkToClient(chunk);
+						break;
+					}
+				}
+			}catch(Exception e){
+				if(first){
+					throw e; // Nothing sent yet
+				}
+				logger.log(Level.WARNING, "Failed to write chunk of graph to query client for query: '" + spadeQuery.query + "'", e);
+			}
+			return true;
+		}
+
 		private final Query setStorage(String storageName, Query spadeQuery){
 			if(storageName == null){
 				spadeQuery.queryFailed("Missing storage_name in command: '" + commandSetStorage + "'.");
@@ -57,6 +57,12 @@ public abstract class AbstractEdge implements Serializable{
      * If null then big hash computed using the annotations map.
      */
     private final String bigHashCode;
+
+    /**
+     * Big hash computed using the annotations map and the endpoints. Reset to null whenever the annotations
+     * or the endpoints change. Hashes of the endpoints used are kept to detect change in the endpoints.
+     */
+    private transient String computedBigHashCode, computedChildHash, computedParentHash;
     
     /**
      * Create a vertex without a fixed big hash.
@@ -108,6 +114,7 @@ public abstract class AbstractEdge implements Serializable{
 				value = "";
 			}
 			annotations.put(key, value);
+			computedBigHashCode = null;
 		}
 	}
 
@@ -132,6 +139,7 @@ public abstract class AbstractEdge implements Serializable{
      * existed.
      */
     public final String removeAnnotation(String key){
+        computedBigHashCode = null;
         return annotations.remove(key);
     }
 
@@ -202,6 +210,7 @@ public abstract class AbstractEdge implements Serializable{
      */
     public final void setChildVertex(AbstractVertex childVertex) {
         this.childVertex = childVertex;
+        this.computedBigHashCode = null;
     }
 
     /**
@@ -212,6 +221,7 @@ public abstract class AbstractEdge implements Serializable{
      */
     public final void setParentVertex(AbstractVertex parentVertex) {
         this.parentVertex = parentVertex;
+        this.computedBigHashCode = null;
     }
 
     /**
@@ -220,11 +230,22 @@ public abstract class AbstractEdge implements Serializable{
      */
 	public final String bigHashCode(){
 		if(bigHashCode == null){
-			final String data = 
-					((childVertex == null) ? "(null)" : childVertex.bigHashCode()) + ","
-					+ annotations.toString() + ","
-					+ ((parentVertex == null) ? "(null)" : parentVertex.bigHashCode());
-			return HashHelper.defaultInstance.hashToHexString(data);
+			// Endpoint hashes must be computed before using the streaming hasher of this thread
+			final String childHash = (childVertex == null) ? "(null)" : childVertex.bigHashCode();
+			final String parentHash = (parentVertex == null) ? "(null)" : parentVertex.bigHashCode();
+			String hash = computedBigHashCode;
+			// Endpoint hashes are cached strings so same instance unless changed
+			if(hash == null || childHash != computedChildHash || parentHash != computedParentHash){
+				hash = HashHelper.defaultInstance.getStreamingHasher()
+						.put(childHash).put(',')
+						.putAnnotations(annotations).put(',')
+						.put(parentHash)
+						.finishToHexString();
+				computedChildHash = childHash;
+				computedParentHash = parentHash;
+				computedBigHashCode = hash;
+			}
+			return hash;
 		}else{
 			return bigHashCode;
 		}
@@ -121,7 +121,11 @@ public abstract class AbstractReporter{
 			propertyNameGetRate = "getrate",
 			propertyNamePutRate = "putrate",
 			propertyNameGetCount = "getcount",
-			propertyNamePutCount = "putcount";
+			propertyNamePutCount = "putcount",
+			// Ring buffer only
+			propertyNameBufferCapacity = "buffercapacity",
+			propertyNameBufferHighWaterMark = "bufferhighwatermark",
+			propertyNameBufferBlockedMillis = "bufferblockedmillis";
 
 	private final Object ratePropertyLock = new Object();
 
@@ -152,6 +156,9 @@ public abstract class AbstractReporter{
 			case propertyNamePutRate:
 			case propertyNameGetCount:
 			case propertyNamePutCount:
+			case propertyNameBufferCapacity:
+			case propertyNameBufferHighWaterMark:
+			case propertyNameBufferBlockedMillis:
 				return lowerCasePropertyName;
 			default: throw new Exception("Unknown property: '" + propertyName + "'");
 		}
@@ -226,6 +233,8 @@ public abstract class AbstractReporter{
 				if(reference != null){
 					if(reference instanceof BlockingBuffer){
 						return (((BlockingBuffer)reference).getGetCount());
+					}else if(reference instanceof RingBuffer){
+						return (((RingBuffer)reference).getGetCount());
 					}else{
 						return null;
 					}
@@ -238,6 +247,8 @@ public abstract class AbstractReporter{
 				if(reference != null){
 					if(reference instanceof BlockingBuffer){
 						return (((BlockingBuffer)reference).getPutCount());
+					}else if(reference instanceof RingBuffer){
+						return (((RingBuffer)reference).getPutCount());
 					}else{
 						return null;
 					}
@@ -245,6 +256,30 @@ public abstract class AbstractReporter{
 					return null;
 				}
 			}
+			case propertyNameBufferCapacity:{
+				final Buffer reference = this.internalBuffer;
+				if(reference instanceof RingBuffer){
+					return (((RingBuffer)reference).getCapacity());
+				}else{
+					return null;
+				}
+			}
+			case propertyNameBufferHighWaterMark:{
+				final Buffer reference = this.internalBuffer;
+				if(reference instanceof RingBuffer){
+					return (((RingBuffer)reference).getHighWaterMark());
+				}else{
+					return null;
+				}
+			}
+			case propertyNameBufferBlockedMillis:{
+				final Buffer reference = this.internalBuffer;
+				if(reference instanceof RingBuffer){
+					return (((RingBuffer)reference).getBlockedMillis());
+				}else{
+					return null;
+				}
+			}
 			default: break;
 		}
 		throw new Exception("Unhandled property: '" + propertyName + "'");
@@ -260,7 +295,10 @@ public abstract class AbstractReporter{
 			case propertyNameGetRate:
 			case propertyNamePutRate:
 			case propertyNameGetCount:
-			case propertyNamePutCount:{
+			case propertyNamePutCount:
+			case propertyNameBufferCapacity:
+			case propertyNameBufferHighWaterMark:
+			case propertyNameBufferBlockedMillis:{
 				throw new Exception("Unsettable property: '" + propertyName + "'");
 			}
 			case propertyNameRateLimit:{
@@ -317,7 +355,10 @@ public abstract class AbstractReporter{
 			case propertyNameGetRate:
 			case propertyNamePutRate:
 			case propertyNamePutCount:
-			case propertyNameGetCount:{
+			case propertyNameGetCount:
+			case propertyNameBufferCapacity:
+			case propertyNameBufferHighWaterMark:
+			case propertyNameBufferBlockedMillis:{
 				throw new Exception("Un-unsettable property: '" + propertyName + "'");
 			}
 			case propertyNameRateLimit:{
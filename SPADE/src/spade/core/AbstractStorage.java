@@ -27,6 +27,7 @@ import java.io.FileInputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -91,6 +92,31 @@ public abstract class AbstractStorage
 		return null;
 	}
 
+	// Advanced every time the stored vertices and edges become visible to the queries
+	private final AtomicLong ingestWatermark = new AtomicLong();
+
+	/**
+	 * @return The value to compare against to know whether anything has become visible to the queries since
+	 */
+	public final long getIngestWatermark(){
+		return ingestWatermark.get();
+	}
+
+	/**
+	 * To be called by the storages which buffer (see isIngestBuffered) when a batch is committed or flushed
+	 */
+	protected final void advanceIngestWatermark(){
+		ingestWatermark.incrementAndGet();
+	}
+
+	/**
+	 * @return True if the stored vertices and edges are not visible to the queries until a batch is committed or
+	 * flushed. False if visible as soon as stored, in which case the ingest watermark is advanced after storing
+	 */
+	protected boolean isIngestBuffered(){
+		return false;
+	}
+
 	public final boolean putVertex(final AbstractVertex vertex){
 		boolean block = false;
 		if(vertex == null){
@@ -108,7 +134,11 @@ public abstract class AbstractStorage
 		if(block){
 			return false;
 		}else{
-			return storeVertex(vertex);
+			final boolean stored = storeVertex(vertex);
+			if(stored && !isIngestBuffered()){
+				advanceIngestWatermark();
+			}
+			return stored;
 		}
 	}
 
@@ -129,7 +159,11 @@ public abstract class AbstractStorage
 		if(block){
 			return false;
 		}else{
-			return storeEdge(edge);
+			final boolean stored = storeEdge(edge);
+			if(stored && !isIngestBuffered()){
+				advanceIngestWatermark();
+			}
+			return stored;
 		}
 	}
 
@@ -51,6 +51,11 @@ public abstract class AbstractVertex implements Serializable{
      */
     private final String bigHashCode;
 
+    /**
+     * Big hash computed using the annotations map. Reset to null whenever the annotations change.
+     */
+    private transient String computedBigHashCode;
+
     /**
      * Create a vertex without a fixed big hash.
      */
@@ -115,6 +120,7 @@ public abstract class AbstractVertex implements Serializable{
 				value = "";
 			}
 			annotations.put(key, value);
+			computedBigHashCode = null;
 		}
 	}
 
@@ -139,6 +145,7 @@ public abstract class AbstractVertex implements Serializable{
      * existed.
      */
     public final String removeAnnotation(String key) {
+        computedBigHashCode = null;
         return annotations.remove(key);
     }
 
@@ -199,11 +206,17 @@ public abstract class AbstractVertex implements Serializable{
     /**
      * Computes hash of annotations in the vertex according to the default set in spade.core.HashHelper.
      * If the hash was fixed then that is used.
+     * 
+     * The computed hash is cached until the annotations change.
      */
 	public final String bigHashCode(){
 		if(bigHashCode == null){
-			final String data = annotations.toString();
-			return HashHelper.defaultInstance.hashToHexString(data);
+			String hash = computedBigHashCode;
+			if(hash == null){
+				hash = HashHelper.defaultInstance.getStreamingHasher().putAnnotations(annotations).finishToHexString();
+				computedBigHashCode = hash;
+			}
+			return hash;
 		}else{
 			return bigHashCode;
 		}
@@ -35,6 +35,12 @@ public class Buffer {
 
     private final Queue<Object> queue;
 
+    /**
+     * Notified after an element is added. Set by the kernel to wake up the
+     * thread draining this buffer.
+     */
+    private volatile Runnable putListener;
+
     /**
      * Empty constructor for this class.
      *
@@ -53,7 +59,7 @@ public class Buffer {
         if (incomingVertex == null) {
             return false;
         } else {
-            return queue.add(incomingVertex);
+            return added(queue.add(incomingVertex));
         }
     }
 
@@ -69,10 +75,36 @@ public class Buffer {
                 || (incomingEdge.getParentVertex() == null)) {
             return false;
         } else {
-            return queue.add(incomingEdge);
+            return added(queue.add(incomingEdge));
+        }
+    }
+
+    private boolean added(boolean added) {
+        if (added) {
+            signalPut();
+        }
+        return added;
+    }
+
+    /**
+     * This method must be called by the subclasses after an element is added.
+     */
+    final void signalPut() {
+        final Runnable listener = putListener;
+        if (listener != null) {
+            listener.run();
         }
     }
 
+    /**
+     * This method is used by the kernel to get notified when an element is added.
+     *
+     * @param listener The listener to run after every successful put.
+     */
+    final void setPutListener(Runnable listener) {
+        putListener = listener;
+    }
+
     /**
      * This method is used to extract provenance elements from the buffer.
      *
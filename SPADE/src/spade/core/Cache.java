@@ -21,37 +21,150 @@
 package spade.core;
 
 import java.io.Serializable;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import spade.utility.FileUtility;
+import spade.utility.HelperFunctions;
+import spade.utility.Result;
+
 /**
  * This Singleton class encapsulates the caching policy
  * and implementation for graph vertices and edges.
  *
+ * Each storage gets its own caches of the hashes of the vertices and edges it has stored
+ * (see newStorageHashCache) to skip inserting them again. The size of the caches is
+ * configured in 'cfg/spade.core.Cache.config'.
+ *
+ * The responses of queries are kept in a result cache (see ResultCache) configured in the
+ * same file.
+ *
  * @author Raza Ahmad
  */
 public class Cache implements Serializable
 {
-    private Set<Graph> cachedGraphs;
+    // Responses kept for discrepancy detection (oldest first) and their estimated sizes
+    private LinkedHashMap<Graph, Long> cachedGraphs;
+    private long cachedGraphsBytes;
     private Graph mainGraphCache;
     public final static Cache instance = new Cache();
     private static final Logger logger = Logger.getLogger(Cache.class.getName());
 
+    private static final String keyPolicy = "policy";
+    private static final String keyVertexSize = "vertex.size";
+    private static final String keyEdgeSize = "edge.size";
+    private static final String keyReportingIntervalSeconds = "reportingIntervalSeconds";
+    private static final String keyResultBytes = "result.bytes";
+    private static final String keyResultTTLSeconds = "result.ttlSeconds";
+
+    // Sizes are 0 if disabled
+    private static HashCache.Policy hashCachePolicy;
+    private static long vertexHashCacheSize;
+    private static long edgeHashCacheSize;
+    private static long reportingIntervalMillis;
+    // Null if disabled
+    private static ResultCache resultCache;
+
+    static
+    {
+        final String configFilePath = Settings.getDefaultConfigFilePath(Cache.class);
+        try
+        {
+            final Map<String, String> map = FileUtility.readConfigFileAsKeyValueMap(configFilePath, "=");
+            final String policyString = map.get(keyPolicy);
+            final HashCache.Policy policy;
+            if("lru".equalsIgnoreCase(policyString))
+            {
+                policy = HashCache.Policy.LRU;
+            }
+            else if("wtinylfu".equalsIgnoreCase(policyString))
+            {
+                policy = HashCache.Policy.WTINYLFU;
+            }
+            else
+            {
+                throw new Exception("Invalid value for '" + keyPolicy + "': '" + policyString + "'. Expected 'lru' or 'wtinylfu'");
+            }
+            final Result<Long> vertexSizeResult = HelperFunctions.parseLong(map.get(keyVertexSize), 10, 0, Integer.MAX_VALUE);
+            if(vertexSizeResult.error)
+            {
+                throw new Exception("Invalid value for '" + keyVertexSize + "'. " + vertexSizeResult.errorMessage);
+            }
+            final Result<Long> edgeSizeResult = HelperFunctions.parseLong(map.get(keyEdgeSize), 10, 0, Integer.MAX_VALUE);
+            if(edgeSizeResult.error)
+            {
+                throw new Exception("Invalid value for '" + keyEdgeSize + "'. " + edgeSizeResult.errorMessage);
+            }
+            final Result<Long> reportingIntervalSecondsResult =
+                    HelperFunctions.parseLong(map.get(keyReportingIntervalSeconds), 10, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            if(reportingIntervalSecondsResult.error)
+            {
+                throw new Exception("Invalid value for '" + keyReportingIntervalSeconds + "'. "
+                        + reportingIntervalSecondsResult.errorMessage);
+            }
+            hashCachePolicy = policy;
+            vertexHashCacheSize = vertexSizeResult.result;
+            edgeHashCacheSize = edgeSizeResult.result;
+            reportingIntervalMillis = reportingIntervalSecondsResult.result.intValue() * 1000L;
+            logger.log(Level.INFO, keyPolicy + "=" + policy + ", " + keyVertexSize + "=" + vertexSizeResult.result
+                    + ", " + keyEdgeSize + "=" + edgeSizeResult.result
+                    + ", " + keyReportingIntervalSeconds + "=" + reportingIntervalSecondsResult.result);
+        }
+        catch(Exception e)
+        {
+            logger.log(Level.WARNING, "Failed to initialize vertex and edge hash caches using file '" + configFilePath
+                    + "'. Caches disabled", e);
+            vertexHashCacheSize = 0;
+            edgeHashCacheSize = 0;
+        }
+        try
+        {
+            final Map<String, String> map = FileUtility.readConfigFileAsKeyValueMap(configFilePath, "=");
+            final Result<Long> resultBytesResult = HelperFunctions.parseLong(map.get(keyResultBytes), 10, 0, Long.MAX_VALUE);
+            if(resultBytesResult.error)
+            {
+                throw new Exception("Invalid value for '" + keyResultBytes + "'. " + resultBytesResult.errorMessage);
+            }
+            final Result<Long> resultTTLSecondsResult =
+                    HelperFunctions.parseLong(map.get(keyResultTTLSeconds), 10, 1, Integer.MAX_VALUE);
+            if(resultTTLSecondsResult.error)
+            {
+                throw new Exception("Invalid value for '" + keyResultTTLSeconds + "'. "
+                        + resultTTLSecondsResult.errorMessage);
+            }
+            resultCache = resultBytesResult.result > 0
+                    ? new ResultCache(resultBytesResult.result, resultTTLSecondsResult.result * 1000L) : null;
+            logger.log(Level.INFO, keyResultBytes + "=" + resultBytesResult.result
+                    + ", " + keyResultTTLSeconds + "=" + resultTTLSecondsResult.result);
+        }
+        catch(Exception e)
+        {
+            logger.log(Level.WARNING, "Failed to initialize result cache using file '" + configFilePath
+                    + "'. Cache disabled", e);
+            resultCache = null;
+        }
+    }
+
 
     private Cache()
     {
-        cachedGraphs = new HashSet<>();
+        cachedGraphs = new LinkedHashMap<>();
+        cachedGraphsBytes = 0;
         mainGraphCache = new Graph();
     }
 
     public void removeGraph(Graph graph)
     {
-        cachedGraphs.remove(graph);
+        final Long graphBytes = cachedGraphs.remove(graph);
+        if(graphBytes != null)
+        {
+            cachedGraphsBytes -= graphBytes;
+        }
         logger.log(Level.INFO, "graph to remove: vertices=" + graph.vertexSet().size() + ", edges=" + graph.edgeSet().size());
         // finds the difference from graphs in the cache
-        for(Graph cachedGraph : cachedGraphs)
+        for(Graph cachedGraph : cachedGraphs.keySet())
         {
             graph.remove(cachedGraph);
         }
@@ -59,23 +172,52 @@ public class Cache implements Serializable
         mainGraphCache.remove(graph);
     }
 
+    /**
+     * @param query Query string of the response
+     * @param queryTime Time of the query in milliseconds since the epoch. Current time if null
+     * @return Copy of the response to the query if it was valid (not expired or invalidated) at the query time. Null otherwise
+     */
     public Graph findValidResponse(String query, String queryTime)
     {
-        // TODO: implement the policy of finding response matches
-        // if (queryTime > responseTime + TTL); then return null
-        for(Graph graph : cachedGraphs)
+        if(resultCache == null || query == null)
+        {
+            return null;
+        }
+        final Result<Long> queryTimeResult = HelperFunctions.parseLong(queryTime, 10, 0, Long.MAX_VALUE);
+        final long atMillis = queryTimeResult.error ? System.currentTimeMillis() : queryTimeResult.result;
+        return resultCache.get(null, query, atMillis);
+    }
+
+    /**
+     * Keeps the response for discrepancy detection. The responses are bounded by the size of the
+     * result cache. The oldest responses are removed (see removeGraph) to make space.
+     */
+    public void addGraph(Graph graph)
+    {
+        if(cachedGraphs.containsKey(graph))
+        {
+            return;
+        }
+        final long graphBytes = ResultCache.estimateBytes("", graph);
+        cachedGraphs.put(graph, graphBytes);
+        cachedGraphsBytes += graphBytes;
+        if(resultCache != null)
         {
-            if(graph.getQueryString().equals(query))
+            // The new graph is the last one
+            while(cachedGraphsBytes > resultCache.getMaximumBytes() && cachedGraphs.size() > 1)
             {
-                return graph;
+                removeGraph(cachedGraphs.keySet().iterator().next());
+            }
+            if(graph.getQueryString() != null)
+            {
+                resultCache.put(null, graph.getQueryString(), graph, 0);
             }
         }
-        return null;
     }
 
-    public void addGraph(Graph graph)
+    public boolean isGraphCached(Graph graph)
     {
-        cachedGraphs.add(graph);
+        return cachedGraphs.containsKey(graph);
     }
 
     public void addVertex(AbstractVertex vertex)
@@ -108,21 +250,71 @@ public class Cache implements Serializable
         return getVertexCount() + getEdgeCount();
     }
 
-    public static boolean isVertexPresent(String vertexHash)
+    /**
+     * Called by a storage once to get its own caches. The caches are not shared with any other
+     * storage (or with an earlier instance of the same storage).
+     *
+     * @param storageName Name of the storage for logging
+     * @return New vertex and edge hash caches as configured
+     */
+    public static StorageHashCache newStorageHashCache(String storageName)
     {
-        return false;
+        return new StorageHashCache(storageName,
+                vertexHashCacheSize > 0 ? new HashCache(vertexHashCacheSize, hashCachePolicy) : null,
+                edgeHashCacheSize > 0 ? new HashCache(edgeHashCacheSize, hashCachePolicy) : null,
+                reportingIntervalMillis);
     }
 
-    public static boolean isEdgePresent(String edgeHash)
+    /**
+     * @param storage The storage the response was computed from. Null if not computed from a local storage
+     * @param key Key of the response
+     * @return Copy of the cached response or null if not cached (or expired, or invalidated)
+     */
+    public static Graph getResult(AbstractStorage storage, String key)
     {
-        return false;
+        return resultCache == null ? null : resultCache.get(storage, key);
+    }
+
+    /**
+     * @param storage The storage the response was computed from. Null if not computed from a local storage
+     * @param key Key of the response
+     * @param graph The response
+     * @param ingestWatermark Value of storage.getIngestWatermark() before the response was computed. Ignored
+     *        if the storage is null
+     */
+    public static void putResult(AbstractStorage storage, String key, Graph graph, long ingestWatermark)
+    {
+        if(resultCache != null)
+        {
+            resultCache.put(storage, key, graph, ingestWatermark);
+        }
+    }
+
+    /**
+     * Drops all the cached responses. Called when the workspace is reset because the graph names in the
+     * keys are reused afterwards.
+     */
+    public static void clearResults()
+    {
+        if(resultCache != null)
+        {
+            resultCache.clear();
+        }
     }
 
-    public static void addItem(AbstractEdge edge)
+    /**
+     * @return Null if disabled
+     */
+    public static ResultCache getResultCache()
     {
+        return resultCache;
     }
 
-    public static void addItem(AbstractVertex vertex)
+    /**
+     * @return Hit-rate, eviction, expiration and invalidation metrics of the result cache
+     */
+    public static String getResultCacheStats()
     {
+        return "Result cache: [" + (resultCache == null ? "disabled" : resultCache.getStats()) + "]";
     }
 }
@@ -0,0 +1,322 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.utility.HelperFunctions;
+import spade.utility.Result;
+
+/**
+ * Moves provenance elements from the reporter buffers into the filter list.
+ *
+ * Each reporter is pinned to exactly one worker thread so that the order in which a reporter
+ * put elements into its buffer is the order in which they enter the filter list. A worker parks
+ * when all of its buffers are empty and is woken up by the buffer as soon as something is put.
+ *
+ * Filters and storages are not thread-safe in general. By default, only one worker is allowed
+ * inside the filter list at a time (buffers are still drained by all workers). Set
+ * 'dispatcher_serialize_filters=false' only if all the filters and storages in use are thread-safe.
+ */
+final class Dispatcher{
+
+	private static final String
+			keyThreads = "dispatcher_threads",
+			keyBatchSize = "dispatcher_batch_size",
+			keyIdleWaitMillis = "dispatcher_idle_wait_millis",
+			keySerializeFilters = "dispatcher_serialize_filters";
+
+	private static final int defaultThreads = 1;
+	private static final int defaultBatchSize = 10000;
+	private static final long defaultIdleWaitMillis = 100;
+	private static final boolean defaultSerializeFilters = true;
+
+	private static final int FIRST_FILTER = 0;
+	private static final long JOIN_WAIT_MILLIS = 5000;
+
+	private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+	private final List<AbstractFilter> filters;
+	private final Set<AbstractReporter> removeReporters;
+	private final Runnable housekeeping;
+
+	private final int batchSize;
+	private final long idleWaitNanos;
+	private final boolean serializeFilters;
+
+	/*
+	 * Read lock held by workers when they are allowed inside the filter list concurrently.
+	 * Write lock held when only one thread must be inside the filter list.
+	 */
+	private final ReentrantReadWriteLock filterListLock = new ReentrantReadWriteLock();
+
+	private final Worker[] workers;
+
+	private volatile boolean shutdown = false;
+
+	/**
+	 * @param filters The filter list of the kernel. The first filter is the entry point.
+	 * @param removeReporters Reporters marked for removal. Removed from this set once their buffer is drained.
+	 * @param housekeeping Task run periodically by the first worker outside of the filter list lock.
+	 */
+	Dispatcher(final List<AbstractFilter> filters, final Set<AbstractReporter> removeReporters,
+			final Runnable housekeeping){
+		this.filters = filters;
+		this.removeReporters = removeReporters;
+		this.housekeeping = housekeeping;
+
+		final int threads = (int)getSetting(keyThreads, defaultThreads, 1, Runtime.getRuntime().availableProcessors() * 4);
+		this.batchSize = (int)getSetting(keyBatchSize, defaultBatchSize, 1, Integer.MAX_VALUE);
+		this.idleWaitNanos = TimeUnit.MILLISECONDS.toNanos(getSetting(keyIdleWaitMillis, defaultIdleWaitMillis, 1, Integer.MAX_VALUE));
+
+		final String serializeFiltersString = Settings.getProperty(keySerializeFilters);
+		if(serializeFiltersString == null){
+			this.serializeFilters = defaultSerializeFilters;
+		}else{
+			final Result<Boolean> serializeFiltersResult = HelperFunctions.parseBoolean(serializeFiltersString);
+			if(serializeFiltersResult.error){
+				logger.log(Level.WARNING, "Invalid value for '" + keySerializeFilters + "'. Using default '"
+						+ defaultSerializeFilters + "'. " + serializeFiltersResult.errorMessage);
+				this.serializeFilters = defaultSerializeFilters;
+			}else{
+				this.serializeFilters = serializeFiltersResult.result;
+			}
+		}
+
+		this.workers = new Worker[threads];
+		for(int i = 0; i < threads; i++){
+			this.workers[i] = new Worker(i + 1);
+		}
+
+		logger.log(Level.INFO, String.format("%s=%s, %s=%s, %s=%s, %s=%s",
+				keyThreads, threads, keyBatchSize, batchSize,
+				keyIdleWaitMillis, TimeUnit.NANOSECONDS.toMillis(idleWaitNanos),
+				keySerializeFilters, serializeFilters));
+	}
+
+	private long getSetting(final String key, final long defaultValue, final long min, final long max){
+		final String value = Settings.getProperty(key);
+		if(value == null){
+			return defaultValue;
+		}
+		final Result<Long> result = HelperFunctions.parseLong(value.trim(), 10, min, max);
+		if(result.error){
+			logger.log(Level.WARNING, "Invalid value for '" + key + "'. Using default '" + defaultValue + "'. "
+					+ result.errorMessage);
+			return defaultValue;
+		}
+		return result.result;
+	}
+
+	final void start(){
+		for(final Worker worker : workers){
+			final Thread thread = new Thread(worker, "mainSPADE-Thread-" + worker.id);
+			worker.thread = thread;
+			thread.start();
+		}
+	}
+
+	/**
+	 * Pins the reporter to the worker with the least number of reporters.
+	 *
+	 * @param reporter The reporter whose buffer is to be drained.
+	 */
+	final void addReporter(final AbstractReporter reporter){
+		Worker selected = workers[0];
+		for(final Worker worker : workers){
+			if(worker.reporters.size() < selected.reporters.size()){
+				selected = worker;
+			}
+		}
+		final Worker worker = selected;
+		reporter.getBuffer().setPutListener(new Runnable(){
+			@Override
+			public void run(){
+				worker.signal();
+			}
+		});
+		worker.reporters.add(reporter);
+		worker.signal();
+	}
+
+	/**
+	 * Wakes up all the workers. Used when the removal sets have been modified.
+	 */
+	final void wakeup(){
+		for(final Worker worker : workers){
+			worker.signal();
+		}
+	}
+
+	/**
+	 * Runs the task when no worker is inside the filter list.
+	 *
+	 * @param task The task to run.
+	 */
+	final void runExclusively(final Runnable task){
+		final Lock lock = filterListLock.writeLock();
+		lock.lock();
+		try{
+			task.run();
+		}finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops all the workers after the element currently being dispatched (if any).
+	 */
+	final void shutdown(){
+		shutdown = true;
+		wakeup();
+		for(final Worker worker : workers){
+			if(worker.thread != null && worker.thread != Thread.currentThread()){
+				try{
+					worker.thread.join(JOIN_WAIT_MILLIS);
+				}catch(InterruptedException e){
+					logger.log(Level.WARNING, "Interrupted while waiting for " + worker.thread.getName() + " to stop", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Prints throughput and queue depth of each worker.
+	 *
+	 * @param outputStream The output stream on which to print.
+	 */
+	final void printStats(final PrintStream outputStream){
+		outputStream.println(workers.length + " dispatcher worker(s) ("
+				+ (serializeFilters ? "serialized" : "concurrent") + " filter list):");
+		for(final Worker worker : workers){
+			final List<String> reporterNames = new ArrayList<String>();
+			long queueDepth = 0;
+			for(final AbstractReporter reporter : worker.reporters){
+				reporterNames.add(reporter.getClass().getSimpleName());
+				queueDepth += reporter.getBuffer().size();
+			}
+			final double elapsedSeconds = (System.currentTimeMillis() - worker.startedAtMillis) / 1000.0;
+			final long dispatched = worker.dispatchedCount;
+			outputStream.println(String.format("\t%d. %s (Reporters:%s) dispatched=%d, rate=%.3f per sec, queue=%d, %s",
+					worker.id, worker.thread == null ? "-" : worker.thread.getName(),
+					reporterNames.isEmpty() ? "NONE" : reporterNames.toString(),
+					dispatched, elapsedSeconds > 0 ? dispatched / elapsedSeconds : 0.0, queueDepth,
+					worker.idle ? "idle" : "busy"));
+			for(final AbstractReporter reporter : worker.reporters){
+				final Buffer buffer = reporter.getBuffer();
+				if(buffer instanceof RingBuffer){
+					outputStream.println("\t\t" + reporter.getClass().getSimpleName() + ": " + ((RingBuffer)buffer).getStats());
+				}
+			}
+		}
+	}
+
+	private final class Worker implements Runnable{
+
+		private final int id;
+		private final List<AbstractReporter> reporters = new CopyOnWriteArrayList<AbstractReporter>();
+		private final AtomicBoolean signalled = new AtomicBoolean(false);
+		private final long startedAtMillis = System.currentTimeMillis();
+
+		private volatile Thread thread;
+		private volatile boolean idle = true;
+		// Only updated by the worker thread
+		private volatile long dispatchedCount = 0;
+
+		private Worker(final int id){
+			this.id = id;
+		}
+
+		private void signal(){
+			// Check first to avoid the CAS on every put when the worker is already awake
+			if(!signalled.get() && signalled.compareAndSet(false, true)){
+				final Thread thread = this.thread;
+				if(thread != null){
+					LockSupport.unpark(thread);
+				}
+			}
+		}
+
+		@Override
+		public void run(){
+			while(!shutdown){
+				// Clear before draining so that any put after this point wakes us up again
+				signalled.set(false);
+				long dispatched = 0;
+				try{
+					if(id == 1 && housekeeping != null){
+						housekeeping.run();
+					}
+					for(final AbstractReporter reporter : reporters){
+						dispatched += drain(reporter);
+					}
+				}catch(Exception exception){
+					logger.log(Level.SEVERE, "Error in dispatcher worker " + id, exception);
+				}
+				if(dispatched == 0 && !signalled.get()){
+					idle = true;
+					LockSupport.parkNanos(this, idleWaitNanos);
+				}else{
+					idle = false;
+				}
+			}
+		}
+
+		private long drain(final AbstractReporter reporter){
+			final Buffer buffer = reporter.getBuffer();
+			final Lock lock = serializeFilters ? filterListLock.writeLock() : filterListLock.readLock();
+			final AbstractFilter firstFilter = filters.get(FIRST_FILTER);
+			long count = 0;
+			lock.lock();
+			try{
+				for(int i = 0; i < batchSize; i++){
+					final Object bufferElement = buffer.getBufferElement();
+					if(bufferElement instanceof AbstractVertex){
+						firstFilter.putVertex((AbstractVertex)bufferElement);
+					}else if(bufferElement instanceof AbstractEdge){
+						firstFilter.putEdge((AbstractEdge)bufferElement);
+					}else if(bufferElement == null){
+						if(removeReporters.contains(reporter)){
+							reporters.remove(reporter);
+							removeReporters.remove(reporter);
+						}
+						break;
+					}
+					count++;
+				}
+			}finally{
+				lock.unlock();
+				dispatchedCount += count;
+			}
+			return count;
+		}
+	}
+}
@@ -27,10 +27,14 @@ import java.security.PrivateKey;
 import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.Signature;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -50,6 +54,12 @@ import spade.vertex.opm.Process;
  * This class is used to represent query responses using sets for edges and
  * vertices.
  *
+ * The edges are indexed by their child and by their parent vertex for getParents,
+ * getChildren and getLineage. The index is built on the first use, kept up to date
+ * on the addition of edges, and dropped (to be rebuilt on the next use) on the removal
+ * of edges. The index is by vertex identity (i.e. big hash) so the vertices must not
+ * be changed after being added to the graph, same as for the vertex and edge sets.
+ *
  * @author Dawood Tariq
  */
 public class Graph implements Serializable{
@@ -61,6 +71,15 @@ public class Graph implements Serializable{
 	private final Set<AbstractVertex> vertexSet = new LinkedHashSet<>();
 	private final Set<AbstractEdge> edgeSet = new LinkedHashSet<>();
 
+	/**
+	 * View of the edge set returned to the callers to keep the indexes up to date
+	 */
+	private transient Set<AbstractEdge> indexedEdgeSet;
+	/**
+	 * Edges by the child vertex and by the parent vertex. Null if not built yet.
+	 */
+	private transient Map<AbstractVertex, List<AbstractEdge>> edgesByChildVertex, edgesByParentVertex;
+
 	/**
 	 * Fields for discrepancy check and query params
 	 */
@@ -98,7 +117,7 @@ public class Graph implements Serializable{
 	 *         not successful if the edge is already present in the storage.
 	 */
 	public boolean putEdge(AbstractEdge incomingEdge){
-		return edgeSet.add(incomingEdge);
+		return edgeSet().add(incomingEdge);
 	}
 
 	/**
@@ -142,7 +161,109 @@ public class Graph implements Serializable{
 	 * @return The set containing edges.
 	 */
 	public Set<AbstractEdge> edgeSet(){
-		return edgeSet;
+		if(indexedEdgeSet == null){
+			indexedEdgeSet = new IndexedEdgeSet();
+		}
+		return indexedEdgeSet;
+	}
+
+	/**
+	 * Edge set which updates the indexes on changes
+	 */
+	private final class IndexedEdgeSet extends AbstractSet<AbstractEdge>{
+		@Override
+		public int size(){
+			return edgeSet.size();
+		}
+
+		@Override
+		public boolean contains(Object object){
+			return edgeSet.contains(object);
+		}
+
+		@Override
+		public boolean add(AbstractEdge edge){
+			if(edgeSet.add(edge)){
+				if(edgesByChildVertex != null){
+					indexEdge(edge);
+				}
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public boolean remove(Object object){
+			if(edgeSet.remove(object)){
+				dropIndexes();
+				return true;
+			}
+			return false;
+		}
+
+		@Override
+		public void clear(){
+			edgeSet.clear();
+			dropIndexes();
+		}
+
+		@Override
+		public Iterator<AbstractEdge> iterator(){
+			final Iterator<AbstractEdge> iterator = edgeSet.iterator();
+			return new Iterator<AbstractEdge>(){
+				@Override
+				public boolean hasNext(){
+					return iterator.hasNext();
+				}
+
+				@Override
+				public AbstractEdge next(){
+					return iterator.next();
+				}
+
+				@Override
+				public void remove(){
+					iterator.remove();
+					dropIndexes();
+				}
+			};
+		}
+	}
+
+	private void dropIndexes(){
+		edgesByChildVertex = null;
+		edgesByParentVertex = null;
+	}
+
+	private void indexEdge(AbstractEdge edge){
+		addToIndex(edgesByChildVertex, edge.getChildVertex(), edge);
+		addToIndex(edgesByParentVertex, edge.getParentVertex(), edge);
+	}
+
+	private static void addToIndex(Map<AbstractVertex, List<AbstractEdge>> index, AbstractVertex vertex, AbstractEdge edge){
+		List<AbstractEdge> edges = index.get(vertex);
+		if(edges == null){
+			edges = new ArrayList<AbstractEdge>(2);
+			index.put(vertex, edges);
+		}
+		edges.add(edge);
+	}
+
+	/**
+	 * Builds the indexes if not built already
+	 * 
+	 * @param byChildVertex true for the index by child vertex, and false for the index by parent vertex
+	 * @return the index
+	 */
+	private Map<AbstractVertex, List<AbstractEdge>> getIndex(boolean byChildVertex){
+		if(edgesByChildVertex == null){
+			edgesByChildVertex = new HashMap<AbstractVertex, List<AbstractEdge>>();
+			edgesByParentVertex = new HashMap<AbstractVertex, List<AbstractEdge>>();
+			for(AbstractEdge edge : edgeSet){
+				indexEdge(edge);
+			}
+		}
+		return byChildVertex ? edgesByChildVertex : edgesByParentVertex;
 	}
 
 	public String getHostName(){
@@ -318,28 +439,22 @@ public class Graph implements Serializable{
 	}
 
 	public Graph getParents(Set<AbstractVertex> childVertices){
-		Graph result = new Graph();
-		for(AbstractEdge edge : edgeSet){
-			AbstractVertex edgeChildVertex = edge.getChildVertex();
-			for(AbstractVertex childVertex : childVertices){
-				if(childVertex.bigHashCode().equals(edgeChildVertex.bigHashCode())){
-					result.putVertex(edgeChildVertex);
-					result.putVertex(edge.getParentVertex());
-					result.putEdge(edge);
-				}
-			}
-		}
-		return result;
+		return getAdjacent(childVertices, true);
 	}
 
 	public Graph getChildren(Set<AbstractVertex> parentVertices){
+		return getAdjacent(parentVertices, false);
+	}
+
+	private Graph getAdjacent(Set<AbstractVertex> vertices, boolean byChildVertex){
+		final Map<AbstractVertex, List<AbstractEdge>> index = getIndex(byChildVertex);
 		Graph result = new Graph();
-		for(AbstractEdge edge : edgeSet){
-			AbstractVertex edgeParentVertex = edge.getParentVertex();
-			for(AbstractVertex parentVertex : parentVertices){
-				if(parentVertex.bigHashCode().equals(edgeParentVertex.bigHashCode())){
-					result.putVertex(edgeParentVertex);
+		for(AbstractVertex vertex : vertices){
+			final List<AbstractEdge> edges = index.get(vertex);
+			if(edges != null){
+				for(AbstractEdge edge : edges){
 					result.putVertex(edge.getChildVertex());
+					result.putVertex(edge.getParentVertex());
 					result.putEdge(edge);
 				}
 			}
@@ -366,52 +481,40 @@ public class Graph implements Serializable{
 		Graph resultGraph = new Graph();
 
 		for(final Direction direction : directions){
-			Graph directionGraph = new Graph();
-
-			Set<AbstractVertex> currentLevelVertices = new HashSet<AbstractVertex>();
-			currentLevelVertices.addAll(startingVertices);
-
-			int currentDepth = 1;
-			while(currentLevelVertices.size() > 0){
-				if(currentDepth > maxDepth){
-					break;
-				}else{
-					Graph adjacentGraph = null;
-					if(Direction.kAncestor.equals(direction)){
-						adjacentGraph = getParents(currentLevelVertices);
-					}else if(Direction.kDescendant.equals(direction)){
-						adjacentGraph = getChildren(currentLevelVertices);
-					}else{
-						throw new RuntimeException(
-								"Unexpected direction: '" + direction + "'. Expected: Ancestor or Descendant");
+			final boolean ancestors;
+			if(Direction.kAncestor.equals(direction)){
+				ancestors = true;
+			}else if(Direction.kDescendant.equals(direction)){
+				ancestors = false;
+			}else{
+				throw new RuntimeException(
+						"Unexpected direction: '" + direction + "'. Expected: Ancestor or Descendant");
+			}
+			final Map<AbstractVertex, List<AbstractEdge>> index = getIndex(ancestors);
+
+			// Breadth-first from the starting vertices where each vertex is expanded once (per direction)
+			final Set<AbstractVertex> visitedVertices = new HashSet<AbstractVertex>(startingVertices);
+			List<AbstractVertex> currentLevelVertices = new ArrayList<AbstractVertex>(visitedVertices);
+
+			for(int currentDepth = 1; currentDepth <= maxDepth && !currentLevelVertices.isEmpty(); currentDepth++){
+				final List<AbstractVertex> nextLevelVertices = new ArrayList<AbstractVertex>();
+				for(final AbstractVertex vertex : currentLevelVertices){
+					final List<AbstractEdge> edges = index.get(vertex);
+					if(edges == null){
+						continue;
 					}
-
-					if(adjacentGraph.vertexSet().isEmpty()){
-						break;
-					}else{
-						// Get only new vertices
-						// Get all the vertices in the adjacent graph
-						// Remove all the current level vertices from it and that means we have the only
-						// new vertices (i.e. next level)
-						// Remove all the vertices which are already in the the result graph to avoid
-						// doing duplicate work
-						Set<AbstractVertex> nextLevelVertices = new HashSet<AbstractVertex>();
-						nextLevelVertices.addAll(adjacentGraph.vertexSet());
-						nextLevelVertices.removeAll(currentLevelVertices);
-						nextLevelVertices.removeAll(directionGraph.vertexSet());
-
-						currentLevelVertices.clear();
-						currentLevelVertices.addAll(nextLevelVertices);
-
-						// Update the result graph after so that we don't remove all the relevant
-						// vertices
-						directionGraph.union(adjacentGraph);
-
-						currentDepth++;
+					for(final AbstractEdge edge : edges){
+						resultGraph.putVertex(edge.getChildVertex());
+						resultGraph.putVertex(edge.getParentVertex());
+						resultGraph.putEdge(edge);
+						final AbstractVertex adjacentVertex = ancestors ? edge.getParentVertex() : edge.getChildVertex();
+						if(visitedVertices.add(adjacentVertex)){
+							nextLevelVertices.add(adjacentVertex);
+						}
 					}
 				}
+				currentLevelVertices = nextLevelVertices;
 			}
-			resultGraph.union(directionGraph);
 		}
 		return resultGraph;
 	}
@@ -477,6 +580,37 @@ public class Graph implements Serializable{
 		}
 	}
 
+	/**
+	 * Storage which writes the vertices and edges put into it to the writer in the format. The footer is written
+	 * on shutdown.
+	 */
+	public static final AbstractStorage createExportStorage(final ExportGraph.Format format,
+			final BufferedWriter writer, final boolean closeWriter) throws Exception{
+		if(format == null){
+			throw new RuntimeException("Cannot export to NULL format");
+		}
+		final boolean printHeader = true, printFooter = true;
+		switch(format){
+			case kJson:
+				final boolean printRecordSeparator = true;
+				final JSON jsonStorage = new JSON();
+				jsonStorage.initializeUnsafe(
+						writer,  
+						printHeader, printFooter, printRecordSeparator,
+						System.lineSeparator(), closeWriter);
+				return jsonStorage;
+			case kDot:
+				final Graphviz dotStorage = new Graphviz();
+				dotStorage.initializeUnsafe(
+						writer, 
+						DotConfiguration.getDefaultConfigFilePath(), 
+						printHeader, printFooter, System.lineSeparator(),
+						closeWriter);
+				return dotStorage;
+			default: throw new RuntimeException("Unhandled graph export format: " + format);
+		}
+	}
+
 	public static final void exportGraphUsingWriter(
 			final ExportGraph.Format format,
 			final BufferedWriter writer, final Graph graph,
@@ -486,30 +620,7 @@ public class Graph implements Serializable{
 		}else if(format == null){
 			throw new RuntimeException("Cannot export to NULL format");
 		}else{
-			final AbstractStorage storage;
-			final boolean printHeader = true, printFooter = true;
-			
-			switch(format){
-				case kJson:
-					final boolean printRecordSeparator = true;
-					final JSON jsonStorage = new JSON();
-					jsonStorage.initializeUnsafe(
-							writer,  
-							printHeader, printFooter, printRecordSeparator,
-							System.lineSeparator(), closeWriter);
-					storage = jsonStorage;
-					break;
-				case kDot:
-					final Graphviz dotStorage = new Graphviz();
-					dotStorage.initializeUnsafe(
-							writer, 
-							DotConfiguration.getDefaultConfigFilePath(), 
-							printHeader, printFooter, System.lineSeparator(),
-							closeWriter);
-					storage = dotStorage;
-					break;
-				default: throw new RuntimeException("Unhandled graph export format: " + format);
-			}
+			final AbstractStorage storage = createExportStorage(format, writer, closeWriter);
 
 			try{
 				for(AbstractVertex vertex : graph.vertexSet()){
@@ -0,0 +1,167 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Part of a result graph sent as a stream (see Query.getStreamChunkSize).
+ * 
+ * The first chunk is sent as the result of the query and the rest are sent as objects on their own until the
+ * one marked last. All vertices are sent before the edges. The endpoints of the edges are reference vertices
+ * (only the hash). The first chunk has the host name of the server, and the last chunk has the signature (if the
+ * server has a key) computed over the hashes of all the vertices and edges in the order sent followed by the
+ * nonce. If the server fails after sending the first chunk then the last chunk has the error.
+ */
+public class GraphChunk implements Serializable{
+
+	private static final long serialVersionUID = -3190425513863276107L;
+
+	private final ArrayList<AbstractVertex> vertices = new ArrayList<AbstractVertex>();
+	private final ArrayList<AbstractEdge> edges = new ArrayList<AbstractEdge>();
+	private boolean last = false;
+
+	private String hostName;
+	private byte[] signature;
+	private Serializable error;
+
+	public List<AbstractVertex> getVertices(){
+		return vertices;
+	}
+
+	public List<AbstractEdge> getEdges(){
+		return edges;
+	}
+
+	public int size(){
+		return vertices.size() + edges.size();
+	}
+
+	public boolean isLast(){
+		return last;
+	}
+
+	public void setLast(final boolean last){
+		this.last = last;
+	}
+
+	public String getHostName(){
+		return hostName;
+	}
+
+	public void setHostName(final String hostName){
+		this.hostName = hostName;
+	}
+
+	public byte[] getSignature(){
+		return signature;
+	}
+
+	public void setSignature(final byte[] signature){
+		this.signature = signature;
+	}
+
+	public Serializable getError(){
+		return error;
+	}
+
+	public void setError(final Serializable error){
+		this.error = error;
+	}
+
+	/**
+	 * Adds the hashes of the vertices and the edges in this chunk to the signature (being signed or verified)
+	 */
+	public void updateSignature(final Signature signature) throws Exception{
+		for(final AbstractVertex vertex : vertices){
+			signature.update(vertex.bigHashCodeBytes());
+		}
+		for(final AbstractEdge edge : edges){
+			signature.update(edge.bigHashCodeBytes());
+		}
+	}
+
+	/**
+	 * @return signature initialized for signing with the key of this server or null if there is no key
+	 */
+	public static Signature createSigner() throws Exception{
+		final PrivateKey privateKey = Kernel.getServerPrivateKey("serverprivate");
+		if(privateKey == null){
+			return null;
+		}
+		final SecureRandom secureRandom = new SecureRandom();
+		secureRandom.nextInt();
+		final Signature signature = Signature.getInstance("SHA256withRSA");
+		signature.initSign(privateKey, secureRandom);
+		return signature;
+	}
+
+	/**
+	 * @return signature initialized for verifying with the public key of the server or null if there is no key
+	 */
+	public static Signature createVerifier(final String serverName) throws Exception{
+		if(serverName == null){
+			throw new Exception("NULL host name in graph chunk");
+		}
+		final PublicKey publicKey = Kernel.getServerPublicKey(serverName + ".server.public");
+		if(publicKey == null){
+			return null;
+		}
+		final Signature signature = Signature.getInstance("SHA256withRSA");
+		signature.initVerify(publicKey);
+		return signature;
+	}
+
+	/**
+	 * Adds the nonce (if any) and signs
+	 */
+	public static byte[] sign(final Signature signer, final String nonce) throws Exception{
+		if(nonce != null){
+			signer.update(nonce.getBytes(StandardCharsets.UTF_8));
+		}
+		return signer.sign();
+	}
+
+	/**
+	 * Adds the nonce (if any) and verifies
+	 */
+	public static boolean verify(final Signature verifier, final String nonce, final byte[] signature) throws Exception{
+		if(signature == null){
+			return false;
+		}
+		if(nonce != null){
+			verifier.update(nonce.getBytes(StandardCharsets.UTF_8));
+		}
+		return verifier.verify(signature);
+	}
+
+	@Override
+	public String toString(){
+		return "GraphChunk [vertices=" + vertices.size() + ", edges=" + edges.size() + ", last=" + last
+				+ ", hostName=" + hostName + ", error=" + error + "]";
+	}
+}
@@ -0,0 +1,555 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * A size-bounded, thread-safe set of 128-bit hashes.
+ *
+ * Hashes are given as 32 character hex strings (as returned by bigHashCode) and kept as two longs.
+ * Any other string is first hashed to 128 bits. The set is split into segments, each with its own
+ * lock, and each segment keeps its entries in pre-allocated arrays so that no object is allocated
+ * per entry.
+ *
+ * Eviction policies:
+ * LRU - the least recently used hash is evicted.
+ * W-TinyLFU - new hashes enter a small LRU window. A hash leaving the window replaces the victim of
+ * the main (segmented LRU) region only if it has been seen more often according to a frequency
+ * sketch. Hashes seen repeatedly (like processes and files) are kept over one-off hashes.
+ */
+public final class HashCache{
+
+	public static enum Policy{
+		LRU, WTINYLFU
+	}
+
+	private static final int minimumSegmentCapacity = 64;
+
+	private final Policy policy;
+	private final long maximumSize;
+	private final Segment[] segments;
+	private final int segmentShift;
+
+	private final LongAdder hitCount = new LongAdder();
+	private final LongAdder missCount = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+
+	public HashCache(final long maximumSize, final Policy policy){
+		if(maximumSize < 1 || maximumSize > Integer.MAX_VALUE){
+			throw new IllegalArgumentException("Maximum size must be in range [1, " + Integer.MAX_VALUE + "]: " + maximumSize);
+		}
+		if(policy == null){
+			throw new IllegalArgumentException("NULL policy");
+		}
+		this.policy = policy;
+		this.maximumSize = maximumSize;
+
+		int segmentCount = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 4) * 2 - 1);
+		while(segmentCount > 1 && maximumSize / segmentCount < minimumSegmentCapacity){
+			segmentCount >>>= 1;
+		}
+		this.segments = new Segment[segmentCount];
+		this.segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+		for(int i = 0; i < segmentCount; i++){
+			// Spread the remainder over the first segments
+			final int capacity = (int)(maximumSize / segmentCount + (i < maximumSize % segmentCount ? 1 : 0));
+			this.segments[i] = policy == Policy.LRU ? new LRUSegment(capacity) : new WTinyLFUSegment(capacity);
+		}
+	}
+
+	/**
+	 * Returns true if the hash is in the cache and records the access.
+	 *
+	 * @param hash Hex string of the hash
+	 * @return True if present
+	 */
+	public boolean contains(final String hash){
+		if(hash == null){
+			return false;
+		}
+		final long high, low;
+		if(isHex128(hash)){
+			high = hexToLong(hash, 0);
+			low = hexToLong(hash, 16);
+		}else{
+			final byte[] bytes = Hashing.murmur3_128().hashString(hash, StandardCharsets.UTF_8).asBytes();
+			high = bytesToLong(bytes, 0);
+			low = bytesToLong(bytes, 8);
+		}
+		final long spread = spread(high, low);
+		final Segment segment = segments[segmentShift == 64 ? 0 : (int)(spread >>> segmentShift)];
+		final boolean present;
+		synchronized(segment){
+			present = segment.contains(high, low, spread);
+		}
+		if(present){
+			hitCount.increment();
+		}else{
+			missCount.increment();
+		}
+		return present;
+	}
+
+	/**
+	 * Adds the hash to the cache evicting another hash if full.
+	 *
+	 * @param hash Hex string of the hash
+	 */
+	public void add(final String hash){
+		if(hash == null){
+			return;
+		}
+		final long high, low;
+		if(isHex128(hash)){
+			high = hexToLong(hash, 0);
+			low = hexToLong(hash, 16);
+		}else{
+			final byte[] bytes = Hashing.murmur3_128().hashString(hash, StandardCharsets.UTF_8).asBytes();
+			high = bytesToLong(bytes, 0);
+			low = bytesToLong(bytes, 8);
+		}
+		final long spread = spread(high, low);
+		final Segment segment = segments[segmentShift == 64 ? 0 : (int)(spread >>> segmentShift)];
+		final int evicted;
+		synchronized(segment){
+			evicted = segment.add(high, low, spread);
+		}
+		if(evicted > 0){
+			evictionCount.add(evicted);
+		}
+	}
+
+	public long size(){
+		long size = 0;
+		for(final Segment segment : segments){
+			synchronized(segment){
+				size += segment.size;
+			}
+		}
+		return size;
+	}
+
+	public Policy getPolicy(){
+		return policy;
+	}
+
+	public long getMaximumSize(){
+		return maximumSize;
+	}
+
+	public long getHitCount(){
+		return hitCount.sum();
+	}
+
+	public long getMissCount(){
+		return missCount.sum();
+	}
+
+	public long getEvictionCount(){
+		return evictionCount.sum();
+	}
+
+	/**
+	 * @return Hits divided by lookups, or 0 if no lookups
+	 */
+	public double getHitRate(){
+		final long hits = getHitCount();
+		final long lookups = hits + getMissCount();
+		return lookups == 0 ? 0 : (double)hits / lookups;
+	}
+
+	public String getStats(){
+		return String.format("Policy=%s, Size=%s, Maximum-size=%s, Hits=%s, Misses=%s, Hit-rate=%.4f, Evictions=%s",
+				policy, size(), maximumSize, getHitCount(), getMissCount(), getHitRate(), getEvictionCount());
+	}
+
+	private static boolean isHex128(final String string){
+		if(string.length() != 32){
+			return false;
+		}
+		for(int i = 0; i < 32; i++){
+			if(Character.digit(string.charAt(i), 16) < 0){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static long hexToLong(final String string, final int from){
+		long value = 0;
+		for(int i = from; i < from + 16; i++){
+			value = (value << 4) | Character.digit(string.charAt(i), 16);
+		}
+		return value;
+	}
+
+	private static long bytesToLong(final byte[] bytes, final int from){
+		long value = 0;
+		for(int i = from; i < from + 8; i++){
+			value = (value << 8) | (bytes[i] & 0xFF);
+		}
+		return value;
+	}
+
+	// Finalization mix of murmur3 so that non-uniform keys are spread too
+	private static long spread(final long high, final long low){
+		long h = high ^ (low * 0x9E3779B97F4A7C15L);
+		h ^= h >>> 33;
+		h *= 0xFF51AFD7ED558CCDL;
+		h ^= h >>> 33;
+		h *= 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Open addressing (linear probing) table of entries plus doubly linked lists through the entries.
+	 * Entry indices are used as pointers. Not thread-safe.
+	 */
+	private static abstract class Segment{
+		private static final int NIL = -1;
+
+		final int capacity;
+		private final long[] keyHigh, keyLow;
+		private final int[] prev, next;
+		private final int[] table; // entry index + 1. 0 means empty
+		private final int tableMask;
+		private int freeHead;
+		int size = 0;
+
+		Segment(final int capacity){
+			this.capacity = capacity;
+			// One extra entry so that a new entry can be inserted before choosing what to evict
+			final int entries = capacity + 1;
+			this.keyHigh = new long[entries];
+			this.keyLow = new long[entries];
+			this.prev = new int[entries];
+			this.next = new int[entries];
+			this.table = new int[Integer.highestOneBit(entries * 2 - 1) * 2];
+			this.tableMask = table.length - 1;
+			for(int i = 0; i < entries; i++){
+				next[i] = i + 1 < entries ? i + 1 : NIL;
+			}
+			this.freeHead = 0;
+		}
+
+		abstract boolean contains(long high, long low, long spread);
+
+		/**
+		 * @return Number of entries evicted
+		 */
+		abstract int add(long high, long low, long spread);
+
+		final int find(final long high, final long low, final long spread){
+			int slot = (int)spread & tableMask;
+			while(true){
+				final int value = table[slot];
+				if(value == 0){
+					return NIL;
+				}
+				final int entry = value - 1;
+				if(keyHigh[entry] == high && keyLow[entry] == low){
+					return entry;
+				}
+				slot = (slot + 1) & tableMask;
+			}
+		}
+
+		final int insert(final long high, final long low, final long spread){
+			final int entry = freeHead;
+			freeHead = next[entry];
+			keyHigh[entry] = high;
+			keyLow[entry] = low;
+			prev[entry] = next[entry] = NIL;
+			int slot = (int)spread & tableMask;
+			while(table[slot] != 0){
+				slot = (slot + 1) & tableMask;
+			}
+			table[slot] = entry + 1;
+			size++;
+			return entry;
+		}
+
+		final void delete(final int entry){
+			int slot = (int)spread(keyHigh[entry], keyLow[entry]) & tableMask;
+			while(table[slot] != entry + 1){
+				slot = (slot + 1) & tableMask;
+			}
+			// Backward shift deletion to keep probe sequences without tombstones
+			int hole = slot;
+			table[hole] = 0;
+			int current = hole;
+			while(true){
+				current = (current + 1) & tableMask;
+				final int value = table[current];
+				if(value == 0){
+					break;
+				}
+				final int home = (int)spread(keyHigh[value - 1], keyLow[value - 1]) & tableMask;
+				final boolean homeBetween = hole <= current
+						? (hole < home && home <= current)
+						: (hole < home || home <= current);
+				if(!homeBetween){
+					table[hole] = value;
+					table[current] = 0;
+					hole = current;
+				}
+			}
+			next[entry] = freeHead;
+			freeHead = entry;
+			size--;
+		}
+
+		final long frequencyKey(final int entry){
+			return spread(keyHigh[entry], keyLow[entry]);
+		}
+
+		/**
+		 * Doubly linked list through the entries. Least recently used at the head.
+		 */
+		final class AccessQueue{
+			int head = NIL, tail = NIL, size = 0;
+
+			void addLast(final int entry){
+				prev[entry] = tail;
+				next[entry] = NIL;
+				if(tail == NIL){
+					head = entry;
+				}else{
+					next[tail] = entry;
+				}
+				tail = entry;
+				size++;
+			}
+
+			void remove(final int entry){
+				final int p = prev[entry], n = next[entry];
+				if(p == NIL){
+					head = n;
+				}else{
+					next[p] = n;
+				}
+				if(n == NIL){
+					tail = p;
+				}else{
+					prev[n] = p;
+				}
+				prev[entry] = next[entry] = NIL;
+				size--;
+			}
+
+			void moveToLast(final int entry){
+				if(tail != entry){
+					remove(entry);
+					addLast(entry);
+				}
+			}
+		}
+	}
+
+	private static final class LRUSegment extends Segment{
+		private final AccessQueue queue = new AccessQueue();
+
+		LRUSegment(final int capacity){
+			super(capacity);
+		}
+
+		@Override
+		boolean contains(final long high, final long low, final long spread){
+			final int entry = find(high, low, spread);
+			if(entry < 0){
+				return false;
+			}
+			queue.moveToLast(entry);
+			return true;
+		}
+
+		@Override
+		int add(final long high, final long low, final long spread){
+			final int existing = find(high, low, spread);
+			if(existing >= 0){
+				queue.moveToLast(existing);
+				return 0;
+			}
+			queue.addLast(insert(high, low, spread));
+			if(size > capacity){
+				final int victim = queue.head;
+				queue.remove(victim);
+				delete(victim);
+				return 1;
+			}
+			return 0;
+		}
+	}
+
+	private static final class WTinyLFUSegment extends Segment{
+		private static final byte WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+		private final byte[] region;
+		private final AccessQueue window = new AccessQueue();
+		private final AccessQueue probation = new AccessQueue();
+		private final AccessQueue protectedQueue = new AccessQueue();
+		private final int windowCapacity, mainCapacity, protectedCapacity;
+		private final FrequencySketch sketch;
+
+		WTinyLFUSegment(final int capacity){
+			super(capacity);
+			this.region = new byte[capacity + 1];
+			this.windowCapacity = Math.max(1, capacity / 100);
+			this.mainCapacity = capacity - windowCapacity;
+			this.protectedCapacity = mainCapacity * 8 / 10;
+			this.sketch = new FrequencySketch(capacity);
+		}
+
+		@Override
+		boolean contains(final long high, final long low, final long spread){
+			sketch.increment(spread);
+			final int entry = find(high, low, spread);
+			if(entry < 0){
+				return false;
+			}
+			onHit(entry);
+			return true;
+		}
+
+		private void onHit(final int entry){
+			switch(region[entry]){
+				case WINDOW:
+					window.moveToLast(entry);
+					break;
+				case PROBATION:
+					probation.remove(entry);
+					region[entry] = PROTECTED;
+					protectedQueue.addLast(entry);
+					if(protectedQueue.size > protectedCapacity){
+						final int demoted = protectedQueue.head;
+						protectedQueue.remove(demoted);
+						region[demoted] = PROBATION;
+						probation.addLast(demoted);
+					}
+					break;
+				default:
+					protectedQueue.moveToLast(entry);
+					break;
+			}
+		}
+
+		@Override
+		int add(final long high, final long low, final long spread){
+			final int existing = find(high, low, spread);
+			if(existing >= 0){
+				onHit(existing);
+				return 0;
+			}
+			final int entry = insert(high, low, spread);
+			region[entry] = WINDOW;
+			window.addLast(entry);
+			if(window.size <= windowCapacity){
+				return 0;
+			}
+			// The least recently used in the window is the candidate for the main region
+			final int candidate = window.head;
+			window.remove(candidate);
+			if(probation.size + protectedQueue.size < mainCapacity){
+				region[candidate] = PROBATION;
+				probation.addLast(candidate);
+				return 0;
+			}
+			final int victim = probation.size > 0 ? probation.head : protectedQueue.head;
+			if(victim < 0 || sketch.frequency(frequencyKey(candidate)) <= sketch.frequency(frequencyKey(victim))){
+				delete(candidate);
+			}else{
+				if(region[victim] == PROBATION){
+					probation.remove(victim);
+				}else{
+					protectedQueue.remove(victim);
+				}
+				delete(victim);
+				region[candidate] = PROBATION;
+				probation.addLast(candidate);
+			}
+			return 1;
+		}
+	}
+
+	/**
+	 * Count-min sketch of 4-bit counters with a depth of 4. All counters are halved once the number
+	 * of increments reaches ten times the width so that old frequencies age out.
+	 */
+	private static final class FrequencySketch{
+		private static final long[] seeds = {
+				0xC3A5C85C97CB3127L, 0xB492B66FBE98F273L, 0x9AE16A3B2F90404FL, 0xCBF29CE484222325L};
+		private static final long resetMask = 0x7777777777777777L;
+
+		private final long[] table;
+		private final int tableMask;
+		private final int sampleSize;
+		private int additions = 0;
+
+		FrequencySketch(final int capacity){
+			// 16 counters per long
+			final int longs = Integer.highestOneBit(Math.max(16, capacity / 4) * 2 - 1);
+			this.table = new long[longs];
+			this.tableMask = longs - 1;
+			this.sampleSize = (int)Math.min(Integer.MAX_VALUE, 10L * capacity);
+		}
+
+		private int indexOf(final long hash, final int depth){
+			long h = (hash + seeds[depth]) * seeds[depth];
+			h += h >>> 32;
+			return (int)h & tableMask;
+		}
+
+		private int shiftOf(final long hash, final int depth){
+			// Counter within the long (0-15) times 4 bits
+			return (int)((hash >>> (depth * 4 + 32)) & 15) << 2;
+		}
+
+		void increment(final long hash){
+			boolean incremented = false;
+			for(int depth = 0; depth < 4; depth++){
+				final int index = indexOf(hash, depth);
+				final int shift = shiftOf(hash, depth);
+				if(((table[index] >>> shift) & 15) < 15){
+					table[index] += 1L << shift;
+					incremented = true;
+				}
+			}
+			if(incremented && ++additions >= sampleSize){
+				for(int i = 0; i < table.length; i++){
+					table[i] = (table[i] >>> 1) & resetMask;
+				}
+				additions >>>= 1;
+			}
+		}
+
+		int frequency(final long hash){
+			int frequency = 15;
+			for(int depth = 0; depth < 4; depth++){
+				frequency = Math.min(frequency, (int)((table[indexOf(hash, depth)] >>> shiftOf(hash, depth)) & 15));
+			}
+			return frequency;
+		}
+	}
+}
@@ -19,23 +19,67 @@
  */
 package spade.core;
 
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 
+import com.google.common.hash.Hashing;
+
+import spade.utility.FileUtility;
+
 /*
  * This is the class that should contains all the functions that can be required for
  * hashing of vertices and edges.
  */
 public abstract class HashHelper{
 
+	private static final String keyAlgorithm = "algorithm";
+
 	// Default hasher
-	public final static HashHelper defaultInstance = new MD5HashHelper();
+	public final static HashHelper defaultInstance = createDefaultInstance();
 	
 	public final String hashAlgorithmName;
 	public final int bytesInHash;
+
+	private final ThreadLocal<StreamingHasher> streamingHashers = new ThreadLocal<StreamingHasher>(){
+		@Override
+		protected StreamingHasher initialValue(){
+			return newStreamingHasher();
+		}
+	};
+
+	/*
+	 * MD5 unless a different algorithm is set in the config file. The config file is optional
+	 * because this class is also used by the clients. Settings is not used to avoid loading
+	 * the kernel settings in the clients.
+	 */
+	private static HashHelper createDefaultInstance(){
+		final String configFilePath = "cfg/" + HashHelper.class.getName() + ".config";
+		String algorithm = null;
+		try{
+			if(FileUtility.doesPathExist(configFilePath)){
+				algorithm = FileUtility.readConfigFileAsKeyValueMap(configFilePath, "=").get(keyAlgorithm);
+			}
+		}catch(Throwable t){
+			Logger.getLogger(HashHelper.class.getName()).log(Level.WARNING,
+					"Failed to read file '" + configFilePath + "'. Using md5.", t);
+		}
+		if(algorithm == null || algorithm.trim().equalsIgnoreCase(MD5HashHelper.name)){
+			return new MD5HashHelper();
+		}else if(algorithm.trim().equalsIgnoreCase(Murmur3HashHelper.name)){
+			return new Murmur3HashHelper();
+		}else{
+			Logger.getLogger(HashHelper.class.getName()).log(Level.WARNING,
+					"Unknown hash algorithm '" + algorithm + "' in file '" + configFilePath + "'. Using md5.");
+			return new MD5HashHelper();
+		}
+	}
 	
 	private HashHelper(final String hashAlgorithmName, final int bytesInHash){
 		if(hashAlgorithmName == null){
@@ -50,6 +94,21 @@ public abstract class HashHelper{
 	
 	public abstract byte[] hashToByteArray(final String data);
 	public abstract String hashToHexString(final String data);
+
+	protected abstract StreamingHasher newStreamingHasher();
+
+	/**
+	 * Returns the reset hasher for the current thread.
+	 * 
+	 * Must not be used while another hash is being computed on the same thread using it.
+	 * 
+	 * @return StreamingHasher
+	 */
+	public final StreamingHasher getStreamingHasher(){
+		final StreamingHasher hasher = streamingHashers.get();
+		hasher.start();
+		return hasher;
+	}
 	
 	public final boolean isValidHashByteArray(final byte[] hash){
 		if(hash != null){
@@ -108,10 +167,114 @@ public abstract class HashHelper{
 		return this.getClass().getSimpleName() + " [hashAlgorithmName=" + hashAlgorithmName + ", bytesInHash=" + bytesInHash + "]";
 	}
 	
+	/**
+	 * Feeds the UTF-8 bytes of strings to a hash function through a reusable buffer.
+	 * 
+	 * The bytes fed are the same as the ones from String.getBytes(UTF-8) so the result is
+	 * the same as hashing the concatenated string.
+	 */
+	public static abstract class StreamingHasher{
+
+		private final byte[] buffer = new byte[8192];
+		private int position = 0;
+
+		protected abstract void reset();
+		protected abstract void update(final byte[] bytes, final int offset, final int length);
+		protected abstract byte[] digest();
+
+		private final void start(){
+			position = 0;
+			reset();
+		}
+
+		private final void flush(){
+			if(position > 0){
+				update(buffer, 0, position);
+				position = 0;
+			}
+		}
+
+		private final void putByte(final int b){
+			if(position == buffer.length){
+				flush();
+			}
+			buffer[position++] = (byte)b;
+		}
+
+		public final StreamingHasher put(final char c){
+			if(c < 0x80){
+				putByte(c);
+			}else if(c < 0x800){
+				putByte(0xc0 | (c >> 6));
+				putByte(0x80 | (c & 0x3f));
+			}else if(Character.isSurrogate(c)){
+				putByte('?'); // unpaired surrogate
+			}else{
+				putByte(0xe0 | (c >> 12));
+				putByte(0x80 | ((c >> 6) & 0x3f));
+				putByte(0x80 | (c & 0x3f));
+			}
+			return this;
+		}
+
+		public final StreamingHasher put(final String string){
+			final int length = string.length();
+			for(int i = 0; i < length; i++){
+				final char c = string.charAt(i);
+				if(c < 0x80){
+					if(position == buffer.length){
+						flush();
+					}
+					buffer[position++] = (byte)c;
+				}else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(string.charAt(i + 1))){
+					final int codePoint = Character.toCodePoint(c, string.charAt(++i));
+					putByte(0xf0 | (codePoint >> 18));
+					putByte(0x80 | ((codePoint >> 12) & 0x3f));
+					putByte(0x80 | ((codePoint >> 6) & 0x3f));
+					putByte(0x80 | (codePoint & 0x3f));
+				}else{
+					put(c);
+				}
+			}
+			return this;
+		}
+
+		/**
+		 * Same bytes as the ones of the string returned by AbstractMap.toString() i.e. {k1=v1, k2=v2}
+		 * 
+		 * @param annotations Map to hash
+		 * @return StreamingHasher
+		 */
+		public final StreamingHasher putAnnotations(final Map<String, String> annotations){
+			put('{');
+			boolean first = true;
+			for(final Map.Entry<String, String> entry : annotations.entrySet()){
+				if(!first){
+					put(',').put(' ');
+				}
+				first = false;
+				put(String.valueOf(entry.getKey())).put('=').put(String.valueOf(entry.getValue()));
+			}
+			put('}');
+			return this;
+		}
+
+		public final byte[] finishToByteArray(){
+			flush();
+			return digest();
+		}
+
+		public final String finishToHexString(){
+			return Hex.encodeHexString(finishToByteArray());
+		}
+	}
+
 	public static final class MD5HashHelper extends HashHelper{
-		
+
+		private static final String name = "md5";
+
 		private MD5HashHelper(){
-			super("md5", 16);
+			super(name, 16);
 		}
 		
 		@Override
@@ -124,6 +287,65 @@ public abstract class HashHelper{
 			return DigestUtils.md5Hex(data);
 		}
 
+		@Override
+		protected StreamingHasher newStreamingHasher(){
+			final MessageDigest messageDigest = DigestUtils.getMd5Digest();
+			return new StreamingHasher(){
+				@Override
+				protected void reset(){
+					messageDigest.reset();
+				}
+				@Override
+				protected void update(final byte[] bytes, final int offset, final int length){
+					messageDigest.update(bytes, offset, length);
+				}
+				@Override
+				protected byte[] digest(){
+					return messageDigest.digest();
+				}
+			};
+		}
+	}
+
+	/**
+	 * 128-bit MurmurHash3 (x64). Not compatible with hashes stored using md5.
+	 */
+	public static final class Murmur3HashHelper extends HashHelper{
+
+		private static final String name = "murmur3_128";
+
+		private Murmur3HashHelper(){
+			super(name, 16);
+		}
+
+		@Override
+		public byte[] hashToByteArray(String data){
+			return getStreamingHasher().put(data).finishToByteArray();
+		}
+
+		@Override
+		public String hashToHexString(String data){
+			return getStreamingHasher().put(data).finishToHexString();
+		}
+
+		@Override
+		protected StreamingHasher newStreamingHasher(){
+			return new StreamingHasher(){
+				private com.google.common.hash.Hasher hasher;
+				@Override
+				protected void reset(){
+					hasher = Hashing.murmur3_128().newHasher();
+				}
+				@Override
+				protected void update(final byte[] bytes, final int offset, final int length){
+					hasher.putBytes(bytes, offset, length);
+				}
+				@Override
+				protected byte[] digest(){
+					return hasher.hash().asBytes();
+				}
+			};
+		}
 	}
 	
 	private static List<Byte> toList(final byte[] bytes){
@@ -196,6 +196,13 @@ public class Kernel
 		}
 	}
     
+	/**
+	 * @return the query server which runs the client connections and admits the queries. Null if not started yet.
+	 */
+	public static QueryServer getQueryServer(){
+		return queryServer;
+	}
+
 	public static AbstractStorage getStorage(String storageName){
 		for(AbstractStorage storage : storages){
 			// Search for the given storage in the storages set.
@@ -276,10 +283,11 @@ public class Kernel
     private static Set<AbstractStorage> removeStorages;
     private static Set<AbstractAnalyzer> removeAnalyzers;
 
-    private static final int BATCH_BUFFER_ELEMENTS = 1000000;
+    private static Dispatcher dispatcher;
+    private static volatile QueryServer queryServer;
+
     private static final int MAIN_THREAD_SLEEP_DELAY = 10;
     private static final int REMOVE_WAIT_DELAY = 100;
-    private static final int FIRST_FILTER = 0;
     private static final Logger logger = Logger.getLogger(Kernel.class.getName());
     private static boolean ANDROID_PLATFORM = false;
 
@@ -292,7 +300,7 @@ public class Kernel
     private static final String SET_QUERY_STORAGE_STRING = "set storage <class name>";
     private static final String REMOVE_REPORTER_STORAGE_SKETCH_ANALYZER_STRING = "remove reporter|analyzer|storage|sketch <class name>";
     private static final String REMOVE_FILTER_TRANSFORMER_STRING = "remove filter|transformer <position number>";
-    private static final String LIST_STRING = "list reporters|storages|analyzers|filters|sketches|transformers|all";
+    private static final String LIST_STRING = "list reporters|storages|analyzers|filters|sketches|transformers|dispatcher|queries|all";
     private static final String CONFIG_STRING = "config load|save <filename>";
     public static final String EXIT_STRING = "exit";
 
@@ -384,6 +392,8 @@ public class Kernel
 
         registerMainThread();
 
+        queryServer = new QueryServer();
+
         registerControlThread();
 
         // Load the SPADE configuration from the default config file.
@@ -516,107 +526,68 @@ public class Kernel
     }
 
     /**
-     * Initialize the main thread. This thread performs critical
+     * Initialize the main threads. These threads perform critical
      * provenance-related work inside SPADE.
-     * It extracts provenance objects (vertices, edges) from the
-     * buffers, adds the source_reporter annotation to each object which is
-     * class name of the reporter, and then sends these objects to the filter list.
-     * This thread is also used for cleanly removing reporters and storages
+     * They extract provenance objects (vertices, edges) from the
+     * buffers and then send these objects to the filter list. Each reporter
+     * is drained by exactly one thread to keep the order of its objects.
+     * These threads are also used for cleanly removing reporters and storages
      * through the control commands and also when shutting down. This is done by
      * ensuring that once a reporter is marked for removal, the provenance objects from
      * its buffer are completely flushed.
      */
     private static void registerMainThread()
     {
-        Runnable mainRunnable = new Runnable()
+        Runnable housekeepingRunnable = new Runnable()
         {
             @Override
             public void run()
             {
-                try
+                if (!removeStorages.isEmpty() || !removeAnalyzers.isEmpty())
                 {
-                    while (true)
+                    // Storages are shut down only when no provenance object is inside the filter list.
+                    dispatcher.runExclusively(new Runnable()
                     {
-//                        if (flushTransactions)
-//                        {
-//                            // Flushing of transactions is also handled by this thread to ensure that
-//                            // there are no errors/problems when using storages that are sensitive to
-//                            // thread-context for their transactions.
-//                            // For example, this is true for the embedded neo4j graph database.
-//                            for (AbstractStorage currentStorage : storages)
-//                            {
-//                                currentStorage.flushTransactions(false);
-//                            }
-//                            flushTransactions = false;
-//                        }
-
-                        if (!removeStorages.isEmpty())
-                        {
-                            // Check if a storage is marked for removal.
-                            // If it is, shut it down and remove it from the list.
-                            Iterator<AbstractStorage> iterator = removeStorages.iterator();
-                            while(iterator.hasNext())
-                            {
-                                AbstractStorage currentStorage = iterator.next();
-                                AbstractScreen.shutdownScreens(currentStorage.getScreens());
-                                currentStorage.shutdown();
-                                iterator.remove();
-                            }
-                        }
-                        if (!removeAnalyzers.isEmpty())
-                        {
-                            // Check if an analyzer is marked for removal.
-                            // If it is, shut it down and remove it from the list.
-                            Iterator<AbstractAnalyzer> iterator = removeAnalyzers.iterator();
-                            while(iterator.hasNext())
-                            {
-                                AbstractAnalyzer currentAnalyzer = iterator.next();
-                                currentAnalyzer.shutdown();
-                                iterator.remove();
-                            }
-                        }
-
-                        for (AbstractReporter reporter : reporters)
+                        @Override
+                        public void run()
                         {
-                            // This loop performs the actual task of committing provenance data to
-                            // the storages. Each reporter is selected and the nested loop is used to
-                            // extract buffer elements in a batch manner for increased efficiency.
-                            // The elements are then passed to the filter list.
-                            Buffer buffer = reporter.getBuffer();
-                            for (int i = 0; i < BATCH_BUFFER_ELEMENTS; i++)
-                            {
-                                Object bufferElement = buffer.getBufferElement();
-                                if (bufferElement instanceof AbstractVertex)
-                                {
-                                    AbstractVertex tempVertex = (AbstractVertex) bufferElement;
-                                    filters.get(FIRST_FILTER).putVertex(tempVertex);
-                                }
-                                else if (bufferElement instanceof AbstractEdge)
-                                {
-                                    AbstractEdge tempEdge = (AbstractEdge) bufferElement;
-                                    filters.get(FIRST_FILTER).putEdge(tempEdge);
-                                }
-                                else if (bufferElement == null)
-                                {
-                                    if (removeReporters.contains(reporter))
-                                    {
-                                        removeReporters.remove(reporter);
-                                    }
-                                    break;
-                                }
-                            }
+                            processRemovals();
                         }
-                        Thread.sleep(MAIN_THREAD_SLEEP_DELAY);
-                    }
-                }
-                catch (Exception exception)
-                {
-                    logger.log(Level.SEVERE, "Error registering Main Thread", exception);
+                    });
                 }
             }
         };
-        Thread mainThread = new Thread(mainRunnable, "mainSPADE-Thread");
-        mainThread.start();
+        dispatcher = new Dispatcher(filters, removeReporters, housekeepingRunnable);
+        dispatcher.start();
+    }
+
+    private static void processRemovals()
+    {
+        if (!removeStorages.isEmpty())
+        {
+            // Check if a storage is marked for removal.
+            // If it is, shut it down and remove it from the list.
+            Iterator<AbstractStorage> iterator = removeStorages.iterator();
+            while(iterator.hasNext())
+            {
+                AbstractStorage currentStorage = iterator.next();
+                AbstractScreen.shutdownScreens(currentStorage.getScreens());
+                currentStorage.shutdown();
+                iterator.remove();
+            }
+        }
+        if (!removeAnalyzers.isEmpty())
+        {
+            // Check if an analyzer is marked for removal.
+            // If it is, shut it down and remove it from the list.
+            Iterator<AbstractAnalyzer> iterator = removeAnalyzers.iterator();
+            while(iterator.hasNext())
+            {
+                AbstractAnalyzer currentAnalyzer = iterator.next();
+                currentAnalyzer.shutdown();
+                iterator.remove();
+            }
+        }
     }
 
     /**
@@ -669,8 +640,18 @@ public class Kernel
                     {
                         Socket controlSocket = serverSocket.accept();
                         LocalControlConnection thisConnection = new LocalControlConnection(controlSocket);
-                        Thread connectionThread = new Thread(thisConnection);
-                        connectionThread.start();
+                        if (!queryServer.startControlConnection(thisConnection))
+                        {
+                            logger.log(Level.WARNING, "Too many control connections. Closed the new one");
+                            try
+                            {
+                                controlSocket.close();
+                            }
+                            catch (IOException exception)
+                            {
+                                logger.log(Level.WARNING, "Failed to close control socket", exception);
+                            }
+                        }
                     }
                 }
                 catch (SocketException exception)
@@ -1077,8 +1058,24 @@ public class Kernel
 		final Buffer buffer;
 		final String bufferConfigKey = BlockingBuffer.keyWorkableFreeMemoryPercentageForBuffer;
 		final SimpleEntry<String, String> bufferConfigValueEntry = configMapWithSources.get(bufferConfigKey);
+		final String ringBufferConfigKey = RingBuffer.keyRingBufferCapacity;
+		final SimpleEntry<String, String> ringBufferConfigValueEntry = configMapWithSources.get(ringBufferConfigKey);
 		
-		if(bufferConfigValueEntry == null){
+		if(ringBufferConfigValueEntry != null){
+			final String bufferValue = ringBufferConfigValueEntry.getKey();
+			final String bufferValueSource = ringBufferConfigValueEntry.getValue();
+			try{
+				buffer = new RingBuffer(bufferValue, classObject);
+				logger.log(Level.INFO, "Bounded ring buffer used for reporter '" + classNameString + "' with "
+						+ "'" + ringBufferConfigKey + "'='" + bufferValue + "' from '" + bufferValueSource + "'");
+			}catch(Throwable t){
+				outputStream.println("error: Unable to create buffer using '" + ringBufferConfigKey + "' = "
+						+ "'" + bufferValue + "' from '" + bufferValueSource + "'. " + t.getMessage());
+				logger.log(Level.SEVERE, "error: Unable to create buffer using '" + ringBufferConfigKey + "' = "
+						+ "'" + bufferValue + "' from '" + bufferValueSource + "'. " + classObject, t);
+				return;
+			}
+		}else if(bufferConfigValueEntry == null){
 			buffer = new Buffer();
 			logger.log(Level.INFO, "Default (unlimited) buffer used for reporter '"+classNameString+"'");
 		}else{
@@ -1125,6 +1122,7 @@ public class Kernel
 			// SPADE thread to extract buffer elements.
 			reporter.arguments = arguments;
 			reporters.add(reporter);
+			dispatcher.addReporter(reporter);
 			logger.log(Level.INFO, "Reporter added: {0}", classNameString + " " + arguments);
 			outputStream.println("done");
 			return;
@@ -1744,6 +1742,14 @@ public class Kernel
 
                 break;
 
+            case "dispatcher":
+                dispatcher.printStats(outputStream);
+                break;
+
+            case "queries":
+                queryServer.printStats(outputStream);
+                break;
+
             case "all":
                 listCommand("list reporters ", outputStream);
                 listCommand("list analyzers " , outputStream);
@@ -1751,6 +1757,8 @@ public class Kernel
                 listCommand("list filters " , outputStream);
                 listCommand("list transformers " , outputStream);
                 listCommand("list sketches " , outputStream);
+                listCommand("list dispatcher " , outputStream);
+                listCommand("list queries " , outputStream);
                 break;
 
             default:
@@ -1772,6 +1780,7 @@ public class Kernel
 					long vertexCount = storage.vertexCount;
 					long edgeCount = storage.edgeCount;
 					removeStorages.add(storage);
+					dispatcher.wakeup();
 					found = true;
 					logger.log(Level.INFO, "Shutting down storage: {0}", className);
 					outputStream.print("Shutting down storage " + className + "... ");
@@ -1865,6 +1874,7 @@ public class Kernel
                         	reporter.getBuffer().shutdown();
                             reporter.shutdown();
                             removeReporters.add(reporter);
+                            dispatcher.wakeup();
                             found = true;
                             logger.log(Level.INFO, "Shutting down reporter: {0}", className);
                             outputStream.print("Shutting down reporter " + className + "... ");
@@ -1898,6 +1908,7 @@ public class Kernel
                             // This will enable the main SPADE thread to safely commit any transactions
                             // and then remove the analyzer.
                             removeAnalyzers.add(analyzer);
+                            dispatcher.wakeup();
                             found = true;
                             logger.log(Level.INFO, "Shutting down analyzer: {0}", className);
                             outputStream.print("Shutting down analyzer " + className + "... ");
@@ -2058,6 +2069,8 @@ public class Kernel
                 logger.log(Level.WARNING, null, ex);
             }
         }
+        // Stop the main threads after the last dispatched provenance object.
+        dispatcher.shutdown();
 
         // Shut down filters.
         for (int i = 0; i < filters.size() - 1; i++)
@@ -2092,6 +2105,7 @@ public class Kernel
                 logger.log(Level.SEVERE, null, ex);
             }
         }
+        queryServer.shutdown();
         logger.log(Level.INFO, "SPADE stopped.");
 
         try {
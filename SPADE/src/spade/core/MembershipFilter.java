@@ -0,0 +1,64 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.io.Serializable;
+
+/**
+ * Probabilistic set membership (no false negatives) shared by BloomFilter and ConcurrentBloomFilter so that
+ * the screens can keep loading the filters saved by the previous versions.
+ *
+ * An element added with add(E) must be checked with contains(E), and an array added with add(byte[]) must be
+ * checked with contains(byte[]).
+ *
+ * @param <E> Object type that is to be inserted into the filter.
+ */
+public interface MembershipFilter<E> extends Serializable {
+
+    void add(E element);
+
+    void add(byte[] bytes);
+
+    boolean contains(E element);
+
+    boolean contains(byte[] bytes);
+
+    /**
+     * Removes all the elements.
+     */
+    void clear();
+
+    /**
+     * @return number of elements added after construction or after clear() was called.
+     */
+    int count();
+
+    /**
+     * @return expected number of elements the filter was sized for.
+     */
+    int getExpectedNumberOfElements();
+
+    /**
+     * @return probability of false positives assuming the expected number of elements were added.
+     */
+    double expectedFalsePositiveProbability();
+
+    /**
+     * @return probability of false positives with the current number of elements.
+     */
+    double getFalsePositiveProbability();
+}
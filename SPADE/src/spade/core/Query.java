@@ -19,6 +19,8 @@
  */
 package spade.core;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashSet;
@@ -52,6 +54,20 @@ public class Query implements Serializable{
 	// Only required for local transformation of queries
 	private final QueryMetaData queryMetaData = new QueryMetaData();
 
+	/*
+	 * If greater than 0 then a result graph is sent as a stream of GraphChunk objects with at most these many
+	 * vertices and edges each (instead of a single Graph object). Zero (the default) for clients which do not
+	 * read streams
+	 */
+	private int streamChunkSize = 0;
+
+	/*
+	 * Values bound to the parameters $1, $2, ... in the query (in order). Integer values are bound as numbers and the
+	 * rest as strings. Empty means that $1, $2, ... are graph variables (as in queries without parameters).
+	 * Not final because it is null in a query sent by a peer without parameters (see readObject)
+	 */
+	private ArrayList<Serializable> parameters = new ArrayList<Serializable>();
+
 	public Query(String localName, String remoteName, String query, String queryNonce){
 		this.localName = localName;
 		this.remoteName = remoteName;
@@ -97,12 +113,47 @@ public class Query implements Serializable{
 		return queryMetaData;
 	}
 
+	public int getStreamChunkSize(){
+		return streamChunkSize;
+	}
+
+	public void setStreamChunkSize(final int streamChunkSize){
+		if(streamChunkSize < 0){
+			throw new IllegalArgumentException("Stream chunk size must be non-negative: " + streamChunkSize);
+		}
+		this.streamChunkSize = streamChunkSize;
+	}
+
+	public List<Serializable> getParameters(){
+		return new ArrayList<Serializable>(parameters);
+	}
+
+	public void setParameters(final List<? extends Serializable> parameters){
+		this.parameters.clear();
+		if(parameters != null){
+			for(final Serializable parameter : parameters){
+				if(parameter == null){
+					throw new IllegalArgumentException("NULL query parameter at index: " + this.parameters.size());
+				}
+				this.parameters.add(parameter);
+			}
+		}
+	}
+
+	private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException{
+		in.defaultReadObject();
+		if(parameters == null){
+			parameters = new ArrayList<Serializable>();
+		}
+	}
+
 	@Override
 	public String toString(){
 		return "SPADEQuery ["
 				+ "localName=" + localName 
 				+ ", remoteName=" + remoteName 
 				+ ", query=" + query
+				+ ", parameters=" + parameters
 				+ ", queryNonce=" + queryNonce
 				+ ", success=" + success
 				+ ", error=" + error 
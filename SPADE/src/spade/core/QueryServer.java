@@ -0,0 +1,483 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.utility.HelperFunctions;
+import spade.utility.Result;
+
+/**
+ * Runs the query and the control client connections, and decides when a query is allowed to run against a storage.
+ *
+ * Connections are run by a bounded thread pool. When all the threads are busy, new connections wait in an admission
+ * queue of bounded size, and are rejected once that is full. On a JVM with virtual threads, each connection gets its
+ * own virtual thread instead, and the same limits are enforced with permits.
+ *
+ * A query first waits for a permit of its storage (the number of queries allowed on a storage at the same time) and
+ * then for a global permit (the number of queries running at the same time). By default, a storage allows as many
+ * queries as the global limit. A lower limit can be set for all storages with the key 'query_storage_concurrency', or
+ * per storage with the key 'query_storage_concurrency_<Storage class name>' (for storages which are not thread-safe).
+ *
+ * A query gives up its permits while it waits for the results from other hosts (see 'pauseQuery'). Otherwise, two
+ * hosts resolving lineage through each other would each hold the permit that the other one is waiting for.
+ */
+public final class QueryServer{
+
+	private static final String
+			keyMaxConnections = "query_server_max_connections",
+			keyMaxQueuedConnections = "query_server_max_queued_connections",
+			keyMaxControlConnections = "control_server_max_connections",
+			keyVirtualThreads = "query_server_virtual_threads",
+			keyMaxRunningQueries = "query_server_max_running_queries",
+			keyMaxQueuedQueries = "query_server_max_queued_queries",
+			keyQueueTimeoutMillis = "query_server_queue_timeout_millis",
+			keyStorageConcurrency = "query_storage_concurrency";
+
+	private static final int defaultMaxConnections = 64;
+	private static final int defaultMaxQueuedConnections = 64;
+	private static final int defaultMaxControlConnections = 8;
+	private static final boolean defaultVirtualThreads = true;
+	private static final int defaultMaxRunningQueries = 4;
+	private static final int defaultMaxQueuedQueries = 128;
+	private static final long defaultQueueTimeoutMillis = 300000;
+
+	private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+	private final ConnectionExecutor queryConnections;
+	private final ConnectionExecutor controlConnections;
+
+	private final int maxRunningQueries;
+	private final int maxQueuedQueries;
+	private final long queueTimeoutMillis;
+	private final int defaultStorageLimit;
+
+	private final Semaphore runningQueryPermits;
+	// Storage class name to its permits
+	private final Map<String, StorageLimit> storageLimits = new HashMap<String, StorageLimit>();
+	// Admission of the query running on the thread
+	private final ThreadLocal<Admission> currentAdmission = new ThreadLocal<Admission>();
+
+	private final AtomicInteger queuedQueries = new AtomicInteger(0);
+	private final AtomicInteger runningQueries = new AtomicInteger(0);
+	private final AtomicLong completedQueries = new AtomicLong(0);
+	private final AtomicLong rejectedQueries = new AtomicLong(0);
+	private final AtomicLong totalWaitNanos = new AtomicLong(0);
+	private final AtomicLong maxWaitNanos = new AtomicLong(0);
+	private final AtomicLong totalRunNanos = new AtomicLong(0);
+
+	private static final class StorageLimit{
+		private final int limit;
+		private final Semaphore permits;
+		private final AtomicInteger queued = new AtomicInteger(0);
+		private final AtomicInteger running = new AtomicInteger(0);
+		private StorageLimit(final int limit){
+			this.limit = limit;
+			this.permits = new Semaphore(limit, true);
+		}
+	}
+
+	/**
+	 * Returned by 'admitQuery' and must be passed to 'finishQuery'
+	 */
+	public static final class Admission{
+		private final StorageLimit storageLimit;
+		private final long admittedAtNanos;
+		// False while paused, or if the permits could not be taken back after a pause
+		private boolean holdingPermits = true;
+		private Admission(final StorageLimit storageLimit, final long admittedAtNanos){
+			this.storageLimit = storageLimit;
+			this.admittedAtNanos = admittedAtNanos;
+		}
+	}
+
+	QueryServer(){
+		final boolean virtualThreads = getBooleanSetting(keyVirtualThreads, defaultVirtualThreads);
+		this.queryConnections = new ConnectionExecutor("QueryConnection",
+				(int)getSetting(keyMaxConnections, defaultMaxConnections, 1, Integer.MAX_VALUE),
+				(int)getSetting(keyMaxQueuedConnections, defaultMaxQueuedConnections, 0, Integer.MAX_VALUE),
+				virtualThreads);
+		this.controlConnections = new ConnectionExecutor("ControlConnection",
+				(int)getSetting(keyMaxControlConnections, defaultMaxControlConnections, 1, Integer.MAX_VALUE),
+				0, virtualThreads);
+
+		this.maxRunningQueries = (int)getSetting(keyMaxRunningQueries, defaultMaxRunningQueries, 1, Integer.MAX_VALUE);
+		this.maxQueuedQueries = (int)getSetting(keyMaxQueuedQueries, defaultMaxQueuedQueries, 0, Integer.MAX_VALUE);
+		this.queueTimeoutMillis = getSetting(keyQueueTimeoutMillis, defaultQueueTimeoutMillis, 1, Long.MAX_VALUE);
+		this.defaultStorageLimit = (int)getSetting(keyStorageConcurrency, maxRunningQueries, 1, Integer.MAX_VALUE);
+		this.runningQueryPermits = new Semaphore(maxRunningQueries, true);
+
+		logger.log(Level.INFO, String.format("%s=%s, %s=%s, %s=%s, %s=%s, %s=%s, %s=%s, %s=%s, %s=%s",
+				keyMaxConnections, queryConnections.maxRunning, keyMaxQueuedConnections, queryConnections.maxQueued,
+				keyMaxControlConnections, controlConnections.maxRunning,
+				keyVirtualThreads, queryConnections.isVirtual(),
+				keyMaxRunningQueries, maxRunningQueries, keyMaxQueuedQueries, maxQueuedQueries,
+				keyQueueTimeoutMillis, queueTimeoutMillis, keyStorageConcurrency, defaultStorageLimit));
+	}
+
+	private long getSetting(final String key, final long defaultValue, final long min, final long max){
+		final String value = Settings.getProperty(key);
+		if(value == null){
+			return defaultValue;
+		}
+		final Result<Long> result = HelperFunctions.parseLong(value.trim(), 10, min, max);
+		if(result.error){
+			logger.log(Level.WARNING, "Invalid value for '" + key + "'. Using default '" + defaultValue + "'. "
+					+ result.errorMessage);
+			return defaultValue;
+		}
+		return result.result;
+	}
+
+	private boolean getBooleanSetting(final String key, final boolean defaultValue){
+		final String value = Settings.getProperty(key);
+		if(value == null){
+			return defaultValue;
+		}
+		final Result<Boolean> result = HelperFunctions.parseBoolean(value.trim());
+		if(result.error){
+			logger.log(Level.WARNING, "Invalid value for '" + key + "'. Using default '" + defaultValue + "'. "
+					+ result.errorMessage);
+			return defaultValue;
+		}
+		return result.result;
+	}
+
+	/**
+	 * Runs the query client connection, or queues it if the max number of connections are already running.
+	 *
+	 * @param connection the connection to run
+	 * @return false if the admission queue is full (the caller must close the connection)
+	 */
+	public boolean startQueryConnection(final Runnable connection){
+		return queryConnections.execute(connection);
+	}
+
+	/**
+	 * Runs the control client connection. Control connections are never queued.
+	 *
+	 * @param connection the connection to run
+	 * @return false if the max number of control connections are already running (the caller must close the connection)
+	 */
+	public boolean startControlConnection(final Runnable connection){
+		return controlConnections.execute(connection);
+	}
+
+	/**
+	 * Waits until the query is allowed to run on the storage. Must be followed by 'finishQuery' in a finally block.
+	 *
+	 * @param storage the storage that the query is going to run on
+	 * @return admission to pass to 'finishQuery'
+	 * @throws Exception if the queue is full, the wait timed out, or the thread was interrupted
+	 */
+	public Admission admitQuery(final AbstractStorage storage) throws Exception{
+		final StorageLimit storageLimit = getStorageLimit(storage);
+		// A query which can run right away is never rejected
+		if(queuedQueries.incrementAndGet() > maxQueuedQueries
+				&& !(storageLimit.permits.availablePermits() > 0 && runningQueryPermits.availablePermits() > 0)){
+			queuedQueries.decrementAndGet();
+			rejectedQueries.incrementAndGet();
+			throw new RuntimeException("Query server busy. Queued queries: " + maxQueuedQueries + ". Try again later");
+		}
+		final long queuedAtNanos = System.nanoTime();
+		try{
+			acquirePermits(storageLimit, queuedAtNanos);
+		}finally{
+			queuedQueries.decrementAndGet();
+		}
+
+		final long admittedAtNanos = System.nanoTime();
+		final long waitNanos = admittedAtNanos - queuedAtNanos;
+		totalWaitNanos.addAndGet(waitNanos);
+		long max;
+		while(waitNanos > (max = maxWaitNanos.get()) && !maxWaitNanos.compareAndSet(max, waitNanos)){
+			// retry
+		}
+		final Admission admission = new Admission(storageLimit, admittedAtNanos);
+		currentAdmission.set(admission);
+		return admission;
+	}
+
+	/**
+	 * Releases the permits taken by 'admitQuery'
+	 *
+	 * @param admission returned by 'admitQuery'. Ignored if null.
+	 */
+	public void finishQuery(final Admission admission){
+		if(admission == null){
+			return;
+		}
+		if(currentAdmission.get() == admission){
+			currentAdmission.remove();
+		}
+		totalRunNanos.addAndGet(System.nanoTime() - admission.admittedAtNanos);
+		completedQueries.incrementAndGet();
+		releasePermits(admission);
+	}
+
+	/**
+	 * Gives up the permits of the query running on this thread while it waits for other hosts. Must be followed by
+	 * 'resumeQuery' in a finally block.
+	 *
+	 * @return false if there is no query admitted on this thread (nothing to resume)
+	 */
+	public boolean pauseQuery(){
+		final Admission admission = currentAdmission.get();
+		if(admission == null){
+			return false;
+		}
+		releasePermits(admission);
+		return true;
+	}
+
+	/**
+	 * Waits for the permits given up by 'pauseQuery'
+	 *
+	 * @throws Exception if the wait timed out, or the thread was interrupted
+	 */
+	public void resumeQuery() throws Exception{
+		final Admission admission = currentAdmission.get();
+		if(admission == null || admission.holdingPermits){
+			return;
+		}
+		acquirePermits(admission.storageLimit, System.nanoTime());
+		admission.holdingPermits = true;
+	}
+
+	private void acquirePermits(final StorageLimit storageLimit, final long queuedAtNanos) throws Exception{
+		storageLimit.queued.incrementAndGet();
+		boolean storageAcquired = false;
+		try{
+			final long deadlineNanos = queuedAtNanos + TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+			storageAcquired = storageLimit.permits.tryAcquire(queueTimeoutMillis, TimeUnit.MILLISECONDS);
+			if(!storageAcquired
+					|| !runningQueryPermits.tryAcquire(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS)){
+				rejectedQueries.incrementAndGet();
+				throw new RuntimeException("Timed out after waiting " + queueTimeoutMillis + " millis in the query queue");
+			}
+		}catch(Exception e){
+			if(storageAcquired){
+				storageLimit.permits.release();
+			}
+			throw e;
+		}finally{
+			storageLimit.queued.decrementAndGet();
+		}
+		storageLimit.running.incrementAndGet();
+		runningQueries.incrementAndGet();
+	}
+
+	private void releasePermits(final Admission admission){
+		if(!admission.holdingPermits){
+			return;
+		}
+		admission.holdingPermits = false;
+		runningQueries.decrementAndGet();
+		admission.storageLimit.running.decrementAndGet();
+		runningQueryPermits.release();
+		admission.storageLimit.permits.release();
+	}
+
+	private synchronized StorageLimit getStorageLimit(final AbstractStorage storage){
+		final String storageName = storage.getClass().getSimpleName();
+		StorageLimit storageLimit = storageLimits.get(storageName);
+		if(storageLimit == null){
+			storageLimit = new StorageLimit((int)getSetting(keyStorageConcurrency + "_" + storageName,
+					defaultStorageLimit, 1, Integer.MAX_VALUE));
+			storageLimits.put(storageName, storageLimit);
+		}
+		return storageLimit;
+	}
+
+	public int getQueuedQueries(){
+		return queuedQueries.get();
+	}
+
+	public int getRunningQueries(){
+		return runningQueries.get();
+	}
+
+	public long getCompletedQueries(){
+		return completedQueries.get();
+	}
+
+	public long getRejectedQueries(){
+		return rejectedQueries.get();
+	}
+
+	public final String getStats(){
+		final long completed = completedQueries.get();
+		return String.format("Running=%s/%s, Queued=%s/%s, Completed=%s, Rejected=%s, Average-wait-millis=%.3f, "
+				+ "Max-wait-millis=%.3f, Average-run-millis=%.3f",
+				runningQueries.get(), maxRunningQueries, queuedQueries.get(), maxQueuedQueries, completed,
+				rejectedQueries.get(), completed == 0 ? 0.0 : totalWaitNanos.get() / 1e6 / completed,
+				maxWaitNanos.get() / 1e6, completed == 0 ? 0.0 : totalRunNanos.get() / 1e6 / completed);
+	}
+
+	final void printStats(final PrintStream outputStream){
+		outputStream.println("Queries: " + getStats());
+		synchronized(this){
+			for(final Map.Entry<String, StorageLimit> entry : storageLimits.entrySet()){
+				final StorageLimit storageLimit = entry.getValue();
+				outputStream.println(String.format("\t%s: Running=%s/%s, Queued=%s", entry.getKey(),
+						storageLimit.running.get(), storageLimit.limit, storageLimit.queued.get()));
+			}
+		}
+		outputStream.println("Query connections: " + queryConnections.getStats());
+		outputStream.println("Control connections: " + controlConnections.getStats());
+	}
+
+	final void shutdown(){
+		queryConnections.shutdown();
+		controlConnections.shutdown();
+	}
+
+	/*
+	 * Bounded thread pool, or one virtual thread per connection with the same bounds enforced by permits.
+	 */
+	private final class ConnectionExecutor{
+		private final String name;
+		private final int maxRunning;
+		private final int maxQueued;
+		private final ExecutorService executor;
+		// Only used with virtual threads
+		private final Semaphore runningPermits;
+
+		private final AtomicInteger queued = new AtomicInteger(0);
+		private final AtomicInteger running = new AtomicInteger(0);
+		private final AtomicLong completed = new AtomicLong(0);
+		private final AtomicLong rejected = new AtomicLong(0);
+
+		private ConnectionExecutor(final String name, final int maxRunning, final int maxQueued,
+				final boolean tryVirtualThreads){
+			this.name = name;
+			this.maxRunning = maxRunning;
+			this.maxQueued = maxQueued;
+			final ExecutorService virtualThreadExecutor = tryVirtualThreads ? createVirtualThreadExecutor() : null;
+			if(virtualThreadExecutor != null){
+				this.executor = virtualThreadExecutor;
+				this.runningPermits = new Semaphore(maxRunning, true);
+			}else{
+				final ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(maxRunning, maxRunning,
+						60, TimeUnit.SECONDS,
+						maxQueued == 0 ? new SynchronousQueue<Runnable>() : new LinkedBlockingQueue<Runnable>(maxQueued),
+						new ThreadFactory(){
+							private final AtomicInteger threadNumber = new AtomicInteger(0);
+							@Override
+							public Thread newThread(final Runnable runnable){
+								final Thread thread = new Thread(runnable, name + "-Thread-" + threadNumber.incrementAndGet());
+								thread.setDaemon(true);
+								return thread;
+							}
+						});
+				threadPoolExecutor.allowCoreThreadTimeOut(true);
+				this.executor = threadPoolExecutor;
+				this.runningPermits = null;
+			}
+		}
+
+		/*
+		 * Executors.newVirtualThreadPerTaskExecutor() is only available on Java 21+ (and SPADE builds for older).
+		 */
+		private ExecutorService createVirtualThreadExecutor(){
+			try{
+				return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			}catch(NoSuchMethodException e){
+				return null;
+			}catch(Throwable t){
+				logger.log(Level.WARNING, "Failed to create virtual thread executor for '" + name + "'. Using thread pool", t);
+				return null;
+			}
+		}
+
+		private boolean isVirtual(){
+			return runningPermits != null;
+		}
+
+		private boolean execute(final Runnable connection){
+			if(isVirtual()){
+				if(running.get() + queued.get() >= maxRunning + maxQueued){
+					rejected.incrementAndGet();
+					return false;
+				}
+			}
+			queued.incrementAndGet();
+			try{
+				executor.execute(new Runnable(){
+					@Override
+					public void run(){
+						if(runningPermits != null){
+							try{
+								runningPermits.acquire();
+							}catch(InterruptedException e){
+								// Shutting down
+								queued.decrementAndGet();
+								return;
+							}
+						}
+						queued.decrementAndGet();
+						running.incrementAndGet();
+						try{
+							connection.run();
+						}catch(Throwable t){
+							logger.log(Level.SEVERE, "Unexpected error in '" + name + "'", t);
+						}finally{
+							running.decrementAndGet();
+							completed.incrementAndGet();
+							if(runningPermits != null){
+								runningPermits.release();
+							}
+						}
+					}
+				});
+				return true;
+			}catch(RejectedExecutionException e){
+				queued.decrementAndGet();
+				rejected.incrementAndGet();
+				return false;
+			}
+		}
+
+		private String getStats(){
+			return String.format("Running=%s/%s, Queued=%s/%s, Completed=%s, Rejected=%s, Threads=%s",
+					running.get(), maxRunning, queued.get(), maxQueued, completed.get(), rejected.get(),
+					isVirtual() ? "virtual" : "platform");
+		}
+
+		private void shutdown(){
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,251 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A thread-safe cache of query responses (graphs) bounded by the (estimated) size of the responses in bytes.
+ *
+ * The least recently used response is evicted to make space. A response expires after the time-to-live. A response
+ * computed from a local storage is kept for that storage instance and is also invalidated once the ingest watermark
+ * of the storage has advanced after it was computed (see AbstractStorage.getIngestWatermark). Other responses (e.g.
+ * from remote hosts) only expire.
+ *
+ * The graphs are copied on the way in and out because the callers change the returned graphs (e.g. transformers).
+ */
+public final class ResultCache{
+
+	private static final class Key{
+		// Null if the response was not computed from a local storage. Compared by identity
+		private final AbstractStorage storage;
+		private final String query;
+
+		private Key(final AbstractStorage storage, final String query){
+			this.storage = storage;
+			this.query = query;
+		}
+
+		@Override
+		public int hashCode(){
+			return 31 * System.identityHashCode(storage) + query.hashCode();
+		}
+
+		@Override
+		public boolean equals(final Object object){
+			if(this == object){
+				return true;
+			}
+			if(!(object instanceof Key)){
+				return false;
+			}
+			final Key other = (Key)object;
+			return storage == other.storage && query.equals(other.query);
+		}
+	}
+
+	private static final class Entry{
+		private final Graph graph;
+		private final long bytes;
+		private final long createdAtMillis;
+		// Ingest watermark of the storage of the key before the response was computed
+		private final long ingestWatermark;
+
+		private Entry(final Graph graph, final long bytes, final long createdAtMillis, final long ingestWatermark){
+			this.graph = graph;
+			this.bytes = bytes;
+			this.createdAtMillis = createdAtMillis;
+			this.ingestWatermark = ingestWatermark;
+		}
+	}
+
+	private final long maximumBytes;
+	private final long ttlMillis;
+
+	// Access ordered i.e. least recently used first
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+	private long bytes = 0;
+
+	private long hitCount = 0, missCount = 0, evictionCount = 0, expirationCount = 0, invalidationCount = 0;
+
+	public ResultCache(final long maximumBytes, final long ttlMillis){
+		if(maximumBytes < 1){
+			throw new IllegalArgumentException("Maximum bytes must be greater than 0: " + maximumBytes);
+		}
+		if(ttlMillis < 1){
+			throw new IllegalArgumentException("Time-to-live must be greater than 0: " + ttlMillis);
+		}
+		this.maximumBytes = maximumBytes;
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * @param storage The storage the response was computed from. Null if not computed from a local storage
+	 * @param query Key of the response
+	 * @param atMillis Time at which the response must be valid
+	 * @return Copy of the valid response or null
+	 */
+	public synchronized Graph get(final AbstractStorage storage, final String query, final long atMillis){
+		final Key key = new Key(storage, query);
+		final Entry entry = entries.get(key);
+		if(entry == null){
+			missCount++;
+			return null;
+		}
+		if(atMillis - entry.createdAtMillis > ttlMillis){
+			remove(key, entry);
+			expirationCount++;
+			missCount++;
+			return null;
+		}
+		if(storage != null && entry.ingestWatermark != storage.getIngestWatermark()){
+			remove(key, entry);
+			invalidationCount++;
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		return copy(entry.graph);
+	}
+
+	public Graph get(final AbstractStorage storage, final String query){
+		return get(storage, query, System.currentTimeMillis());
+	}
+
+	/**
+	 * @param storage The storage the response was computed from. Null if not computed from a local storage
+	 * @param query Key of the response
+	 * @param graph The response
+	 * @param ingestWatermark The value of storage.getIngestWatermark() before the response was computed. Ignored if
+	 * the storage is null
+	 */
+	public void put(final AbstractStorage storage, final String query, final Graph graph, final long ingestWatermark){
+		if(query == null || graph == null){
+			return;
+		}
+		final Key key = new Key(storage, query);
+		final long graphBytes = estimateBytes(query, graph);
+		if(graphBytes > maximumBytes){
+			return;
+		}
+		final Entry entry = new Entry(copy(graph), graphBytes, System.currentTimeMillis(), ingestWatermark);
+		synchronized(this){
+			final Entry existing = entries.get(key);
+			if(existing != null){
+				remove(key, existing);
+			}
+			entries.put(key, entry);
+			bytes += entry.bytes;
+			final Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+			while(bytes > maximumBytes && iterator.hasNext()){
+				final Entry eldest = iterator.next().getValue();
+				iterator.remove();
+				bytes -= eldest.bytes;
+				evictionCount++;
+			}
+		}
+	}
+
+	private void remove(final Key key, final Entry entry){
+		entries.remove(key);
+		bytes -= entry.bytes;
+	}
+
+	public synchronized void clear(){
+		entries.clear();
+		bytes = 0;
+	}
+
+	private static Graph copy(final Graph graph){
+		final Graph copy = graph.copy();
+		copy.setHostName(graph.getHostName());
+		return copy;
+	}
+
+	/**
+	 * Rough size of the graph in memory. The strings are counted at two bytes per character plus the object headers
+	 */
+	static long estimateBytes(final String key, final Graph graph){
+		long bytes = 128 + 2L * key.length();
+		for(final AbstractVertex vertex : graph.vertexSet()){
+			bytes += 128;
+			for(final Map.Entry<String, String> annotation : vertex.getCopyOfAnnotations().entrySet()){
+				bytes += 96 + 2L * (annotation.getKey().length() + annotation.getValue().length());
+			}
+		}
+		for(final AbstractEdge edge : graph.edgeSet()){
+			bytes += 160;
+			for(final Map.Entry<String, String> annotation : edge.getCopyOfAnnotations().entrySet()){
+				bytes += 96 + 2L * (annotation.getKey().length() + annotation.getValue().length());
+			}
+		}
+		return bytes;
+	}
+
+	public synchronized int size(){
+		return entries.size();
+	}
+
+	public synchronized long getBytes(){
+		return bytes;
+	}
+
+	public long getMaximumBytes(){
+		return maximumBytes;
+	}
+
+	public long getTTLMillis(){
+		return ttlMillis;
+	}
+
+	public synchronized long getHitCount(){
+		return hitCount;
+	}
+
+	public synchronized long getMissCount(){
+		return missCount;
+	}
+
+	public synchronized long getEvictionCount(){
+		return evictionCount;
+	}
+
+	public synchronized long getExpirationCount(){
+		return expirationCount;
+	}
+
+	public synchronized long getInvalidationCount(){
+		return invalidationCount;
+	}
+
+	public synchronized double getHitRate(){
+		final long lookups = hitCount + missCount;
+		return lookups == 0 ? 0 : (double)hitCount / lookups;
+	}
+
+	public synchronized String getStats(){
+		return String.format("Size=%s, Bytes=%s, Maximum-bytes=%s, TTL-seconds=%s, Hits=%s, Misses=%s, Hit-rate=%.4f, "
+				+ "Evictions=%s, Expirations=%s, Invalidations=%s",
+				entries.size(), bytes, maximumBytes, ttlMillis / 1000, hitCount, missCount, getHitRate(),
+				evictionCount, expirationCount, invalidationCount);
+	}
+}
@@ -0,0 +1,336 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.utility.FileUtility;
+import spade.utility.HelperFunctions;
+import spade.utility.Result;
+
+/**
+ * A bounded buffer backed by a pre-sized ring.
+ *
+ * Any number of reporter threads can put elements. When the ring is full, the reporter thread
+ * is blocked until the kernel takes an element out, or until 'putTimeoutMillis' have passed (in
+ * which case the element is dropped and counted). Once the buffer is shutdown the reporter thread
+ * is not blocked anymore and the elements which do not fit in the ring are kept in an unbounded
+ * overflow queue because the kernel keeps taking elements out until the buffer is empty.
+ *
+ * Slot claiming follows the bounded queue by Dmitry Vyukov where each slot has a sequence number
+ * telling whether it is free for the producer or filled for the consumer at the current lap.
+ */
+public class RingBuffer extends Buffer{
+
+	public static final String keyRingBufferCapacity = "ringBufferCapacity";
+	private static final String keyPutTimeoutMillis = "putTimeoutMillis";
+	private static final String keyReportingIntervalSeconds = "reportingIntervalSeconds";
+
+	private static final int maxCapacity = 1 << 30;
+	// Upper bound on a single wait so that a missed signal can never block a producer forever
+	private static final long maxWaitSliceNanos = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final Logger logger = Logger.getLogger(this.getClass().getName());
+	private final String reporterNameForLogging;
+
+	private final Object[] elements;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong tail = new AtomicLong(0);
+	private final AtomicLong head = new AtomicLong(0);
+	// Elements put after the shutdown which did not fit in the ring. Taken out after the ring
+	private final ConcurrentLinkedQueue<Object> overflow = new ConcurrentLinkedQueue<Object>();
+
+	private final long putTimeoutNanos;
+	private final long reportingIntervalMillis;
+
+	private final ReentrantLock notFullLock = new ReentrantLock();
+	private final Condition notFull = notFullLock.newCondition();
+	private final AtomicInteger waitingProducers = new AtomicInteger(0);
+
+	private final AtomicLong highWaterMark = new AtomicLong(0);
+	private final LongAdder blockedNanos = new LongAdder();
+	private final LongAdder blockedCount = new LongAdder();
+	private final LongAdder droppedCount = new LongAdder();
+	private final LongAdder putCount = new LongAdder();
+	private final LongAdder overflowGetCount = new LongAdder();
+	private final AtomicLong lastReportedAtMillis = new AtomicLong(System.currentTimeMillis());
+
+	public RingBuffer(final String capacityString, final Class<? extends AbstractReporter> reporterClass){
+		this.reporterNameForLogging = reporterClass.getSimpleName();
+
+		final Result<Long> capacityResult = HelperFunctions.parseLong(capacityString, 10, 2, maxCapacity);
+		if(capacityResult.error){
+			throw new RuntimeException("Invalid value for '" + keyRingBufferCapacity + "'. " + capacityResult.errorMessage);
+		}
+
+		final String configFilePath = Settings.getDefaultConfigFilePath(this.getClass());
+		final Map<String, String> map;
+		try{
+			map = FileUtility.readConfigFileAsKeyValueMap(configFilePath, "=");
+		}catch(Throwable t){
+			throw new RuntimeException("Failed to read file '"+configFilePath+"'. " + t.getMessage(), t);
+		}
+
+		final Result<Long> putTimeoutMillisResult = HelperFunctions.parseLong(map.get(keyPutTimeoutMillis), 10, 0, Long.MAX_VALUE);
+		if(putTimeoutMillisResult.error){
+			throw new RuntimeException("Invalid value for '"+keyPutTimeoutMillis+"' in file '"+configFilePath+"'. "
+					+ putTimeoutMillisResult.errorMessage);
+		}
+
+		final Result<Long> reportingIntervalSecondsResult = HelperFunctions.parseLong(map.get(keyReportingIntervalSeconds), 10, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		if(reportingIntervalSecondsResult.error){
+			throw new RuntimeException("Invalid value for '"+keyReportingIntervalSeconds+"' in file '"+configFilePath+"'. "
+					+ reportingIntervalSecondsResult.errorMessage);
+		}
+
+		// Round up to the next power of two to index with a mask
+		final int capacity = 1 << (64 - Long.numberOfLeadingZeros(capacityResult.result - 1));
+		this.elements = new Object[capacity];
+		this.sequences = new AtomicLongArray(capacity);
+		for(int i = 0; i < capacity; i++){
+			this.sequences.set(i, i);
+		}
+		this.mask = capacity - 1;
+		this.putTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(putTimeoutMillisResult.result);
+		this.reportingIntervalMillis = reportingIntervalSecondsResult.result.intValue() * 1000L;
+
+		log(Level.INFO, String.format("%s=%s, %s=%s, %s=%s",
+				keyRingBufferCapacity, capacity,
+				keyPutTimeoutMillis, putTimeoutMillisResult.result + (putTimeoutNanos > 0 ? "" : "(wait forever)"),
+				keyReportingIntervalSeconds, reportingIntervalSecondsResult.result.intValue()));
+	}
+
+	@Override
+	public final boolean putVertex(final AbstractVertex incomingVertex){
+		if(incomingVertex == null){
+			return false;
+		}
+		return put(incomingVertex);
+	}
+
+	@Override
+	public final boolean putEdge(final AbstractEdge incomingEdge){
+		if((incomingEdge == null)
+				|| (incomingEdge.getChildVertex() == null)
+				|| (incomingEdge.getParentVertex() == null)){
+			return false;
+		}
+		return put(incomingEdge);
+	}
+
+	@Override
+	public final Object getBufferElement(){
+		report();
+		Object element = poll();
+		if(element == null){
+			element = overflow.poll();
+			if(element != null){
+				overflowGetCount.increment();
+			}
+		}else if(waitingProducers.get() > 0){
+			notFullLock.lock();
+			try{
+				notFull.signalAll();
+			}finally{
+				notFullLock.unlock();
+			}
+		}
+		return element;
+	}
+
+	@Override
+	public final boolean isEmpty(){
+		return size() == 0;
+	}
+
+	@Override
+	public final int size(){
+		// Read head first so that the difference is never negative
+		final long currentHead = head.get();
+		final long currentTail = tail.get();
+		final int ringSize = (int)Math.max(0, currentTail - currentHead);
+		return overflow.isEmpty() ? ringSize : ringSize + overflow.size();
+	}
+
+	public final int getCapacity(){
+		return elements.length;
+	}
+
+	public final long getHighWaterMark(){
+		return highWaterMark.get();
+	}
+
+	public final long getBlockedMillis(){
+		return TimeUnit.NANOSECONDS.toMillis(blockedNanos.sum());
+	}
+
+	public final long getBlockedCount(){
+		return blockedCount.sum();
+	}
+
+	public final long getDroppedCount(){
+		return droppedCount.sum();
+	}
+
+	public final long getPutCount(){
+		return putCount.sum();
+	}
+
+	public final long getGetCount(){
+		return head.get() + overflowGetCount.sum();
+	}
+
+	public final String getStats(){
+		return String.format("Size=%s, Capacity=%s, High-water-mark=%s, Blocked-count=%s, Blocked-millis=%s, Dropped=%s, "
+				+ "Get-count=%s, Put-count=%s",
+				size(), getCapacity(), getHighWaterMark(), getBlockedCount(), getBlockedMillis(), getDroppedCount(),
+				getGetCount(), getPutCount());
+	}
+
+	private final boolean put(final Object element){
+		report();
+		// Once an element has overflowed the rest follow it to keep the order
+		final boolean stored = overflow.isEmpty() && (offer(element) || (!isShutdown() && putBlocking(element)));
+		if(!stored){
+			if(!isShutdown()){
+				droppedCount.increment();
+				return false;
+			}
+			overflow.add(element);
+		}
+		putCount.increment();
+		final long currentSize = size();
+		if(currentSize > highWaterMark.get()){
+			long currentMark;
+			while(currentSize > (currentMark = highWaterMark.get())){
+				if(highWaterMark.compareAndSet(currentMark, currentSize)){
+					break;
+				}
+			}
+		}
+		signalPut();
+		return true;
+	}
+
+	private final boolean putBlocking(final Object element){
+		final long startNanos = System.nanoTime();
+		blockedCount.increment();
+		waitingProducers.incrementAndGet();
+		notFullLock.lock();
+		try{
+			while(!offer(element)){
+				if(isShutdown()){
+					// Not throttled anymore. The element goes to the overflow queue
+					return false;
+				}
+				final long waitNanos;
+				if(putTimeoutNanos > 0){
+					final long remainingNanos = putTimeoutNanos - (System.nanoTime() - startNanos);
+					if(remainingNanos <= 0){
+						return false;
+					}
+					waitNanos = Math.min(remainingNanos, maxWaitSliceNanos);
+				}else{
+					waitNanos = maxWaitSliceNanos;
+				}
+				// The consumer can only signal once this thread is waiting because the lock is held
+				notFull.awaitNanos(waitNanos);
+			}
+			return true;
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			return false;
+		}finally{
+			notFullLock.unlock();
+			waitingProducers.decrementAndGet();
+			blockedNanos.add(System.nanoTime() - startNanos);
+		}
+	}
+
+	private final boolean offer(final Object element){
+		long position = tail.get();
+		while(true){
+			final int index = (int)(position & mask);
+			final long difference = sequences.get(index) - position;
+			if(difference == 0){
+				if(tail.compareAndSet(position, position + 1)){
+					elements[index] = element;
+					// Publishes the element to the consumer
+					sequences.set(index, position + 1);
+					return true;
+				}
+				position = tail.get();
+			}else if(difference < 0){
+				return false; // full
+			}else{
+				position = tail.get(); // another producer claimed this slot
+			}
+		}
+	}
+
+	private final Object poll(){
+		long position = head.get();
+		while(true){
+			final int index = (int)(position & mask);
+			final long difference = sequences.get(index) - (position + 1);
+			if(difference == 0){
+				if(head.compareAndSet(position, position + 1)){
+					final Object element = elements[index];
+					elements[index] = null;
+					// Frees the slot for the producer in the next lap
+					sequences.set(index, position + mask + 1);
+					return element;
+				}
+				position = head.get();
+			}else if(difference < 0){
+				return null; // empty or the producer has not published yet
+			}else{
+				position = head.get();
+			}
+		}
+	}
+
+	private final void log(final Level level, final String msg){
+		logger.log(level, "["+reporterNameForLogging+"] " + msg);
+	}
+
+	private final void report(){
+		if(reportingIntervalMillis > 0){
+			final long lastReportedAt = lastReportedAtMillis.get();
+			final long now = System.currentTimeMillis();
+			if((now - lastReportedAt) > reportingIntervalMillis){
+				if(lastReportedAtMillis.compareAndSet(lastReportedAt, now)){
+					log(Level.INFO, getStats());
+				}
+			}
+		}
+	}
+}
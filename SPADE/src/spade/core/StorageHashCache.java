@@ -0,0 +1,202 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hashes of the vertices and edges stored by one storage instance (see Cache.newStorageHashCache).
+ *
+ * A storage skips a vertex or an edge whose hash is present. A hash is pending from when the element is
+ * handed to the database until the batch with it is committed. Only committed hashes are added to the
+ * size-bounded caches (see HashCache). The pending hashes of a failed batch, or of the elements in a batch
+ * which failed, are discarded so that those elements are stored again when they are seen next.
+ */
+public final class StorageHashCache{
+
+	private final Logger logger = Logger.getLogger(StorageHashCache.class.getName());
+
+	private final String storageName;
+	// Null if disabled
+	private final HashCache vertexCache;
+	private final HashCache edgeCache;
+	private final long reportingIntervalMillis;
+	private final AtomicLong lastReportedAtMillis = new AtomicLong(System.currentTimeMillis());
+
+	private final Set<String> pendingVertexHashes = ConcurrentHashMap.newKeySet();
+	private final Set<String> pendingEdgeHashes = ConcurrentHashMap.newKeySet();
+
+	StorageHashCache(final String storageName, final HashCache vertexCache, final HashCache edgeCache,
+			final long reportingIntervalMillis){
+		this.storageName = storageName;
+		this.vertexCache = vertexCache;
+		this.edgeCache = edgeCache;
+		this.reportingIntervalMillis = reportingIntervalMillis;
+	}
+
+	/**
+	 * @param vertexHash Hash of the vertex
+	 * @return True if the vertex has been stored recently or is pending
+	 */
+	public boolean isVertexPresent(final String vertexHash){
+		if(vertexCache == null){
+			return false;
+		}
+		report();
+		return pendingVertexHashes.contains(vertexHash) || vertexCache.contains(vertexHash);
+	}
+
+	/**
+	 * @param edgeHash Hash of the edge
+	 * @return True if the edge has been stored recently or is pending
+	 */
+	public boolean isEdgePresent(final String edgeHash){
+		if(edgeCache == null){
+			return false;
+		}
+		report();
+		return pendingEdgeHashes.contains(edgeHash) || edgeCache.contains(edgeHash);
+	}
+
+	/**
+	 * @return A new (empty) batch of pending hashes
+	 */
+	public Batch newBatch(){
+		return new Batch();
+	}
+
+	public double getVertexHitRate(){
+		return vertexCache == null ? 0 : vertexCache.getHitRate();
+	}
+
+	public double getEdgeHitRate(){
+		return edgeCache == null ? 0 : edgeCache.getHitRate();
+	}
+
+	/**
+	 * @return Hit-rate metrics of the vertex and edge hash caches
+	 */
+	public String getStats(){
+		return storageName + " vertex cache: [" + (vertexCache == null ? "disabled" : vertexCache.getStats()) + "], "
+				+ storageName + " edge cache: [" + (edgeCache == null ? "disabled" : edgeCache.getStats()) + "], "
+				+ "Pending: [vertices=" + pendingVertexHashes.size() + ", edges=" + pendingEdgeHashes.size() + "]";
+	}
+
+	private void report(){
+		if(reportingIntervalMillis > 0){
+			final long lastReportedAt = lastReportedAtMillis.get();
+			final long now = System.currentTimeMillis();
+			if((now - lastReportedAt) > reportingIntervalMillis
+					&& lastReportedAtMillis.compareAndSet(lastReportedAt, now)){
+				logger.log(Level.INFO, getStats());
+			}
+		}
+	}
+
+	/**
+	 * Hashes handed to the database in one batch (or transaction). Reusable after commit or discard.
+	 */
+	public final class Batch{
+
+		private final List<String> vertexHashes = new ArrayList<String>();
+		private final List<String> edgeHashes = new ArrayList<String>();
+
+		private Batch(){}
+
+		/**
+		 * Called by the storage after handing the vertex to the database.
+		 */
+		public synchronized void addVertex(final String vertexHash){
+			if(vertexCache != null && vertexHash != null && pendingVertexHashes.add(vertexHash)){
+				vertexHashes.add(vertexHash);
+			}
+		}
+
+		/**
+		 * Called by the storage after handing the edge to the database.
+		 */
+		public synchronized void addEdge(final String edgeHash){
+			if(edgeCache != null && edgeHash != null && pendingEdgeHashes.add(edgeHash)){
+				edgeHashes.add(edgeHash);
+			}
+		}
+
+		/**
+		 * Called by the storage after the batch has been committed.
+		 */
+		public void commit(){
+			commit(Collections.<String>emptySet());
+		}
+
+		/**
+		 * Called by the storage after the batch has been committed with some elements not stored.
+		 * 
+		 * @param failedHashes Hashes of the vertices and edges in the batch which were not stored
+		 */
+		public synchronized void commit(final Set<String> failedHashes){
+			for(final String vertexHash : vertexHashes){
+				if(!failedHashes.contains(vertexHash)){
+					vertexCache.add(vertexHash);
+				}
+				pendingVertexHashes.remove(vertexHash);
+			}
+			for(final String edgeHash : edgeHashes){
+				if(!failedHashes.contains(edgeHash)){
+					edgeCache.add(edgeHash);
+				}
+				pendingEdgeHashes.remove(edgeHash);
+			}
+			vertexHashes.clear();
+			edgeHashes.clear();
+		}
+
+		/**
+		 * Called by the storage if the batch (or any row in it) failed.
+		 */
+		public synchronized void discard(){
+			for(final String vertexHash : vertexHashes){
+				pendingVertexHashes.remove(vertexHash);
+			}
+			for(final String edgeHash : edgeHashes){
+				pendingEdgeHashes.remove(edgeHash);
+			}
+			vertexHashes.clear();
+			edgeHashes.clear();
+		}
+
+		/**
+		 * Commits if success is true, discards otherwise.
+		 */
+		public void completed(final boolean success){
+			if(success){
+				commit();
+			}else{
+				discard();
+			}
+		}
+	}
+}
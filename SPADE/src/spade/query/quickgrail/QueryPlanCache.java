@@ -0,0 +1,121 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.quickgrail;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import spade.query.quickgrail.parser.ParseProgram;
+
+/**
+ * Bounded LRU cache of parsed queries keyed on the normalized query text.
+ * 
+ * Only the parse tree is cached because resolving it into instructions binds it to the symbols and the graphs in
+ * the query environment at that time (which differ from query to query). The cached parse trees are shared
+ * between executors and must not be modified (see ParseProgram.bindParameters).
+ */
+final class QueryPlanCache{
+
+	private final int maxSize;
+	private final LinkedHashMap<String, ParseProgram> cache;
+
+	QueryPlanCache(final int maxSize){
+		this.maxSize = maxSize;
+		this.cache = new LinkedHashMap<String, ParseProgram>(16, 0.75f, true){
+			private static final long serialVersionUID = 6006281716591473101L;
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, ParseProgram> eldest){
+				return size() > QueryPlanCache.this.maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @return the cached parse tree of the normalized query or null
+	 */
+	ParseProgram get(final String normalizedQuery){
+		if(maxSize <= 0){
+			return null;
+		}
+		synchronized(cache){
+			return cache.get(normalizedQuery);
+		}
+	}
+
+	void put(final String normalizedQuery, final ParseProgram parseProgram){
+		if(maxSize <= 0){
+			return;
+		}
+		synchronized(cache){
+			cache.put(normalizedQuery, parseProgram);
+		}
+	}
+
+	/**
+	 * Collapses runs of whitespace outside of quoted strings and names into a single space (or a single newline if
+	 * the run had one, because comments end at a newline). Parses the same as the original query.
+	 */
+	static String normalize(final String query){
+		final StringBuilder normalized = new StringBuilder(query.length());
+		char quote = 0;
+		boolean inWhitespace = false, newLine = false;
+		for(int i = 0; i < query.length(); i++){
+			final char c = query.charAt(i);
+			if(quote != 0){
+				normalized.append(c);
+				if(c == '\\' && i + 1 < query.length()){
+					normalized.append(query.charAt(++i));
+				}else if(c == quote){
+					quote = 0;
+				}
+				continue;
+			}
+			if(c == ' ' || c == '\t' || c == '\r' || c == '\n'){
+				inWhitespace = true;
+				newLine = newLine || c == '\n';
+				continue;
+			}
+			if(inWhitespace){
+				if(normalized.length() > 0){
+					normalized.append(newLine ? '\n' : ' ');
+				}
+				inWhitespace = false;
+				newLine = false;
+			}
+			if(c == '\'' || c == '"'){
+				quote = c;
+			}else if(c == '#' || c == '%'){
+				// The lexer reads a comment till the newline (if any). Copied as is because it can have quotes
+				final int end = query.indexOf('\n', i);
+				if(end > i){
+					normalized.append(query, i, end);
+					i = end - 1;
+					continue;
+				}
+			}
+			normalized.append(c);
+		}
+		if(newLine && normalized.length() > 0){
+			// Trailing comment needs the newline
+			normalized.append('\n');
+		}
+		return normalized.toString();
+	}
+}
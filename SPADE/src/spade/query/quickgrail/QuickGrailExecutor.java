@@ -19,6 +19,8 @@
  */
 package spade.query.quickgrail;
 
+import java.io.BufferedWriter;
+import java.io.FileWriter;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.io.StringWriter;
@@ -30,24 +32,42 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import spade.core.AbstractEdge;
 import spade.core.AbstractStorage;
 import spade.core.AbstractVertex;
+import spade.core.Cache;
 import spade.core.Edge;
+import spade.core.GraphChunk;
 import spade.core.Kernel;
 import spade.core.Query;
+import spade.core.QueryServer;
+import spade.core.ResultCache;
 import spade.core.Settings;
 import spade.core.Vertex;
 import spade.query.quickgrail.core.AbstractQueryEnvironment;
 import spade.query.quickgrail.core.EnvironmentVariable;
+import spade.query.quickgrail.core.ExportCursor;
 import spade.query.quickgrail.core.GraphDescription;
 import spade.query.quickgrail.core.GraphStats;
 import spade.query.quickgrail.core.Program;
 import spade.query.quickgrail.core.QueriedEdge;
 import spade.query.quickgrail.core.QueryInstructionExecutor;
+import spade.query.quickgrail.core.QueryPlanOptimizer;
 import spade.query.quickgrail.core.QuickGrailQueryResolver;
 import spade.query.quickgrail.core.QuickGrailQueryResolver.PredicateOperator;
 import spade.query.quickgrail.entities.Graph;
@@ -65,6 +85,7 @@ import spade.query.quickgrail.instruction.ExportGraph.Format;
 import spade.query.quickgrail.instruction.GetAdjacentVertex;
 import spade.query.quickgrail.instruction.GetEdge;
 import spade.query.quickgrail.instruction.GetEdgeEndpoint;
+import spade.query.quickgrail.instruction.GetFilteredLineage;
 import spade.query.quickgrail.instruction.GetLineage;
 import spade.query.quickgrail.instruction.GetLineage.Direction;
 import spade.query.quickgrail.instruction.GetLink;
@@ -87,9 +108,13 @@ import spade.query.quickgrail.instruction.StatGraph;
 import spade.query.quickgrail.instruction.SubtractGraph;
 import spade.query.quickgrail.instruction.UnionGraph;
 import spade.query.quickgrail.parser.DSLParserWrapper;
+import spade.query.quickgrail.parser.ParseCommand;
 import spade.query.quickgrail.parser.ParseProgram;
+import spade.query.quickgrail.parser.ParseStatement;
+import spade.query.quickgrail.parser.ParseVariable;
 import spade.query.quickgrail.types.LongType;
 import spade.query.quickgrail.types.StringType;
+import spade.query.quickgrail.utility.QuickGrailPredicateTree;
 import spade.query.quickgrail.utility.QuickGrailPredicateTree.PredicateNode;
 import spade.query.quickgrail.utility.ResultTable;
 import spade.query.quickgrail.utility.Schema;
@@ -99,6 +124,7 @@ import spade.utility.DiscrepancyDetector;
 import spade.utility.FileUtility;
 import spade.utility.HelperFunctions;
 import spade.utility.RemoteSPADEQueryConnection;
+import spade.utility.RemoteSPADEQueryConnectionPool;
 import spade.utility.Result;
 
 /**
@@ -114,6 +140,38 @@ public class QuickGrailExecutor{
 	private static final String configKeyDumpLimit = "dumpLimit", configKeyVisualizeLimit = "visualizeLimit"; 
 	private long exportGraphDumpLimit, exportGraphVisualizeLimit;
 
+	// Max vertices and edges per chunk of a streamed export (to the client or to a file on the server)
+	private static final String configKeyExportChunkSize = "exportChunkSize";
+	private int exportChunkSize;
+
+	// Max parsed queries to keep. 0 to disable
+	private static final String configKeyPlanCacheSize = "planCacheSize";
+	private int planCacheSize;
+
+	// Rewrite the resolved program to materialize fewer intermediate graphs (see QueryPlanOptimizer)
+	private static final String configKeyOptimize = "optimize";
+	private boolean optimize;
+
+	// 'explain <query>' to get the plan of the query without executing it
+	private static final Pattern explainPattern = Pattern.compile("^\\s*explain\\s+(.*)$",
+			Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+	private static final String configKeyRemoteThreads = "remoteThreads",
+			configKeyRemoteConnectionsPerHost = "remoteConnectionsPerHost",
+			configKeyRemoteConnectionIdleSeconds = "remoteConnectionIdleSeconds",
+			configKeyRemoteTimeoutSeconds = "remoteTimeoutSeconds",
+			configKeyRemotePartialResults = "remotePartialResults";
+	private int remoteThreads, remoteConnectionsPerHost;
+	private long remoteConnectionIdleMillis, remoteTimeoutMillis;
+	// Keep the results from the other hosts if resolution at a host fails or times out
+	private boolean remotePartialResults;
+
+	// Shared by all the executors. Created on first remote resolution.
+	private static ExecutorService remoteExecutor;
+	private static RemoteSPADEQueryConnectionPool remoteConnectionPool;
+	// Shared by all the executors. Created by the first executor.
+	private static QueryPlanCache planCache;
+
 	private final AbstractQueryEnvironment queryEnvironment;
 	private final QueryInstructionExecutor instructionExecutor;
 
@@ -151,29 +209,146 @@ public class QuickGrailExecutor{
 			}
 			exportGraphVisualizeLimit = visualizeLimitResult.result;
 			
-			logger.log(Level.INFO, "Globals: {0}={1}, {2}={3}", 
+			exportChunkSize = parseConfigLong(map, configKeyExportChunkSize, 1, Integer.MAX_VALUE).intValue();
+			planCacheSize = parseConfigLong(map, configKeyPlanCacheSize, 0, Integer.MAX_VALUE).intValue();
+			Result<Boolean> optimizeResult = HelperFunctions.parseBoolean(map.get(configKeyOptimize));
+			if(optimizeResult.error){
+				throw new RuntimeException("Invalid '"+configKeyOptimize+"' value. " + optimizeResult.toErrorString());
+			}
+			optimize = optimizeResult.result;
+			
+			remoteThreads = parseConfigLong(map, configKeyRemoteThreads, 1, 1024).intValue();
+			remoteConnectionsPerHost = parseConfigLong(map, configKeyRemoteConnectionsPerHost, 1, 1024).intValue();
+			remoteConnectionIdleMillis = parseConfigLong(map, configKeyRemoteConnectionIdleSeconds, 0, Integer.MAX_VALUE) * 1000;
+			remoteTimeoutMillis = parseConfigLong(map, configKeyRemoteTimeoutSeconds, 1, Integer.MAX_VALUE) * 1000;
+			Result<Boolean> partialResultsResult = HelperFunctions.parseBoolean(map.get(configKeyRemotePartialResults));
+			if(partialResultsResult.error){
+				throw new RuntimeException("Invalid '"+configKeyRemotePartialResults+"' value. " + partialResultsResult.toErrorString());
+			}
+			remotePartialResults = partialResultsResult.result;
+			
+			logger.log(Level.INFO, "Globals: {0}={1}, {2}={3}, {4}={5}, {6}={7}, {8}={9}, {10}={11}, {12}={13}, {14}={15}, {16}={17}, {18}={19}", 
 					new Object[]{
 							configKeyDumpLimit, String.valueOf(exportGraphDumpLimit),
-							configKeyVisualizeLimit, String.valueOf(exportGraphVisualizeLimit)
+							configKeyVisualizeLimit, String.valueOf(exportGraphVisualizeLimit),
+							configKeyExportChunkSize, String.valueOf(exportChunkSize),
+							configKeyPlanCacheSize, String.valueOf(planCacheSize),
+							configKeyOptimize, String.valueOf(optimize),
+							configKeyRemoteThreads, String.valueOf(remoteThreads),
+							configKeyRemoteConnectionsPerHost, String.valueOf(remoteConnectionsPerHost),
+							configKeyRemoteConnectionIdleSeconds, String.valueOf(remoteConnectionIdleMillis / 1000),
+							configKeyRemoteTimeoutSeconds, String.valueOf(remoteTimeoutMillis / 1000),
+							configKeyRemotePartialResults, String.valueOf(remotePartialResults)
 							});
 		}catch(Exception e){
 			throw new RuntimeException("Failed to initialize globals in file '"+configFilePath+"'. " + e.getMessage());
 		}
 	}
 
+	private static Long parseConfigLong(Map<String, String> map, String key, long min, long max){
+		Result<Long> result = HelperFunctions.parseLong(map.get(key), 10, min, max);
+		if(result.error){
+			throw new RuntimeException("Invalid '"+key+"' value. " + result.toErrorString());
+		}
+		return result.result;
+	}
+
+	private synchronized static ExecutorService getRemoteExecutor(final int threads){
+		if(remoteExecutor == null){
+			final AtomicInteger threadCount = new AtomicInteger();
+			remoteExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+				@Override
+				public Thread newThread(Runnable runnable){
+					Thread thread = new Thread(runnable, "QuickGrail-remote-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return remoteExecutor;
+	}
+
+	private synchronized static RemoteSPADEQueryConnectionPool getRemoteConnectionPool(final int connectionsPerHost,
+			final long connectionIdleMillis){
+		if(remoteConnectionPool == null){
+			remoteConnectionPool = new RemoteSPADEQueryConnectionPool(Kernel.getHostName(),
+					Kernel.getClientSocketFactory(), 5*1000, connectionsPerHost, connectionIdleMillis);
+		}
+		return remoteConnectionPool;
+	}
+
+	private static String formatMillis(final long nanos){
+		return String.format("%.3f", nanos / 1000000.0);
+	}
+
+	private synchronized static QueryPlanCache getPlanCache(final int maxSize){
+		if(planCache == null){
+			planCache = new QueryPlanCache(maxSize);
+		}
+		return planCache;
+	}
+
 	public Query execute(Query query){
 		try{
-			
-			DSLParserWrapper parserWrapper = new DSLParserWrapper();
+			final long parseStartNanos = System.nanoTime();
+
+			final QueryPlanCache planCache = getPlanCache(planCacheSize);
+			String normalizedQuery = QueryPlanCache.normalize(query.query);
+			final Matcher explainMatcher = explainPattern.matcher(normalizedQuery);
+			final boolean explain = explainMatcher.matches();
+			if(explain){
+				normalizedQuery = explainMatcher.group(1);
+			}
+			ParseProgram parseProgram = planCache.get(normalizedQuery);
+			final boolean cached = parseProgram != null;
+			if(!cached){
+				parseProgram = new DSLParserWrapper().fromText(normalizedQuery);
+				planCache.put(normalizedQuery, parseProgram);
+			}
+			final List<Serializable> parameters = query.getParameters();
+			if(!parameters.isEmpty()){
+				parseProgram = parseProgram.bindParameters(parameters);
+			}
 
-			ParseProgram parseProgram = parserWrapper.fromText(query.query);
+			// Parameters because toString is expensive for big queries
+			logger.log(Level.FINE, "Parse tree:\n{0}", parseProgram);
 
-			logger.log(Level.INFO, "Parse tree:\n" + parseProgram.toString());
+			if(explain){
+				query.querySucceeded(explain(parseProgram));
+				return query;
+			}
+
+			final String resultCacheKey = getResultCacheKey(parseProgram, normalizedQuery, query);
+			if(resultCacheKey != null){
+				final spade.core.Graph cachedResult = Cache.getResult(instructionExecutor.getStorage(), resultCacheKey);
+				if(cachedResult != null){
+					logger.log(Level.INFO, "Query result from cache. Parse (millis): {0} (cached={1})",
+							new Object[]{formatMillis(System.nanoTime() - parseStartNanos), cached});
+					query.querySucceeded(cachedResult);
+					return query;
+				}
+			}
+			// Before executing so that the result is invalidated by anything ingested while executing
+			final long ingestWatermark = instructionExecutor.getStorage().getIngestWatermark();
+
+			final long resolveStartNanos = System.nanoTime();
 
 			QuickGrailQueryResolver resolver = new QuickGrailQueryResolver();
 			Program program = resolver.resolveProgram(parseProgram, queryEnvironment);
 
-			logger.log(Level.INFO, "Execution plan:\n" + program.toString());
+			logger.log(Level.FINE, "Execution plan:\n{0}", program);
+
+			if(optimize){
+				final QueryPlanOptimizer optimizer = new QueryPlanOptimizer(queryEnvironment,
+						instructionExecutor.hasDistinctGraphs());
+				program = optimizer.optimize(program);
+				if(!optimizer.getAppliedRules().isEmpty()){
+					logger.log(Level.FINE, "Optimized execution plan (rules: {0}):\n{1}",
+							new Object[]{optimizer.getAppliedRules(), program});
+				}
+			}
+
+			final long executeStartNanos = System.nanoTime();
 
 			try{
 				int instructionsSize = program.getInstructionsSize();
@@ -187,7 +362,25 @@ public class QuickGrailExecutor{
 				}
 
 			}finally{
-				queryEnvironment.doGarbageCollection();
+				if(query.getResult() instanceof ExportCursor){
+					// The graph being streamed might not be referenced by a symbol. Collected after the next query
+				}else{
+					queryEnvironment.doGarbageCollection();
+				}
+			}
+
+			final long endNanos = System.nanoTime();
+			logger.log(Level.INFO, "Query timings (millis): parse={0} (cached={1}), resolve={2}, execute={3}",
+					new Object[]{
+							formatMillis(resolveStartNanos - parseStartNanos), cached,
+							formatMillis(executeStartNanos - resolveStartNanos),
+							formatMillis(endNanos - executeStartNanos)
+					});
+
+			if(resultCacheKey != null && query.getResult() instanceof spade.core.Graph){
+				// Not a file on the server
+				Cache.putResult(instructionExecutor.getStorage(), resultCacheKey, (spade.core.Graph)query.getResult(),
+						ingestWatermark);
 			}
 
 			// Only here if success
@@ -214,15 +407,106 @@ public class QuickGrailExecutor{
 		}
 	}
 
+	/**
+	 * Key of the result of the query in the result cache, or null if the result is not to be cached.
+	 * 
+	 * Only a single dump or visualize (not streamed) is cached because the other statements change the workspace
+	 * or do not return a graph. A graph bound to a variable is never changed (an assignment binds a new graph) so
+	 * the key has the graphs (and the constraints) the variables are bound to instead of their contents. Changes
+	 * to the base graph are handled by the ingest watermark of the storage. The graph names are reused after the
+	 * workspace is reset so the cache is cleared then.
+	 */
+	private String getResultCacheKey(final ParseProgram parseProgram, final String normalizedQuery, final Query query){
+		if(Cache.getResultCache() == null || query.getStreamChunkSize() > 0 || parseProgram.getStatements().size() != 1){
+			return null;
+		}
+		final ParseStatement statement = parseProgram.getStatements().get(0);
+		if(statement.getStatementType() != ParseStatement.StatementType.kCommand){
+			return null;
+		}
+		final String commandName = ((ParseCommand)statement).getCommandName().getValue();
+		if(!"dump".equalsIgnoreCase(commandName) && !"visualize".equalsIgnoreCase(commandName)){
+			return null;
+		}
+		// Kept for the storage instance (see Cache.getResult)
+		final StringBuilder key = new StringBuilder("local");
+		for(final ParseVariable variable : parseProgram.getVariables()){
+			final String symbol = variable.getName().getValue();
+			key.append('|').append(symbol).append('=');
+			switch(variable.getType().getTypeID()){
+				case kGraph:{
+					final Graph graph = queryEnvironment.getGraphSymbol(symbol);
+					key.append(graph == null ? null : graph.name);
+					break;
+				}
+				case kGraphPredicate:{
+					final GraphPredicate predicate = queryEnvironment.getPredicateSymbol(symbol);
+					key.append(predicate == null ? null
+							: QuickGrailPredicateTree.serializePredicateNodeForStorage(predicate.predicateRoot));
+					break;
+				}
+				default: return null;
+			}
+		}
+		// For the default max depth and limit
+		for(final EnvironmentVariable envVar : queryEnvironment.getEnvironmentVariables()){
+			key.append('|').append(envVar.name).append('=').append(envVar.getValue());
+		}
+		key.append('|').append(query.getParameters());
+		key.append('|').append(normalizedQuery);
+		return key.toString();
+	}
+
+	/**
+	 * Resolves (and optimizes) the query without changing the query environment or executing it
+	 */
+	private String explain(final ParseProgram parseProgram){
+		queryEnvironment.beginDryRun();
+		try{
+			final Program program = new QuickGrailQueryResolver().resolveProgram(parseProgram, queryEnvironment);
+			final StringBuilder explanation = new StringBuilder();
+			explanation.append("Execution plan:").append(System.lineSeparator());
+			explanation.append(program).append(System.lineSeparator());
+			if(!optimize){
+				explanation.append("Optimizer disabled ('").append(configKeyOptimize).append("=false')");
+				return explanation.toString();
+			}
+			final QueryPlanOptimizer optimizer = new QueryPlanOptimizer(queryEnvironment,
+					instructionExecutor.hasDistinctGraphs());
+			final Program optimizedProgram = optimizer.optimize(program);
+			final List<String> appliedRules = optimizer.getAppliedRules();
+			if(appliedRules.isEmpty()){
+				explanation.append("No rewrites");
+			}else{
+				explanation.append("Rewrites:").append(System.lineSeparator());
+				for(final String appliedRule : appliedRules){
+					explanation.append("  ").append(appliedRule).append(System.lineSeparator());
+				}
+				explanation.append("Optimized execution plan:").append(System.lineSeparator());
+				explanation.append(optimizedProgram);
+			}
+			return explanation.toString();
+		}finally{
+			queryEnvironment.endDryRun();
+		}
+	}
+
 	// Have to set queryinstruction success
 	private Query executeInstruction(Instruction instruction, Query query) throws Exception{
 
 		Serializable result = "OK"; // default result
 
 		if(instruction.getClass().equals(ExportGraph.class)){
-			spade.core.Graph graph = exportGraph((ExportGraph)instruction);
-			if(graph != null){
-				result = graph;
+			final ExportGraph exportInstruction = (ExportGraph)instruction;
+			if(query.getStreamChunkSize() > 0 && exportInstruction.filePathOnServer == null){
+				checkExportGraphLimit(exportInstruction);
+				query.setStreamChunkSize(Math.min(query.getStreamChunkSize(), exportChunkSize));
+				result = instructionExecutor.exportGraphCursor(exportInstruction);
+			}else{
+				spade.core.Graph graph = exportGraph(exportInstruction);
+				if(graph != null){
+					result = graph;
+				}
 			}
 
 		}else if(instruction.getClass().equals(CollapseEdge.class)){
@@ -260,6 +544,14 @@ public class QuickGrailExecutor{
 		}else if(instruction.getClass().equals(GetLineage.class)){
 			GetLineage getLineage = (GetLineage)instruction;
 			query = getLineage(getLineage, query);
+
+		}else if(instruction.getClass().equals(GetFilteredLineage.class)){
+			final GetFilteredLineage getFilteredLineage = (GetFilteredLineage)instruction;
+			if(prepareLineage(getFilteredLineage.subjectGraph, getFilteredLineage.startGraph,
+					getFilteredLineage.depth, getFilteredLineage.direction, query) != null){
+				instructionExecutor.getFilteredLineage(getFilteredLineage);
+			}
+
 		}else if(instruction.getClass().equals(GetLink.class)){
 			instructionExecutor.getLink((GetLink)instruction);
 
@@ -387,6 +679,39 @@ public class QuickGrailExecutor{
 		}
 	}
 	
+	private final ResultTable getTableOfResultCacheStats(){
+		final ResultCache resultCache = Cache.getResultCache();
+		final ResultTable table = new ResultTable();
+		if(resultCache == null){
+			table.addRow(newRow("Enabled", "false"));
+		}else{
+			table.addRow(newRow("Enabled", "true"));
+			table.addRow(newRow("Responses", String.valueOf(resultCache.size())));
+			table.addRow(newRow("Bytes", String.valueOf(resultCache.getBytes())));
+			table.addRow(newRow("Maximum Bytes", String.valueOf(resultCache.getMaximumBytes())));
+			table.addRow(newRow("TTL Seconds", String.valueOf(resultCache.getTTLMillis() / 1000)));
+			table.addRow(newRow("Hits", String.valueOf(resultCache.getHitCount())));
+			table.addRow(newRow("Misses", String.valueOf(resultCache.getMissCount())));
+			table.addRow(newRow("Hit Rate", String.format("%.4f", resultCache.getHitRate())));
+			table.addRow(newRow("Evictions", String.valueOf(resultCache.getEvictionCount())));
+			table.addRow(newRow("Expirations", String.valueOf(resultCache.getExpirationCount())));
+			table.addRow(newRow("Invalidations", String.valueOf(resultCache.getInvalidationCount())));
+			table.addRow(newRow("Ingest Watermark", String.valueOf(instructionExecutor.getStorage().getIngestWatermark())));
+		}
+		Schema schema = new Schema();
+		schema.addColumn("Result Cache", StringType.GetInstance());
+		schema.addColumn("Value", StringType.GetInstance());
+		table.setSchema(schema);
+		return table;
+	}
+
+	private static ResultTable.Row newRow(final String name, final String value){
+		final ResultTable.Row row = new ResultTable.Row();
+		row.add(name);
+		row.add(value);
+		return row;
+	}
+
 	private final ResultTable getTableOfEnvironmentVariables(){
 		final List<EnvironmentVariable> envVars = queryEnvironment.getEnvironmentVariables();
 		final ResultTable table = new ResultTable();
@@ -407,7 +732,7 @@ public class QuickGrailExecutor{
 		return table;
 	}
 
-	public spade.core.Graph exportGraph(final ExportGraph instruction){// throws Exception{
+	private void checkExportGraphLimit(final ExportGraph instruction){
 		GraphStats stats = instructionExecutor.statGraph(new StatGraph(instruction.targetGraph));
 		long verticesAndEdges = stats.vertices + stats.edges;
 		if(!instruction.force){
@@ -421,6 +746,43 @@ public class QuickGrailExecutor{
 						+ "Please use 'visualize force ...' to force the transfer.");
 			}
 		}
+	}
+
+	// Written a chunk at a time
+	private void exportGraphToFileOnServer(final ExportGraph instruction) throws Exception{
+		final ExportCursor cursor = instructionExecutor.exportGraphCursor(instruction);
+		try{
+			final AbstractStorage storage = spade.core.Graph.createExportStorage(instruction.format,
+					new BufferedWriter(new FileWriter(instruction.filePathOnServer)), true);
+			try{
+				GraphChunk chunk;
+				do{
+					chunk = cursor.nextChunk(exportChunkSize);
+					for(final AbstractVertex vertex : chunk.getVertices()){
+						storage.putVertex(vertex);
+					}
+					for(final AbstractEdge edge : chunk.getEdges()){
+						storage.putEdge(edge);
+					}
+				}while(!chunk.isLast());
+			}finally{
+				storage.shutdown();
+			}
+		}finally{
+			cursor.close();
+		}
+	}
+
+	public spade.core.Graph exportGraph(final ExportGraph instruction){// throws Exception{
+		checkExportGraphLimit(instruction);
+		if(instruction.filePathOnServer != null){
+			try{
+				exportGraphToFileOnServer(instruction);
+				return null;
+			}catch(Exception e){
+				throw new RuntimeException("Failed to export graph to file '"+instruction.filePathOnServer+"' on server", e);
+			}
+		}
 		final Map<String, Map<String, String>> queriedVerticesMap = instructionExecutor.exportVertices(instruction);
 		final Map<String, AbstractVertex> verticesMap = new HashMap<String, AbstractVertex>();
 		for(Map.Entry<String, Map<String, String>> entry : queriedVerticesMap.entrySet()){
@@ -450,16 +812,7 @@ public class QuickGrailExecutor{
 		spade.core.Graph resultGraph = new spade.core.Graph();
 		resultGraph.vertexSet().addAll(verticesMap.values());
 		resultGraph.edgeSet().addAll(edges);
-		if(instruction.filePathOnServer != null){
-			try{
-				spade.core.Graph.exportGraphToFile(instruction.format, instruction.filePathOnServer, resultGraph);
-				return null;
-			}catch(Exception e){
-				throw new RuntimeException("Failed to export graph to file '"+instruction.filePathOnServer+"' on server", e);
-			}
-		}else{
-			return resultGraph;
-		}
+		return resultGraph;
 	}
 	
 	private String list(final spade.query.quickgrail.instruction.List instruction){
@@ -469,6 +822,10 @@ public class QuickGrailExecutor{
 			ResultTable graphTable = null;
 			ResultTable predicateTable = null;
 			ResultTable envVarTable = null;
+
+			if(instruction.type == ListType.CACHE){
+				return getTableOfResultCacheStats().toString();
+			}
 			
 			if(instruction.type == ListType.ALL || instruction.type == ListType.GRAPH){
 				graphTable = new ResultTable();
@@ -626,26 +983,41 @@ public class QuickGrailExecutor{
 	 * intersectionGraph)); // means we // found a path } }
 	 */
 	
-	private Query getLineage(final GetLineage instruction, final Query originalSPADEQuery){
+	/**
+	 * Adds the lineage details to the query metadata (for the transformers)
+	 * 
+	 * @return the start vertices or null if there is no lineage to get i.e. no start vertices or no edges in the subject
+	 */
+	private Set<AbstractVertex> prepareLineage(final Graph subjectGraph, final Graph startGraph, final int depth,
+			final Direction direction, final Query originalSPADEQuery){
 		final Set<AbstractVertex> startGraphVertices = new HashSet<AbstractVertex>();
-		if(getGraphStats(instruction.startGraph).vertices > 0){
-			startGraphVertices.addAll(exportGraph(instruction.startGraph).vertexSet());
+		if(getGraphStats(startGraph).vertices > 0){
+			startGraphVertices.addAll(exportGraph(startGraph).vertexSet());
 		}
 		
 		// need to do here because even if there is no lineage that might mean something to a transformer. 
 		try{
-			originalSPADEQuery.getQueryMetaData().setMaxLength(instruction.depth);
-			originalSPADEQuery.getQueryMetaData().setDirection(instruction.direction);
+			originalSPADEQuery.getQueryMetaData().setMaxLength(depth);
+			originalSPADEQuery.getQueryMetaData().setDirection(direction);
 			originalSPADEQuery.getQueryMetaData().addRootVertices(startGraphVertices);
 		}catch(Exception e){
 			logger.log(Level.WARNING, "Failed to add root vertices for transformers from get lineage query");
 		}
 		
 		if(startGraphVertices.size() == 0
-				|| getGraphStats(instruction.subjectGraph).edges == 0){
+				|| getGraphStats(subjectGraph).edges == 0){
 			// Nothing to start from since no vertices OR no where to go in the subject since no edges
+			return null;
+		}
+		return startGraphVertices;
+	}
+
+	private Query getLineage(final GetLineage instruction, final Query originalSPADEQuery){
+		final Set<AbstractVertex> startGraphVertices = prepareLineage(instruction.subjectGraph,
+				instruction.startGraph, instruction.depth, instruction.direction, originalSPADEQuery);
+		if(startGraphVertices == null){
 			return originalSPADEQuery;
-		}		
+		}
 
 		final List<Direction> directions = new ArrayList<Direction>();
 		if(Direction.kAncestor.equals(instruction.direction) || Direction.kDescendant.equals(instruction.direction)){
@@ -744,6 +1116,13 @@ public class QuickGrailExecutor{
 			logger.log(Level.SEVERE, "Failed to initialize decryption module. All encrypted graphs will be discarded");
 		}
 
+		// Resolve at all the remote hosts in parallel
+		final CompletionService<spade.core.Graph> completionService = 
+				new ExecutorCompletionService<spade.core.Graph>(getRemoteExecutor(remoteThreads));
+		final RemoteSPADEQueryConnectionPool connectionPool = 
+				getRemoteConnectionPool(remoteConnectionsPerHost, remoteConnectionIdleMillis);
+		final Map<Future<spade.core.Graph>, String> pendingToRemoteAddress = new HashMap<Future<spade.core.Graph>, String>();
+		
 		for(final Map.Entry<Direction, Map<AbstractVertex, Integer>> directionToNetworkToMinimumDepthEntry : directionToNetworkToMinimumDepth.entrySet()){
 			final Direction direction = directionToNetworkToMinimumDepthEntry.getKey();
 			final Map<AbstractVertex, Integer> networkToMinimumDepth = directionToNetworkToMinimumDepthEntry.getValue();
@@ -753,63 +1132,178 @@ public class QuickGrailExecutor{
 				final Integer remoteDepth = instruction.depth - localDepth;
 				final String remoteAddress = RemoteResolver.getRemoteAddress(localNetworkVertex);
 				if(remoteDepth > 0){
-					try(RemoteSPADEQueryConnection connection = new RemoteSPADEQueryConnection(Kernel.getHostName(), remoteAddress, clientPort)){
-						connection.connect(Kernel.getClientSocketFactory(), 5*1000);
-						final String remoteVertexPredicate = buildRemoteGetVertexPredicate(localNetworkVertex);
-						final String remoteVerticesSymbol = connection.getBaseVertices(remoteVertexPredicate);
-						final GraphStats remoteVerticesStats = connection.statGraph(remoteVerticesSymbol);
-						if(remoteVerticesStats.vertices > 0){
-							final String remoteLineageSymbol = connection.getBaseLineage(remoteVerticesSymbol, remoteDepth, direction);
-							final GraphStats remoteLineageStats = connection.statGraph(remoteLineageSymbol);
-							if(!remoteLineageStats.isEmpty()){
-								spade.core.Graph remoteVerticesGraph = connection.exportGraph(remoteVerticesSymbol);
-								spade.core.Graph remoteLineageGraph = connection.exportGraph(remoteLineageSymbol);
-								String remoteHostNameInGraph = remoteLineageGraph.getHostName();
-								// verification - done in export graph. if not verifiable then discarded
-								if(remoteVerticesGraph.getClass().equals(spade.utility.ABEGraph.class)){
-									if(!canDecrypt){
-										throw new RuntimeException("Remote vertices graph for get lineage discarded. Invalid decryption module");
-									}
-									remoteVerticesGraph = decrypter.decryptGraph((spade.utility.ABEGraph)remoteVerticesGraph);
-									if(remoteVerticesGraph == null){
-										throw new RuntimeException("Failed to decrypt remote vertices graph for get lineage");
-									}
-									remoteVerticesGraph.setHostName(remoteHostNameInGraph);
-								}
-								if(remoteLineageGraph.getClass().equals(spade.utility.ABEGraph.class)){
-									if(!canDecrypt){
-										throw new RuntimeException("Remote get lineage graph for get lineage discarded. Invalid decryption module");
-									}
-									remoteLineageGraph = decrypter.decryptGraph((spade.utility.ABEGraph)remoteLineageGraph);
-									if(remoteLineageGraph == null){
-										throw new RuntimeException("Failed to decrypt remote lineage graph for get lineage");
-									}
-									remoteLineageGraph.setHostName(remoteHostNameInGraph);
-								}
-								// decryption - done above
-								// discrepancy detection, and caching goes here.
-								if(discrepancyDetector.doDiscrepancyDetection(
-										remoteLineageGraph, new HashSet<AbstractVertex>(
-												remoteVerticesGraph.vertexSet()), remoteDepth, direction, remoteHostNameInGraph)){
-									spade.core.Graph patchedGraph = patchRemoteLineageGraph(localNetworkVertex, 
-											remoteVerticesGraph, remoteLineageGraph);
-									putGraph(instructionExecutor.getStorage(), instruction.targetGraph, patchedGraph);
-								}else{
-									throw new RuntimeException("Discrepancies found in result graph. Result discarded.");
-								}
-							}
+					final Future<spade.core.Graph> future = completionService.submit(new Callable<spade.core.Graph>(){
+						@Override
+						public spade.core.Graph call() throws Exception{
+							return resolveCachedRemoteLineage(connectionPool, localNetworkVertex, remoteAddress, clientPort, 
+									remoteDepth, direction, decrypter, canDecrypt);
 						}
-					}catch(Throwable t){
-						logger.log(Level.SEVERE, "Failed to resolve remote get lineage for host: '"+remoteAddress+"'", t);
+					});
+					pendingToRemoteAddress.put(future, remoteAddress);
+				}
+			}
+		}
+		
+		final List<String> failedRemoteAddresses = new ArrayList<String>();
+		// Added to the target graph after the turn on the storage is back
+		final List<String> resolvedRemoteAddresses = new ArrayList<String>();
+		final List<spade.core.Graph> resolvedGraphs = new ArrayList<spade.core.Graph>();
+		// Give up the turn on the storage while waiting for the other hosts. They might be waiting on this host.
+		final QueryServer queryServer = Kernel.getQueryServer();
+		final boolean paused = queryServer != null && !pendingToRemoteAddress.isEmpty() && queryServer.pauseQuery();
+		try{
+			while(!pendingToRemoteAddress.isEmpty()){
+				final Future<spade.core.Graph> future = completionService.take(); // Each one bounded by the timeout
+				final String remoteAddress = pendingToRemoteAddress.remove(future);
+				try{
+					final spade.core.Graph patchedGraph = future.get();
+					if(patchedGraph != null){
+						resolvedRemoteAddresses.add(remoteAddress);
+						resolvedGraphs.add(patchedGraph);
 					}
+				}catch(ExecutionException e){
+					failedRemoteAddresses.add(remoteAddress);
+					logger.log(Level.SEVERE, "Failed to resolve remote get lineage for host: '"+remoteAddress+"'", e.getCause());
+				}
+			}
+		}catch(InterruptedException ie){
+			Thread.currentThread().interrupt();
+			for(final Map.Entry<Future<spade.core.Graph>, String> entry : pendingToRemoteAddress.entrySet()){
+				entry.getKey().cancel(true);
+				failedRemoteAddresses.add(entry.getValue());
+			}
+			logger.log(Level.WARNING, "Interrupted while resolving remote get lineage");
+		}finally{
+			if(paused){
+				try{
+					queryServer.resumeQuery();
+				}catch(Exception e){
+					throw new RuntimeException("Failed to resume the query after remote get lineage", e);
 				}
 			}
 		}
+
+		for(int i = 0; i < resolvedGraphs.size(); i++){
+			final String remoteAddress = resolvedRemoteAddresses.get(i);
+			try{
+				putGraph(instructionExecutor.getStorage(), instruction.targetGraph, resolvedGraphs.get(i));
+			}catch(Throwable t){
+				failedRemoteAddresses.add(remoteAddress);
+				logger.log(Level.SEVERE, "Failed to add remote get lineage result for host: '"+remoteAddress+"'", t);
+			}
+		}
+		
+		if(!failedRemoteAddresses.isEmpty() && !remotePartialResults){
+			throw new RuntimeException("Failed to resolve remote get lineage for host(s): " + failedRemoteAddresses);
+		}
 		
 		return originalSPADEQuery;
 		
 	}
 	//////////////////////////////////////////////////
+	/**
+	 * Same as resolveRemoteLineage but the (checked) results are kept in the result cache until they expire. The
+	 * remote ingestion is not known here so only the time-to-live applies.
+	 */
+	private spade.core.Graph resolveCachedRemoteLineage(final RemoteSPADEQueryConnectionPool connectionPool, 
+			final AbstractVertex localNetworkVertex, final String remoteAddress, final int clientPort,
+			final int remoteDepth, final Direction direction, final ABE decrypter, final boolean canDecrypt) throws Exception{
+		final String resultCacheKey = "remote|" + remoteAddress + ":" + clientPort + "|" + localNetworkVertex.bigHashCode()
+				+ "|" + remoteDepth + "|" + direction;
+		final spade.core.Graph cachedResult = Cache.getResult(null, resultCacheKey);
+		if(cachedResult != null){
+			// Empty graph for no lineage
+			return cachedResult.vertexSet().isEmpty() ? null : cachedResult;
+		}
+		final spade.core.Graph result = resolveRemoteLineage(connectionPool, localNetworkVertex, remoteAddress, clientPort,
+				remoteDepth, direction, decrypter, canDecrypt);
+		Cache.putResult(null, resultCacheKey, result == null ? new spade.core.Graph() : result, 0);
+		return result;
+	}
+
+	/**
+	 * Runs the lineage query for the network vertex at the remote host, verifies, decrypts and checks it for
+	 * discrepancies. All within the remote timeout.
+	 * 
+	 * @return the remote lineage graph patched to the local network vertex or null if the lineage was empty
+	 */
+	private spade.core.Graph resolveRemoteLineage(final RemoteSPADEQueryConnectionPool connectionPool, 
+			final AbstractVertex localNetworkVertex, final String remoteAddress, final int clientPort,
+			final int remoteDepth, final Direction direction, final ABE decrypter, final boolean canDecrypt) throws Exception{
+		final long deadlineMillis = System.currentTimeMillis() + remoteTimeoutMillis;
+		final RemoteSPADEQueryConnection connection = connectionPool.borrow(remoteAddress, clientPort, remoteTimeoutMillis);
+		boolean reusable = false;
+		try{
+			final String remoteVertexPredicate = buildRemoteGetVertexPredicate(localNetworkVertex);
+			setRemainingTimeout(connection, deadlineMillis);
+			final String remoteVerticesSymbol = connection.getBaseVertices(remoteVertexPredicate);
+			setRemainingTimeout(connection, deadlineMillis);
+			final GraphStats remoteVerticesStats = connection.statGraph(remoteVerticesSymbol);
+			if(remoteVerticesStats.vertices <= 0){
+				reusable = true;
+				return null;
+			}
+			setRemainingTimeout(connection, deadlineMillis);
+			final String remoteLineageSymbol = connection.getBaseLineage(remoteVerticesSymbol, remoteDepth, direction);
+			setRemainingTimeout(connection, deadlineMillis);
+			final GraphStats remoteLineageStats = connection.statGraph(remoteLineageSymbol);
+			if(remoteLineageStats.isEmpty()){
+				reusable = true;
+				return null;
+			}
+			setRemainingTimeout(connection, deadlineMillis);
+			spade.core.Graph remoteVerticesGraph = connection.exportGraph(remoteVerticesSymbol);
+			setRemainingTimeout(connection, deadlineMillis);
+			spade.core.Graph remoteLineageGraph = connection.exportGraph(remoteLineageSymbol);
+			reusable = true;
+			
+			String remoteHostNameInGraph = remoteLineageGraph.getHostName();
+			// verification - done in export graph. if not verifiable then discarded
+			// The decryption module is shared by the remote hosts
+			synchronized(decrypter){
+				if(remoteVerticesGraph.getClass().equals(spade.utility.ABEGraph.class)){
+					if(!canDecrypt){
+						throw new RuntimeException("Remote vertices graph for get lineage discarded. Invalid decryption module");
+					}
+					remoteVerticesGraph = decrypter.decryptGraph((spade.utility.ABEGraph)remoteVerticesGraph);
+					if(remoteVerticesGraph == null){
+						throw new RuntimeException("Failed to decrypt remote vertices graph for get lineage");
+					}
+					remoteVerticesGraph.setHostName(remoteHostNameInGraph);
+				}
+				if(remoteLineageGraph.getClass().equals(spade.utility.ABEGraph.class)){
+					if(!canDecrypt){
+						throw new RuntimeException("Remote get lineage graph for get lineage discarded. Invalid decryption module");
+					}
+					remoteLineageGraph = decrypter.decryptGraph((spade.utility.ABEGraph)remoteLineageGraph);
+					if(remoteLineageGraph == null){
+						throw new RuntimeException("Failed to decrypt remote lineage graph for get lineage");
+					}
+					remoteLineageGraph.setHostName(remoteHostNameInGraph);
+				}
+			}
+			// decryption - done above
+			// discrepancy detection, and caching goes here.
+			if(discrepancyDetector.doDiscrepancyDetection(
+					remoteLineageGraph, new HashSet<AbstractVertex>(
+							remoteVerticesGraph.vertexSet()), remoteDepth, direction, remoteHostNameInGraph)){
+				return patchRemoteLineageGraph(localNetworkVertex, remoteVerticesGraph, remoteLineageGraph);
+			}else{
+				throw new RuntimeException("Discrepancies found in result graph. Result discarded.");
+			}
+		}finally{
+			connectionPool.release(connection, reusable);
+		}
+	}
+	
+	private static void setRemainingTimeout(final RemoteSPADEQueryConnection connection, final long deadlineMillis) throws Exception{
+		final long remainingMillis = deadlineMillis - System.currentTimeMillis();
+		if(remainingMillis <= 0){
+			throw new TimeoutException("Timed out");
+		}
+		connection.setReadTimeout((int)Math.min(remainingMillis, Integer.MAX_VALUE));
+	}
+	
 	private spade.core.Graph patchRemoteLineageGraph(AbstractVertex localVertex,
 			spade.core.Graph remoteVerticesGraph, spade.core.Graph remoteLineageGraph){
 		Set<AbstractVertex> commonRemoteVertices = new HashSet<AbstractVertex>();
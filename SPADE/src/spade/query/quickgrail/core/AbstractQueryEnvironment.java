@@ -26,6 +26,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.logging.Logger;
 
+import spade.core.Cache;
 import spade.query.quickgrail.entities.Graph;
 import spade.query.quickgrail.entities.GraphMetadata;
 import spade.query.quickgrail.entities.GraphPredicate;
@@ -41,10 +42,10 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 	private final String prefixGraphName = "spade_graph_", prefixMetadataName = "spade_meta_";
 	private final String prefixGraphSymbol = "$", prefixMetadataSymbol = "@", prefixPredicateSymbol = "%";
 	
-	private int idCounter = -1;
-	private final Map<String, Graph> symbolsGraph = new HashMap<String, Graph>();
-	private final Map<String, GraphMetadata> symbolsMetadata = new HashMap<String, GraphMetadata>();
-	private final Map<String, GraphPredicate> symbolsPredicate = new HashMap<String, GraphPredicate>();
+	private final SymbolTable symbols = new SymbolTable();
+
+	// Private copy of the symbols and the id counter for the thread in a dry run. Null if not in a dry run
+	private final ThreadLocal<SymbolTable> dryRunSymbols = new ThreadLocal<SymbolTable>();
 
 	private final String baseGraphSymbol = prefixGraphSymbol+"base";
 	private final Graph baseGraph;
@@ -103,10 +104,10 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 			throw new RuntimeException("Failed to initialize symbol storage", t);
 		}
 		
-		this.idCounter = -1;
-		symbolsGraph.clear();
-		symbolsMetadata.clear();
-		symbolsPredicate.clear();
+		symbols.idCounter = -1;
+		symbols.symbolsGraph.clear();
+		symbols.symbolsMetadata.clear();
+		symbols.symbolsPredicate.clear();
 		
 		int idCounter;
 		try{
@@ -117,7 +118,7 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 		if(idCounter < 0){
 			throw new RuntimeException("Invalid id counter. Must be non-negative: " + idCounter);
 		}
-		this.idCounter = idCounter;
+		symbols.idCounter = idCounter;
 		
 		Map<String, String> graphSymbols;
 		try{
@@ -137,11 +138,11 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 					throw new RuntimeException("Cannot use reserved graph symbol: '"+getBaseGraphSymbol()+"'");
 				}
 
-				if(this.symbolsGraph.containsKey(key)){
+				if(symbols.symbolsGraph.containsKey(key)){
 					throw new RuntimeException("Duplicate graph symbol: '"+key+"'");
 				}
 				
-				this.symbolsGraph.put(key, new Graph(value));
+				symbols.symbolsGraph.put(key, new Graph(value));
 			}
 		}
 		
@@ -159,11 +160,11 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 				symbolTypeMustBeMetadata(key);
 				nameTypeMustBeMetadata(value);
 				
-				if(this.symbolsMetadata.containsKey(key)){
+				if(symbols.symbolsMetadata.containsKey(key)){
 					throw new RuntimeException("Duplicate metadata symbol: '"+key+"'");
 				}
 				
-				this.symbolsMetadata.put(key, new GraphMetadata(value));
+				symbols.symbolsMetadata.put(key, new GraphMetadata(value));
 			}
 		}
 		
@@ -190,18 +191,68 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 					throw new RuntimeException("Failed to create predicate from string: '"+value+"'", t);
 				}
 				
-				if(this.symbolsPredicate.containsKey(key)){
+				if(symbols.symbolsPredicate.containsKey(key)){
 					throw new RuntimeException("Duplicate predicate symbol: '"+key+"'");
 				}
 				
-				this.symbolsPredicate.put(key, new GraphPredicate(predicateNode));
+				symbols.symbolsPredicate.put(key, new GraphPredicate(predicateNode));
 			}
 		}
 	}
 	
+	private static final class SymbolTable{
+		private int idCounter = -1;
+		private final Map<String, Graph> symbolsGraph;
+		private final Map<String, GraphMetadata> symbolsMetadata;
+		private final Map<String, GraphPredicate> symbolsPredicate;
+		private SymbolTable(){
+			this.symbolsGraph = new HashMap<String, Graph>();
+			this.symbolsMetadata = new HashMap<String, GraphMetadata>();
+			this.symbolsPredicate = new HashMap<String, GraphPredicate>();
+		}
+		private SymbolTable(final SymbolTable symbolTable){
+			this.idCounter = symbolTable.idCounter;
+			this.symbolsGraph = new HashMap<String, Graph>(symbolTable.symbolsGraph);
+			this.symbolsMetadata = new HashMap<String, GraphMetadata>(symbolTable.symbolsMetadata);
+			this.symbolsPredicate = new HashMap<String, GraphPredicate>(symbolTable.symbolsPredicate);
+		}
+	}
+
+	/**
+	 * Until the dry run ends the symbols and the ids used by this thread are a private copy which can be changed (to
+	 * resolve a query) but are neither saved nor visible to other threads. The copy is discarded when the dry run ends
+	 */
+	public final synchronized void beginDryRun(){
+		if(dryRunSymbols.get() != null){
+			throw new RuntimeException("Dry run already in progress");
+		}
+		dryRunSymbols.set(new SymbolTable(symbols));
+	}
+
+	public final void endDryRun(){
+		if(dryRunSymbols.get() == null){
+			throw new RuntimeException("No dry run in progress");
+		}
+		dryRunSymbols.remove();
+	}
+
+	private final boolean isDryRun(){
+		return dryRunSymbols.get() != null;
+	}
+
+	private final SymbolTable getSymbolTable(){
+		final SymbolTable dryRunSymbolTable = dryRunSymbols.get();
+		return dryRunSymbolTable != null ? dryRunSymbolTable : symbols;
+	}
+
 	public final void resetWorkspace(){
+		if(isDryRun()){
+			throw new RuntimeException("Cannot reset workspace in a dry run");
+		}
 		initialize(true);
 		doGarbageCollection();
+		// The graph names in the keys of the cached results are reused from now on
+		Cache.clearResults();
 	}
 	
 	public abstract void doGarbageCollection();
@@ -283,16 +334,16 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 		if(isBaseGraphSymbol(symbol)){
 			return getBaseGraph();
 		}else{
-			return symbolsGraph.get(symbol);
+			return getSymbolTable().symbolsGraph.get(symbol);
 		}
 	}
 
 	public final GraphMetadata getMetadataSymbol(String symbol){
-		return symbolsMetadata.get(symbol);
+		return getSymbolTable().symbolsMetadata.get(symbol);
 	}
 
 	public final GraphPredicate getPredicateSymbol(String symbol){
-		return symbolsPredicate.get(symbol);
+		return getSymbolTable().symbolsPredicate.get(symbol);
 	}
 	
 	//////////////////
@@ -310,9 +361,12 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 	public abstract void saveIdCounter(int idCounter);
 	
 	private final synchronized String getNextId(){
-		saveIdCounter(idCounter+1);
-		idCounter = idCounter + 1;
-		return String.valueOf(idCounter);
+		final SymbolTable symbolTable = getSymbolTable();
+		if(!isDryRun()){
+			saveIdCounter(symbolTable.idCounter+1);
+		}
+		symbolTable.idCounter = symbolTable.idCounter + 1;
+		return String.valueOf(symbolTable.idCounter);
 	}
 
 	public final Graph allocateGraph(){
@@ -366,7 +420,7 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 		
 		boolean set = false; // To know if the symbol has to be set or not
 		boolean symbolNameWasPresent = false; // To tell the child whether symbol existed before or not
-		Graph existingGraph = symbolsGraph.get(symbol);
+		Graph existingGraph = getSymbolTable().symbolsGraph.get(symbol);
 		if(existingGraph != null){
 			if(graph.equals(existingGraph)){
 				set = false;
@@ -381,8 +435,10 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 		}
 
 		if(set){
-			symbolsGraph.put(symbol, graph);
-			saveGraphSymbol(symbol, graph.name, symbolNameWasPresent);
+			getSymbolTable().symbolsGraph.put(symbol, graph);
+			if(!isDryRun()){
+				saveGraphSymbol(symbol, graph.name, symbolNameWasPresent);
+			}
 		}
 	}
 
@@ -392,7 +448,7 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 		symbolTypeMustBeMetadata(symbol);
 		boolean set = false; // To know if the symbol has to be set or not
 		boolean symbolNameWasPresent = false; // To tell the child whether symbol existed before or not
-		GraphMetadata existingMetadata = symbolsMetadata.get(symbol);
+		GraphMetadata existingMetadata = getSymbolTable().symbolsMetadata.get(symbol);
 		if(existingMetadata != null){
 			if(metadata.equals(existingMetadata)){
 				set = false;
@@ -407,8 +463,10 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 		}
 
 		if(set){
-			symbolsMetadata.put(symbol, metadata);
-			saveMetadataSymbol(symbol, metadata.name, symbolNameWasPresent);
+			getSymbolTable().symbolsMetadata.put(symbol, metadata);
+			if(!isDryRun()){
+				saveMetadataSymbol(symbol, metadata.name, symbolNameWasPresent);
+			}
 		}
 	}
 
@@ -418,7 +476,7 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 		symbolTypeMustBePredicate(symbol);
 		boolean set = false; // To know if the symbol has to be set or not
 		boolean symbolNameWasPresent = false; // To tell the child whether symbol existed before or not
-		GraphPredicate existingPredicate = symbolsPredicate.get(symbol);
+		GraphPredicate existingPredicate = getSymbolTable().symbolsPredicate.get(symbol);
 		if(existingPredicate != null){
 			if(predicate.equals(existingPredicate)){
 				set = false;
@@ -433,9 +491,11 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 		}
 
 		if(set){
-			symbolsPredicate.put(symbol, predicate);
-			String predicateAsString = QuickGrailPredicateTree.serializePredicateNodeForStorage(predicate.predicateRoot);
-			savePredicateSymbol(symbol, predicateAsString, symbolNameWasPresent);
+			getSymbolTable().symbolsPredicate.put(symbol, predicate);
+			if(!isDryRun()){
+				String predicateAsString = QuickGrailPredicateTree.serializePredicateNodeForStorage(predicate.predicateRoot);
+				savePredicateSymbol(symbol, predicateAsString, symbolNameWasPresent);
+			}
 		}
 	}
 	//////////////////
@@ -461,27 +521,33 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 		if(symbol.equals(getBaseGraphSymbol())){
 			throw new RuntimeException("Cannot erase reserved variables.");
 		}
-		if(symbolsGraph.containsKey(symbol)){
-			symbolsGraph.remove(symbol);
-			deleteGraphSymbol(symbol);
+		if(getSymbolTable().symbolsGraph.containsKey(symbol)){
+			getSymbolTable().symbolsGraph.remove(symbol);
+			if(!isDryRun()){
+				deleteGraphSymbol(symbol);
+			}
 		}
 	}
 	
 	public abstract void deleteMetadataSymbol(String symbol);
 	
 	public final void removeMetadataSymbol(String symbol){
-		if(symbolsMetadata.containsKey(symbol)){
-			symbolsMetadata.remove(symbol);
-			deleteMetadataSymbol(symbol);
+		if(getSymbolTable().symbolsMetadata.containsKey(symbol)){
+			getSymbolTable().symbolsMetadata.remove(symbol);
+			if(!isDryRun()){
+				deleteMetadataSymbol(symbol);
+			}
 		}
 	}
 	
 	public abstract void deletePredicateSymbol(String symbol);
 	
 	public final void removePredicateSymbol(String symbol){
-		if(symbolsPredicate.containsKey(symbol)){
-			symbolsPredicate.remove(symbol);
-			deletePredicateSymbol(symbol);
+		if(getSymbolTable().symbolsPredicate.containsKey(symbol)){
+			getSymbolTable().symbolsPredicate.remove(symbol);
+			if(!isDryRun()){
+				deletePredicateSymbol(symbol);
+			}
 		}
 	}
 	
@@ -489,19 +555,19 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 
 	public Map<String, String> getCurrentGraphSymbolsStringMap(){
 		final Map<String, String> map = new HashMap<String, String>();
-		symbolsGraph.forEach((k,v) -> map.put(k, v.name));
+		getSymbolTable().symbolsGraph.forEach((k,v) -> map.put(k, v.name));
 		return map;
 	}
 	
 	public Map<String, String> getCurrentMetadataSymbolsStringMap(){
 		final Map<String, String> map = new HashMap<String, String>();
-		symbolsMetadata.forEach((k,v) -> map.put(k, v.name));
+		getSymbolTable().symbolsMetadata.forEach((k,v) -> map.put(k, v.name));
 		return map;
 	}
 	
 	public Map<String, String> getCurrentPredicateSymbolsStringMap(){
 		final Map<String, String> map = new HashMap<String, String>();
-		symbolsPredicate.forEach((k,v) -> map.put(k, QuickGrailPredicateTree.serializePredicateNodeForStorage(v.predicateRoot)));
+		getSymbolTable().symbolsPredicate.forEach((k,v) -> map.put(k, QuickGrailPredicateTree.serializePredicateNodeForStorage(v.predicateRoot)));
 		return map;
 	}
 	
@@ -517,15 +583,15 @@ public abstract class AbstractQueryEnvironment extends TreeStringSerializable{
 			ArrayList<ArrayList<? extends TreeStringSerializable>> container_child_fields){
 		inline_field_names.add(baseGraphSymbol);
 		inline_field_values.add(baseGraph.name);
-		for(Entry<String, Graph> entry : symbolsGraph.entrySet()){
+		for(Entry<String, Graph> entry : getSymbolTable().symbolsGraph.entrySet()){
 			inline_field_names.add(entry.getKey());
 			inline_field_values.add(entry.getValue().name);
 		}
-		for(Entry<String, GraphMetadata> entry : symbolsMetadata.entrySet()){
+		for(Entry<String, GraphMetadata> entry : getSymbolTable().symbolsMetadata.entrySet()){
 			inline_field_names.add(entry.getKey());
 			inline_field_values.add(entry.getValue().name);
 		}
-		for(Entry<String, GraphPredicate> entry : symbolsPredicate.entrySet()){
+		for(Entry<String, GraphPredicate> entry : getSymbolTable().symbolsPredicate.entrySet()){
 			inline_field_names.add(entry.getKey());
 			inline_field_values.add(entry.getValue().predicateRoot.toString());
 		}
@@ -0,0 +1,101 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.quickgrail.core;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.GraphChunk;
+import spade.core.Vertex;
+
+/**
+ * Reads the vertices and then the edges of an exported graph a bounded number at a time.
+ * 
+ * Returned as the result of an export query which asked for a stream. It is only a handle on the server and the
+ * query connection replaces it with the GraphChunk objects read from it (therefore it must not be serialized).
+ * Must be closed once done.
+ */
+public abstract class ExportCursor implements Serializable{
+
+	private static final long serialVersionUID = 2516880045925785203L;
+
+	private boolean verticesDone = false, edgesDone = false;
+
+	/**
+	 * @return at most 'max' vertices as a map from hash to annotations. Empty only if there are no more vertices
+	 */
+	protected abstract Map<String, Map<String, String>> nextVertices(int max);
+
+	/**
+	 * Only called after all the vertices have been read.
+	 * 
+	 * @return at most 'max' edges. Empty only if there are no more edges
+	 */
+	protected abstract List<QueriedEdge> nextEdges(int max);
+
+	public void close(){}
+
+	/**
+	 * @return the next chunk of at most 'max' vertices and edges. The last chunk is marked as last (and can be
+	 * empty)
+	 */
+	public final GraphChunk nextChunk(final int max){
+		if(max < 1){
+			throw new IllegalArgumentException("Chunk size must be positive: " + max);
+		}
+		final GraphChunk chunk = new GraphChunk();
+		while(!verticesDone && chunk.size() < max){
+			final Map<String, Map<String, String>> vertices = nextVertices(max - chunk.size());
+			if(vertices.isEmpty()){
+				verticesDone = true;
+			}
+			for(final Map.Entry<String, Map<String, String>> entry : vertices.entrySet()){
+				final AbstractVertex vertex = new Vertex(entry.getKey()); // always create reference vertices
+				vertex.addAnnotations(entry.getValue());
+				chunk.getVertices().add(vertex);
+			}
+		}
+		while(verticesDone && !edgesDone && chunk.size() < max){
+			final List<QueriedEdge> edges = nextEdges(max - chunk.size());
+			if(edges.isEmpty()){
+				edgesDone = true;
+			}
+			for(final QueriedEdge queriedEdge : edges){
+				final AbstractEdge edge = new Edge(queriedEdge.edgeHash,
+						new Vertex(queriedEdge.childHash), new Vertex(queriedEdge.parentHash));
+				edge.addAnnotations(queriedEdge.getCopyOfAnnotations());
+				chunk.getEdges().add(edge);
+			}
+		}
+		chunk.setLast(verticesDone && edgesDone);
+		return chunk;
+	}
+
+	private void writeObject(final ObjectOutputStream out) throws IOException{
+		throw new NotSerializableException("Export cursor must be read by the server and not sent: " + getClass().getName());
+	}
+}
@@ -19,7 +19,11 @@
  */
 package spade.query.quickgrail.core;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
@@ -38,6 +42,7 @@ import spade.query.quickgrail.instruction.ExportGraph;
 import spade.query.quickgrail.instruction.GetAdjacentVertex;
 import spade.query.quickgrail.instruction.GetEdge;
 import spade.query.quickgrail.instruction.GetEdgeEndpoint;
+import spade.query.quickgrail.instruction.GetFilteredLineage;
 import spade.query.quickgrail.instruction.GetLineage;
 import spade.query.quickgrail.instruction.GetLink;
 import spade.query.quickgrail.instruction.GetMatch;
@@ -131,6 +136,47 @@ public abstract class QueryInstructionExecutor{
 	// special
 	public abstract Map<String, Map<String, String>> exportVertices(ExportGraph instruction);
 	public abstract Set<QueriedEdge> exportEdges(ExportGraph instruction);
+
+	/**
+	 * Cursor over the vertices and then the edges of the graph for a streamed export.
+	 * 
+	 * The default reads all the vertices with exportVertices on first use, and all the edges with exportEdges
+	 * once the vertices have been read. Override to read from the storage a chunk at a time.
+	 */
+	public ExportCursor exportGraphCursor(final ExportGraph instruction){
+		return new ExportCursor(){
+			private static final long serialVersionUID = -4710722426669221530L;
+			private Iterator<Map.Entry<String, Map<String, String>>> vertices = null;
+			private Iterator<QueriedEdge> edges = null;
+
+			@Override
+			protected Map<String, Map<String, String>> nextVertices(final int max){
+				if(vertices == null){
+					vertices = exportVertices(instruction).entrySet().iterator();
+				}
+				final Map<String, Map<String, String>> result = new LinkedHashMap<String, Map<String, String>>();
+				while(vertices.hasNext() && result.size() < max){
+					final Map.Entry<String, Map<String, String>> entry = vertices.next();
+					result.put(entry.getKey(), entry.getValue());
+					vertices.remove();
+				}
+				return result;
+			}
+
+			@Override
+			protected List<QueriedEdge> nextEdges(final int max){
+				if(edges == null){
+					edges = exportEdges(instruction).iterator();
+				}
+				final List<QueriedEdge> result = new ArrayList<QueriedEdge>();
+				while(edges.hasNext() && result.size() < max){
+					result.add(edges.next());
+					edges.remove();
+				}
+				return result;
+			}
+		};
+	}
 	
 	public abstract void collapseEdge(CollapseEdge instruction);
 	//////////////////////////////////////////////////////////////
@@ -143,6 +189,33 @@ public abstract class QueryInstructionExecutor{
 	// composite operations
 	//////////////////////////////////////////////////////////////
 
+	//////////////////////////////////////////////////////////////
+	// fused operations (created by the optimizer). Override to not materialize the intermediate graphs
+
+	/**
+	 * @return true if a graph can never have duplicate vertices or edges i.e. DistinctifyGraph is just a copy
+	 */
+	public boolean hasDistinctGraphs(){
+		return false;
+	}
+
+	public void getFilteredLineage(final GetFilteredLineage instruction){
+		final Graph lineageGraph = createNewGraph();
+		getLineage(new GetLineage(lineageGraph, instruction.subjectGraph, instruction.startGraph,
+				instruction.depth, instruction.direction, true));
+		if(instruction.limit == null){
+			getVertex(new GetVertex(instruction.targetGraph, lineageGraph,
+					instruction.annotationKey, instruction.operator, instruction.annotationValue));
+		}else{
+			final Graph filteredGraph = createNewGraph();
+			getVertex(new GetVertex(filteredGraph, lineageGraph,
+					instruction.annotationKey, instruction.operator, instruction.annotationValue));
+			limitGraph(new LimitGraph(instruction.targetGraph, filteredGraph, instruction.limit));
+		}
+	}
+	// fused operations
+	//////////////////////////////////////////////////////////////
+
 	public final Graph createNewGraph(){
 		Graph newGraph = getQueryEnvironment().allocateGraph();
 		createEmptyGraph(new CreateEmptyGraph(newGraph));
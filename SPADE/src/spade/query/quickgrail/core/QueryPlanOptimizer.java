@@ -0,0 +1,680 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.query.quickgrail.core;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import spade.query.quickgrail.entities.Graph;
+import spade.query.quickgrail.instruction.CollapseEdge;
+import spade.query.quickgrail.instruction.CreateEmptyGraph;
+import spade.query.quickgrail.instruction.CreateEmptyGraphMetadata;
+import spade.query.quickgrail.instruction.DescribeGraph;
+import spade.query.quickgrail.instruction.DistinctifyGraph;
+import spade.query.quickgrail.instruction.EnvironmentVariableOperation;
+import spade.query.quickgrail.instruction.EraseSymbols;
+import spade.query.quickgrail.instruction.ExportGraph;
+import spade.query.quickgrail.instruction.GetAdjacentVertex;
+import spade.query.quickgrail.instruction.GetEdge;
+import spade.query.quickgrail.instruction.GetEdgeEndpoint;
+import spade.query.quickgrail.instruction.GetFilteredLineage;
+import spade.query.quickgrail.instruction.GetLineage;
+import spade.query.quickgrail.instruction.GetLink;
+import spade.query.quickgrail.instruction.GetMatch;
+import spade.query.quickgrail.instruction.GetPath;
+import spade.query.quickgrail.instruction.GetShortestPath;
+import spade.query.quickgrail.instruction.GetSimplePath;
+import spade.query.quickgrail.instruction.GetSubgraph;
+import spade.query.quickgrail.instruction.GetVertex;
+import spade.query.quickgrail.instruction.GetWhereAnnotationsExist;
+import spade.query.quickgrail.instruction.InsertLiteralEdge;
+import spade.query.quickgrail.instruction.InsertLiteralVertex;
+import spade.query.quickgrail.instruction.Instruction;
+import spade.query.quickgrail.instruction.IntersectGraph;
+import spade.query.quickgrail.instruction.LimitGraph;
+import spade.query.quickgrail.instruction.OverwriteGraphMetadata;
+import spade.query.quickgrail.instruction.PrintPredicate;
+import spade.query.quickgrail.instruction.SetGraphMetadata;
+import spade.query.quickgrail.instruction.StatGraph;
+import spade.query.quickgrail.instruction.SubtractGraph;
+import spade.query.quickgrail.instruction.UnionGraph;
+
+/**
+ * Rule based rewriting of a resolved program to materialize fewer intermediate graphs.
+ * 
+ * Only temporary graphs are rewritten. A temporary graph is created (CreateEmptyGraph) in the program and is not
+ * referenced by a symbol after the program has been resolved i.e. nothing outside the program can see it.
+ * 
+ * Rules (applied until none applies):
+ * 1) forward-copy: A temporary which is only a copy of another graph (CreateEmptyGraph(T), UnionGraph(T, X)) is
+ * replaced by that graph in the instructions reading it, if that graph is not changed while the copy is in use.
+ * 2) forward-distinct: If graphs cannot have duplicates then DistinctifyGraph(D, T) is a copy. The instructions
+ * writing T write D instead.
+ * 3) fuse-lineage-filter: GetLineage(L, ...) (local only) followed by GetVertex(V, L, predicate) is replaced by
+ * GetFilteredLineage(V, ...).
+ * 4) fuse-limit: GetFilteredLineage(V, ...) followed by LimitGraph(R, V, n) is replaced by
+ * GetFilteredLineage(R, ..., n).
+ * 
+ * Then, each temporary is emptied right after its last use (release-temporaries) instead of at garbage collection
+ * after the query.
+ * 
+ * Programs with instructions not known to the optimizer (like EvaluateQuery) are not rewritten.
+ */
+public class QueryPlanOptimizer{
+
+	private final AbstractQueryEnvironment queryEnvironment;
+	private final boolean distinctGraphs;
+
+	private final List<String> appliedRules = new ArrayList<String>();
+
+	/**
+	 * @param queryEnvironment environment which was used to resolve the program
+	 * @param distinctGraphs true if a graph can never have duplicates (see QueryInstructionExecutor.hasDistinctGraphs)
+	 */
+	public QueryPlanOptimizer(final AbstractQueryEnvironment queryEnvironment, final boolean distinctGraphs){
+		this.queryEnvironment = queryEnvironment;
+		this.distinctGraphs = distinctGraphs;
+		if(this.queryEnvironment == null){
+			throw new IllegalArgumentException("NULL query environment");
+		}
+	}
+
+	/**
+	 * @return the rules applied by the last call to optimize
+	 */
+	public List<String> getAppliedRules(){
+		return new ArrayList<String>(appliedRules);
+	}
+
+	public Program optimize(final Program program){
+		appliedRules.clear();
+		final List<Instruction> instructions = new ArrayList<Instruction>();
+		for(int i = 0; i < program.getInstructionsSize(); i++){
+			final Instruction instruction = program.getInstruction(i);
+			if(!isKnown(instruction)){
+				return program;
+			}
+			instructions.add(instruction);
+		}
+
+		final Set<String> boundGraphNames = new HashSet<String>(
+				queryEnvironment.getCurrentGraphSymbolsStringMap().values());
+
+		boolean applied = true;
+		while(applied){
+			applied = forwardCopy(instructions, boundGraphNames)
+					|| (distinctGraphs && forwardDistinct(instructions, boundGraphNames))
+					|| fuseLineageFilter(instructions, boundGraphNames)
+					|| fuseLimit(instructions, boundGraphNames);
+		}
+		releaseTemporaries(instructions, boundGraphNames);
+
+		if(appliedRules.isEmpty()){
+			return program;
+		}
+		return new Program(instructions);
+	}
+
+	////////////////////////////////////////
+
+	private boolean forwardCopy(final List<Instruction> instructions, final Set<String> boundGraphNames){
+		for(int u = 0; u < instructions.size(); u++){
+			if(!(instructions.get(u) instanceof UnionGraph)){
+				continue;
+			}
+			final UnionGraph union = (UnionGraph)instructions.get(u);
+			final Graph copy = union.targetGraph;
+			final Graph source = union.sourceGraph;
+			if(copy.equals(source) || !isTemporary(instructions, copy, boundGraphNames)){
+				continue;
+			}
+			final int c = getCreator(instructions, copy);
+			if(c > u || referencedBetween(instructions, copy, c, u)
+					|| !getWriters(instructions, copy).equals(singleton(u))){
+				continue;
+			}
+			final List<Integer> readers = getReaders(instructions, copy);
+			final int lastRead = readers.isEmpty() ? u : readers.get(readers.size() - 1);
+			if(writtenBetween(instructions, source, u, lastRead + 1)){
+				continue;
+			}
+			if(!replaceAll(instructions, readers, copy, source)){
+				continue;
+			}
+			removeAll(instructions, u, c);
+			appliedRules.add("forward-copy: " + copy.name + " -> " + source.name);
+			return true;
+		}
+		return false;
+	}
+
+	private boolean forwardDistinct(final List<Instruction> instructions, final Set<String> boundGraphNames){
+		for(int k = 0; k < instructions.size(); k++){
+			if(!(instructions.get(k) instanceof DistinctifyGraph)){
+				continue;
+			}
+			final DistinctifyGraph distinctify = (DistinctifyGraph)instructions.get(k);
+			final Graph target = distinctify.targetGraph;
+			final Graph source = distinctify.sourceGraph;
+			if(target.equals(source) || !isTemporary(instructions, source, boundGraphNames)
+					|| !getReaders(instructions, source).equals(singleton(k))){
+				continue;
+			}
+			final int cs = getCreator(instructions, source);
+			final int cd = getCreator(instructions, target);
+			if(cs > k || cd < 0 || cd < cs || cd > k
+					|| referencedBetween(instructions, target, -1, cd) || referencedBetween(instructions, target, cd, k)
+					|| referencedBetween(instructions, source, k, instructions.size())){
+				continue;
+			}
+			final List<Integer> writers = getWriters(instructions, source);
+			if(!replaceAll(instructions, writers, source, target)){
+				continue;
+			}
+			instructions.set(cs, new CreateEmptyGraph(target));
+			removeAll(instructions, k, cd);
+			appliedRules.add("forward-distinct: " + source.name + " -> " + target.name);
+			return true;
+		}
+		return false;
+	}
+
+	private boolean fuseLineageFilter(final List<Instruction> instructions, final Set<String> boundGraphNames){
+		for(int r = 0; r < instructions.size(); r++){
+			if(!(instructions.get(r) instanceof GetVertex)){
+				continue;
+			}
+			final GetVertex getVertex = (GetVertex)instructions.get(r);
+			final Graph lineageGraph = getVertex.subjectGraph;
+			if(!getVertex.hasArguments() || !isTemporary(instructions, lineageGraph, boundGraphNames)
+					|| !getReaders(instructions, lineageGraph).equals(singleton(r))){
+				continue;
+			}
+			final List<Integer> writers = getWriters(instructions, lineageGraph);
+			if(writers.size() != 1 || !(instructions.get(writers.get(0)) instanceof GetLineage)){
+				continue;
+			}
+			final int g = writers.get(0);
+			final GetLineage getLineage = (GetLineage)instructions.get(g);
+			final int cl = getCreator(instructions, lineageGraph);
+			if(!getLineage.onlyLocal || g > r || referencedBetween(instructions, lineageGraph, cl, g)
+					|| getInputs(getLineage).contains(getVertex.targetGraph)
+					|| writtenBetween(instructions, getLineage.subjectGraph, g, r)
+					|| writtenBetween(instructions, getLineage.startGraph, g, r)){
+				continue;
+			}
+			instructions.set(r, new GetFilteredLineage(getVertex.targetGraph, getLineage.subjectGraph,
+					getLineage.startGraph, getLineage.depth, getLineage.direction,
+					getVertex.annotationKey, getVertex.operator, getVertex.annotationValue, null));
+			removeAll(instructions, g, cl);
+			appliedRules.add("fuse-lineage-filter: " + lineageGraph.name + " -> " + getVertex.targetGraph.name);
+			return true;
+		}
+		return false;
+	}
+
+	private boolean fuseLimit(final List<Instruction> instructions, final Set<String> boundGraphNames){
+		for(int m = 0; m < instructions.size(); m++){
+			if(!(instructions.get(m) instanceof LimitGraph)){
+				continue;
+			}
+			final LimitGraph limitGraph = (LimitGraph)instructions.get(m);
+			final Graph filteredGraph = limitGraph.sourceGraph;
+			if(!isTemporary(instructions, filteredGraph, boundGraphNames)
+					|| !getReaders(instructions, filteredGraph).equals(singleton(m))){
+				continue;
+			}
+			final List<Integer> writers = getWriters(instructions, filteredGraph);
+			if(writers.size() != 1 || !(instructions.get(writers.get(0)) instanceof GetFilteredLineage)){
+				continue;
+			}
+			final int f = writers.get(0);
+			final GetFilteredLineage filtered = (GetFilteredLineage)instructions.get(f);
+			final int cf = getCreator(instructions, filteredGraph);
+			if(filtered.limit != null || f > m || referencedBetween(instructions, filteredGraph, cf, f)
+					|| getInputs(filtered).contains(limitGraph.targetGraph)
+					|| writtenBetween(instructions, filtered.subjectGraph, f, m)
+					|| writtenBetween(instructions, filtered.startGraph, f, m)){
+				continue;
+			}
+			instructions.set(m, new GetFilteredLineage(limitGraph.targetGraph, filtered.subjectGraph,
+					filtered.startGraph, filtered.depth, filtered.direction,
+					filtered.annotationKey, filtered.operator, filtered.annotationValue, limitGraph.limit));
+			removeAll(instructions, f, cf);
+			appliedRules.add("fuse-limit: " + filteredGraph.name + " -> " + limitGraph.targetGraph.name);
+			return true;
+		}
+		return false;
+	}
+
+	private void releaseTemporaries(final List<Instruction> instructions, final Set<String> boundGraphNames){
+		final List<SimpleEntry<Integer, Graph>> releases = new ArrayList<SimpleEntry<Integer, Graph>>();
+		final Set<Graph> seen = new HashSet<Graph>();
+		for(final Instruction instruction : instructions){
+			final Graph graph = getCreated(instruction);
+			if(graph == null || !seen.add(graph) || !isTemporary(instructions, graph, boundGraphNames)){
+				continue;
+			}
+			int lastUse = -1;
+			boolean exported = false;
+			for(int i = 0; i < instructions.size(); i++){
+				if(references(instructions.get(i), graph)){
+					lastUse = i;
+					// Exported graph might be read after the program (by the cursor)
+					exported = exported || instructions.get(i) instanceof ExportGraph;
+				}
+			}
+			// Only worth it if something else is going to be written after it
+			if(!exported && writtenBetween(instructions, null, lastUse, instructions.size())){
+				releases.add(new SimpleEntry<Integer, Graph>(lastUse + 1, graph));
+			}
+		}
+		for(int i = releases.size() - 1; i > -1; i--){
+			final SimpleEntry<Integer, Graph> release = releases.get(i);
+			instructions.add(release.getKey(), new CreateEmptyGraph(release.getValue()));
+		}
+		for(final SimpleEntry<Integer, Graph> release : releases){
+			appliedRules.add("release-temporaries: " + release.getValue().name);
+		}
+	}
+
+	////////////////////////////////////////
+
+	private static List<Integer> singleton(final int i){
+		final List<Integer> list = new ArrayList<Integer>();
+		list.add(i);
+		return list;
+	}
+
+	private boolean isTemporary(final List<Instruction> instructions, final Graph graph,
+			final Set<String> boundGraphNames){
+		if(queryEnvironment.isBaseGraph(graph) || boundGraphNames.contains(graph.name)){
+			return false;
+		}
+		// Must be created (once) by the program before anything else is done with it
+		int created = 0;
+		for(final Instruction instruction : instructions){
+			if(graph.equals(getCreated(instruction))){
+				created++;
+			}else if(created == 0 && references(instruction, graph)){
+				return false;
+			}
+		}
+		return created == 1;
+	}
+
+	// Index of the first CreateEmptyGraph of the graph. -1 if none
+	private static int getCreator(final List<Instruction> instructions, final Graph graph){
+		for(int i = 0; i < instructions.size(); i++){
+			if(graph.equals(getCreated(instructions.get(i)))){
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	// Indices of the instructions (other than CreateEmptyGraph) writing the graph
+	private static List<Integer> getWriters(final List<Instruction> instructions, final Graph graph){
+		final List<Integer> writers = new ArrayList<Integer>();
+		for(int i = 0; i < instructions.size(); i++){
+			if(graph.equals(getOutput(instructions.get(i)))){
+				writers.add(i);
+			}
+		}
+		return writers;
+	}
+
+	private static List<Integer> getReaders(final List<Instruction> instructions, final Graph graph){
+		final List<Integer> readers = new ArrayList<Integer>();
+		for(int i = 0; i < instructions.size(); i++){
+			if(getInputs(instructions.get(i)).contains(graph)){
+				readers.add(i);
+			}
+		}
+		return readers;
+	}
+
+	// Exclusive
+	private static boolean referencedBetween(final List<Instruction> instructions, final Graph graph,
+			final int from, final int to){
+		for(int i = from + 1; i < to; i++){
+			if(references(instructions.get(i), graph)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// Exclusive. Any graph if graph is null
+	private static boolean writtenBetween(final List<Instruction> instructions, final Graph graph,
+			final int from, final int to){
+		for(int i = from + 1; i < to; i++){
+			final Instruction instruction = instructions.get(i);
+			final Graph output = getOutput(instruction);
+			final Graph created = getCreated(instruction);
+			if(graph == null){
+				if(output != null || created != null){
+					return true;
+				}
+			}else if(graph.equals(output) || graph.equals(created)){
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean references(final Instruction instruction, final Graph graph){
+		return graph.equals(getCreated(instruction)) || graph.equals(getOutput(instruction))
+				|| getInputs(instruction).contains(graph);
+	}
+
+	private static boolean replaceAll(final List<Instruction> instructions, final List<Integer> indices,
+			final Graph from, final Graph to){
+		final List<Instruction> replaced = new ArrayList<Instruction>();
+		for(final int i : indices){
+			final Instruction instruction = replace(instructions.get(i), from, to);
+			if(instruction == null){
+				return false;
+			}
+			replaced.add(instruction);
+		}
+		for(int i = 0; i < indices.size(); i++){
+			instructions.set(indices.get(i), replaced.get(i));
+		}
+		return true;
+	}
+
+	private static void removeAll(final List<Instruction> instructions, final int i, final int j){
+		instructions.remove(Math.max(i, j));
+		instructions.remove(Math.min(i, j));
+	}
+
+	////////////////////////////////////////
+
+	private static boolean isKnown(final Instruction instruction){
+		return instruction instanceof CollapseEdge || instruction instanceof CreateEmptyGraph
+				|| instruction instanceof CreateEmptyGraphMetadata || instruction instanceof DescribeGraph
+				|| instruction instanceof DistinctifyGraph || instruction instanceof EnvironmentVariableOperation
+				|| instruction instanceof EraseSymbols || instruction instanceof ExportGraph
+				|| instruction instanceof GetAdjacentVertex || instruction instanceof GetEdge
+				|| instruction instanceof GetEdgeEndpoint || instruction instanceof GetFilteredLineage
+				|| instruction instanceof GetLineage || instruction instanceof GetLink
+				|| instruction instanceof GetMatch || instruction instanceof GetPath
+				|| instruction instanceof GetShortestPath || instruction instanceof GetSimplePath
+				|| instruction instanceof GetSubgraph || instruction instanceof GetVertex
+				|| instruction instanceof GetWhereAnnotationsExist || instruction instanceof InsertLiteralEdge
+				|| instruction instanceof InsertLiteralVertex || instruction instanceof IntersectGraph
+				|| instruction instanceof LimitGraph || instruction instanceof spade.query.quickgrail.instruction.List
+				|| instruction instanceof OverwriteGraphMetadata || instruction instanceof PrintPredicate
+				|| instruction instanceof SetGraphMetadata || instruction instanceof StatGraph
+				|| instruction instanceof SubtractGraph || instruction instanceof UnionGraph;
+	}
+
+	private static Graph getCreated(final Instruction instruction){
+		if(instruction instanceof CreateEmptyGraph){
+			return ((CreateEmptyGraph)instruction).graph;
+		}
+		return null;
+	}
+
+	// The graph written to (not including CreateEmptyGraph). Null if none
+	private static Graph getOutput(final Instruction instruction){
+		if(instruction instanceof CollapseEdge){
+			return ((CollapseEdge)instruction).targetGraph;
+		}else if(instruction instanceof DistinctifyGraph){
+			return ((DistinctifyGraph)instruction).targetGraph;
+		}else if(instruction instanceof GetAdjacentVertex){
+			return ((GetAdjacentVertex)instruction).targetGraph;
+		}else if(instruction instanceof GetEdge){
+			return ((GetEdge)instruction).targetGraph;
+		}else if(instruction instanceof GetEdgeEndpoint){
+			return ((GetEdgeEndpoint)instruction).targetGraph;
+		}else if(instruction instanceof GetFilteredLineage){
+			return ((GetFilteredLineage)instruction).targetGraph;
+		}else if(instruction instanceof GetLineage){
+			return ((GetLineage)instruction).targetGraph;
+		}else if(instruction instanceof GetLink){
+			return ((GetLink)instruction).targetGraph;
+		}else if(instruction instanceof GetMatch){
+			return ((GetMatch)instruction).targetGraph;
+		}else if(instruction instanceof GetPath){
+			return ((GetPath)instruction).targetGraph;
+		}else if(instruction instanceof GetShortestPath){
+			return ((GetShortestPath)instruction).targetGraph;
+		}else if(instruction instanceof GetSimplePath){
+			return ((GetSimplePath)instruction).targetGraph;
+		}else if(instruction instanceof GetSubgraph){
+			return ((GetSubgraph)instruction).targetGraph;
+		}else if(instruction instanceof GetVertex){
+			return ((GetVertex)instruction).targetGraph;
+		}else if(instruction instanceof GetWhereAnnotationsExist){
+			return ((GetWhereAnnotationsExist)instruction).targetGraph;
+		}else if(instruction instanceof InsertLiteralEdge){
+			return ((InsertLiteralEdge)instruction).targetGraph;
+		}else if(instruction instanceof InsertLiteralVertex){
+			return ((InsertLiteralVertex)instruction).targetGraph;
+		}else if(instruction instanceof IntersectGraph){
+			return ((IntersectGraph)instruction).outputGraph;
+		}else if(instruction instanceof LimitGraph){
+			return ((LimitGraph)instruction).targetGraph;
+		}else if(instruction instanceof SubtractGraph){
+			return ((SubtractGraph)instruction).outputGraph;
+		}else if(instruction instanceof UnionGraph){
+			return ((UnionGraph)instruction).targetGraph;
+		}
+		return null;
+	}
+
+	// The graphs read
+	private static List<Graph> getInputs(final Instruction instruction){
+		final List<Graph> inputs = new ArrayList<Graph>();
+		if(instruction instanceof CollapseEdge){
+			inputs.add(((CollapseEdge)instruction).sourceGraph);
+		}else if(instruction instanceof DescribeGraph){
+			inputs.add(((DescribeGraph)instruction).graph);
+		}else if(instruction instanceof DistinctifyGraph){
+			inputs.add(((DistinctifyGraph)instruction).sourceGraph);
+		}else if(instruction instanceof ExportGraph){
+			inputs.add(((ExportGraph)instruction).targetGraph);
+		}else if(instruction instanceof GetAdjacentVertex){
+			inputs.add(((GetAdjacentVertex)instruction).subjectGraph);
+			inputs.add(((GetAdjacentVertex)instruction).sourceGraph);
+		}else if(instruction instanceof GetEdge){
+			inputs.add(((GetEdge)instruction).subjectGraph);
+		}else if(instruction instanceof GetEdgeEndpoint){
+			inputs.add(((GetEdgeEndpoint)instruction).subjectGraph);
+		}else if(instruction instanceof GetFilteredLineage){
+			inputs.add(((GetFilteredLineage)instruction).subjectGraph);
+			inputs.add(((GetFilteredLineage)instruction).startGraph);
+		}else if(instruction instanceof GetLineage){
+			inputs.add(((GetLineage)instruction).subjectGraph);
+			inputs.add(((GetLineage)instruction).startGraph);
+		}else if(instruction instanceof GetLink){
+			inputs.add(((GetLink)instruction).subjectGraph);
+			inputs.add(((GetLink)instruction).srcGraph);
+			inputs.add(((GetLink)instruction).dstGraph);
+		}else if(instruction instanceof GetMatch){
+			inputs.add(((GetMatch)instruction).graph1);
+			inputs.add(((GetMatch)instruction).graph2);
+		}else if(instruction instanceof GetPath){
+			final GetPath getPath = (GetPath)instruction;
+			inputs.add(getPath.subjectGraph);
+			inputs.add(getPath.srcGraph);
+			for(int i = 0; i < getPath.getIntermediateStepsCount(); i++){
+				inputs.add(getPath.getIntermediateStep(i).getKey());
+			}
+		}else if(instruction instanceof GetShortestPath){
+			inputs.add(((GetShortestPath)instruction).subjectGraph);
+			inputs.add(((GetShortestPath)instruction).srcGraph);
+			inputs.add(((GetShortestPath)instruction).dstGraph);
+		}else if(instruction instanceof GetSimplePath){
+			inputs.add(((GetSimplePath)instruction).subjectGraph);
+			inputs.add(((GetSimplePath)instruction).srcGraph);
+			inputs.add(((GetSimplePath)instruction).dstGraph);
+		}else if(instruction instanceof GetSubgraph){
+			inputs.add(((GetSubgraph)instruction).subjectGraph);
+			inputs.add(((GetSubgraph)instruction).skeletonGraph);
+		}else if(instruction instanceof GetVertex){
+			inputs.add(((GetVertex)instruction).subjectGraph);
+		}else if(instruction instanceof GetWhereAnnotationsExist){
+			inputs.add(((GetWhereAnnotationsExist)instruction).subjectGraph);
+		}else if(instruction instanceof IntersectGraph){
+			inputs.add(((IntersectGraph)instruction).lhsGraph);
+			inputs.add(((IntersectGraph)instruction).rhsGraph);
+		}else if(instruction instanceof LimitGraph){
+			inputs.add(((LimitGraph)instruction).sourceGraph);
+		}else if(instruction instanceof SetGraphMetadata){
+			inputs.add(((SetGraphMetadata)instruction).sourceGraph);
+		}else if(instruction instanceof StatGraph){
+			inputs.add(((StatGraph)instruction).targetGraph);
+		}else if(instruction instanceof SubtractGraph){
+			inputs.add(((SubtractGraph)instruction).minuendGraph);
+			inputs.add(((SubtractGraph)instruction).subtrahendGraph);
+		}else if(instruction instanceof UnionGraph){
+			inputs.add(((UnionGraph)instruction).sourceGraph);
+		}
+		return inputs;
+	}
+
+	private static Graph replace(final Graph graph, final Graph from, final Graph to){
+		return from.equals(graph) ? to : graph;
+	}
+
+	// Copy of the instruction with all the references to 'from' replaced by 'to'. Null if not supported
+	private static Instruction replace(final Instruction instruction, final Graph from, final Graph to){
+		if(instruction instanceof CollapseEdge){
+			final CollapseEdge i = (CollapseEdge)instruction;
+			return new CollapseEdge(replace(i.targetGraph, from, to), replace(i.sourceGraph, from, to), i.getFields());
+		}else if(instruction instanceof CreateEmptyGraph){
+			final CreateEmptyGraph i = (CreateEmptyGraph)instruction;
+			return new CreateEmptyGraph(replace(i.graph, from, to));
+		}else if(instruction instanceof DescribeGraph){
+			final DescribeGraph i = (DescribeGraph)instruction;
+			if(i.all){
+				return new DescribeGraph(replace(i.graph, from, to), i.elementType, i.limit);
+			}
+			return new DescribeGraph(replace(i.graph, from, to), i.elementType, i.annotationName, i.descriptionType,
+					i.limit);
+		}else if(instruction instanceof DistinctifyGraph){
+			final DistinctifyGraph i = (DistinctifyGraph)instruction;
+			return new DistinctifyGraph(replace(i.targetGraph, from, to), replace(i.sourceGraph, from, to));
+		}else if(instruction instanceof ExportGraph){
+			final ExportGraph i = (ExportGraph)instruction;
+			return new ExportGraph(replace(i.targetGraph, from, to), i.format, i.force, i.filePathOnServer);
+		}else if(instruction instanceof GetAdjacentVertex){
+			final GetAdjacentVertex i = (GetAdjacentVertex)instruction;
+			return new GetAdjacentVertex(replace(i.targetGraph, from, to), replace(i.subjectGraph, from, to),
+					replace(i.sourceGraph, from, to), i.direction);
+		}else if(instruction instanceof GetEdge){
+			final GetEdge i = (GetEdge)instruction;
+			if(i.hasArguments()){
+				return new GetEdge(replace(i.targetGraph, from, to), replace(i.subjectGraph, from, to),
+						i.annotationKey, i.operator, i.annotationValue);
+			}
+			return new GetEdge(replace(i.targetGraph, from, to), replace(i.subjectGraph, from, to));
+		}else if(instruction instanceof GetEdgeEndpoint){
+			final GetEdgeEndpoint i = (GetEdgeEndpoint)instruction;
+			return new GetEdgeEndpoint(replace(i.targetGraph, from, to), replace(i.subjectGraph, from, to),
+					i.component);
+		}else if(instruction instanceof GetFilteredLineage){
+			final GetFilteredLineage i = (GetFilteredLineage)instruction;
+			return new GetFilteredLineage(replace(i.targetGraph, from, to), replace(i.subjectGraph, from, to),
+					replace(i.startGraph, from, to), i.depth, i.direction,
+					i.annotationKey, i.operator, i.annotationValue, i.limit);
+		}else if(instruction instanceof GetLineage){
+			final GetLineage i = (GetLineage)instruction;
+			return new GetLineage(replace(i.targetGraph, from, to), replace(i.subjectGraph, from, to),
+					replace(i.startGraph, from, to), i.depth, i.direction, i.onlyLocal);
+		}else if(instruction instanceof GetLink){
+			final GetLink i = (GetLink)instruction;
+			return new GetLink(replace(i.targetGraph, from, to), replace(i.subjectGraph, from, to),
+					replace(i.srcGraph, from, to), replace(i.dstGraph, from, to), i.maxDepth);
+		}else if(instruction instanceof GetMatch){
+			final GetMatch i = (GetMatch)instruction;
+			return new GetMatch(replace(i.targetGraph, from, to), replace(i.graph1, from, to),
+					replace(i.graph2, from, to), i.getAnnotationKeys());
+		}else if(instruction instanceof GetPath){
+			final GetPath i = (GetPath)instruction;
+			final GetPath getPath = new GetPath(replace(i.targetGraph, from, to), replace(i.subjectGraph, from, to),
+					replace(i.srcGraph, from, to));
+			for(int s = 0; s < i.getIntermediateStepsCount(); s++){
+				final SimpleEntry<Graph, Integer> step = i.getIntermediateStep(s);
+				getPath.addIntermediateStep(replace(step.getKey(), from, to), step.getValue());
+			}
+			return getPath;
+		}else if(instruction instanceof GetShortestPath){
+			final GetShortestPath i = (GetShortestPath)instruction;
+			return new GetShortestPath(replace(i.targetGraph, from, to), replace(i.subjectGraph, from, to),
+					replace(i.srcGraph, from, to), replace(i.dstGraph, from, to), i.maxDepth);
+		}else if(instruction instanceof GetSimplePath){
+			final GetSimplePath i = (GetSimplePath)instruction;
+			return new GetSimplePath(replace(i.targetGraph, from, to), replace(i.subjectGraph, from, to),
+					replace(i.srcGraph, from, to), replace(i.dstGraph, from, to), i.maxDepth);
+		}else if(instruction instanceof GetSubgraph){
+			final GetSubgraph i = (GetSubgraph)instruction;
+			return new GetSubgraph(replace(i.targetGraph, from, to), replace(i.subjectGraph, from, to),
+					replace(i.skeletonGraph, from, to));
+		}else if(instruction instanceof GetVertex){
+			final GetVertex i = (GetVertex)instruction;
+			if(i.hasArguments()){
+				return new GetVertex(replace(i.targetGraph, from, to), replace(i.subjectGraph, from, to),
+						i.annotationKey, i.operator, i.annotationValue);
+			}
+			return new GetVertex(replace(i.targetGraph, from, to), replace(i.subjectGraph, from, to));
+		}else if(instruction instanceof GetWhereAnnotationsExist){
+			final GetWhereAnnotationsExist i = (GetWhereAnnotationsExist)instruction;
+			return new GetWhereAnnotationsExist(replace(i.targetGraph, from, to), replace(i.subjectGraph, from, to),
+					i.getAnnotationKeys());
+		}else if(instruction instanceof InsertLiteralEdge){
+			final InsertLiteralEdge i = (InsertLiteralEdge)instruction;
+			return new InsertLiteralEdge(replace(i.targetGraph, from, to), i.getEdges());
+		}else if(instruction instanceof InsertLiteralVertex){
+			final InsertLiteralVertex i = (InsertLiteralVertex)instruction;
+			return new InsertLiteralVertex(replace(i.targetGraph, from, to), i.getVertices());
+		}else if(instruction instanceof IntersectGraph){
+			final IntersectGraph i = (IntersectGraph)instruction;
+			return new IntersectGraph(replace(i.outputGraph, from, to), replace(i.lhsGraph, from, to),
+					replace(i.rhsGraph, from, to));
+		}else if(instruction instanceof LimitGraph){
+			final LimitGraph i = (LimitGraph)instruction;
+			return new LimitGraph(replace(i.targetGraph, from, to), replace(i.sourceGraph, from, to), i.limit);
+		}else if(instruction instanceof SetGraphMetadata){
+			final SetGraphMetadata i = (SetGraphMetadata)instruction;
+			return new SetGraphMetadata(i.targetMetadata, i.component, replace(i.sourceGraph, from, to), i.name,
+					i.value);
+		}else if(instruction instanceof StatGraph){
+			final StatGraph i = (StatGraph)instruction;
+			return new StatGraph(replace(i.targetGraph, from, to));
+		}else if(instruction instanceof SubtractGraph){
+			final SubtractGraph i = (SubtractGraph)instruction;
+			return new SubtractGraph(replace(i.outputGraph, from, to), replace(i.minuendGraph, from, to),
+					replace(i.subtrahendGraph, from, to), i.component);
+		}else if(instruction instanceof UnionGraph){
+			final UnionGraph i = (UnionGraph)instruction;
+			return new UnionGraph(replace(i.targetGraph, from, to), replace(i.sourceGraph, from, to));
+		}else if(getOutput(instruction) == null && getInputs(instruction).isEmpty()){
+			return instruction;
+		}
+		return null;
+	}
+}
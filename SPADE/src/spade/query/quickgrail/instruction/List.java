@@ -28,7 +28,7 @@ import spade.query.quickgrail.utility.TreeStringSerializable;
  */
 public class List extends Instruction{
 	
-	public static enum ListType{ ALL, GRAPH, CONSTRAINT, ENV }
+	public static enum ListType{ ALL, GRAPH, CONSTRAINT, ENV, CACHE }
 	
 	public final ListType type;
 
@@ -19,8 +19,15 @@
  */
 package spade.query.quickgrail.parser;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
 
+import spade.query.quickgrail.types.GraphType;
+import spade.query.quickgrail.types.IntegerType;
+import spade.query.quickgrail.types.StringType;
+import spade.query.quickgrail.types.TypedValue;
 import spade.query.quickgrail.utility.TreeStringSerializable;
 
 public class ParseProgram extends ParseTreeNode {
@@ -44,6 +51,128 @@ public class ParseProgram extends ParseTreeNode {
     return statements;
   }
 
+  private static final Pattern parameterPattern = Pattern.compile("^\\$[1-9][0-9]*$");
+
+  /**
+   * Returns a copy of this program with the parameters $1, $2, ... (used as values) replaced
+   * by the literals at index 0, 1, ... in the list. This program is not modified (so that it
+   * can be shared).
+   */
+  public ParseProgram bindParameters(List<? extends Serializable> parameters) {
+    ParseProgram program = new ParseProgram(getLineNumber(), getColumnNumber());
+    for (ParseStatement statement : statements) {
+      switch (statement.getStatementType()) {
+        case kAssignment: {
+          ParseAssignment assignment = (ParseAssignment)statement;
+          program.addStatement(new ParseAssignment(
+              assignment.getLineNumber(), assignment.getColumnNumber(),
+              assignment.getAssignmentType(), assignment.getLhs(),
+              bindParameters(assignment.getRhs(), parameters)));
+          break;
+        }
+        case kCommand: {
+          ParseCommand command = (ParseCommand)statement;
+          ParseCommand boundCommand = new ParseCommand(
+              command.getLineNumber(), command.getColumnNumber(), command.getCommandName());
+          for (ParseExpression argument : command.getArguments()) {
+            boundCommand.addArgument(bindParameters(argument, parameters));
+          }
+          program.addStatement(boundCommand);
+          break;
+        }
+        default:
+          throw new RuntimeException("Unexpected statement type: " + statement.getStatementType());
+      }
+    }
+    return program;
+  }
+
+  /**
+   * Returns the variables referenced by the statements (including the ones assigned to).
+   */
+  public List<ParseVariable> getVariables() {
+    List<ParseVariable> variables = new ArrayList<ParseVariable>();
+    for (ParseStatement statement : statements) {
+      switch (statement.getStatementType()) {
+        case kAssignment: {
+          ParseAssignment assignment = (ParseAssignment)statement;
+          variables.add(assignment.getLhs());
+          addVariables(assignment.getRhs(), variables);
+          break;
+        }
+        case kCommand: {
+          for (ParseExpression argument : ((ParseCommand)statement).getArguments()) {
+            addVariables(argument, variables);
+          }
+          break;
+        }
+        default:
+          throw new RuntimeException("Unexpected statement type: " + statement.getStatementType());
+      }
+    }
+    return variables;
+  }
+
+  private static void addVariables(ParseExpression expression, List<ParseVariable> variables) {
+    switch (expression.getExpressionType()) {
+      case kVariable:
+        variables.add((ParseVariable)expression);
+        break;
+      case kOperation: {
+        ParseOperation operation = (ParseOperation)expression;
+        if (operation.getSubject() != null) {
+          addVariables(operation.getSubject(), variables);
+        }
+        for (ParseExpression operand : operation.getOperands()) {
+          addVariables(operand, variables);
+        }
+        break;
+      }
+      default:
+        break;
+    }
+  }
+
+  private static ParseExpression bindParameters(ParseExpression expression,
+                                                List<? extends Serializable> parameters) {
+    switch (expression.getExpressionType()) {
+      case kVariable: {
+        ParseVariable variable = (ParseVariable)expression;
+        String name = variable.getName().getValue();
+        if (variable.getType() != GraphType.GetInstance() || !parameterPattern.matcher(name).matches()) {
+          return variable;
+        }
+        int index = Integer.parseInt(name.substring(1)) - 1;
+        if (index >= parameters.size()) {
+          throw new RuntimeException("No value for query parameter " + name + " at "
+                                     + variable.getLocationString() + ". Only "
+                                     + parameters.size() + " value(s) given");
+        }
+        Serializable parameter = parameters.get(index);
+        TypedValue value;
+        if (parameter instanceof Integer) {
+          value = new TypedValue(IntegerType.GetInstance(), parameter);
+        } else {
+          value = new TypedValue(StringType.GetInstance(), String.valueOf(parameter));
+        }
+        return new ParseLiteral(variable.getLineNumber(), variable.getColumnNumber(), value);
+      }
+      case kOperation: {
+        ParseOperation operation = (ParseOperation)expression;
+        ParseExpression subject = operation.getSubject();
+        ParseOperation boundOperation = new ParseOperation(
+            operation.getLineNumber(), operation.getColumnNumber(),
+            subject == null ? null : bindParameters(subject, parameters), operation.getOperator());
+        for (ParseExpression operand : operation.getOperands()) {
+          boundOperation.addOperand(bindParameters(operand, parameters));
+        }
+        return boundOperation;
+      }
+      default:
+        return expression;
+    }
+  }
+
   @Override
   protected void getFieldStringItems(
       ArrayList<String> inline_field_names,
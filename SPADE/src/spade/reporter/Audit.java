@@ -48,6 +48,7 @@ import spade.edge.opm.Used;
 import spade.edge.opm.WasDerivedFrom;
 import spade.edge.opm.WasGeneratedBy;
 import spade.edge.opm.WasTriggeredBy;
+import spade.reporter.audit.AuditEventData;
 import spade.reporter.audit.AuditEventReader;
 import spade.reporter.audit.Globals;
 import spade.reporter.audit.IPCManager;
@@ -1320,7 +1321,7 @@ public class Audit extends AbstractReporter {
 				}
 				
 				while(true){
-					Map<String, String> eventData = null;
+					AuditEventData eventData = null;
 					try{
 						eventData = auditEventReader.readEventData();
 						if(eventData == null){
@@ -2088,7 +2089,7 @@ public class Audit extends AbstractReporter {
 		}
 	}
 
-	private void finishEvent(Map<String, String> eventData){
+	private void finishEvent(AuditEventData eventData){
 
 		printStats(false);
 
@@ -2124,14 +2125,14 @@ public class Audit extends AbstractReporter {
 		}
 	}
 	
-	private void handleKernelModuleEvent(Map<String, String> eventData){
+	private void handleKernelModuleEvent(AuditEventData eventData){
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
 		String time = eventData.get(AuditEventReader.TIME);
 		SYSCALL syscall = null;
 		try{
-			String pid = eventData.get(AuditEventReader.PID);
-			Integer syscallNumber = HelperFunctions.parseInt(eventData.get(AuditEventReader.SYSCALL), null);
-			String exit = eventData.get(AuditEventReader.EXIT);
+			String pid = eventData.getPid();
+			int syscallNumber = eventData.getSyscall();
+			String exit = eventData.getExit();
 			int success = HelperFunctions.parseInt(eventData.get(AuditEventReader.SUCCESS), -1);
 			String sockFd = eventData.get(AuditEventReader.KMODULE_FD);
 			int sockType = Integer.parseInt(eventData.get(AuditEventReader.KMODULE_SOCKTYPE));
@@ -2184,6 +2185,8 @@ public class Audit extends AbstractReporter {
 		return SYSCALL.get64BitSyscall(syscallNumber);
 	}
 	
+	private static final String[] argKeys = {AuditEventReader.ARG0, AuditEventReader.ARG1, AuditEventReader.ARG2, AuditEventReader.ARG3};
+
 	/**
 	 * Converts syscall args: 'a0', 'a1', 'a2', and 'a3' from hexadecimal values to decimal values
 	 * 
@@ -2193,17 +2196,26 @@ public class Audit extends AbstractReporter {
 	 * Done so to avoid the issue of incorrectly fitting a small negative (i.e. int) value into a big (i.e. long) value
 	 * causing a wrong interpretation of bits.
 	 * 
+	 * The args already converted while reading the event are used as is. Only the rest go through BigInteger.
+	 * 
 	 * @param eventData map that contains the above-mentioned args keys and values
 	 * @param time time of the event
 	 * @param eventId id of the event
 	 * @param syscall syscall of the event
 	 */
-	private void convertArgsHexToDec(Map<String, String> eventData, String time, String eventId, SYSCALL syscall){
-		String[] argKeys = {AuditEventReader.ARG0, AuditEventReader.ARG1, AuditEventReader.ARG2, AuditEventReader.ARG3};
-		for(String argKey : argKeys){
+	private void convertArgsHexToDec(AuditEventData eventData, String time, String eventId, SYSCALL syscall){
+		for(int argIndex = 0; argIndex < argKeys.length; argIndex++){
+			String argKey = argKeys[argIndex];
 			String hexArgValue = eventData.get(argKey);
 			if(hexArgValue != null){
 				int hexArgValueLength = hexArgValue.length();
+				if(eventData.hasArgument(argIndex)){
+					if(hexArgValueLength > 16){
+						log(Level.SEVERE, "Truncated value for '" + argKey + "': '"+hexArgValue+"'. Too big for 'long' datatype", null, time, eventId, syscall);
+					}
+					eventData.put(argKey, Long.toString(eventData.getArgument(argIndex)));
+					continue;
+				}
 				try{
 					BigInteger bigInt = new BigInteger(hexArgValue, 16);
 					String argValueString = null;
@@ -2239,13 +2251,13 @@ public class Audit extends AbstractReporter {
 	 * 
 	 * @param eventId id of the event against which the key value maps are saved
 	 */
-	private void handleSyscallEvent(Map<String, String> eventData) {
+	private void handleSyscallEvent(AuditEventData eventData) {
 		String time = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
 		try {
 			processManager.processSeenInUnsupportedSyscall(eventData); // Always set first because that is what is done in spadeAuditBridge and it is updated if syscall handled.
 			
-			int syscallNum = HelperFunctions.parseInt(eventData.get(AuditEventReader.SYSCALL), -1);
+			int syscallNum = eventData.getSyscall();
 			
 			if(syscallNum == -1){
 				return;
@@ -2261,7 +2273,7 @@ public class Audit extends AbstractReporter {
 			}
 
 			if("1".equals(AUDITCTL_SYSCALL_SUCCESS_FLAG) 
-					&& AuditEventReader.SUCCESS_NO.equals(eventData.get(AuditEventReader.SUCCESS))){
+					&& !eventData.isSuccess()){
 				//if only log successful events but the current event had success no then only monitor the following calls.
 				if(syscall == SYSCALL.EXIT || syscall == SYSCALL.EXIT_GROUP
 						|| syscall == SYSCALL.CONNECT){
@@ -2375,25 +2387,25 @@ public class Audit extends AbstractReporter {
 			case WRITEV:
 			case PWRITE:
 			case PWRITEV:
-				handleIOEvent(syscall, eventData, false, eventData.get(AuditEventReader.EXIT));
+				handleIOEvent(syscall, eventData, false, eventData.getExit());
 				break;
 			case SENDMSG:
 			case SENDTO:
 				if(!HANDLE_KM_RECORDS){
-					handleIOEvent(syscall, eventData, false, eventData.get(AuditEventReader.EXIT));
+					handleIOEvent(syscall, eventData, false, eventData.getExit());
 				}
 				break;
 			case RECVFROM: 
 			case RECVMSG:
 				if(!HANDLE_KM_RECORDS){
-					handleIOEvent(syscall, eventData, true, eventData.get(AuditEventReader.EXIT));
+					handleIOEvent(syscall, eventData, true, eventData.getExit());
 				}
 				break;
 			case READ: 
 			case READV:
 			case PREAD:
 			case PREADV:
-				handleIOEvent(syscall, eventData, true, eventData.get(AuditEventReader.EXIT));
+				handleIOEvent(syscall, eventData, true, eventData.getExit());
 				break;
 			case MMAP:
 				handleMmap(eventData, syscall);
@@ -2492,11 +2504,11 @@ public class Audit extends AbstractReporter {
 		}
 	}
 
-	public final void handleIOEvent(SYSCALL syscall, Map<String, String> eventData, boolean isRead, final String bytesTransferred){
+	public final void handleIOEvent(SYSCALL syscall, AuditEventData eventData, boolean isRead, final String bytesTransferred){
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
 		String time = eventData.get(AuditEventReader.TIME);
-		String pid = eventData.get(AuditEventReader.PID);
-		String saddr = eventData.get(AuditEventReader.SADDR);
+		String pid = eventData.getPid();
+		String saddr = eventData.getSaddr();
 		String fd = eventData.get(AuditEventReader.ARG0);
 		String offset = null;
 		ArtifactIdentifier artifactIdentifier = null;	
@@ -2512,10 +2524,10 @@ public class Audit extends AbstractReporter {
 		}
 	}
 	
-	private void handleMadvise(Map<String, String> eventData, SYSCALL syscall){
+	private void handleMadvise(AuditEventData eventData, SYSCALL syscall){
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
 		String time = eventData.get(AuditEventReader.TIME);
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 		String address = new BigInteger(eventData.get(AuditEventReader.ARG0)).toString(16);
 		String length = new BigInteger(eventData.get(AuditEventReader.ARG1)).toString(16);
 		String adviceString = eventData.get(AuditEventReader.ARG2);
@@ -2545,14 +2557,14 @@ public class Audit extends AbstractReporter {
 		}
 	}
 	
-	private void handleLseek(Map<String, String> eventData, SYSCALL syscall){
+	private void handleLseek(AuditEventData eventData, SYSCALL syscall){
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
 		String time = eventData.get(AuditEventReader.TIME);
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 		String fd = eventData.get(AuditEventReader.ARG0);
 		String offsetRequested = eventData.get(AuditEventReader.ARG1);
 		String whenceString = eventData.get(AuditEventReader.ARG2);
-		String offsetActual = eventData.get(AuditEventReader.EXIT);
+		String offsetActual = eventData.getExit();
 		
 		Integer whence = HelperFunctions.parseInt(whenceString, null);
 		if(whence == null){
@@ -2580,7 +2592,7 @@ public class Audit extends AbstractReporter {
 		}
 	}
 	
-	private void handlePivotRoot(Map<String, String> eventData, SYSCALL syscall){
+	private void handlePivotRoot(AuditEventData eventData, SYSCALL syscall){
 		// pivot_root() receives the following messages(s):
 		// - SYSCALL
 		// - PATH with NORMAL nametype
@@ -2589,7 +2601,7 @@ public class Audit extends AbstractReporter {
 		
 		String time = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 		String processCwd = processManager.getCwd(pid); // never null
 		
 		final PathRecord pathRecord = PathRecord.getFirstPathWithNametype(eventData, 
@@ -2609,7 +2621,7 @@ public class Audit extends AbstractReporter {
 		}
 	}
 	
-	private void handleChroot(Map<String, String> eventData, SYSCALL syscall){
+	private void handleChroot(AuditEventData eventData, SYSCALL syscall){
 		// chroot() receives the following messages(s):
 		// - SYSCALL
 		// - PATH with NORMAL nametype
@@ -2618,7 +2630,7 @@ public class Audit extends AbstractReporter {
 		
 		String time = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 		String processCwd = processManager.getCwd(pid); // never null
 		
 		final PathRecord pathRecord = PathRecord.getFirstPathWithNametype(eventData, 
@@ -2638,7 +2650,7 @@ public class Audit extends AbstractReporter {
 		}
 	}
 	
-	private void handleChdir(Map<String, String> eventData, SYSCALL syscall){
+	private void handleChdir(AuditEventData eventData, SYSCALL syscall){
 		// chdir() receives the following messages(s):
 		// - SYSCALL
 		// - PATH with NORMAL nametype
@@ -2651,7 +2663,7 @@ public class Audit extends AbstractReporter {
 		
 		String time = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 		
 		if(syscall == SYSCALL.CHDIR){
 			PathRecord normalPathRecord = PathRecord.getFirstPathWithNametype(eventData, AuditEventReader.NAMETYPE_NORMAL);
@@ -2707,24 +2719,24 @@ public class Audit extends AbstractReporter {
 
 	private PathIdentifier resolvePath_At(PathRecord pathRecord,  
 			String atSyscallFdKey,
-			Map<String, String> eventData, SYSCALL syscall){
+			AuditEventData eventData, SYSCALL syscall){
 		return LinuxPathResolver.resolvePath(
-				pathRecord, eventData.get(AuditEventReader.CWD), eventData.get(AuditEventReader.PID), 
+				pathRecord, eventData.get(AuditEventReader.CWD), eventData.getPid(), 
 				atSyscallFdKey, eventData.get(atSyscallFdKey), true,
 				eventData.get(AuditEventReader.TIME), eventData.get(AuditEventReader.EVENT_ID), syscall, 
 				this, processManager, artifactManager, HANDLE_CHDIR);
 	}
 	
 	public final PathIdentifier resolvePath(PathRecord pathRecord,
-			Map<String, String> eventData, SYSCALL syscall){
+			AuditEventData eventData, SYSCALL syscall){
 		return LinuxPathResolver.resolvePath(
-				pathRecord, eventData.get(AuditEventReader.CWD), eventData.get(AuditEventReader.PID), 
+				pathRecord, eventData.get(AuditEventReader.CWD), eventData.getPid(), 
 				null, null, false,
 				eventData.get(AuditEventReader.TIME), eventData.get(AuditEventReader.EVENT_ID), syscall, 
 				this, processManager, artifactManager, HANDLE_CHDIR);
 	}
 
-	public final void handleUnlink(Map<String, String> eventData, SYSCALL syscall){
+	public final void handleUnlink(AuditEventData eventData, SYSCALL syscall){
 		// unlink() and unlinkat() receive the following messages(s):
 		// - SYSCALL
 		// - PATH with PARENT nametype
@@ -2771,23 +2783,21 @@ public class Audit extends AbstractReporter {
 		return fileDescriptor;
 	}
 	
-	private void handleFcntl(Map<String, String> eventData, SYSCALL syscall){
+	private void handleFcntl(AuditEventData eventData, SYSCALL syscall){
 		// fcntl() receives the following message(s):
 		// - SYSCALL
 		// - EOE
 		 
-		String exit = eventData.get(AuditEventReader.EXIT);
+		String exit = eventData.getExit();
 		if("-1".equals(exit)){ // Failure check
 			return;
 		}
 		
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 		String fd = eventData.get(AuditEventReader.ARG0);
-		String cmdString = eventData.get(AuditEventReader.ARG1);
-		String flagsString = eventData.get(AuditEventReader.ARG2);
 		
-		int cmd = HelperFunctions.parseInt(cmdString, -1);
-		int flags = HelperFunctions.parseInt(flagsString, -1);
+		int cmd = eventData.getIntArgument(1, -1);
+		int flags = eventData.getIntArgument(2, -1);
 		
 		if(cmd == F_DUPFD || cmd == F_DUPFD_CLOEXEC){
 			// In eventData, there should be a pid, a0 should be fd, and exit should be the new fd 
@@ -2807,14 +2817,14 @@ public class Audit extends AbstractReporter {
 		}
 	}
 	
-	private void handleExit(Map<String, String> eventData, SYSCALL syscall){
+	private void handleExit(AuditEventData eventData, SYSCALL syscall){
 		// exit(), and exit_group() receives the following message(s):
 		// - SYSCALL
 		// - EOE
 		processManager.handleExit(eventData, syscall, CONTROL);
 	}
 
-	private void handleMmap(Map<String, String> eventData, SYSCALL syscall){
+	private void handleMmap(AuditEventData eventData, SYSCALL syscall){
 		// mmap() receive the following message(s):
 		// - MMAP
 		// - SYSCALL
@@ -2825,13 +2835,13 @@ public class Audit extends AbstractReporter {
 		}
 
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 		String time = eventData.get(AuditEventReader.TIME);
-		String address = new BigInteger(eventData.get(AuditEventReader.EXIT)).toString(16); //convert to hexadecimal
+		String address = new BigInteger(eventData.getExit()).toString(16); //convert to hexadecimal
 		String length = new BigInteger(eventData.get(AuditEventReader.ARG1)).toString(16); //convert to hexadecimal
 		String protection = new BigInteger(eventData.get(AuditEventReader.ARG2)).toString(16); //convert to hexadecimal
 		
-		int flags = HelperFunctions.parseInt(eventData.get(AuditEventReader.ARG3), 0);
+		int flags = eventData.getIntArgument(3, 0);
 		
 		// Put Process, Memory artifact and WasGeneratedBy edge always but return if flag
 		// is MAP_ANONYMOUS
@@ -2878,7 +2888,7 @@ public class Audit extends AbstractReporter {
 
 	}
 
-	private void handleMprotect(Map<String, String> eventData, SYSCALL syscall){
+	private void handleMprotect(AuditEventData eventData, SYSCALL syscall){
 		// mprotect() receive the following message(s):
 		// - SYSCALL
 		// - EOE
@@ -2888,7 +2898,7 @@ public class Audit extends AbstractReporter {
 		}
 
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 		String time = eventData.get(AuditEventReader.TIME);
 		String address = new BigInteger(eventData.get(AuditEventReader.ARG0)).toString(16);
 		String length = new BigInteger(eventData.get(AuditEventReader.ARG1)).toString(16);
@@ -2906,7 +2916,7 @@ public class Audit extends AbstractReporter {
 		putEdge(edge, getOperation(syscall), time, eventId, AUDIT_SYSCALL_SOURCE);
 	}
 
-	private void handleExecve(Map<String, String> eventData, SYSCALL syscall) {
+	private void handleExecve(AuditEventData eventData, SYSCALL syscall) {
 		// execve() receives the following message(s):
 		// - SYSCALL
 		// - EXECVE
@@ -2918,7 +2928,7 @@ public class Audit extends AbstractReporter {
 
 		String time = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 
 		Process process = processManager.handleExecve(eventData, syscall);
 
@@ -2980,7 +2990,7 @@ public class Audit extends AbstractReporter {
 		return flagsAnnotation;
 	}
 	
-	public final void handleOpen(Map<String, String> eventData, SYSCALL syscall){
+	public final void handleOpen(AuditEventData eventData, SYSCALL syscall){
 		// open() receives the following message(s):
 		// - SYSCALL
 		// - CWD
@@ -2990,8 +3000,8 @@ public class Audit extends AbstractReporter {
 		
 		String eventTime = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
-		String pid = eventData.get(AuditEventReader.PID);
-		String fd = eventData.get(AuditEventReader.EXIT);
+		String pid = eventData.getPid();
+		String fd = eventData.getExit();
 		String modeString = null;
 		String flagsString = null;
 
@@ -3085,12 +3095,12 @@ public class Audit extends AbstractReporter {
 		}
 	}
 
-	private void handleClose(Map<String, String> eventData) {
+	private void handleClose(AuditEventData eventData) {
 		// close() receives the following message(s):
 		// - SYSCALL
 		// - EOE
-		String pid = eventData.get(AuditEventReader.PID);
-		String fd = String.valueOf(HelperFunctions.parseLong(eventData.get(AuditEventReader.ARG0), -1L));
+		String pid = eventData.getPid();
+		String fd = String.valueOf(eventData.hasArgument(0) ? eventData.getArgument(0) : -1L);
 		FileDescriptor closedFileDescriptor = processManager.removeFd(pid, fd);
 		
 		if(CONTROL){
@@ -3127,13 +3137,13 @@ public class Audit extends AbstractReporter {
 		//handling epoch at opened/created in all cases
 	}
 
-	private void handleTruncate(Map<String, String> eventData, SYSCALL syscall) {
+	private void handleTruncate(AuditEventData eventData, SYSCALL syscall) {
 		// write() receives the following message(s):
 		// - SYSCALL
 		// - EOE
 		String time = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 		String size = eventData.get(AuditEventReader.ARG1);
 
 		ArtifactIdentifier artifactIdentifier = null;
@@ -3166,14 +3176,14 @@ public class Audit extends AbstractReporter {
 		}
 	}
 
-	private void handleDup(Map<String, String> eventData, SYSCALL syscall) {
+	private void handleDup(AuditEventData eventData, SYSCALL syscall) {
 		// dup(), dup2(), and dup3() receive the following message(s):
 		// - SYSCALL
 		// - EOE
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 
 		String fd = eventData.get(AuditEventReader.ARG0);
-		String newFD = eventData.get(AuditEventReader.EXIT); //new fd returned in all: dup, dup2, dup3
+		String newFD = eventData.getExit(); //new fd returned in all: dup, dup2, dup3
 
 		if(!fd.equals(newFD)){ //if both fds same then it succeeds in case of dup2 and it does nothing so do nothing here too
 			FileDescriptor fileDescriptor = processManager.getFd(pid, fd);
@@ -3184,16 +3194,16 @@ public class Audit extends AbstractReporter {
 		}
 	}
 	
-	private void handleVmsplice(Map<String, String> eventData, SYSCALL syscall){
+	private void handleVmsplice(AuditEventData eventData, SYSCALL syscall){
 		// vmsplice() receives the following messages:
 		// - SYSCALL
 		// - EOE
 		String time = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 		
 		String fdOut = eventData.get(AuditEventReader.ARG0);
-		String bytes = eventData.get(AuditEventReader.EXIT);
+		String bytes = eventData.getExit();
 		
 		if(!"0".equals(bytes)){	
 			FileDescriptor fdOutDescriptor = processManager.getFd(pid, fdOut);
@@ -3209,7 +3219,7 @@ public class Audit extends AbstractReporter {
 		}
 	}
 	
-	private void putTeeSplice(Map<String, String> eventData, SYSCALL syscall,
+	private void putTeeSplice(AuditEventData eventData, SYSCALL syscall,
 			String time, String eventId, String fdIn, String fdOut, String pid, String bytes){
 		FileDescriptor fdInDescriptor = processManager.getFd(pid, fdIn);
 		FileDescriptor fdOutDescriptor = processManager.getFd(pid, fdOut);
@@ -3236,16 +3246,16 @@ public class Audit extends AbstractReporter {
 		putEdge(writtenToReadArtifact, getOperation(syscall), time, eventId, AUDIT_SYSCALL_SOURCE);
 	}
 	
-	private void handleTeeSplice(Map<String, String> eventData, SYSCALL syscall){
+	private void handleTeeSplice(AuditEventData eventData, SYSCALL syscall){
 		// tee(), and splice() receive the following messages:
 		// - SYSCALL
 		// - EOE
 		String time = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 
 		String fdIn = eventData.get(AuditEventReader.ARG0), fdOut = null;
-		String bytes = eventData.get(AuditEventReader.EXIT);
+		String bytes = eventData.getExit();
 		
 		if(syscall == SYSCALL.TEE){
 			fdOut = eventData.get(AuditEventReader.ARG1);
@@ -3262,14 +3272,14 @@ public class Audit extends AbstractReporter {
 		}
 	}
 
-	private void handleInitModule(Map<String, String> eventData, SYSCALL syscall){
+	private void handleInitModule(AuditEventData eventData, SYSCALL syscall){
 		// init_module(), and finit_module receive the following messages:
 		// - SYSCALL
 		// - PATH [OPTIONAL] why? not the path of the kernel module
 		// - EOE
 		String time = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 		
 		ArtifactIdentifier moduleIdentifier = null;
 		if(syscall == SYSCALL.INIT_MODULE){
@@ -3294,7 +3304,7 @@ public class Audit extends AbstractReporter {
 		}
 	}
 	
-	private void handleSetuidAndSetgid(Map<String, String> eventData, SYSCALL syscall){
+	private void handleSetuidAndSetgid(AuditEventData eventData, SYSCALL syscall){
 		// setuid(), setreuid(), setresuid(), setfsuid(), 
 		// setgid(), setregid(), setresgid(), and setfsgid() receive the following message(s):
 		// - SYSCALL
@@ -3303,7 +3313,7 @@ public class Audit extends AbstractReporter {
 		processManager.handleSetuidSetgid(eventData, syscall);
 	}
 
-	private void handleRename(Map<String, String> eventData, SYSCALL syscall) {
+	private void handleRename(AuditEventData eventData, SYSCALL syscall) {
 		// rename(), renameat(), and renameat2() receive the following message(s):
 		// - SYSCALL
 		// - CWD
@@ -3356,7 +3366,7 @@ public class Audit extends AbstractReporter {
 				newPathRecord, newArtifactIdentifier);
 	}
 	
-	private void handleMknod(Map<String, String> eventData, SYSCALL syscall){
+	private void handleMknod(AuditEventData eventData, SYSCALL syscall){
 		//mknod() receives the following message(s):
 		// - SYSCALL
 		// - CWD
@@ -3385,7 +3395,7 @@ public class Audit extends AbstractReporter {
 		}
 	}
 
-	private void handleLinkSymlink(Map<String, String> eventData, SYSCALL syscall) {
+	private void handleLinkSymlink(AuditEventData eventData, SYSCALL syscall) {
 		// link(), symlink(), linkat(), and symlinkat() receive the following message(s):
 		// - SYSCALL
 		// - CWD
@@ -3451,7 +3461,7 @@ public class Audit extends AbstractReporter {
 	 * @param srcPath path of the file being linked
 	 * @param dstPath path of the link
 	 */
-	private void handleSpecialSyscalls(Map<String, String> eventData, SYSCALL syscall, 
+	private void handleSpecialSyscalls(AuditEventData eventData, SYSCALL syscall, 
 			PathRecord srcPathRecord, ArtifactIdentifier srcArtifactIdentifier, 
 			PathRecord dstPathRecord, ArtifactIdentifier dstArtifactIdentifier){
 
@@ -3463,7 +3473,7 @@ public class Audit extends AbstractReporter {
 
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
 		String time = eventData.get(AuditEventReader.TIME);
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 
 		if(eventId == null || time == null || pid == null){
 			log(Level.INFO, "Missing keys in event data. pid:"+pid, null, time, eventId, syscall);
@@ -3490,7 +3500,7 @@ public class Audit extends AbstractReporter {
 		putEdge(wdf, getOperation(syscall), time, eventId, AUDIT_SYSCALL_SOURCE);
 	}
 
-	private void handleChmod(Map<String, String> eventData, SYSCALL syscall) {
+	private void handleChmod(AuditEventData eventData, SYSCALL syscall) {
 		// chmod(), fchmod(), and fchmodat() receive the following message(s):
 		// - SYSCALL
 		// - CWD
@@ -3498,7 +3508,7 @@ public class Audit extends AbstractReporter {
 		// - EOE
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
 		String time = eventData.get(AuditEventReader.TIME);
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 		String modeArgument = null;
 		
 		PathRecord pathRecord = PathRecord.getFirstPathWithNametype(eventData, AuditEventReader.NAMETYPE_NORMAL);
@@ -3542,7 +3552,7 @@ public class Audit extends AbstractReporter {
 		putEdge(wgb, getOperation(syscall), time, eventId, AUDIT_SYSCALL_SOURCE);
 	}
 	
-	private void handleKill(Map<String, String> eventData, SYSCALL syscall){
+	private void handleKill(AuditEventData eventData, SYSCALL syscall){
 		// kill() receives the following message(s):
 		// - SYSCALL
 		// - EOE
@@ -3555,7 +3565,7 @@ public class Audit extends AbstractReporter {
 		 */
 		
 		// Only handling successful ones
-		if("0".equals(eventData.get(AuditEventReader.EXIT))){
+		if("0".equals(eventData.getExit())){
 			String time = eventData.get(AuditEventReader.TIME);
 			String eventId = eventData.get(AuditEventReader.EVENT_ID);
 
@@ -3569,7 +3579,7 @@ public class Audit extends AbstractReporter {
 					targetPidStr = String.valueOf(targetPidInt);
 					targetProcess = processManager.getVertex(targetPidStr);
 				}else if(targetPidInt == 0){
-					String pid = eventData.get(AuditEventReader.PID);
+					String pid = eventData.getPid();
 					targetPidStr = pid;
 					targetProcess = processManager.getVertex(targetPidStr);
 				}else if(targetPidInt == -1){
@@ -3607,7 +3617,7 @@ public class Audit extends AbstractReporter {
 		}
 	}
 	
-	private void handlePtrace(Map<String, String> eventData, SYSCALL syscall){
+	private void handlePtrace(AuditEventData eventData, SYSCALL syscall){
 		// ptrace() receives the following message(s):
 		// - SYSCALL
 		// - EOE
@@ -3640,12 +3650,12 @@ public class Audit extends AbstractReporter {
 		}
 	}
 	
-	private void handleSocketPair(Map<String, String> eventData, SYSCALL syscall){
+	private void handleSocketPair(AuditEventData eventData, SYSCALL syscall){
 		// socketpair() receives the following message(s):
 		// - SYSCALL
 		// - FD_PAIR
 		// - EOE
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 		String fd0 = eventData.get(AuditEventReader.FD0);
 		String fd1 = eventData.get(AuditEventReader.FD1);
 		String domainString = eventData.get(AuditEventReader.ARG0);
@@ -3675,12 +3685,12 @@ public class Audit extends AbstractReporter {
 		}
 	}
 
-	private void handlePipe(Map<String, String> eventData, SYSCALL syscall) {
+	private void handlePipe(AuditEventData eventData, SYSCALL syscall) {
 		// pipe() receives the following message(s):
 		// - SYSCALL
 		// - FD_PAIR
 		// - EOE
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 		String fdTgid = processManager.getFdTgid(pid);
 		String fd0 = eventData.get(AuditEventReader.FD0);
 		String fd1 = eventData.get(AuditEventReader.FD1);
@@ -3736,19 +3746,19 @@ public class Audit extends AbstractReporter {
 		}
 	}
 	
-	private void handleSocket(Map<String, String> eventData, SYSCALL syscall){
+	private void handleSocket(AuditEventData eventData, SYSCALL syscall){
 		// socket() receives the following message(s):
 		// - SYSCALL
 		// - EOE
-		String sockFd = eventData.get(AuditEventReader.EXIT);
-		Integer socketType = HelperFunctions.parseInt(eventData.get(AuditEventReader.ARG1), null);
+		String sockFd = eventData.getExit();
+		Integer socketType = eventData.getIntArgument(1, null);
 		String protocolName = getProtocolNameBySockType(socketType);
 		
 		if(protocolName != null){
-			String pid = eventData.get(AuditEventReader.PID);
+			String pid = eventData.getPid();
 
 			NetworkSocketIdentifier identifierForProtocol = new NetworkSocketIdentifier(
-					null, null, null, null, protocolName, getNetworkNamespaceForPid(eventData.get(AuditEventReader.PID)));
+					null, null, null, null, protocolName, getNetworkNamespaceForPid(pid));
 			processManager.setFd(pid, sockFd, new FileDescriptor(identifierForProtocol, null)); // no close edge
 		}
 	}
@@ -3764,7 +3774,7 @@ public class Audit extends AbstractReporter {
 	}
 
 	// needed for marking epoch for unix socket
-	private void handleBindKernelModule(Map<String, String> eventData, String time, String eventId, SYSCALL syscall,
+	private void handleBindKernelModule(AuditEventData eventData, String time, String eventId, SYSCALL syscall,
 			String pid, String exit, String sockFd, int sockType, String localSaddr, String remoteSaddr){
 		boolean isNetwork = isNetworkSaddr(localSaddr) || isNetworkSaddr(remoteSaddr);
 		if(!isNetwork){
@@ -3780,16 +3790,16 @@ public class Audit extends AbstractReporter {
 		}
 	}
 	
-	private void handleBind(Map<String, String> eventData, SYSCALL syscall) {
+	private void handleBind(AuditEventData eventData, SYSCALL syscall) {
 		// bind() receives the following message(s):
 		// - SYSCALL
 		// - SADDR
 		// - EOE
 		String time = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
-		String saddr = eventData.get(AuditEventReader.SADDR);
+		String saddr = eventData.getSaddr();
 		String sockFd = eventData.get(AuditEventReader.ARG0);
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 
 		if(!isNetlinkSaddr(saddr)){ // not handling netlink
 			ArtifactIdentifier identifier = null;
@@ -3837,7 +3847,7 @@ public class Audit extends AbstractReporter {
 	}
 		
 	private void putConnect(SYSCALL syscall, String time, String eventId, String pid, String fd, 
-			ArtifactIdentifier fdIdentifier, Map<String, String> eventData){
+			ArtifactIdentifier fdIdentifier, AuditEventData eventData){
 		if(fdIdentifier != null){
 			if(fdIdentifier instanceof NetworkSocketIdentifier){
 				artifactManager.artifactCreated(fdIdentifier);
@@ -3860,7 +3870,7 @@ public class Audit extends AbstractReporter {
 		}
 	}
 	
-	private void handleConnectKernelModule(Map<String, String> eventData, String time, String eventId, SYSCALL syscall,
+	private void handleConnectKernelModule(AuditEventData eventData, String time, String eventId, SYSCALL syscall,
 			String pid, String exit, String sockFd, int sockType, String localSaddr, String remoteSaddr){
 		// if not network then unix. Only that being handled in kernel module
 		boolean isNetwork = isNetworkSaddr(localSaddr) || isNetworkSaddr(remoteSaddr);
@@ -3880,23 +3890,23 @@ public class Audit extends AbstractReporter {
 		}
 	}
 
-	private void handleConnect(Map<String, String> eventData, SYSCALL syscall){
+	private void handleConnect(AuditEventData eventData, SYSCALL syscall){
 		//connect() receives the following message(s):
 		// - SYSCALL
 		// - SADDR
 		// - EOE	
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
 		String time = eventData.get(AuditEventReader.TIME);
-		String pid = eventData.get(AuditEventReader.PID);
-		String saddr = eventData.get(AuditEventReader.SADDR);
+		String pid = eventData.getPid();
+		String saddr = eventData.getSaddr();
 		String sockFd = eventData.get(AuditEventReader.ARG0);
 		
-		Integer exit = HelperFunctions.parseInt(eventData.get(AuditEventReader.EXIT), null);
-		if(exit == null){
-			log(Level.WARNING, "Failed to parse exit value: " + eventData.get(AuditEventReader.EXIT), 
+		if(!eventData.hasExitValue()){
+			log(Level.WARNING, "Failed to parse exit value: " + eventData.getExit(), 
 					null, time, eventId, syscall);
 			return;
-		}else{ // not null
+		}else{
+			final long exit = eventData.getExitValue();
 			// only handling if success is 0 or success is EINPROGRESS
 			if(exit != 0 // no success
 					&& exit != EINPROGRESS){ //in progress with possible failure in the future. see manpage.
@@ -3927,7 +3937,7 @@ public class Audit extends AbstractReporter {
 	}
 
 	private void putAccept(SYSCALL syscall, String time, String eventId, String pid, String fd, 
-			ArtifactIdentifier fdIdentifier, Map<String, String> eventData){
+			ArtifactIdentifier fdIdentifier, AuditEventData eventData){
 		// eventData must contain all information need to create a process vertex
 		if(fdIdentifier != null){
 			if(fdIdentifier instanceof NetworkSocketIdentifier){
@@ -3951,7 +3961,7 @@ public class Audit extends AbstractReporter {
 		}
 	}
 	
-	private void handleAcceptKernelModule(Map<String, String> eventData, String time, String eventId, SYSCALL syscall,
+	private void handleAcceptKernelModule(AuditEventData eventData, String time, String eventId, SYSCALL syscall,
 			String pid, String fd, String sockFd, int sockType, String localSaddr, String remoteSaddr){
 		// if not network then unix. Only that being handled in kernel module
 		boolean isNetwork = isNetworkSaddr(localSaddr) || isNetworkSaddr(remoteSaddr);
@@ -3970,17 +3980,17 @@ public class Audit extends AbstractReporter {
 		}
 	}
 	
-	private void handleAccept(Map<String, String> eventData, SYSCALL syscall) {
+	private void handleAccept(AuditEventData eventData, SYSCALL syscall) {
 		//accept() & accept4() receive the following message(s):
 		// - SYSCALL
 		// - SADDR
 		// - EOE
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
 		String time = eventData.get(AuditEventReader.TIME);
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 		String sockFd = eventData.get(AuditEventReader.ARG0); //the fd on which the connection was accepted, not the fd of the connection
-		String fd = eventData.get(AuditEventReader.EXIT); //fd of the connection
-		String saddr = eventData.get(AuditEventReader.SADDR);
+		String fd = eventData.getExit(); //fd of the connection
+		String saddr = eventData.getSaddr();
 
 		if(!isNetlinkSaddr(saddr)){ // not handling netlink saddr
 			ArtifactIdentifier identifier = null;
@@ -4060,7 +4070,7 @@ public class Audit extends AbstractReporter {
 		return identifier;
 	}
 	
-	private void handleNetworkIOKernelModule(Map<String, String> eventData, String time, String eventId, SYSCALL syscall,
+	private void handleNetworkIOKernelModule(AuditEventData eventData, String time, String eventId, SYSCALL syscall,
 			String pid, String bytes, String sockFd, int sockType, String localSaddr, String remoteSaddr,
 			boolean isRecv){
 		boolean isNetwork = isNetworkSaddr(localSaddr) || isNetworkSaddr(remoteSaddr);
@@ -4090,7 +4100,7 @@ public class Audit extends AbstractReporter {
 		putIO(eventData, time, eventId, syscall, pid, sockFd, identifier, bytes, null, isRecv);
 	}
 	
-	private void putIO(Map<String, String> eventData, String time, String eventId, SYSCALL syscall,
+	private void putIO(AuditEventData eventData, String time, String eventId, SYSCALL syscall,
 			String pid, String fd, ArtifactIdentifier identifier, 
 			String bytesTransferred, String offset, boolean incoming){
 
@@ -4174,10 +4184,10 @@ public class Audit extends AbstractReporter {
 		}
 	}
 	
-	public final Artifact putArtifactFromSyscall(Map<String, String> eventData, ArtifactIdentifier identifier){
+	public final Artifact putArtifactFromSyscall(AuditEventData eventData, ArtifactIdentifier identifier){
 		String time = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 		String source = AUDIT_SYSCALL_SOURCE;
 		String operation = getOperation(SYSCALL.UPDATE);
 		return artifactManager.putArtifact(time, eventId, operation, pid, source, identifier);
@@ -28,9 +28,6 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.json.JSONObject;
-import org.json.JSONTokener;
-
 import spade.core.AbstractEdge;
 import spade.core.AbstractReporter;
 import spade.core.AbstractVertex;
@@ -91,7 +88,7 @@ public class JSON extends AbstractReporter{
 	private volatile boolean shutdown = false;
 	private volatile Reader reader = null; 
 	private volatile boolean mainRunning = false;
-	private volatile JSONTokener jsonTokener = null;
+	private volatile JSONRecordReader recordReader = null;
 	
 	private volatile boolean mainStopped = false;
 
@@ -147,37 +144,27 @@ public class JSON extends AbstractReporter{
 	
 				lastReportedAtMillis = System.currentTimeMillis();
 
-				Object object = null;
+				final JSONRecordReader.Record record = new JSONRecordReader.Record();
 				while(!isShutdown()){
 					printStats(false);
 	
 					try{
-						object = jsonTokener.nextValue();
+						if(!recordReader.skipToObject()){ // end of input
+							break;
+						}
+						recordReader.readRecord(record);
+					}catch(JSONRecordReader.SyntaxException e){
+						// Resume at the next '{'
+						log(Level.WARNING, "Skipped malformed JSON object. " + e.getMessage());
+						continue;
 					}catch(Exception e){
 						log(Level.SEVERE, "Failed to read JSON object", e);
 						break;
 					}
-					if(object == null){
-						log(Level.SEVERE, "NULL JSON object");
-						break;
-					}
-					if(!object.getClass().equals(JSONObject.class)){
-						log(Level.SEVERE, "Unexpected JSON element '"+object+"'. Expected JSON object");
-						break;
-					}
-					try{
-						processJSONObject((JSONObject)object);
-					}catch(Exception e){
-						log(Level.SEVERE, "Failed to process JSON object: " + object, e);
-						break;
-					}
 					try{
-						char c = jsonTokener.skipTo('{');
-						if(c != '{'){ // end of input
-							break;
-						}
+						processRecord(record);
 					}catch(Exception e){
-						log(Level.SEVERE, "Failed to find the next JSON object", e);
+						log(Level.SEVERE, "Failed to process JSON object: " + record, e);
 						break;
 					}
 				}
@@ -283,14 +270,13 @@ public class JSON extends AbstractReporter{
 		this.logAll = logAll;
 		
 		try{
-			this.jsonTokener = new JSONTokener(this.reader);
+			this.recordReader = new JSONRecordReader(this.reader);
 		}catch(Exception e){
-			throw new Exception("Failed to create JSON tokener", e);
+			throw new Exception("Failed to create JSON reader", e);
 		}
 		
 		try{
-			char c = jsonTokener.skipTo('{');
-			if(c != '{'){
+			if(!recordReader.skipToObject()){
 				throw new Exception("No JSON object");
 			}
 		}catch(Exception e){
@@ -338,108 +324,119 @@ public class JSON extends AbstractReporter{
 			}
 
 			printStats(true);
+
+			shutdownResources();
 		}
 		return true;
 	}
 
-	private final void processJSONObject(final JSONObject jsonObject){
-		final String typeString = jsonObject.optString(AbstractVertex.typeKey, null);
-		if(AbstractVertex.isVertexType(typeString)){
-			processVertex(jsonObject);
-		}else if(AbstractEdge.isEdgeType(typeString)){
-			processEdge(jsonObject);
+	/**
+	 * Called once on shutdown after the main thread has exited. For subclasses to release their resources.
+	 */
+	protected void shutdownResources(){
+		// Nothing
+	}
+
+	private final void processRecord(final JSONRecordReader.Record record){
+		if(AbstractVertex.isVertexType(record.type)){
+			processVertex(record);
+		}else if(AbstractEdge.isEdgeType(record.type)){
+			processEdge(record);
 		}else{
-			log(Level.WARNING, "Unhandled 'type' in JSON object: " + jsonObject);
+			log(Level.WARNING, "Unhandled 'type' in JSON object: " + record);
 			return;
 		}
 	}
 
-	private final void processVertex(final JSONObject vertexObject){
-		final String idString = vertexObject.optString(AbstractVertex.idKey, null);
-		
-		if(HelperFunctions.isNullOrEmpty(idString)){
-			log(Level.WARNING, "NULL/Empty vertex 'id' in JSON object: " + vertexObject);
+	private final void processVertex(final JSONRecordReader.Record vertexRecord){
+		final AbstractVertex vertex;
+		try{
+			vertex = createVertex(vertexRecord);
+		}catch(Exception e){
+			log(Level.WARNING, e.getMessage());
 			return;
 		}
-		
-		final String typeString = vertexObject.optString(AbstractVertex.typeKey, null);
-		
-		if(HelperFunctions.isNullOrEmpty(typeString)){
-			log(Level.WARNING, "NULL/Empty vertex 'type' in JSON object: " + vertexObject);
+
+		vertexCountIncrement();
+		putVertexToBuffer(vertex);
+	}
+
+	private final void processEdge(final JSONRecordReader.Record edgeRecord){
+		final AbstractEdge edge;
+		try{
+			edge = createEdge(edgeRecord);
+		}catch(Exception e){
+			log(Level.WARNING, e.getMessage());
 			return;
 		}
+
+		edgeCountIncrement();
+		putEdgeToBuffer(edge);
+	}
+
+	/**
+	 * @param vertexRecord Record with 'id', 'type', and 'annotations'
+	 * @return The vertex
+	 * @throws Exception If the record is not a valid vertex
+	 */
+	static final AbstractVertex createVertex(final JSONRecordReader.Record vertexRecord) throws Exception{
+		final String idString = vertexRecord.id;
 		
-		final Map<String, String> annotationsMap = new HashMap<String, String>();
+		if(HelperFunctions.isNullOrEmpty(idString)){
+			throw new Exception("NULL/Empty vertex 'id' in JSON object: " + vertexRecord);
+		}
 		
-		try{
-			final JSONObject annotationsObject = vertexObject.optJSONObject(AbstractVertex.annotationsKey);
+		final String typeString = vertexRecord.type;
 		
-			if(annotationsObject == null){
-				throw new Exception("NULL 'annotations'");
-			}
-			
-			annotationsMap.putAll(HelperFunctions.convertJSONObjectToMap(annotationsObject));
-		}catch(Exception e){
-			log(Level.WARNING, "Failed to get/parse vertex 'annotations' map in JSON object: " + vertexObject, e);
-			return;
+		if(HelperFunctions.isNullOrEmpty(typeString)){
+			throw new Exception("NULL/Empty vertex 'type' in JSON object: " + vertexRecord);
 		}
 		
-		annotationsMap.put(AbstractVertex.typeKey, typeString);
+		if(!vertexRecord.hasAnnotations){
+			throw new Exception("Failed to get/parse vertex 'annotations' map in JSON object: " + vertexRecord);
+		}
 		
 		final Vertex vertex = new Vertex(idString);
-		vertex.addAnnotations(annotationsMap);
-
-		vertexCountIncrement();
-		putVertexToBuffer(vertex);
+		vertex.addAnnotations(vertexRecord.annotations);
+		vertex.addAnnotation(AbstractVertex.typeKey, typeString);
+		return vertex;
 	}
 
-	private final void processEdge(final JSONObject edgeObject){
-		final String fromIdString = edgeObject.optString(AbstractEdge.fromIdKey, null);
+	/**
+	 * @param edgeRecord Record with 'from', 'to', 'type', and 'annotations'
+	 * @return The edge with endpoints that only have the ids
+	 * @throws Exception If the record is not a valid edge
+	 */
+	static final AbstractEdge createEdge(final JSONRecordReader.Record edgeRecord) throws Exception{
+		final String fromIdString = edgeRecord.from;
 		
 		if(HelperFunctions.isNullOrEmpty(fromIdString)){
-			log(Level.WARNING, "NULL/Empty edge 'from' id in JSON object: " + edgeObject);
-			return;
+			throw new Exception("NULL/Empty edge 'from' id in JSON object: " + edgeRecord);
 		}
 		
-		final String toIdString = edgeObject.optString(AbstractEdge.toIdKey, null);
+		final String toIdString = edgeRecord.to;
 		
 		if(HelperFunctions.isNullOrEmpty(toIdString)){
-			log(Level.WARNING, "NULL/Empty edge 'to' id in JSON object: " + edgeObject);
-			return;
+			throw new Exception("NULL/Empty edge 'to' id in JSON object: " + edgeRecord);
 		}
 		
-		final String typeString = edgeObject.optString(AbstractEdge.typeKey, null);
+		final String typeString = edgeRecord.type;
 		
 		if(HelperFunctions.isNullOrEmpty(typeString)){
-			log(Level.WARNING, "NULL/Empty edge 'type' in JSON object: " + edgeObject);
-			return;
+			throw new Exception("NULL/Empty edge 'type' in JSON object: " + edgeRecord);
 		}
 		
-		final Map<String, String> annotationsMap = new HashMap<String, String>();
-		
-		try{
-			final JSONObject annotationsObject = edgeObject.optJSONObject(AbstractEdge.annotationsKey);
-		
-			if(annotationsObject == null){
-				throw new Exception("NULL 'annotations'");
-			}
-			
-			annotationsMap.putAll(HelperFunctions.convertJSONObjectToMap(annotationsObject));
-		}catch(Exception e){
-			log(Level.WARNING, "Failed to get/parse edge 'annotations' map in JSON object: " + edgeObject, e);
-			return;
+		if(!edgeRecord.hasAnnotations){
+			throw new Exception("Failed to get/parse edge 'annotations' map in JSON object: " + edgeRecord);
 		}
-		
-		annotationsMap.put(AbstractEdge.typeKey, typeString);
 
 		final AbstractVertex childVertex = new Vertex(fromIdString);
 		final AbstractVertex parentVertex = new Vertex(toIdString);
 
 		final AbstractEdge edge = new Edge(childVertex, parentVertex);
-		edge.addAnnotations(annotationsMap);
-
-		edgeCountIncrement();
-		putEdgeToBuffer(edge);
+		edge.addAnnotations(edgeRecord.annotations);
+		edge.addAnnotation(AbstractEdge.typeKey, typeString);
+		return edge;
 	}
 	
 	protected void putVertexToBuffer(final AbstractVertex vertex){
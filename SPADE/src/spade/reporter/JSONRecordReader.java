@@ -0,0 +1,578 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Pull parser for a stream of SPADE JSON vertex and edge objects.
+ *
+ * Reads the fields 'type', 'id', 'from', 'to', and 'annotations' of an object directly from a
+ * reusable character buffer into a reusable record without building a JSON object tree. Other
+ * fields are skipped. Values are converted to strings the same way as org.json followed by
+ * String.valueOf i.e. numbers with a fraction or an exponent are normalized, literals are lower
+ * case, and nested objects or arrays are serialized by org.json.
+ *
+ * After a {@link SyntaxException} the input is positioned at the offending character, and
+ * {@link #skipToObject()} resumes at the next '{'.
+ *
+ * Not thread-safe.
+ */
+public class JSONRecordReader{
+
+	public static final int defaultBufferSize = 1024 * 1024;
+
+	private static final String typeKey = "type", idKey = "id", fromKey = "from", toKey = "to",
+			annotationsKey = "annotations";
+
+	private static final int keyCacheSize = 2048; // Power of 2
+
+	private Reader reader;
+	private final char[] buffer;
+	private int position = 0, limit = 0;
+	// Number of characters in the buffers before the current one
+	private long bufferOffset = 0;
+
+	// For strings split across buffers or with escapes, and for nested values
+	private final StringBuilder scratch = new StringBuilder(256);
+	// Keys repeat across objects so they are shared instead of allocating them again
+	private final String[] keyCache = new String[keyCacheSize];
+
+	private boolean lastValueWasNull = false;
+
+	public JSONRecordReader(final Reader reader){
+		this(reader, defaultBufferSize);
+	}
+
+	public JSONRecordReader(final Reader reader, final int bufferSize){
+		if(bufferSize < 1){
+			throw new IllegalArgumentException("Buffer size must be greater than 0: " + bufferSize);
+		}
+		this.buffer = new char[bufferSize];
+		reset(reader);
+	}
+
+	/**
+	 * Starts reading from the given reader. The buffers are kept.
+	 *
+	 * @param reader The input
+	 */
+	public void reset(final Reader reader){
+		if(reader == null){
+			throw new IllegalArgumentException("NULL reader");
+		}
+		this.reader = reader;
+		this.position = this.limit = 0;
+		this.bufferOffset = 0;
+	}
+
+	/**
+	 * @return The number of characters read so far
+	 */
+	public long getOffset(){
+		return bufferOffset + position;
+	}
+
+	/**
+	 * Skips everything until the next '{' (not consumed).
+	 *
+	 * @return False if end of input
+	 * @throws IOException If the reader failed
+	 */
+	public boolean skipToObject() throws IOException{
+		while(true){
+			for(int i = position; i < limit; i++){
+				if(buffer[i] == '{'){
+					position = i;
+					return true;
+				}
+			}
+			position = limit;
+			if(!fill()){
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Reads the object at the current position into the record.
+	 *
+	 * @param record Cleared first
+	 * @throws SyntaxException If the object is malformed or incomplete
+	 * @throws IOException If the reader failed
+	 */
+	public void readRecord(final Record record) throws IOException{
+		record.clear();
+		skipWhitespace();
+		expect('{');
+		skipWhitespace();
+		if(peek() == '}'){
+			position++;
+			return;
+		}
+		while(true){
+			final String key = readKey();
+			skipWhitespace();
+			expect(':');
+			skipWhitespace();
+			if(annotationsKey.equals(key)){
+				if(peek() == '{'){
+					readAnnotations(record.annotations);
+					record.hasAnnotations = true;
+				}else{
+					skipValue();
+					record.hasAnnotations = false;
+				}
+			}else if(typeKey.equals(key)){
+				record.type = readTopLevelValue(true);
+			}else if(idKey.equals(key)){
+				record.id = readTopLevelValue(false);
+			}else if(fromKey.equals(key)){
+				record.from = readTopLevelValue(false);
+			}else if(toKey.equals(key)){
+				record.to = readTopLevelValue(false);
+			}else{
+				skipValue();
+			}
+			if(endOfMembers()){
+				return;
+			}
+		}
+	}
+
+	private String readTopLevelValue(final boolean intern) throws IOException{
+		final String value = readValue(intern);
+		// Same as optString with a null default
+		return lastValueWasNull ? null : value;
+	}
+
+	private void readAnnotations(final Map<String, String> annotations) throws IOException{
+		expect('{');
+		skipWhitespace();
+		if(peek() == '}'){
+			position++;
+			return;
+		}
+		while(true){
+			final String key = readKey();
+			skipWhitespace();
+			expect(':');
+			skipWhitespace();
+			annotations.put(key, readValue(false));
+			if(endOfMembers()){
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return True if the closing '}' was consumed. False if ',' was consumed and there is another member
+	 */
+	private boolean endOfMembers() throws IOException{
+		skipWhitespace();
+		final int c = peek();
+		if(c == '}'){
+			position++;
+			return true;
+		}
+		if(c != ',' && c != ';'){
+			throw syntaxError("Expected a ',' or '}'", c);
+		}
+		position++;
+		skipWhitespace();
+		if(peek() == '}'){ // Trailing separator
+			position++;
+			return true;
+		}
+		return false;
+	}
+
+	private String readKey() throws IOException{
+		final int c = peek();
+		if(c == '"' || c == '\''){
+			position++;
+			return readString((char)c, true);
+		}
+		if(c == '{' || c == '[' || c == '}'){
+			throw syntaxError("Expected a key", c);
+		}
+		final String token = readToken();
+		if(token.isEmpty()){
+			throw syntaxError("Expected a key", peek());
+		}
+		return token;
+	}
+
+	private String readValue(final boolean intern) throws IOException{
+		lastValueWasNull = false;
+		final int c = peek();
+		switch(c){
+			case '"':
+			case '\'':
+				position++;
+				return readString((char)c, intern);
+			case '{':
+			case '[':
+				final String raw = readNested();
+				try{
+					return c == '{' ? new JSONObject(raw).toString() : new JSONArray(raw).toString();
+				}catch(JSONException e){
+					throw new SyntaxException(e.getMessage(), getOffset());
+				}
+			case -1:
+				throw syntaxError("Expected a value", c);
+			default:
+				final String token = readToken();
+				if(token.isEmpty()){
+					throw syntaxError("Missing value", peek());
+				}
+				return convertToken(token);
+		}
+	}
+
+	/**
+	 * Same as org.json JSONObject.stringToValue followed by String.valueOf
+	 */
+	private String convertToken(final String token){
+		if(token.equalsIgnoreCase("true")){
+			return "true";
+		}
+		if(token.equalsIgnoreCase("false")){
+			return "false";
+		}
+		if(token.equalsIgnoreCase("null")){
+			lastValueWasNull = true;
+			return "null";
+		}
+		final char b = token.charAt(0);
+		if((b >= '0' && b <= '9') || b == '.' || b == '-' || b == '+'){
+			try{
+				if(token.indexOf('.') > -1 || token.indexOf('e') > -1 || token.indexOf('E') > -1){
+					final double d = Double.parseDouble(token);
+					if(!Double.isInfinite(d) && !Double.isNaN(d)){
+						return Double.toString(d);
+					}
+				}else{
+					return Long.toString(Long.parseLong(token));
+				}
+			}catch(NumberFormatException e){
+				// Not a number
+			}
+		}
+		return token;
+	}
+
+	private void skipValue() throws IOException{
+		final int c = peek();
+		switch(c){
+			case '"':
+			case '\'':
+				position++;
+				skipString((char)c);
+				return;
+			case '{':
+			case '[':
+				readNested();
+				return;
+			case -1:
+				throw syntaxError("Expected a value", c);
+			default:
+				if(readToken().isEmpty()){
+					throw syntaxError("Missing value", peek());
+				}
+		}
+	}
+
+	/**
+	 * Unquoted value like org.json i.e. until a control character or one of ",:]}/\"[{;=#", and trimmed
+	 */
+	private String readToken() throws IOException{
+		scratch.setLength(0);
+		int c;
+		while((c = peek()) >= ' ' && !isTokenDelimiter(c)){
+			scratch.append((char)c);
+			position++;
+		}
+		return scratch.toString().trim();
+	}
+
+	private static boolean isTokenDelimiter(final int c){
+		switch(c){
+			case ',': case ':': case ']': case '}': case '/': case '\\': case '"': case '[': case '{':
+			case ';': case '=': case '#':
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * @param quote The opening quote (already consumed)
+	 * @param intern True to share the string from the key cache
+	 */
+	private String readString(final char quote, final boolean intern) throws IOException{
+		// Fast path when the whole string is in the buffer without escapes
+		final int start = position;
+		for(int i = start; i < limit; i++){
+			final char c = buffer[i];
+			if(c == quote){
+				position = i + 1;
+				return intern ? intern(start, i - start) : new String(buffer, start, i - start);
+			}
+			if(c == '\\' || c == '\n' || c == '\r'){
+				break;
+			}
+		}
+		scratch.setLength(0);
+		while(true){
+			if(position >= limit && !fill()){
+				throw syntaxError("Unterminated string", -1);
+			}
+			final char c = buffer[position];
+			if(c == quote){
+				position++;
+				return scratch.toString();
+			}
+			if(c == '\n' || c == '\r'){
+				throw syntaxError("Unterminated string", c);
+			}
+			position++;
+			if(c == '\\'){
+				appendEscape();
+			}else{
+				scratch.append(c);
+			}
+		}
+	}
+
+	private void skipString(final char quote) throws IOException{
+		while(true){
+			if(position >= limit && !fill()){
+				throw syntaxError("Unterminated string", -1);
+			}
+			final char c = buffer[position];
+			if(c == quote){
+				position++;
+				return;
+			}
+			if(c == '\n' || c == '\r'){
+				throw syntaxError("Unterminated string", c);
+			}
+			position++;
+			if(c == '\\'){
+				if(position >= limit && !fill()){
+					throw syntaxError("Unterminated string", -1);
+				}
+				position++;
+			}
+		}
+	}
+
+	private void appendEscape() throws IOException{
+		final int c = next();
+		switch(c){
+			case 'b': scratch.append('\b'); break;
+			case 't': scratch.append('\t'); break;
+			case 'n': scratch.append('\n'); break;
+			case 'f': scratch.append('\f'); break;
+			case 'r': scratch.append('\r'); break;
+			case '"': case '\'': case '\\': case '/': scratch.append((char)c); break;
+			case 'u':
+				int codeUnit = 0;
+				for(int i = 0; i < 4; i++){
+					final int digit = Character.digit(next(), 16);
+					if(digit < 0){
+						throw syntaxError("Illegal escape", peek());
+					}
+					codeUnit = (codeUnit << 4) | digit;
+				}
+				scratch.append((char)codeUnit);
+				break;
+			default:
+				throw syntaxError("Illegal escape", c);
+		}
+	}
+
+	/**
+	 * @return The text of the nested object or array at the current position
+	 */
+	private String readNested() throws IOException{
+		scratch.setLength(0);
+		int depth = 0;
+		char quote = 0;
+		boolean escaped = false;
+		do{
+			final int c = next();
+			if(c == -1){
+				throw syntaxError("Unterminated object or array", c);
+			}
+			scratch.append((char)c);
+			if(quote != 0){
+				if(escaped){
+					escaped = false;
+				}else if(c == '\\'){
+					escaped = true;
+				}else if(c == quote){
+					quote = 0;
+				}
+			}else if(c == '"' || c == '\''){
+				quote = (char)c;
+			}else if(c == '{' || c == '['){
+				depth++;
+			}else if(c == '}' || c == ']'){
+				depth--;
+			}
+		}while(depth > 0);
+		return scratch.toString();
+	}
+
+	private String intern(final int start, final int length){
+		int hash = 0;
+		for(int i = start; i < start + length; i++){
+			hash = 31 * hash + buffer[i];
+		}
+		final int slot = (hash ^ (hash >>> 16)) & (keyCacheSize - 1);
+		final String cached = keyCache[slot];
+		if(cached != null && cached.length() == length){
+			boolean equal = true;
+			for(int i = 0; i < length; i++){
+				if(cached.charAt(i) != buffer[start + i]){
+					equal = false;
+					break;
+				}
+			}
+			if(equal){
+				return cached;
+			}
+		}
+		final String string = new String(buffer, start, length);
+		keyCache[slot] = string;
+		return string;
+	}
+
+	private void skipWhitespace() throws IOException{
+		while(true){
+			while(position < limit){
+				if(buffer[position] > ' '){
+					return;
+				}
+				position++;
+			}
+			if(!fill()){
+				return;
+			}
+		}
+	}
+
+	private void expect(final char expected) throws IOException{
+		final int c = peek();
+		if(c != expected){
+			throw syntaxError("Expected '" + expected + "'", c);
+		}
+		position++;
+	}
+
+	private int peek() throws IOException{
+		if(position >= limit && !fill()){
+			return -1;
+		}
+		return buffer[position];
+	}
+
+	private int next() throws IOException{
+		if(position >= limit && !fill()){
+			return -1;
+		}
+		return buffer[position++];
+	}
+
+	private boolean fill() throws IOException{
+		bufferOffset += limit;
+		position = 0;
+		limit = 0;
+		final int read = reader.read(buffer, 0, buffer.length);
+		if(read <= 0){
+			return false;
+		}
+		limit = read;
+		return true;
+	}
+
+	private SyntaxException syntaxError(final String message, final int found){
+		return new SyntaxException(message + " but found " + (found == -1 ? "end of input" : ("'" + (char)found + "'")),
+				getOffset());
+	}
+
+	/**
+	 * Malformed or incomplete JSON object
+	 */
+	public static final class SyntaxException extends IOException{
+		private static final long serialVersionUID = -2430567406245155128L;
+
+		public final long offset;
+
+		private SyntaxException(final String message, final long offset){
+			super(message + " at character " + offset);
+			this.offset = offset;
+		}
+	}
+
+	/**
+	 * The fields of a vertex or an edge. Null if missing (or JSON null)
+	 */
+	public static final class Record{
+		public String type, id, from, to;
+		/**
+		 * False if 'annotations' was missing or was not an object
+		 */
+		public boolean hasAnnotations;
+		public final Map<String, String> annotations = new HashMap<String, String>();
+
+		public void clear(){
+			type = id = from = to = null;
+			hasAnnotations = false;
+			annotations.clear();
+		}
+
+		@Override
+		public String toString(){
+			final JSONObject object = new JSONObject();
+			try{
+				object.putOpt(typeKey, type);
+				object.putOpt(idKey, id);
+				object.putOpt(fromKey, from);
+				object.putOpt(toKey, to);
+				if(hasAnnotations){
+					object.put(annotationsKey, annotations);
+				}
+			}catch(JSONException e){
+				// Not possible with string values
+			}
+			return object.toString();
+		}
+	}
+}
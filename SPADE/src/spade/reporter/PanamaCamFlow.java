@@ -21,25 +21,49 @@ package spade.reporter;
 
 import spade.core.AbstractEdge;
 import spade.core.AbstractVertex;
+import spade.core.Settings;
+import spade.utility.HelperFunctions;
+import spade.utility.Result;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * CamFlow + PANAMA reporter for SPADE
- * 
+ *
  * This is a very thin layer on top of CamFlow that just tweaks networking id
+ *
+ * Packet vertices are indexed by their CamFlow id and then by jiffies. An edge to a packet
+ * waits (indexed by the packet id) until a packet with the same id and close enough jiffies
+ * is seen, and then the closest one is used. Packets and waiting edges older than
+ * 'jiffiesRetention' behind the highest jiffies seen are discarded.
  */
 public class PanamaCamFlow extends CamFlow{
 
-	private Map<String, List<AlternateIdentifier>> idMapping = new HashMap<>();
+	private static final String keyJiffiesTolerance = "jiffiesTolerance", keyJiffiesRetention = "jiffiesRetention";
 
-	private List<AbstractEdge> waitingEdges = new ArrayList<>();
+	// Packet id -> jiffies -> packet
+	private final Map<String, TreeMap<Double, AlternateIdentifier>> idMapping = new HashMap<>();
 
+	// Packet id -> edges waiting for that packet in the order seen
+	private final Map<String, List<WaitingEdge>> waitingEdges = new HashMap<>();
+
+	// Packets and waiting edges ordered by jiffies for expiry
+	private final PriorityQueue<Expirable> expiryQueue = new PriorityQueue<>();
+
+	private double jiffiesTolerance = 10; // should be close
+	private double jiffiesRetention = 0;
+	private double jiffiesWatermark = Double.NEGATIVE_INFINITY;
+
+	private long edgesMatched = 0, edgesPending = 0, edgesExpired = 0, edgesWithoutJiffies = 0;
+	private long packetsIndexed = 0, packetsExpired = 0;
 
 	private final Logger logger = Logger.getLogger(this.getClass().getName());
 
@@ -51,19 +75,52 @@ public class PanamaCamFlow extends CamFlow{
 	@Override
 	public synchronized boolean launch(String arguments){
 		getLogger().log(Level.INFO, "launching PanamaCamFlow reporter");
-		return super.launch(arguments);
+		final Map<String, String> map = new HashMap<String, String>();
+		try{
+			final String configFilePath = Settings.getDefaultConfigFilePath(this.getClass());
+			map.putAll(HelperFunctions.parseKeyValuePairsFrom(arguments, configFilePath, null));
+		}catch(Exception e){
+			log(Level.SEVERE, "Failed to parse arguments and/or storage config file", e);
+			return false;
+		}
+
+		final String jiffiesToleranceString = map.remove(keyJiffiesTolerance);
+		if(jiffiesToleranceString != null){
+			final Result<Double> result = HelperFunctions.parseDouble(jiffiesToleranceString, 0, Double.MAX_VALUE);
+			if(result.error){
+				log(Level.SEVERE, "Invalid value for '" + keyJiffiesTolerance + "'. " + result.errorMessage);
+				return false;
+			}
+			jiffiesTolerance = result.result;
+		}
+		final String jiffiesRetentionString = map.remove(keyJiffiesRetention);
+		if(jiffiesRetentionString != null){
+			final Result<Double> result = HelperFunctions.parseDouble(jiffiesRetentionString, 0, Double.MAX_VALUE);
+			if(result.error){
+				log(Level.SEVERE, "Invalid value for '" + keyJiffiesRetention + "'. " + result.errorMessage);
+				return false;
+			}
+			jiffiesRetention = result.result;
+		}
+		log(Level.INFO, "Arguments [" + keyJiffiesTolerance + "=" + jiffiesTolerance + ", "
+				+ keyJiffiesRetention + "=" + jiffiesRetention + "]");
+
+		return super.launch(map);
 	}
 
 	@Override
 	protected void putVertexToBuffer(AbstractVertex vertex) {
 		String id = vertex.id();
-		if(vertex.getAnnotation("object_type").equals("packet")){
+		if("packet".equals(vertex.getAnnotation("object_type"))){
 			AlternateIdentifier newId = getAlternateIdForVertex(vertex);
 			vertex.setId(newId.toString()); // rewrite the ID to be unique :)
 			vertex.addAnnotation("panama_ipid", id); // keep the old id around so we can use it later
-			getLogger().log(Level.INFO, "rewrote " + id + " to be " + newId);
+			if(getLogger().isLoggable(Level.FINE)){
+				getLogger().log(Level.FINE, "rewrote " + id + " to be " + newId);
+			}
 
-			findAndCommitCandidateEdges(); // we may now have edges ready to commit
+			findAndCommitCandidateEdges(id); // we may now have edges ready to commit
+			advanceWatermark(newId.jiffies);
 		}
 
 		super.putVertexToBuffer(vertex);
@@ -71,97 +128,219 @@ public class PanamaCamFlow extends CamFlow{
 
 	@Override
 	protected void putEdgeToBuffer(AbstractEdge edge) {
-		if(edge.getAnnotation("relation_type").equals("packet_content")
-				|| edge.getAnnotation("relation_type").equals("send_packet")
-				|| edge.getAnnotation("relation_type").equals("receive_packet")){
-			waitingEdges.add(edge); // we need to hold this edge here until we have enough info to rewrite it
-			findAndCommitCandidateEdges();
+		final String relationType = edge.getAnnotation("relation_type");
+		if("packet_content".equals(relationType)
+				|| "send_packet".equals(relationType)
+				|| "receive_packet".equals(relationType)){
+			final double jiffies = parseJiffies(edge.getAnnotation("jiffies"));
+			if(Double.isNaN(jiffies)){
+				// Cannot be matched to a packet
+				edgesWithoutJiffies++;
+				super.putEdgeToBuffer(edge);
+				return;
+			}
+			// we need to hold this edge here until we have enough info to rewrite it
+			final WaitingEdge waitingEdge = new WaitingEdge(edge, jiffies, !"receive_packet".equals(relationType));
+			if(!commitIfMatched(waitingEdge)){
+				List<WaitingEdge> list = waitingEdges.get(waitingEdge.packetId);
+				if(list == null){
+					list = new ArrayList<>();
+					waitingEdges.put(waitingEdge.packetId, list);
+				}
+				list.add(waitingEdge);
+				edgesPending++;
+				if(jiffiesRetention > 0){
+					expiryQueue.add(waitingEdge);
+				}
+			}
+			advanceWatermark(jiffies);
 		} else { // this isnt an edge we care about so handle as normal
 			super.putEdgeToBuffer(edge);
 		}
 	}
 
-	private AlternateIdentifier closeEnoughClosest(String jiffies, String id){
-		List<AlternateIdentifier> bucket = idMapping.get(id);
-		for (AlternateIdentifier aId : bucket){
-			if(aId.isCloseTo(jiffies)){
-				return aId; //TODO get the best one here
-			}
+	/**
+	 * @return The packet with the given id and the closest jiffies within tolerance, or null
+	 */
+	private AlternateIdentifier closeEnoughClosest(double jiffies, String id){
+		final TreeMap<Double, AlternateIdentifier> packets = idMapping.get(id);
+		if(packets == null){
+			return null;
+		}
+		final Map.Entry<Double, AlternateIdentifier> floor = packets.floorEntry(jiffies);
+		final Map.Entry<Double, AlternateIdentifier> ceiling = packets.ceilingEntry(jiffies);
+		Map.Entry<Double, AlternateIdentifier> closest = floor;
+		if(closest == null || (ceiling != null && (ceiling.getKey() - jiffies) < (jiffies - closest.getKey()))){
+			closest = ceiling;
+		}
+		if(closest != null && Math.abs(closest.getKey() - jiffies) < jiffiesTolerance){
+			return closest.getValue();
 		}
 		return null;
 	}
 
-	private void findAndCommitCandidateEdges(){
-		List<AbstractEdge> toRemove = new ArrayList<>();
-		for (AbstractEdge e : waitingEdges){
-			switch (e.getAnnotation("relation_type")){
-				case "packet_content":
-				case "send_packet":
-					AlternateIdentifier id = closeEnoughClosest(e.getAnnotation("jiffies"), e.getChildVertex().id());
-					if(id != null){
-						getLogger().log(Level.INFO, "found an id match for a");
-						e.setChildVertex(id.getVertex());
-						toRemove.add(e);
-						super.putEdgeToBuffer(e);
-					}
-					break;
-				case "receive_packet":
-					AlternateIdentifier id2 = closeEnoughClosest(e.getAnnotation("jiffies"), e.getParentVertex().id());
-					if(id2 != null){
-						getLogger().log(Level.INFO, "found an id match for b");
-						e.setParentVertex(id2.getVertex());
-						toRemove.add(e);
-						super.putEdgeToBuffer(e);
-					}
-					break;
+	private boolean commitIfMatched(final WaitingEdge waitingEdge){
+		final AlternateIdentifier id = closeEnoughClosest(waitingEdge.jiffies, waitingEdge.packetId);
+		if(id == null){
+			return false;
+		}
+		if(waitingEdge.packetIsChild){
+			waitingEdge.edge.setChildVertex(id.getVertex());
+		}else{
+			waitingEdge.edge.setParentVertex(id.getVertex());
+		}
+		edgesMatched++;
+		super.putEdgeToBuffer(waitingEdge.edge);
+		return true;
+	}
+
+	/**
+	 * Only the edges waiting on the packet id need to be checked.
+	 */
+	private void findAndCommitCandidateEdges(String packetId){
+		final List<WaitingEdge> list = waitingEdges.get(packetId);
+		if(list == null){
+			return;
+		}
+		final Iterator<WaitingEdge> iterator = list.iterator();
+		while(iterator.hasNext()){
+			final WaitingEdge waitingEdge = iterator.next();
+			if(commitIfMatched(waitingEdge)){
+				waitingEdge.done = true;
+				iterator.remove();
+				edgesPending--;
 			}
 		}
-		waitingEdges.removeAll(toRemove);
+		if(list.isEmpty()){
+			waitingEdges.remove(packetId);
+		}
+	}
+
+	private void advanceWatermark(final double jiffies){
+		if(jiffies > jiffiesWatermark){
+			jiffiesWatermark = jiffies;
+		}
+		if(jiffiesRetention <= 0){
+			return;
+		}
+		final double expireBefore = jiffiesWatermark - jiffiesRetention;
+		Expirable head;
+		while((head = expiryQueue.peek()) != null && head.getJiffies() < expireBefore){
+			expiryQueue.poll();
+			head.expire();
+		}
 	}
 
 	@Override
 	protected boolean printStats(boolean force){
 		boolean printed = super.printStats(force);
+		if(printed){
+			log(Level.INFO, "PacketsIndexed=" + packetsIndexed + ", PacketsExpired=" + packetsExpired
+					+ ", EdgesMatched=" + edgesMatched + ", EdgesPending=" + edgesPending
+					+ ", EdgesExpired=" + edgesExpired + ", EdgesWithoutJiffies=" + edgesWithoutJiffies
+					+ ", JiffiesWatermark=" + jiffiesWatermark);
+		}
 		return printed;
 	}
 
-	private boolean jiffiesAreClose(String one, String two){
-		double jiffiesA = Double.parseDouble(one);
-		double jiffiesB = Double.parseDouble(two);
-
-		return Math.abs(jiffiesA - jiffiesB) < 10; // should be close
+	private static double parseJiffies(String jiffies){
+		if(jiffies == null){
+			return Double.NaN;
+		}
+		try{
+			return Double.parseDouble(jiffies);
+		}catch(NumberFormatException e){
+			return Double.NaN;
+		}
 	}
 
 	private AlternateIdentifier getAlternateIdForVertex(AbstractVertex v){
 		AlternateIdentifier al = new AlternateIdentifier(v);
-		if(!idMapping.containsKey(al.getOldId())){
-			idMapping.put(al.getOldId(), new ArrayList<>());
+		if(!Double.isNaN(al.jiffies)){
+			TreeMap<Double, AlternateIdentifier> packets = idMapping.get(al.getOldId());
+			if(packets == null){
+				packets = new TreeMap<>();
+				idMapping.put(al.getOldId(), packets);
+			}
+			// Keep the first one seen if the same id and jiffies are seen again
+			if(!packets.containsKey(al.jiffies)){
+				packets.put(al.jiffies, al);
+				packetsIndexed++;
+				if(jiffiesRetention > 0){
+					expiryQueue.add(al);
+				}
+			}
 		}
-		idMapping.get(al.getOldId()).add(al);
 		return al;
 	}
 
-	private class AlternateIdentifier{
+	private static interface Expirable extends Comparable<Expirable>{
+		double getJiffies();
+		void expire();
+
+		@Override
+		default int compareTo(Expirable other){
+			return Double.compare(getJiffies(), other.getJiffies());
+		}
+	}
+
+	private class WaitingEdge implements Expirable{
+		private final AbstractEdge edge;
+		private final double jiffies;
+		// True if the packet is the child vertex (packet_content, send_packet). Otherwise the parent
+		private final boolean packetIsChild;
+		private final String packetId;
+		private boolean done = false;
+
+		private WaitingEdge(AbstractEdge edge, double jiffies, boolean packetIsChild){
+			this.edge = edge;
+			this.jiffies = jiffies;
+			this.packetIsChild = packetIsChild;
+			this.packetId = packetIsChild ? edge.getChildVertex().id() : edge.getParentVertex().id();
+		}
+
+		@Override
+		public double getJiffies(){
+			return jiffies;
+		}
+
+		@Override
+		public void expire(){
+			if(done){
+				return;
+			}
+			done = true;
+			final List<WaitingEdge> list = waitingEdges.get(packetId);
+			if(list != null){
+				list.remove(this);
+				if(list.isEmpty()){
+					waitingEdges.remove(packetId);
+				}
+			}
+			edgesPending--;
+			edgesExpired++;
+		}
+	}
+
+	private class AlternateIdentifier implements Expirable{
 		private AbstractVertex vertex;
 		private String oldId;
-		private String jiffies;
+		private String jiffiesString;
+		private double jiffies;
 		private String sender;
 		private String receiver;
 
 		public AlternateIdentifier(AbstractVertex vertex) {
 			this.vertex = vertex;
 			this.oldId = vertex.id();
-			this.jiffies = vertex.getAnnotation("jiffies");
+			this.jiffiesString = vertex.getAnnotation("jiffies");
+			this.jiffies = parseJiffies(jiffiesString);
 			this.sender = vertex.getAnnotation("sender");
 			this.receiver = vertex.getAnnotation("receiver");
 		}
 
 		public String getNewId(){
-			return "PAN" + this.oldId + jiffies + sender + receiver + "AMA";
-		}
-
-		public boolean isCloseTo(String jiffies){
-			return jiffiesAreClose(jiffies, this.jiffies);
+			return "PAN" + this.oldId + jiffiesString + sender + receiver + "AMA";
 		}
 
 		public AbstractVertex getVertex() {
@@ -172,10 +351,23 @@ public class PanamaCamFlow extends CamFlow{
 			return oldId;
 		}
 
-		public String getJiffies() {
+		@Override
+		public double getJiffies() {
 			return jiffies;
 		}
 
+		@Override
+		public void expire(){
+			final TreeMap<Double, AlternateIdentifier> packets = idMapping.get(oldId);
+			if(packets != null && packets.get(jiffies) == this){
+				packets.remove(jiffies);
+				if(packets.isEmpty()){
+					idMapping.remove(oldId);
+				}
+				packetsExpired++;
+			}
+		}
+
 		public String getSender() {
 			return sender;
 		}
@@ -0,0 +1,753 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractReporter;
+import spade.core.AbstractVertex;
+import spade.core.Settings;
+import spade.reporter.camflow.VertexReferences;
+import spade.utility.HelperFunctions;
+import spade.utility.Result;
+
+/**
+ * CamFlow reporter for SPADE that reads multiple logs (one per host) at the same time.
+ *
+ * The input is a directory, a single file, or a glob in the file name (like '/tmp/audits/audit*.log').
+ * A reader thread per log splits the log into JSON objects, and chunks of objects are parsed on a
+ * shared pool of worker threads. The parsed chunks are merged in a deterministic order on a single
+ * thread, and the endpoints of edges are resolved against one index for all the logs (so vertices
+ * referred across hosts are resolved too).
+ *
+ * Merge order 'jiffies' interleaves the logs by the jiffies annotation (ties in the order of the
+ * file names). Records without jiffies keep the position of the last jiffies seen in their log.
+ * Merge order 'host' reads the logs one after the other in the order of the file names.
+ * In both, the records of one log stay in the order of the log.
+ */
+public class ParallelCamFlow extends AbstractReporter{
+
+	private final Logger logger = Logger.getLogger(this.getClass().getName());
+
+	private static final String keyInput = "input", keyThreads = "threads", keyChunkSize = "chunkSize",
+			keyChunksInFlight = "chunksInFlight", keyMergeOrder = "mergeOrder", keyJiffiesAnnotation = "jiffiesAnnotation",
+			keyReportingIntervalSeconds = "reportingIntervalSeconds";
+
+	private static enum MergeOrder{ JIFFIES, HOST }
+
+	private static final int readerBufferSize = 64 * 1024;
+
+	private int chunkSize;
+	private int chunksInFlight;
+	private MergeOrder mergeOrder;
+	private String jiffiesAnnotation;
+	private long reportingIntervalMillis;
+
+	private final List<Source> sources = new ArrayList<Source>();
+	private ExecutorService workers;
+	private Thread mergeThread;
+
+	private boolean isLaunched = false;
+	private volatile boolean shutdown = false;
+
+	private static final String vertexReferencesMapId = "CamFlowVertexMap";
+	private static final String incompleteEdgesMapId = "CamFlowEdgeMap";
+
+	// Used by the merge thread only (after launch)
+	private VertexReferences vertexReferences;
+
+	// Updated by the worker threads
+	private final LongAdder objectsParsed = new LongAdder();
+	private final LongAdder objectsInvalid = new LongAdder();
+
+	// Updated by the merge thread only
+	private long vertexCountOverall = 0, vertexCountInterval = 0;
+	private long edgeCountOverall = 0, edgeCountInterval = 0;
+	private long lastReportedAtMillis = 0;
+
+	private void log(final Level level, final String msg){
+		logger.log(level, msg);
+	}
+
+	private void log(final Level level, final String msg, final Exception exception){
+		logger.log(level, msg, exception);
+	}
+
+	@Override
+	public synchronized boolean launch(final String arguments){
+		if(isLaunched){
+			log(Level.SEVERE, "Reporter already launched");
+			return false;
+		}
+
+		final Map<String, String> map = new HashMap<String, String>();
+		try{
+			final String configFilePath = Settings.getDefaultConfigFilePath(this.getClass());
+			map.putAll(HelperFunctions.parseKeyValuePairsFrom(arguments, configFilePath, null));
+		}catch(Exception e){
+			log(Level.SEVERE, "Failed to parse arguments and/or storage config file", e);
+			return false;
+		}
+
+		final String inputString = map.remove(keyInput);
+		final String threadsString = map.remove(keyThreads);
+		final String chunkSizeString = map.remove(keyChunkSize);
+		final String chunksInFlightString = map.remove(keyChunksInFlight);
+		final String mergeOrderString = map.remove(keyMergeOrder);
+		final String jiffiesAnnotationString = map.remove(keyJiffiesAnnotation);
+		final String reportingIntervalSecondsString = map.remove(keyReportingIntervalSeconds);
+
+		final List<File> files;
+		try{
+			files = resolveInput(inputString);
+		}catch(Exception e){
+			log(Level.SEVERE, "Invalid value for '" + keyInput + "': '" + inputString + "'", e);
+			return false;
+		}
+
+		final Result<Long> threadsResult = HelperFunctions.parseLong(threadsString, 10, 0, Short.MAX_VALUE);
+		if(threadsResult.error){
+			log(Level.SEVERE, "Invalid value for '" + keyThreads + "'. " + threadsResult.errorMessage);
+			return false;
+		}
+		final int threads = threadsResult.result.intValue() == 0
+				? Runtime.getRuntime().availableProcessors() : threadsResult.result.intValue();
+
+		final Result<Long> chunkSizeResult = HelperFunctions.parseLong(chunkSizeString, 10, 1, Integer.MAX_VALUE);
+		if(chunkSizeResult.error){
+			log(Level.SEVERE, "Invalid value for '" + keyChunkSize + "'. " + chunkSizeResult.errorMessage);
+			return false;
+		}
+		this.chunkSize = chunkSizeResult.result.intValue();
+
+		final Result<Long> chunksInFlightResult = HelperFunctions.parseLong(chunksInFlightString, 10, 1, Integer.MAX_VALUE);
+		if(chunksInFlightResult.error){
+			log(Level.SEVERE, "Invalid value for '" + keyChunksInFlight + "'. " + chunksInFlightResult.errorMessage);
+			return false;
+		}
+		this.chunksInFlight = chunksInFlightResult.result.intValue();
+
+		final Result<MergeOrder> mergeOrderResult = HelperFunctions.parseEnumValue(MergeOrder.class, mergeOrderString, true);
+		if(mergeOrderResult.error){
+			log(Level.SEVERE, "Invalid value for '" + keyMergeOrder + "'. " + mergeOrderResult.errorMessage);
+			return false;
+		}
+		this.mergeOrder = mergeOrderResult.result;
+
+		if(HelperFunctions.isNullOrEmpty(jiffiesAnnotationString)){
+			log(Level.SEVERE, "NULL/Empty value for '" + keyJiffiesAnnotation + "'");
+			return false;
+		}
+		this.jiffiesAnnotation = jiffiesAnnotationString.trim();
+
+		final Result<Long> reportingIntervalSecondsResult =
+				HelperFunctions.parseLong(reportingIntervalSecondsString, 10, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		if(reportingIntervalSecondsResult.error){
+			log(Level.SEVERE, "Invalid value for '" + keyReportingIntervalSeconds + "'. "
+					+ reportingIntervalSecondsResult.errorMessage);
+			return false;
+		}
+		this.reportingIntervalMillis = reportingIntervalSecondsResult.result * 1000L;
+
+		log(Level.INFO, "Arguments [" + keyInput + "=" + inputString + ", " + keyThreads + "=" + threads
+				+ ", " + keyChunkSize + "=" + chunkSize + ", " + keyChunksInFlight + "=" + chunksInFlight
+				+ ", " + keyMergeOrder + "=" + mergeOrder + ", " + keyJiffiesAnnotation + "=" + jiffiesAnnotation
+				+ ", " + keyReportingIntervalSeconds + "=" + reportingIntervalSecondsString + "]");
+		log(Level.INFO, "Input logs (in host order): " + files);
+
+		final Result<VertexReferences> vertexReferencesResult = VertexReferences.create(new VertexReferences.Output(){
+			@Override
+			public void putVertex(final AbstractVertex vertex){
+				ParallelCamFlow.this.putVertex(vertex);
+			}
+			@Override
+			public void putEdge(final AbstractEdge edge){
+				ParallelCamFlow.this.putEdge(edge);
+			}
+		}, vertexReferencesMapId, incompleteEdgesMapId, map);
+		if(vertexReferencesResult.error){
+			log(Level.SEVERE, "Failed to create vertex references map");
+			log(Level.SEVERE, vertexReferencesResult.toErrorString());
+			return false;
+		}
+		vertexReferences = vertexReferencesResult.result;
+
+		if(!map.isEmpty()){
+			log(Level.INFO, "Unused key-value pairs in the arguments and/or config file: " + map);
+		}
+
+		try{
+			for(int i = 0; i < files.size(); i++){
+				sources.add(new Source(i, files.get(i)));
+			}
+		}catch(Exception e){
+			log(Level.SEVERE, "Failed to open input logs", e);
+			closeSources();
+			sources.clear();
+			vertexReferences.close();
+			vertexReferences = null;
+			return false;
+		}
+
+		final AtomicInteger workerCount = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(threads, new ThreadFactory(){
+			@Override
+			public Thread newThread(final Runnable runnable){
+				final Thread thread = new Thread(runnable,
+						ParallelCamFlow.this.getClass().getSimpleName() + "-worker-" + workerCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		for(final Source source : sources){
+			source.readerThread.start();
+		}
+		mergeThread = new Thread(merge, this.getClass().getSimpleName() + "-merge-thread");
+		mergeThread.start();
+
+		isLaunched = true;
+		return true;
+	}
+
+	/**
+	 * @param input A directory, a file, or a glob in the file name
+	 * @return Readable files sorted by name
+	 * @throws Exception If no readable file
+	 */
+	private static List<File> resolveInput(final String input) throws Exception{
+		if(HelperFunctions.isNullOrEmpty(input)){
+			throw new Exception("NULL/Empty path");
+		}
+		final Path path = Paths.get(input.trim());
+		final List<Path> paths = new ArrayList<Path>();
+		if(Files.isDirectory(path)){
+			try(DirectoryStream<Path> stream = Files.newDirectoryStream(path)){
+				for(final Path child : stream){
+					paths.add(child);
+				}
+			}
+		}else if(Files.exists(path)){
+			paths.add(path);
+		}else{
+			final Path directory = path.getParent() == null ? Paths.get(".") : path.getParent();
+			try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, path.getFileName().toString())){
+				for(final Path child : stream){
+					paths.add(child);
+				}
+			}
+		}
+
+		final List<File> files = new ArrayList<File>();
+		for(final Path child : paths){
+			if(Files.isRegularFile(child) && Files.isReadable(child)){
+				files.add(child.toFile());
+			}
+		}
+		if(files.isEmpty()){
+			throw new Exception("No readable file");
+		}
+		Collections.sort(files, new Comparator<File>(){
+			@Override
+			public int compare(final File a, final File b){
+				return a.getName().compareTo(b.getName());
+			}
+		});
+		return files;
+	}
+
+	@Override
+	public boolean shutdown(){
+		synchronized(this){
+			if(shutdown){
+				return true;
+			}
+			shutdown = true;
+		}
+		log(Level.INFO, "Waiting for threads to exit... ");
+		joinQuietly(mergeThread);
+		for(final Source source : sources){
+			joinQuietly(source.readerThread);
+		}
+		if(workers != null){
+			workers.shutdownNow();
+		}
+		closeSources();
+		printStats(true);
+		if(vertexReferences != null){
+			vertexReferences.close();
+		}
+		return true;
+	}
+
+	private void closeSources(){
+		for(final Source source : sources){
+			source.close();
+		}
+	}
+
+	private static void joinQuietly(final Thread thread){
+		if(thread != null){
+			try{
+				thread.join();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private boolean printStats(final boolean force){
+		final long currentMillis = System.currentTimeMillis();
+		if(force || (reportingIntervalMillis > 0 && currentMillis - lastReportedAtMillis >= reportingIntervalMillis)){
+			log(Level.INFO, "Vertices [Overall=" + vertexCountOverall + ", Interval=" + vertexCountInterval + "]");
+			log(Level.INFO, "Edges [Overall=" + edgeCountOverall + ", Interval=" + edgeCountInterval + "]");
+			log(Level.INFO, "Objects [Parsed=" + objectsParsed.sum() + ", Invalid=" + objectsInvalid.sum() + "]");
+			if(vertexReferences != null){
+				log(Level.INFO, "TotalCurrentVertexReferences=" + vertexReferences.size()
+						+ ", TotalCurrentIncompleteEdges=" + vertexReferences.getCurrentTotalIncompleteEdges());
+			}
+			final StringBuilder chunks = new StringBuilder();
+			for(final Source source : sources){
+				if(chunks.length() > 0){
+					chunks.append(", ");
+				}
+				chunks.append(source.file.getName()).append('=').append(source.chunks.size());
+				if(source.done){
+					chunks.append("(done)");
+				}
+			}
+			log(Level.INFO, "Chunks in flight [" + chunks + "]");
+			log(Level.INFO, "Current Buffer Size=" + getBuffer().size());
+			vertexCountInterval = edgeCountInterval = 0;
+			lastReportedAtMillis = currentMillis;
+			return true;
+		}
+		return false;
+	}
+
+	private final Runnable merge = new Runnable(){
+		@Override
+		public void run(){
+			lastReportedAtMillis = System.currentTimeMillis();
+			final PriorityQueue<Source> heads = new PriorityQueue<Source>(Math.max(1, sources.size()), new Comparator<Source>(){
+				@Override
+				public int compare(final Source a, final Source b){
+					if(mergeOrder == MergeOrder.JIFFIES){
+						final int result = Double.compare(a.headKey, b.headKey);
+						if(result != 0){
+							return result;
+						}
+					}
+					return Integer.compare(a.index, b.index);
+				}
+			});
+			try{
+				for(final Source source : sources){
+					if(source.advance()){
+						heads.add(source);
+					}
+				}
+				Source source;
+				while(!shutdown && (source = heads.poll()) != null){
+					final Record record = source.head;
+					try{
+						if(record.vertex != null){
+							vertexCountOverall++;
+							vertexCountInterval++;
+							vertexReferences.putVertex(record.vertex);
+						}else{
+							edgeCountOverall++;
+							edgeCountInterval++;
+							vertexReferences.putEdge(record.edge);
+						}
+					}catch(Exception e){
+						// Only this record is lost
+						log(Level.SEVERE, "Failed to put " + (record.vertex != null ? "vertex" : "edge")
+								+ " from '" + source.file + "'", e);
+					}
+					if(source.advance()){
+						heads.add(source);
+					}
+					printStats(false);
+				}
+			}catch(InterruptedException e){
+				log(Level.WARNING, "Interrupted while waiting for parsed chunks");
+			}catch(Exception e){
+				log(Level.SEVERE, "Failed to merge parsed chunks", e);
+			}finally{
+				log(Level.INFO, "Exited merge thread");
+			}
+		}
+	};
+
+	/**
+	 * A parsed vertex or edge
+	 */
+	private static final class Record{
+		private final AbstractVertex vertex;
+		private final AbstractEdge edge;
+		// NaN if none
+		private final double jiffies;
+
+		private Record(final AbstractVertex vertex, final AbstractEdge edge, final double jiffies){
+			this.vertex = vertex;
+			this.edge = edge;
+			this.jiffies = jiffies;
+		}
+	}
+
+	private static final List<Record> endOfInput = Collections.emptyList();
+
+	private static final ThreadLocal<JSONRecordReader> recordReaders = new ThreadLocal<JSONRecordReader>(){
+		@Override
+		protected JSONRecordReader initialValue(){
+			return new JSONRecordReader(new StringReader(""), readerBufferSize);
+		}
+	};
+
+	private final class ChunkParser implements Callable<List<Record>>{
+		private final Source source;
+		private final String objects;
+		private final int objectCount;
+
+		private ChunkParser(final Source source, final String objects, final int objectCount){
+			this.source = source;
+			this.objects = objects;
+			this.objectCount = objectCount;
+		}
+
+		@Override
+		public List<Record> call() throws IOException{
+			final List<Record> records = new ArrayList<Record>(objectCount);
+			final JSONRecordReader recordReader = recordReaders.get();
+			recordReader.reset(new StringReader(objects));
+			final JSONRecordReader.Record jsonRecord = new JSONRecordReader.Record();
+			while(recordReader.skipToObject()){
+				objectsParsed.increment();
+				try{
+					recordReader.readRecord(jsonRecord);
+				}catch(JSONRecordReader.SyntaxException e){
+					objectsInvalid.increment();
+					log(Level.WARNING, "Skipped malformed JSON object in '" + source.file + "'. " + e.getMessage());
+					continue;
+				}
+				final Record record = parse(jsonRecord);
+				if(record == null){
+					objectsInvalid.increment();
+				}else{
+					records.add(record);
+				}
+			}
+			return records;
+		}
+
+		private Record parse(final JSONRecordReader.Record jsonRecord){
+			try{
+				if(AbstractVertex.isVertexType(jsonRecord.type)){
+					final AbstractVertex vertex = JSON.createVertex(jsonRecord);
+					return new Record(vertex, null, parseJiffies(vertex.getAnnotation(jiffiesAnnotation)));
+				}else if(AbstractEdge.isEdgeType(jsonRecord.type)){
+					final AbstractEdge edge = JSON.createEdge(jsonRecord);
+					return new Record(null, edge, parseJiffies(edge.getAnnotation(jiffiesAnnotation)));
+				}else{
+					log(Level.WARNING, "Unhandled 'type' in JSON object in '" + source.file + "': " + jsonRecord);
+					return null;
+				}
+			}catch(Exception e){
+				log(Level.WARNING, "Invalid JSON object in '" + source.file + "'. " + e.getMessage());
+				return null;
+			}
+		}
+	}
+
+	private static double parseJiffies(final String jiffies){
+		if(jiffies == null){
+			return Double.NaN;
+		}
+		try{
+			return Double.parseDouble(jiffies);
+		}catch(NumberFormatException e){
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * A log with its reader thread, and the chunks submitted for parsing in the order of the log.
+	 */
+	private final class Source{
+		private final int index;
+		private final File file;
+		private final Reader reader;
+		private final BlockingQueue<Future<List<Record>>> chunks;
+		private final Thread readerThread;
+		private volatile boolean done = false;
+
+		// Used by the merge thread only
+		private List<Record> chunk = null;
+		private int position = 0;
+		private Record head = null;
+		private double headKey = Double.NEGATIVE_INFINITY;
+
+		// Used by the reader thread only
+		private final char[] buffer = new char[readerBufferSize];
+		private int bufferPosition = 0, bufferLimit = 0;
+		// Text of the objects in the current chunk
+		private final StringBuilder objects = new StringBuilder(64 * 1024);
+		// The objects and arrays open in the object being appended
+		private final StringBuilder containers = new StringBuilder();
+		// Returned by appendObject for a complete object (not a character)
+		private static final int objectComplete = -2;
+
+		private Source(final int index, final File file) throws Exception{
+			this.index = index;
+			this.file = file;
+			this.reader = new BufferedReader(new FileReader(file), readerBufferSize);
+			this.chunks = new ArrayBlockingQueue<Future<List<Record>>>(chunksInFlight);
+			this.readerThread = new Thread(read,
+					ParallelCamFlow.this.getClass().getSimpleName() + "-reader-" + index + "-" + file.getName());
+		}
+
+		private final Runnable read = new Runnable(){
+			@Override
+			public void run(){
+				int objectCount = 0;
+				try{
+					while(!shutdown && nextObject()){
+						if(++objectCount >= chunkSize){
+							submit(objectCount);
+							objectCount = 0;
+						}
+					}
+					if(objectCount > 0){
+						submit(objectCount);
+					}
+				}catch(InterruptedException e){
+					log(Level.WARNING, "Interrupted while reading '" + file + "'");
+				}catch(Exception e){
+					// The objects read before the failure (like a truncated last object) are complete
+					if(objectCount > 0){
+						try{
+							submit(objectCount);
+						}catch(InterruptedException ie){
+							log(Level.WARNING, "Interrupted while reading '" + file + "'");
+						}
+					}
+					log(Level.SEVERE, "Failed to read '" + file + "'", e);
+				}finally{
+					try{
+						enqueue(CompletableFuture.completedFuture(endOfInput));
+					}catch(InterruptedException e){
+						// ignore
+					}
+					close();
+				}
+			}
+		};
+
+		private void submit(final int objectCount) throws InterruptedException{
+			final String objects = this.objects.toString();
+			this.objects.setLength(0);
+			enqueue(workers.submit(new ChunkParser(this, objects, objectCount)));
+		}
+
+		private void enqueue(final Future<List<Record>> future) throws InterruptedException{
+			while(!shutdown){
+				if(chunks.offer(future, 100, TimeUnit.MILLISECONDS)){
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Moves the head to the next record. Waits for the next chunk to be parsed if needed.
+		 *
+		 * @return False if no more records
+		 */
+		private boolean advance() throws InterruptedException{
+			while(chunk == null || position >= chunk.size()){
+				if(chunk == endOfInput){
+					head = null;
+					done = true;
+					return false;
+				}
+				Future<List<Record>> future = null;
+				while(!shutdown && (future = chunks.poll(100, TimeUnit.MILLISECONDS)) == null){
+					// wait
+				}
+				if(future == null){
+					return false;
+				}
+				try{
+					chunk = future.get();
+				}catch(ExecutionException | CancellationException e){
+					// Only this chunk is lost. Continue with the next one
+					log(Level.SEVERE, "Failed to parse a chunk of '" + file + "'", e);
+					chunk = null;
+				}
+				position = 0;
+			}
+			head = chunk.get(position++);
+			if(!Double.isNaN(head.jiffies) && head.jiffies > headKey){
+				headKey = head.jiffies;
+			}
+			return true;
+		}
+
+		/**
+		 * Appends the next top-level JSON object to the current chunk.
+		 *
+		 * A malformed (like truncated) object is skipped and the reading resumes at the next '{' where an object
+		 * can start, so that the rest of the input is not taken as a part of it.
+		 *
+		 * @return False if end of input
+		 * @throws IOException If the input ends inside the object (nothing of it is appended)
+		 */
+		private boolean nextObject() throws IOException{
+			int c;
+			while((c = nextChar()) != -1 && c != '{'){
+				// skip
+			}
+			while(c == '{'){
+				c = appendObject();
+				if(c == objectComplete){
+					return true;
+				}
+				objectsInvalid.increment();
+				log(Level.WARNING, "Skipped malformed JSON object in '" + file + "'");
+				while(c != '{' && (c = nextChar()) != -1){
+					// skip
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Appends the object which starts at the '{' just read. Only the brackets, the strings and the positions
+		 * where an object can start are checked. The rest is checked when parsing the object.
+		 *
+		 * @return objectComplete if appended. Otherwise, nothing of the object is appended and the character at which
+		 * the object was found malformed is returned. '{' if a new object starts there
+		 * @throws IOException If the input ends inside the object
+		 */
+		private int appendObject() throws IOException{
+			final int objectStart = objects.length();
+			objects.append('{');
+			// The open objects and arrays
+			containers.setLength(0);
+			containers.append('{');
+			int last = '{'; // The last character outside of strings (not whitespace)
+			boolean inString = false, escaped = false;
+			while(containers.length() > 0){
+				final int c = nextChar();
+				if(c == -1){
+					// Only complete objects in the chunk
+					objects.setLength(objectStart);
+					throw new IOException("Incomplete JSON object at end of input");
+				}
+				if(inString){
+					if(escaped){
+						escaped = false;
+					}else if(c == '\\'){
+						escaped = true;
+					}else if(c == '"'){
+						inString = false;
+						last = c;
+					}else if(c == '\n' || c == '\r'){
+						// Not allowed in a string. The object was cut off inside the string
+						objects.setLength(objectStart);
+						return c;
+					}
+				}else if(c == '"'){
+					inString = true;
+				}else if(c == '{' || c == '['){
+					final boolean valueExpected = last == ':'
+							|| ((last == '[' || last == ',') && containers.charAt(containers.length() - 1) == '[');
+					if(!valueExpected){
+						// The object was cut off and the next one starts here
+						objects.setLength(objectStart);
+						return c;
+					}
+					containers.append((char)c);
+					last = c;
+				}else if(c == '}' || c == ']'){
+					containers.setLength(containers.length() - 1);
+					last = c;
+				}else if(!Character.isWhitespace(c)){
+					last = c;
+				}
+				objects.append((char)c);
+			}
+			objects.append('\n');
+			return objectComplete;
+		}
+
+		private int nextChar() throws IOException{
+			if(bufferPosition >= bufferLimit){
+				bufferLimit = reader.read(buffer, 0, buffer.length);
+				bufferPosition = 0;
+				if(bufferLimit <= 0){
+					bufferLimit = 0;
+					return -1;
+				}
+			}
+			return buffer[bufferPosition++];
+		}
+
+		private void close(){
+			try{
+				reader.close();
+			}catch(Exception e){
+				// ignore
+			}
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit;
+
+import java.util.HashMap;
+
+/**
+ * Key values of all the records of an audit event (as put by AuditEventReader), along with the typed fields needed
+ * by every event handler, which are parsed only once per event.
+ *
+ * The typed fields are the values as read. Changes made to the map by the handlers are not reflected in them.
+ */
+public final class AuditEventData extends HashMap<String, String>{
+
+	private static final long serialVersionUID = -3325190424553659131L;
+
+	private static final String[] argumentKeys = {
+			AuditEventReader.ARG0, AuditEventReader.ARG1, AuditEventReader.ARG2, AuditEventReader.ARG3};
+
+	private int syscall = -1;
+	private boolean success = false;
+	private String pid, ppid, uid, exit, saddr;
+	private long exitValue;
+	private boolean exitValid = false;
+	private int pathCount = 0;
+	private final long[] arguments = new long[argumentKeys.length];
+	private final boolean[] argumentValid = new boolean[argumentKeys.length];
+
+	AuditEventData(){
+		super(64);
+	}
+
+	/*
+	 * Called by AuditEventReader once all the records of the event have been put
+	 */
+	void setTypedFields(){
+		syscall = parseInt(get(AuditEventReader.SYSCALL));
+		success = AuditEventReader.SUCCESS_YES.equals(get(AuditEventReader.SUCCESS));
+		pid = get(AuditEventReader.PID);
+		ppid = get(AuditEventReader.PPID);
+		uid = get(AuditEventReader.UID);
+		exit = get(AuditEventReader.EXIT);
+		saddr = get(AuditEventReader.SADDR);
+		exitValid = exit != null && parseExit(exit);
+		pathCount = Math.max(0, parseInt(get(AuditEventReader.ITEMS)));
+		for(int i = 0; i < argumentKeys.length; i++){
+			final String hex = get(argumentKeys[i]);
+			argumentValid[i] = hex != null && parseArgument(hex, i);
+		}
+	}
+
+	private static int parseInt(final String value){
+		if(value == null){
+			return -1;
+		}
+		try{
+			return Integer.parseInt(value);
+		}catch(NumberFormatException e){
+			return -1;
+		}
+	}
+
+	private boolean parseExit(final String value){
+		try{
+			exitValue = Long.parseLong(value);
+			return true;
+		}catch(NumberFormatException e){
+			return false;
+		}
+	}
+
+	/*
+	 * Same as new BigInteger(hex, 16).intValue() if the hex string has at most 8 digits, and .longValue() otherwise,
+	 * but only for unsigned hex strings.
+	 */
+	private boolean parseArgument(final String hex, final int index){
+		final int length = hex.length();
+		if(length == 0){
+			return false;
+		}
+		long value = 0;
+		// Only the last 16 digits fit in a long
+		for(int i = Math.max(0, length - 16); i < length; i++){
+			final int digit = Character.digit(hex.charAt(i), 16);
+			if(digit < 0){
+				return false;
+			}
+			value = (value << 4) | digit;
+		}
+		for(int i = 0; i < length - 16; i++){
+			if(Character.digit(hex.charAt(i), 16) < 0){
+				return false;
+			}
+		}
+		arguments[index] = length <= 8 ? (int)value : value;
+		return true;
+	}
+
+	/**
+	 * @return syscall number or -1 if missing or invalid
+	 */
+	public int getSyscall(){
+		return syscall;
+	}
+
+	/**
+	 * @return true if 'success' was 'yes'
+	 */
+	public boolean isSuccess(){
+		return success;
+	}
+
+	public String getPid(){
+		return pid;
+	}
+
+	public String getPpid(){
+		return ppid;
+	}
+
+	public String getUid(){
+		return uid;
+	}
+
+	/**
+	 * @return 'exit' as read i.e. the return value of the syscall
+	 */
+	public String getExit(){
+		return exit;
+	}
+
+	/**
+	 * @return true if 'exit' was present and a valid decimal value
+	 */
+	public boolean hasExitValue(){
+		return exitValid;
+	}
+
+	/**
+	 * 'exit' as a number. Only valid if 'hasExitValue' returns true.
+	 */
+	public long getExitValue(){
+		return exitValue;
+	}
+
+	public String getSaddr(){
+		return saddr;
+	}
+
+	/**
+	 * @return 'items' of the SYSCALL record i.e. the number of PATH records in the event, or 0 if missing or invalid
+	 */
+	public int getPathCount(){
+		return pathCount;
+	}
+
+	/**
+	 * @param index 0 to 3
+	 * @return true if the argument 'a&lt;index&gt;' was present and a valid hex value
+	 */
+	public boolean hasArgument(final int index){
+		return argumentValid[index];
+	}
+
+	/**
+	 * Argument 'a&lt;index&gt;' converted from hex. Only valid if 'hasArgument' returns true.
+	 *
+	 * @param index 0 to 3
+	 * @return the argument as an int (sign extended) if the hex value had at most 8 digits, otherwise as a long
+	 */
+	public long getArgument(final int index){
+		return arguments[index];
+	}
+
+	/**
+	 * Same as HelperFunctions.parseInt on the decimal value of the argument 'a&lt;index&gt;'.
+	 *
+	 * @param index 0 to 3
+	 * @param defaultValue returned if the argument was missing or invalid, or does not fit in an int
+	 * @return the argument as an int
+	 */
+	public Integer getIntArgument(final int index, final Integer defaultValue){
+		if(!argumentValid[index]){
+			return defaultValue;
+		}
+		final long value = arguments[index];
+		return value == (int)value ? (int)value : defaultValue;
+	}
+}
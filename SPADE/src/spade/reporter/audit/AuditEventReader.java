@@ -30,6 +30,18 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -169,12 +181,48 @@ public class AuditEventReader{
 	private boolean reportingEnabled = false;
 	private long reportEveryMs;
 	private long startTime, lastReportedTime;
-	private long lastReportedRecordCount, recordCount;
+	private long lastReportedRecordCount;
+	private volatile long recordCount;
 
 	/**
 	 * Buffers all the records for the current event being read
 	 */
-	private final Set<AuditRecord> currentEventRecords = new HashSet<AuditRecord>();
+	private Set<AuditRecord> currentEventRecords = new HashSet<AuditRecord>();
+
+	/**
+	 * Reused for the key values of a record which are only looked at (per thread because of the parse threads)
+	 */
+	private final ThreadLocal<Map<String, String>> scratchMap = new ThreadLocal<Map<String, String>>(){
+		@Override
+		protected Map<String, String> initialValue(){
+			return new HashMap<String, String>();
+		}
+	};
+
+	/*
+	 * Pipeline (if parseThreads > 0):
+	 * 1) The read thread reads the lines and groups the records by event id
+	 * 2) The parse threads turn the records of an event into the event data
+	 * 3) The caller of readEventData gets the event data in the order of the events (and handles it)
+	 * 4) The handlers put the vertices and edges in the reporter buffer (drained by the kernel)
+	 * The pipeline queue bounds the number of events in flight. The read thread blocks when it is full.
+	 */
+	private int parseThreads = 0;
+	private int pipelineQueueSize = 1024;
+	private Thread readThread = null;
+	private ExecutorService parseExecutor = null;
+	private BlockingQueue<Future<AuditEventData>> pipelineQueue = null;
+	private boolean pipelineEnded = false;
+	private static final Future<AuditEventData> endOfStream = CompletableFuture.completedFuture(null);
+
+	// Per stage statistics
+	private final LongAdder readBlockedNanos = new LongAdder();
+	private final LongAdder parsedEvents = new LongAdder();
+	private final LongAdder parseNanos = new LongAdder();
+	private long consumedEvents = 0;
+	private long consumerWaitNanos = 0;
+	private long consumerHandleNanos = 0;
+	private long lastReturnedNanos = 0;
 
 	/**
 	 * Keeps track of the current event id being buffered
@@ -228,6 +276,14 @@ public class AuditEventReader{
 			if(new File(defaultConfigFilePath).exists()){
 				Map<String, String> properties = FileUtility.readConfigFileAsKeyValueMap(defaultConfigFilePath, "=");
 				if(properties != null && properties.size() > 0){
+					Long parseThreadsValue = HelperFunctions.parseLong(properties.get("parseThreads"), null);
+					if(parseThreadsValue != null && parseThreadsValue >= 0 && parseThreadsValue <= 64){
+						parseThreads = parseThreadsValue.intValue();
+					}
+					Long pipelineQueueSizeValue = HelperFunctions.parseLong(properties.get("pipelineQueueSize"), null);
+					if(pipelineQueueSizeValue != null && pipelineQueueSizeValue > 0 && pipelineQueueSizeValue <= 1000000){
+						pipelineQueueSize = pipelineQueueSizeValue.intValue();
+					}
 					Long reportingInterval = HelperFunctions.parseLong(properties.get("reportingIntervalSeconds"), null);
 					if(reportingInterval != null){
 						if(reportingInterval < 1){ //at least 1 ms
@@ -284,6 +340,12 @@ public class AuditEventReader{
 		if(reportingEnabled){
 			printStats();
 		}
+		if(readThread != null){
+			readThread.interrupt();
+		}
+		if(parseExecutor != null){
+			parseExecutor.shutdownNow();
+		}
 		if(outputLogWriter != null){
 			try{
 				outputLogWriter.close();
@@ -309,10 +371,27 @@ public class AuditEventReader{
 			float intervalRecordVolume = (float) (recordCount - lastReportedRecordCount) / intervalTime; // # records/sec
 			logger.log(Level.INFO, "Overall rate: {0} records/sec in {1} seconds. Interval rate: {2} records/sec in {3} seconds.", 
 					new Object[]{overallRecordVolume, overallTime, intervalRecordVolume, intervalTime});
+			if(parseThreads > 0){
+				final long parsed = parsedEvents.sum();
+				logger.log(Level.INFO, String.format("Pipeline: read=%.0f records/sec (blocked on full queue for %d ms), "
+						+ "parse=%.0f events/sec (%d threads busy for %d ms), handle=%.0f events/sec "
+						+ "(busy for %d ms, waited for the next event for %d ms), in-flight=%d/%d events",
+						recordCount / overallTime, TimeUnit.NANOSECONDS.toMillis(readBlockedNanos.sum()),
+						parsed / overallTime, parseThreads, TimeUnit.NANOSECONDS.toMillis(parseNanos.sum()),
+						consumedEvents / overallTime, TimeUnit.NANOSECONDS.toMillis(consumerHandleNanos),
+						TimeUnit.NANOSECONDS.toMillis(consumerWaitNanos),
+						pipelineQueue == null ? 0 : pipelineQueue.size(), pipelineQueueSize));
+			}
 		}
 	}
 
-	public final Map<String, String> readEventData() throws Exception{
+	/**
+	 * Reads all the records of the next event and returns their key values.
+	 * 
+	 * @return key values of the event, or null on end of stream
+	 * @throws Exception MalformedAuditDataException or IOException
+	 */
+	public final AuditEventData readEventData() throws Exception{
 		if(reportingEnabled){
 			long currentTime = System.currentTimeMillis();
 			if((currentTime - lastReportedTime) >= reportEveryMs){
@@ -322,6 +401,28 @@ public class AuditEventReader{
 			}
 		}
 
+		final long nowNanos = System.nanoTime();
+		if(lastReturnedNanos != 0){
+			consumerHandleNanos += nowNanos - lastReturnedNanos;
+		}
+		try{
+			if(parseThreads == 0){
+				final Set<AuditRecord> eventRecords = readNextEventRecords();
+				return eventRecords == null ? null : convertAuditRecordsToEventData(eventRecords);
+			}else{
+				return takeFromPipeline();
+			}
+		}finally{
+			lastReturnedNanos = System.nanoTime();
+			consumerWaitNanos += lastReturnedNanos - nowNanos;
+			consumedEvents++;
+		}
+	}
+
+	/*
+	 * Returns the records of the next event or null on end of stream. Only called by one thread.
+	 */
+	private final Set<AuditRecord> readNextEventRecords() throws Exception{
 		while(!EOF){
 			final String line = stream.readLine();
 			if(line == null){
@@ -354,14 +455,11 @@ public class AuditEventReader{
 				currentEventRecords.add(record);
 				continue;
 			}else{
-				final Set<AuditRecord> auditRecordsToFlush = new HashSet<AuditRecord>();
-				auditRecordsToFlush.addAll(currentEventRecords);
-
-				currentEventRecords.clear();
+				final Set<AuditRecord> eventRecords = currentEventRecords;
+				currentEventRecords = new HashSet<AuditRecord>();
 				currentEventRecords.add(record);
 				currentEventIdString = record.id;
-
-				return convertAuditRecordsToEventMap(auditRecordsToFlush);
+				return eventRecords;
 			}
 		}
 
@@ -369,42 +467,132 @@ public class AuditEventReader{
 			return null;
 		}
 
-		final Set<AuditRecord> auditRecordsToFlush = new HashSet<AuditRecord>();
-		auditRecordsToFlush.addAll(currentEventRecords);
+		final Set<AuditRecord> eventRecords = currentEventRecords;
+		currentEventRecords = new HashSet<AuditRecord>();
+		return eventRecords;
+	}
 
-		currentEventRecords.clear();
+	private final AuditEventData takeFromPipeline() throws Exception{
+		if(pipelineEnded){
+			return null;
+		}
+		if(readThread == null){
+			startPipeline();
+		}
+		final Future<AuditEventData> future = pipelineQueue.take();
+		if(future == endOfStream){
+			pipelineEnded = true;
+			return null;
+		}
+		try{
+			return future.get();
+		}catch(ExecutionException e){
+			// Thrown in order, exactly as without the pipeline
+			if(e.getCause() instanceof Exception){
+				throw (Exception)e.getCause();
+			}
+			throw e;
+		}
+	}
 
-		return convertAuditRecordsToEventMap(auditRecordsToFlush);
+	private final void startPipeline(){
+		pipelineQueue = new ArrayBlockingQueue<Future<AuditEventData>>(pipelineQueueSize);
+		parseExecutor = Executors.newFixedThreadPool(parseThreads, new ThreadFactory(){
+			private final AtomicInteger threadNumber = new AtomicInteger(0);
+			@Override
+			public Thread newThread(final Runnable runnable){
+				final Thread thread = new Thread(runnable, "AuditEventReader-parse-" + threadNumber.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		readThread = new Thread(new Runnable(){
+			@Override
+			public void run(){
+				try{
+					while(true){
+						final Set<AuditRecord> eventRecords;
+						try{
+							eventRecords = readNextEventRecords();
+						}catch(MalformedAuditDataException made){
+							putInPipeline(failedFuture(made));
+							continue;
+						}
+						if(eventRecords == null){
+							break;
+						}
+						putInPipeline(parseExecutor.submit(new Callable<AuditEventData>(){
+							@Override
+							public AuditEventData call() throws Exception{
+								final long startNanos = System.nanoTime();
+								try{
+									return convertAuditRecordsToEventData(eventRecords);
+								}finally{
+									parseNanos.add(System.nanoTime() - startNanos);
+									parsedEvents.increment();
+								}
+							}
+						}));
+					}
+					putInPipeline(endOfStream);
+				}catch(InterruptedException ie){
+					// Closed
+				}catch(Exception e){
+					// Failed to read the stream
+					try{
+						putInPipeline(failedFuture(e));
+						putInPipeline(endOfStream);
+					}catch(InterruptedException ie){
+						// Closed
+					}
+				}
+			}
+		}, "AuditEventReader-read");
+		readThread.setDaemon(true);
+		readThread.start();
 	}
 
-	private final Map<String, String> convertAuditRecordsToEventMap(final Set<AuditRecord> auditRecords)
+	private final void putInPipeline(final Future<AuditEventData> future) throws InterruptedException{
+		if(!pipelineQueue.offer(future)){
+			final long startNanos = System.nanoTime();
+			pipelineQueue.put(future);
+			readBlockedNanos.add(System.nanoTime() - startNanos);
+		}
+	}
+
+	private static Future<AuditEventData> failedFuture(final Exception e){
+		final CompletableFuture<AuditEventData> future = new CompletableFuture<AuditEventData>();
+		future.completeExceptionally(e);
+		return future;
+	}
+
+	/*
+	 * The key values of all the records are put straight into the event data (no map per record).
+	 */
+	private final AuditEventData convertAuditRecordsToEventData(final Set<AuditRecord> auditRecords)
 			throws Exception{
 		try{
-			final Map<String, String> eventMap = new HashMap<String, String>();
+			final AuditEventData eventData = new AuditEventData();
 			for(final AuditRecord auditRecord : auditRecords){
-				final Map<String, String> recordMap = parseAuditRecord(auditRecord);
-				if(recordMap != null){
-					eventMap.putAll(recordMap);
-				}
+				parseAuditRecord(auditRecord, eventData);
 			}
-			return eventMap;
+			eventData.setTypedFields();
+			return eventData;
 		}catch(Exception e){
 			throw new MalformedAuditDataException(
 					"Failed to create event map from audit records", String.valueOf(auditRecords), e);
 		}
 	}
 
-	private final Map<String, String> parseDaemonStartRecord(final AuditRecord auditRecord) throws Exception{
-		final Map<String, String> auditRecordKeyValues = new HashMap<String, String>();
+	private final void parseDaemonStartRecord(final AuditRecord auditRecord, final AuditEventData auditRecordKeyValues)
+			throws Exception{
 		auditRecordKeyValues.put(TIME, auditRecord.time);
 		auditRecordKeyValues.put(EVENT_ID, auditRecord.id);
 		auditRecordKeyValues.put(RECORD_TYPE_KEY, RECORD_TYPE_DAEMON_START);
-		return auditRecordKeyValues;
 	}
 	
-	private final Map<String, String> parseUBSIRecord(final AuditRecord auditRecord) throws Exception{
-		final Map<String, String> auditRecordKeyValues = new HashMap<String, String>();
-
+	private final void parseUBSIRecord(final AuditRecord auditRecord, final AuditEventData auditRecordKeyValues)
+			throws Exception{
 		final String dataAfterUnit;
 
 		if(auditRecord.type.equals(RECORD_TYPE_UBSI_ENTRY)){
@@ -415,7 +603,7 @@ public class AuditEventReader{
 			 * 		ppid=700 pid=701 auid=1000 uid=1000 gid=1000 euid=1000 suid=1000 fsuid=1000 egid=1000 sgid=1000 fsgid=1000 
 			 * 		tty=pts0 ses=3 comm="synth" exe="" key=(null)
 			 */
-			auditRecordKeyValues.putAll(parseUnitKeyValuePairs(auditRecord, "unit", ""));
+			parseUnitKeyValuePairs(auditRecord, "unit", "", auditRecordKeyValues);
 			dataAfterUnit = StringUtils.substringAfter(auditRecord.data, ") ");
 		}else if(auditRecord.type.equals(RECORD_TYPE_UBSI_EXIT)){
 			/*
@@ -434,8 +622,8 @@ public class AuditEventReader{
 			 * 		ppid=700 pid=702 auid=1000 uid=1000 gid=1000 euid=1000 suid=1000 fsuid=1000 egid=1000 sgid=1000 fsgid=1000 
 			 * 		tty=pts0 ses=3 comm="synth" exe="" key=(null)
 			 */
-			auditRecordKeyValues.putAll(parseUnitKeyValuePairs(auditRecord, "dep", "0"));
-			auditRecordKeyValues.putAll(parseUnitKeyValuePairs(auditRecord, "unit", ""));
+			parseUnitKeyValuePairs(auditRecord, "dep", "0", auditRecordKeyValues);
+			parseUnitKeyValuePairs(auditRecord, "unit", "", auditRecordKeyValues);
 			dataAfterUnit = StringUtils.substringAfter(auditRecord.data, ") ");
 		}else{
 			dataAfterUnit = null;
@@ -446,20 +634,16 @@ public class AuditEventReader{
 			throw new MalformedAuditDataException("Missing process data in '" + auditRecord.type + "' record", auditRecord.toString());
 		}
 
-		final Map<String, String> processMap = HelperFunctions.parseKeyValPairs(dataAfterUnit);
-		processMap.put(COMM, mustParseAuditString(dataAfterUnit, COMM));
-
-		auditRecordKeyValues.putAll(processMap);
+		HelperFunctions.parseKeyValPairs(dataAfterUnit, auditRecordKeyValues);
+		auditRecordKeyValues.put(COMM, mustParseAuditString(dataAfterUnit, COMM));
 
 		auditRecordKeyValues.put(TIME, auditRecord.time);
 		auditRecordKeyValues.put(EVENT_ID, auditRecord.id);
 		auditRecordKeyValues.put(RECORD_TYPE_KEY, auditRecord.type);
-
-		return auditRecordKeyValues;
 	}
 	
-	private final Map<String, String> parseNetioInterceptedRecord(final AuditRecord auditRecord,
-			final String netioInterceptedSubRecord) throws Exception{
+	private final void parseNetioInterceptedRecord(final AuditRecord auditRecord,
+			final String netioInterceptedSubRecord, final AuditEventData auditRecordKeyValues) throws Exception{
 		/*
 		 * netio_intercepted format
 		 * -> type=USER msg=audit(1601572509.571:501): 
@@ -467,16 +651,15 @@ public class AuditEventReader{
 		 * 		uid=%u euid=%u suid=%u fsuid=%u gid=%u egid=%u sgid=%u fsgid=%u 
 		 * 		comm=%s sock_type=%d local_saddr=%s remote_saddr=%s remote_saddr_size=%d net_ns_inum=%ld"
 		 */
-		final Map<String, String> auditRecordKeyValues = HelperFunctions.parseKeyValPairs(netioInterceptedSubRecord);
+		HelperFunctions.parseKeyValPairs(netioInterceptedSubRecord, auditRecordKeyValues);
 		auditRecordKeyValues.put(COMM, mustParseAuditString(netioInterceptedSubRecord, COMM));
 		auditRecordKeyValues.put(TIME, auditRecord.time);
 		auditRecordKeyValues.put(EVENT_ID, auditRecord.id);
 		auditRecordKeyValues.put(RECORD_TYPE_KEY, KMODULE_RECORD_TYPE);
-		return auditRecordKeyValues;
 	}
 	
-	private final Map<String, String> parseUbsiInterceptedRecord(final AuditRecord auditRecord,
-			final String ubsiInterceptedSubRecord) throws Exception{
+	private final void parseUbsiInterceptedRecord(final AuditRecord auditRecord,
+			final String ubsiInterceptedSubRecord, final AuditEventData auditRecordKeyValues) throws Exception{
 		/*
 		 * ubsi_intercepted format
 		 * -> type=USER msg=audit(1601572509.571:501): 
@@ -484,27 +667,26 @@ public class AuditEventReader{
 	 	 * 		items=0 ppid=%d pid=%d uid=%u gid=%u euid=%u suid=%u fsuid=%u egid=%u sgid=%u fsgid=%u comm=%s"
 	 	 * 
 	 	 */
-		final Map<String, String> auditRecordKeyValues = HelperFunctions.parseKeyValPairs(ubsiInterceptedSubRecord);
+		HelperFunctions.parseKeyValPairs(ubsiInterceptedSubRecord, auditRecordKeyValues);
 		auditRecordKeyValues.put(COMM, mustParseAuditString(ubsiInterceptedSubRecord, COMM));
 		auditRecordKeyValues.put(TIME, auditRecord.time);
 		auditRecordKeyValues.put(EVENT_ID, auditRecord.id);
 		auditRecordKeyValues.put(RECORD_TYPE_KEY, RECORD_TYPE_SYSCALL);
-		return auditRecordKeyValues;
 	}
 	
-	private final Map<String, String> parseNamespaceRecord(final AuditRecord auditRecord, final Map<String, String> dataMap){
+	private final void parseNamespaceRecord(final AuditRecord auditRecord, final Map<String, String> dataMap,
+			final AuditEventData auditRecordKeyValues){
 		/*
 		 * namespaces format
 		 * -> type=USER msg=audit(1601572509.571:501): 
 		 * 		ns_syscall=%d ns_subtype=ns_namespaces ns_operation=ns_%s ns_ns_pid=%ld ns_host_pid=%ld 
 		 * 		ns_inum_mnt=%ld ns_inum_net=%ld ns_inum_pid=%ld ns_inum_pid_children=%ld ns_inum_usr=%ld ns_inum_ipc=%ld
 		 */
-		final Map<String, String> auditRecordKeyValues = new HashMap<String, String>();
 		auditRecordKeyValues.putAll(dataMap);
-		return auditRecordKeyValues;
 	}
 
-	private final Map<String, String> parseNetfilterRecord(final AuditRecord auditRecord, final Map<String, String> dataMap){
+	private final void parseNetfilterRecord(final AuditRecord auditRecord, final Map<String, String> dataMap,
+			final AuditEventData auditRecordKeyValues){
 		/* 
 		 * netfilter (1) format
 		 * -> type=USER msg=audit(1601572509.571:501): 
@@ -521,47 +703,45 @@ public class AuditEventReader{
 		 * 		version=%s nf_subtype=nf_netfilter nf_hook=%s nf_priority=%s nf_id=%p nf_src_ip=%s nf_src_port=%d 
 		 * 		nf_dst_ip=%s nf_dst_port=%d nf_protocol=%s nf_ip_version=%s
 		 */
-		final Map<String, String> auditRecordKeyValues = new HashMap<String, String>();
 		auditRecordKeyValues.putAll(dataMap);
 		auditRecordKeyValues.put(TIME, auditRecord.time);
 		auditRecordKeyValues.put(EVENT_ID, auditRecord.id);
 		auditRecordKeyValues.put(RECORD_TYPE_KEY, RECORD_TYPE_NETFILTER_HOOK);
-		return auditRecordKeyValues;
 	}
 	
-	private final Map<String, String> parseSyscallRecord(final AuditRecord auditRecord) throws Exception{
+	private final void parseSyscallRecord(final AuditRecord auditRecord, final AuditEventData auditRecordKeyValues)
+			throws Exception{
 		/*
 		 * -> node=ubuntu-bionic type=SYSCALL msg=audit(1601587102.900:16403): 
 		 * 		arch=c000003e syscall=0 success=yes exit=30 a0=6 a1=7fff06b61700 a2=1000 a3=0 items=0 
 		 * 		ppid=26414 pid=26415 auid=1000 uid=1002 gid=1002 euid=1002 suid=1002 fsuid=1002 egid=1002 sgid=1002 fsgid=1002 
 		 * 		tty=(none) ses=3 comm="screen" exe="/usr/bin/screen" key=(null)
 		 */
-		final Map<String, String> auditRecordKeyValues = HelperFunctions.parseKeyValPairs(auditRecord.data);
+		HelperFunctions.parseKeyValPairs(auditRecord.data, auditRecordKeyValues);
 		auditRecordKeyValues.put(COMM, mustParseAuditString(auditRecord.data, COMM));
 		auditRecordKeyValues.put(TIME, auditRecord.time);
 		auditRecordKeyValues.put(EVENT_ID, auditRecord.id);
 		auditRecordKeyValues.put(RECORD_TYPE_KEY, RECORD_TYPE_SYSCALL);
-		return auditRecordKeyValues;
 	}
 	
-	private final Map<String, String> parseCwdRecord(final AuditRecord auditRecord) throws Exception{
+	private final void parseCwdRecord(final AuditRecord auditRecord, final AuditEventData auditRecordKeyValues)
+			throws Exception{
 		/*
 		 * -> node=ubuntu-bionic type=CWD msg=audit(1601587106.252:16451): cwd="/"
 		 */
-		final Map<String, String> auditRecordKeyValues = HelperFunctions.parseKeyValPairs(auditRecord.data);
+		HelperFunctions.parseKeyValPairs(auditRecord.data, auditRecordKeyValues);
 		auditRecordKeyValues.put(CWD, mustParseAuditString(auditRecord.data, CWD));
-		return auditRecordKeyValues;
 	}
 	
-	private final Map<String, String> parsePathRecord(final AuditRecord auditRecord) throws Exception{
+	private final void parsePathRecord(final AuditRecord auditRecord, final AuditEventData auditRecordKeyValues)
+			throws Exception{
 		/*
 		 * -> node=ubuntu-bionic type=PATH msg=audit(1601587106.252:16451): 
 		 * 		item=0 name="/usr/share/dbus-1/system-services" inode=32602 dev=08:01 mode=040755 
 		 * 		ouid=0 ogid=0 rdev=00:00 nametype=NORMAL cap_fp=0000000000000000 cap_fi=0000000000000000 
 		 * 		cap_fe=0 cap_fver=0
 		 */
-		final Map<String, String> auditRecordKeyValues = new HashMap<String, String>();
-		final Map<String, String> tempMap = HelperFunctions.parseKeyValPairs(auditRecord.data);
+		final Map<String, String> tempMap = parseKeyValPairsInScratchMap(auditRecord.data);
 
 		final String itemNumber = tempMap.get(ITEM);
 		final String mode = tempMap.get(MODE_PREFIX) == null ? "0" : tempMap.get(MODE_PREFIX);
@@ -571,17 +751,14 @@ public class AuditEventReader{
 		auditRecordKeyValues.put(MODE_PREFIX + itemNumber, mode);
 		auditRecordKeyValues.put(NAMETYPE_PREFIX + itemNumber, nametype);
 		auditRecordKeyValues.put(PATH_PREFIX + itemNumber, name);
-		return auditRecordKeyValues;
 	}
 	
-	private final Map<String, String> parseExecveRecord(final AuditRecord auditRecord) throws Exception{
+	private final void parseExecveRecord(final AuditRecord auditRecord, final AuditEventData auditRecordKeyValues)
+			throws Exception{
 		/*
 		 * -> node=ubuntu-bionic type=EXECVE msg=audit(1601587110.584:16741): argc=1 a0="./server_mq"
 		 */
-		final Map<String, String> auditRecordKeyValues = new HashMap<String, String>();
-		final Map<String, String> tempMap = HelperFunctions.parseKeyValPairs(auditRecord.data);
-
-		final String argcString = tempMap.get(ARGC);
+		final String argcString = parseKeyValPairsInScratchMap(auditRecord.data).get(ARGC);
 		final Integer argc = HelperFunctions.parseInt(argcString, null);
 		if(argc != null){
 			for(int i = 0; i < argc; i++){
@@ -596,10 +773,10 @@ public class AuditEventReader{
 			}
 		}
 		auditRecordKeyValues.put(EXECVE_ARGC, argcString);
-		return auditRecordKeyValues;
 	}
 	
-	private final Map<String, String> parseSimpleKeyValuePairRecord(final AuditRecord auditRecord) throws Exception{
+	private final void parseSimpleKeyValuePairRecord(final AuditRecord auditRecord,
+			final AuditEventData auditRecordKeyValues) throws Exception{
 		/*
 		 * -> node=ubuntu-bionic type=FD_PAIR msg=audit(1601587107.820:16569): fd0=3 fd1=4
 		 * 
@@ -612,60 +789,80 @@ public class AuditEventReader{
 		 * -> node=ubuntu-bionic type=MQ_SENDRECV msg=audit(1601587110.592:16933): 
 		 * 		mqdes=3 msg_len=266 msg_prio=0 abs_timeout_sec=0 abs_timeout_nsec=0
 		 */
-		return HelperFunctions.parseKeyValPairs(auditRecord.data);
+		HelperFunctions.parseKeyValPairs(auditRecord.data, auditRecordKeyValues);
+	}
+
+	/*
+	 * For the key values of a record which are not all put in the event data. Valid until the next call.
+	 */
+	private final Map<String, String> parseKeyValPairsInScratchMap(final String recordData){
+		final Map<String, String> map = scratchMap.get();
+		map.clear();
+		HelperFunctions.parseKeyValPairs(recordData, map);
+		return map;
 	}
 	
-	private final Map<String, String> parseAuditRecord(final AuditRecord auditRecord) throws Exception{
+	private final void parseAuditRecord(final AuditRecord auditRecord, final AuditEventData eventData) throws Exception{
 		switch(auditRecord.type){
 			case RECORD_TYPE_DAEMON_START:
-				return parseDaemonStartRecord(auditRecord);
+				parseDaemonStartRecord(auditRecord, eventData);
+				break;
 			case RECORD_TYPE_UBSI_ENTRY:
 			case RECORD_TYPE_UBSI_EXIT:
 			case RECORD_TYPE_UBSI_DEP:
-				return parseUBSIRecord(auditRecord);
+				parseUBSIRecord(auditRecord, eventData);
+				break;
 			case RECORD_TYPE_USER:{
 				final String netioInterceptedSubRecord = 
 						StringUtils.substringBetween(auditRecord.data, KMODULE_DATA_KEY + "=\"", "\"");
 				if(netioInterceptedSubRecord != null){
-					return parseNetioInterceptedRecord(auditRecord, netioInterceptedSubRecord);
+					parseNetioInterceptedRecord(auditRecord, netioInterceptedSubRecord, eventData);
+					break;
 				}
 				
 				final String ubsiInterceptedSubRecord = 
 						StringUtils.substringBetween(auditRecord.data, UBSI_INTERCEPTED_DATA_KEY + "=\"", "\"");
 				if(ubsiInterceptedSubRecord != null){
-					return parseUbsiInterceptedRecord(auditRecord, ubsiInterceptedSubRecord);
+					parseUbsiInterceptedRecord(auditRecord, ubsiInterceptedSubRecord, eventData);
+					break;
 				}
 				
-				final Map<String, String> dataMap = HelperFunctions.parseKeyValPairs(auditRecord.data);
+				final Map<String, String> dataMap = parseKeyValPairsInScratchMap(auditRecord.data);
 				if(NS_SUBTYPE_VALUE.equals(dataMap.get(NS_SUBTYPE_KEY))){
-					return parseNamespaceRecord(auditRecord, dataMap);
+					parseNamespaceRecord(auditRecord, dataMap, eventData);
+					break;
 				}
 
 				if(NF_SUBTYPE_VALUE.equals(dataMap.get(NF_SUBTYPE_KEY))){
-					return parseNetfilterRecord(auditRecord, dataMap);
+					parseNetfilterRecord(auditRecord, dataMap, eventData);
+					break;
 				}
 			}
 			break;
 			case RECORD_TYPE_SYSCALL:
-				return parseSyscallRecord(auditRecord);
+				parseSyscallRecord(auditRecord, eventData);
+				break;
 			case RECORD_TYPE_CWD:
-				return parseCwdRecord(auditRecord);
+				parseCwdRecord(auditRecord, eventData);
+				break;
 			case RECORD_TYPE_PATH:
-				return parsePathRecord(auditRecord);
+				parsePathRecord(auditRecord, eventData);
+				break;
 			case RECORD_TYPE_EXECVE:
-				return parseExecveRecord(auditRecord);
+				parseExecveRecord(auditRecord, eventData);
+				break;
 			case RECORD_TYPE_FD_PAIR:
 			case RECORD_TYPE_SOCKADDR:
 			case RECORD_TYPE_MMAP:
 			case RECORD_TYPE_IPC:
 			case RECORD_TYPE_MQ_SENDRECV:
-				return parseSimpleKeyValuePairRecord(auditRecord);
+				parseSimpleKeyValuePairRecord(auditRecord, eventData);
+				break;
 		}
-		return null;
 	}
 
-	private Map<String, String> parseUnitKeyValuePairs(final AuditRecord auditRecord, final String unitKey,
-			final String keysSuffix)
+	private void parseUnitKeyValuePairs(final AuditRecord auditRecord, final String unitKey,
+			final String keysSuffix, final Map<String, String> map)
 			throws Exception{
 		final String unitKeyValuesString = StringUtils.substringBetween(auditRecord.data, unitKey + "=(", ")"); 
 		if(unitKeyValuesString == null){
@@ -706,14 +903,12 @@ public class AuditEventReader{
 					+ " Missing fields: " + missingUnitFields, auditRecord.toString());
 		}
 
-		final Map<String, String> map = new HashMap<String, String>();
 		map.put(UNIT_PID + keysSuffix, pid);
 		map.put(UNIT_THREAD_START_TIME + keysSuffix, threadTime);
 		map.put(UNIT_UNITID + keysSuffix, unitId);
 		map.put(UNIT_ITERATION + keysSuffix, iteration);
 		map.put(UNIT_TIME + keysSuffix, time);
 		map.put(UNIT_COUNT + keysSuffix, count);
-		return map;
 	}
 
 	private final String mustParseAuditString(final String recordData, final String key) throws Exception{
@@ -22,7 +22,6 @@ package spade.reporter.audit;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
 import spade.core.AbstractEdge;
 import spade.edge.opm.Used;
@@ -94,34 +93,34 @@ public class IPCManager{
 		this.reporter = reporter;
 	}
 	
-	public final void handleMq_open(final Map<String, String> eventData, final SYSCALL syscall){
+	public final void handleMq_open(final AuditEventData eventData, final SYSCALL syscall){
 		reporter.handleOpen(eventData, syscall);
 	}
 	
-	public final void handleMq_timedsend(final Map<String, String> eventData, final SYSCALL syscall){
+	public final void handleMq_timedsend(final AuditEventData eventData, final SYSCALL syscall){
 		reporter.handleIOEvent(syscall, eventData, false, eventData.get(AuditEventReader.MSG_LEN));
 	}
 
-	public final void handleMq_timedreceive(final Map<String, String> eventData, final SYSCALL syscall){
+	public final void handleMq_timedreceive(final AuditEventData eventData, final SYSCALL syscall){
 		reporter.handleIOEvent(syscall, eventData, true, eventData.get(AuditEventReader.MSG_LEN));
 	}
 
-	public final void handleMq_unlink(final Map<String, String> eventData, final SYSCALL syscall){
+	public final void handleMq_unlink(final AuditEventData eventData, final SYSCALL syscall){
 		reporter.handleUnlink(eventData, syscall);
 	}
 
 	////
 
-	public final void handleShmget(final Map<String, String> eventData, final SYSCALL syscall){
+	public final void handleShmget(final AuditEventData eventData, final SYSCALL syscall){
 		handleSystemVget(eventData, syscall, OPMConstants.SUBTYPE_SYSV_SHARED_MEMORY,
-				eventData.get(AuditEventReader.ARG2), eventData.get(AuditEventReader.ARG1));
+				eventData.getIntArgument(2, null), eventData.get(AuditEventReader.ARG1));
 	}
 
-	public final void handleShmdt(final Map<String, String> eventData, final SYSCALL syscall){
+	public final void handleShmdt(final AuditEventData eventData, final SYSCALL syscall){
 		// Nothing to note TODO
 	}
 
-	public final void handleShmat(final Map<String, String> eventData, final SYSCALL syscall){
+	public final void handleShmat(final AuditEventData eventData, final SYSCALL syscall){
 		// shmat() receives the following messages(s):
 		// - SYSCALL
 		// - IPC [ optional ]
@@ -132,8 +131,7 @@ public class IPCManager{
 
 		boolean updateVersion = false;
 
-		final String flagsStr = eventData.get(AuditEventReader.ARG2);
-		final int flagsInt = Integer.parseInt(flagsStr);
+		final int flagsInt = eventData.getIntArgument(2, null);
 		String flagsAnnotation = "";
 		if((flagsInt & SHM_EXEC) == SHM_EXEC){
 			updateVersion = true;
@@ -179,16 +177,16 @@ public class IPCManager{
 		reporter.putEdge(edge, reporter.getOperation(syscall), eventTime, eventId, OPMConstants.SOURCE_AUDIT_SYSCALL);
 	}
 
-	public final void handleShmctl(final Map<String, String> eventData, final SYSCALL syscall){
+	public final void handleShmctl(final AuditEventData eventData, final SYSCALL syscall){
 		handleSystemVCtl(eventData, syscall, OPMConstants.SUBTYPE_SYSV_SHARED_MEMORY);
 	}
 
-	public final void handleMsgget(final Map<String, String> eventData, final SYSCALL syscall){
-		handleSystemVget(eventData, syscall, OPMConstants.SUBTYPE_SYSV_MSG_Q, eventData.get(AuditEventReader.ARG1),
+	public final void handleMsgget(final AuditEventData eventData, final SYSCALL syscall){
+		handleSystemVget(eventData, syscall, OPMConstants.SUBTYPE_SYSV_MSG_Q, eventData.getIntArgument(1, null),
 				null);
 	}
 
-	public final void handleMsgsnd(final Map<String, String> eventData, final SYSCALL syscall){
+	public final void handleMsgsnd(final AuditEventData eventData, final SYSCALL syscall){
 		// msgsnd() receives the following messages(s):
 		// - SYSCALL
 		// - IPC [ optional ]
@@ -197,16 +195,16 @@ public class IPCManager{
 		handleMsgIO(eventData, syscall, size, false);
 	}
 
-	public final void handleMsgrcv(final Map<String, String> eventData, final SYSCALL syscall){
+	public final void handleMsgrcv(final AuditEventData eventData, final SYSCALL syscall){
 		// msgrcv() receives the following messages(s):
 		// - SYSCALL
 		// - IPC [ optional ]
 		// - EOE
-		final String size = eventData.get(AuditEventReader.EXIT);
+		final String size = eventData.getExit();
 		handleMsgIO(eventData, syscall, size, true);
 	}
 
-	private final void handleMsgIO(final Map<String, String> eventData, final SYSCALL syscall, final String size,
+	private final void handleMsgIO(final AuditEventData eventData, final SYSCALL syscall, final String size,
 			final boolean isRead){
 		final String eventId = eventData.get(AuditEventReader.EVENT_ID);
 		final String eventTime = eventData.get(AuditEventReader.TIME);
@@ -233,17 +231,17 @@ public class IPCManager{
 		reporter.putEdge(edge, reporter.getOperation(syscall), eventTime, eventId, OPMConstants.SOURCE_AUDIT_SYSCALL);
 	}
 
-	public final void handleMsgctl(final Map<String, String> eventData, final SYSCALL syscall){
+	public final void handleMsgctl(final AuditEventData eventData, final SYSCALL syscall){
 		handleSystemVCtl(eventData, syscall, OPMConstants.SUBTYPE_SYSV_MSG_Q);
 	}
 
-	private final SystemVArtifactIdentifier createSystemVArtifactIdentifier(final Map<String, String> eventData,
+	private final SystemVArtifactIdentifier createSystemVArtifactIdentifier(final AuditEventData eventData,
 			final String id, final String subtype){
 		String ouidStr = eventData.get(AuditEventReader.OUID);
 		String ogidStr = eventData.get(AuditEventReader.OGID);
 
 		if(ouidStr == null){
-			ouidStr = eventData.get(AuditEventReader.UID);
+			ouidStr = eventData.getUid();
 		}
 		if(ogidStr == null){
 			ogidStr = eventData.get(AuditEventReader.GID);
@@ -251,7 +249,7 @@ public class IPCManager{
 		
 		final String ipcNamespace;
 		if(reporter.getProcessManager().namespaces){
-			final String pid = eventData.get(AuditEventReader.PID);
+			final String pid = eventData.getPid();
 			ipcNamespace = reporter.getProcessManager().getIpcNamespace(pid);
 		}else{
 			ipcNamespace = null;
@@ -266,8 +264,8 @@ public class IPCManager{
 		}
 	}
 
-	private final void handleSystemVget(final Map<String, String> eventData, final SYSCALL syscall,
-			final String subtype, final String flagsStr, final String size){
+	private final void handleSystemVget(final AuditEventData eventData, final SYSCALL syscall,
+			final String subtype, final int flagsInt, final String size){
 		// msgget/shmget() receives the following messages(s):
 		// - SYSCALL
 		// - IPC [ optional ]
@@ -275,11 +273,9 @@ public class IPCManager{
 
 		final String eventId = eventData.get(AuditEventReader.EVENT_ID);
 		final String eventTime = eventData.get(AuditEventReader.TIME);
-		final String id = eventData.get(AuditEventReader.EXIT);
-		final String ftokGeneratedKeyString = eventData.get(AuditEventReader.ARG0);
-		final int ftokGeneratedKeyInt = Integer.parseInt(ftokGeneratedKeyString);
+		final String id = eventData.getExit();
+		final int ftokGeneratedKeyInt = eventData.getIntArgument(0, null);
 
-		final int flagsInt = Integer.parseInt(flagsStr);
 		final int permissionsInt = flagsInt & ~512; // get the 9 least significant bits
 		final String permissionString = PathRecord.parsePermissions(String.format("%o", permissionsInt));
 
@@ -325,15 +321,14 @@ public class IPCManager{
 		reporter.putEdge(edge, reporter.getOperation(syscall), eventTime, eventId, OPMConstants.SOURCE_AUDIT_SYSCALL);
 	}
 
-	private final void handleSystemVCtl(final Map<String, String> eventData, final SYSCALL syscall,
+	private final void handleSystemVCtl(final AuditEventData eventData, final SYSCALL syscall,
 			final String subtype){
 		// msgctl/shmctl() receives the following messages(s):
 		// - SYSCALL
 		// - IPC [ optional ]
 		// - EOE
 		if(reporter.getFlagControl()){
-			final String cmdString = eventData.get(AuditEventReader.ARG1);
-			final int cmdInt = Integer.parseInt(cmdString);
+			final int cmdInt = eventData.getIntArgument(1, null);
 			if(cmdInt == IPC_RMID){
 				final String eventId = eventData.get(AuditEventReader.EVENT_ID);
 				final String eventTime = eventData.get(AuditEventReader.TIME);
@@ -22,9 +22,6 @@ package spade.reporter.audit;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
-
-import spade.utility.HelperFunctions;
 
 /**
  * A class to represent all of Path record data as received from Audit logs
@@ -198,10 +195,10 @@ public class PathRecord implements Comparable<PathRecord>{
 	 * @param nametypeValue one of the above-mentioned values. Case sensitive compare operation on nametypeValue
 	 * @return returns a list PathRecord objects sorted by their index in ascending order
 	 */
-	public static List<PathRecord> getPathsWithNametype(Map<String, String> eventData, String nametypeValue){
+	public static List<PathRecord> getPathsWithNametype(AuditEventData eventData, String nametypeValue){
 		List<PathRecord> pathRecords = new ArrayList<PathRecord>();
 		if(eventData != null && nametypeValue != null){
-			Long items = HelperFunctions.parseLong(eventData.get(AuditEventReader.ITEMS), 0L);
+			final int items = eventData.getPathCount();
 			for(int itemcount = 0; itemcount < items; itemcount++){
 				if(nametypeValue.equals(eventData.get(AuditEventReader.NAMETYPE_PREFIX+itemcount))){
 					PathRecord pathRecord = new PathRecord(itemcount, 
@@ -225,7 +222,7 @@ public class PathRecord implements Comparable<PathRecord>{
 	 * @param nametypeValue one of the above-mentioned values. Case sensitive compare operation on nametypeValue
 	 * @return returns the PathRecord object with the lowest index
 	 */
-	public static PathRecord getFirstPathWithNametype(Map<String, String> eventData, String nametypeValue){
+	public static PathRecord getFirstPathWithNametype(AuditEventData eventData, String nametypeValue){
 		List<PathRecord> pathRecords = getPathsWithNametype(eventData, nametypeValue);
 		if(pathRecords == null || pathRecords.size() == 0){
 			return null;
@@ -240,7 +237,7 @@ public class PathRecord implements Comparable<PathRecord>{
 	 * @param itemNumberInt
 	 * @return NULL if not found
 	 */
-	public static PathRecord getPathWithItemNumber(Map<String, String> eventData, int itemNumberInt){
+	public static PathRecord getPathWithItemNumber(AuditEventData eventData, int itemNumberInt){
 		String path = eventData.get(AuditEventReader.PATH_PREFIX+itemNumberInt);
 		if(path != null){
 			String nametype = eventData.get(AuditEventReader.NAMETYPE_PREFIX+itemNumberInt);
@@ -258,7 +255,7 @@ public class PathRecord implements Comparable<PathRecord>{
 	 * @param eventData audit log event data as key values
 	 * @return path/null
 	 */
-	public static PathRecord getPathWithCreateOrNormalNametype(Map<String, String> eventData){
+	public static PathRecord getPathWithCreateOrNormalNametype(AuditEventData eventData){
 		PathRecord pathRecord = getFirstPathWithNametype(eventData, AuditEventReader.NAMETYPE_CREATE);
 		if(pathRecord != null){
 			return pathRecord;
@@ -0,0 +1,153 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit.artifact;
+
+import spade.reporter.Audit;
+import spade.reporter.audit.OPMConstants;
+import spade.utility.BinaryCodec;
+
+/**
+ * Binary converter for the keys of the artifacts external map.
+ * 
+ * Equal identifiers are always converted to equal bytes so that the bytes can be used as the key in the store.
+ * 
+ * Version 1: subtype followed by the fields of the subtype.
+ */
+public class ArtifactIdentifierCodec extends BinaryCodec<ArtifactIdentifier>{
+
+	private static final int version = 1;
+
+	// Only append
+	private static final StringTable strings = new StringTable(
+			OPMConstants.SUBTYPE_FILE, OPMConstants.SUBTYPE_DIRECTORY, OPMConstants.SUBTYPE_BLOCK_DEVICE,
+			OPMConstants.SUBTYPE_CHARACTER_DEVICE, OPMConstants.SUBTYPE_LINK, OPMConstants.SUBTYPE_MEMORY_ADDRESS,
+			OPMConstants.SUBTYPE_NAMED_PIPE, OPMConstants.SUBTYPE_NETWORK_SOCKET, OPMConstants.SUBTYPE_UNIX_SOCKET,
+			OPMConstants.SUBTYPE_UNKNOWN, OPMConstants.SUBTYPE_UNNAMED_PIPE,
+			OPMConstants.SUBTYPE_UNNAMED_UNIX_SOCKET_PAIR, OPMConstants.SUBTYPE_UNNAMED_NETWORK_SOCKET_PAIR,
+			OPMConstants.SUBTYPE_SYSV_MSG_Q, OPMConstants.SUBTYPE_SYSV_SHARED_MEMORY,
+			OPMConstants.SUBTYPE_POSIX_MSG_Q,
+			"/", Audit.PROTOCOL_NAME_TCP, Audit.PROTOCOL_NAME_UDP
+			);
+
+	public ArtifactIdentifierCodec(){
+		super(version, strings);
+	}
+
+	@Override
+	protected void write(ArtifactIdentifier value, Output output) throws Exception{
+		final String subtype = value.getSubtype();
+		output.writeString(subtype);
+		switch(subtype){
+			case OPMConstants.SUBTYPE_BLOCK_DEVICE:
+			case OPMConstants.SUBTYPE_CHARACTER_DEVICE:
+			case OPMConstants.SUBTYPE_DIRECTORY:
+			case OPMConstants.SUBTYPE_FILE:
+			case OPMConstants.SUBTYPE_LINK:
+			case OPMConstants.SUBTYPE_NAMED_PIPE:
+			case OPMConstants.SUBTYPE_UNIX_SOCKET:
+			case OPMConstants.SUBTYPE_POSIX_MSG_Q:
+				PathIdentifier path = (PathIdentifier)value;
+				output.writeString(path.path);
+				output.writeString(path.rootFSPath);
+				break;
+			case OPMConstants.SUBTYPE_MEMORY_ADDRESS:
+				MemoryIdentifier memory = (MemoryIdentifier)value;
+				output.writeString(memory.getTgid());
+				output.writeString(memory.getMemoryAddress());
+				output.writeString(memory.getSize());
+				break;
+			case OPMConstants.SUBTYPE_NETWORK_SOCKET:
+				NetworkSocketIdentifier network = (NetworkSocketIdentifier)value;
+				output.writeString(network.getLocalHost());
+				output.writeString(network.getLocalPort());
+				output.writeString(network.getRemoteHost());
+				output.writeString(network.getRemotePort());
+				output.writeString(network.getProtocol());
+				output.writeString(network.netNamespaceId);
+				break;
+			case OPMConstants.SUBTYPE_UNKNOWN:
+				UnknownIdentifier unknown = (UnknownIdentifier)value;
+				output.writeString(unknown.getTgid());
+				output.writeString(unknown.getFD());
+				break;
+			case OPMConstants.SUBTYPE_UNNAMED_NETWORK_SOCKET_PAIR:
+				UnnamedNetworkSocketPairIdentifier networkPair = (UnnamedNetworkSocketPairIdentifier)value;
+				output.writeString(networkPair.tgid);
+				output.writeString(networkPair.fd0);
+				output.writeString(networkPair.fd1);
+				output.writeString(networkPair.protocol);
+				break;
+			case OPMConstants.SUBTYPE_UNNAMED_PIPE:
+			case OPMConstants.SUBTYPE_UNNAMED_UNIX_SOCKET_PAIR:
+				FdPairIdentifier pair = (FdPairIdentifier)value;
+				output.writeString(pair.tgid);
+				output.writeString(pair.fd0);
+				output.writeString(pair.fd1);
+				break;
+			case OPMConstants.SUBTYPE_SYSV_MSG_Q:
+			case OPMConstants.SUBTYPE_SYSV_SHARED_MEMORY:
+				SystemVArtifactIdentifier sysv = (SystemVArtifactIdentifier)value;
+				output.writeString(sysv.id);
+				output.writeString(sysv.ouid);
+				output.writeString(sysv.ogid);
+				output.writeString(sysv.ipcNamespace);
+				break;
+			default: throw new RuntimeException("Unexpected subtype: " + subtype);
+		}
+	}
+
+	@Override
+	protected ArtifactIdentifier read(Input input, int version) throws Exception{
+		final String subtype = input.readString();
+		if(subtype == null){
+			throw new Exception("NULL subtype");
+		}
+		switch(subtype){
+			case OPMConstants.SUBTYPE_BLOCK_DEVICE: return new BlockDeviceIdentifier(input.readString(), input.readString());
+			case OPMConstants.SUBTYPE_CHARACTER_DEVICE: return new CharacterDeviceIdentifier(input.readString(), input.readString());
+			case OPMConstants.SUBTYPE_DIRECTORY: return new DirectoryIdentifier(input.readString(), input.readString());
+			case OPMConstants.SUBTYPE_FILE: return new FileIdentifier(input.readString(), input.readString());
+			case OPMConstants.SUBTYPE_LINK: return new LinkIdentifier(input.readString(), input.readString());
+			case OPMConstants.SUBTYPE_NAMED_PIPE: return new NamedPipeIdentifier(input.readString(), input.readString());
+			case OPMConstants.SUBTYPE_UNIX_SOCKET: return new UnixSocketIdentifier(input.readString(), input.readString());
+			case OPMConstants.SUBTYPE_POSIX_MSG_Q: return new PosixMessageQueue(input.readString(), input.readString());
+			case OPMConstants.SUBTYPE_MEMORY_ADDRESS:
+				return new MemoryIdentifier(input.readString(), input.readString(), input.readString());
+			case OPMConstants.SUBTYPE_NETWORK_SOCKET:
+				return new NetworkSocketIdentifier(input.readString(), input.readString(), input.readString(),
+						input.readString(), input.readString(), input.readString());
+			case OPMConstants.SUBTYPE_UNKNOWN: return new UnknownIdentifier(input.readString(), input.readString());
+			case OPMConstants.SUBTYPE_UNNAMED_NETWORK_SOCKET_PAIR:
+				return new UnnamedNetworkSocketPairIdentifier(input.readString(), input.readString(), input.readString(),
+						input.readString());
+			case OPMConstants.SUBTYPE_UNNAMED_PIPE:
+				return new UnnamedPipeIdentifier(input.readString(), input.readString(), input.readString());
+			case OPMConstants.SUBTYPE_UNNAMED_UNIX_SOCKET_PAIR:
+				return new UnnamedUnixSocketPairIdentifier(input.readString(), input.readString(), input.readString());
+			case OPMConstants.SUBTYPE_SYSV_MSG_Q:
+				return new SystemVMessageQueueIdentifier(input.readString(), input.readString(), input.readString(),
+						input.readString());
+			case OPMConstants.SUBTYPE_SYSV_SHARED_MEMORY:
+				return new SystemVSharedMemoryIdentifier(input.readString(), input.readString(), input.readString(),
+						input.readString());
+			default: throw new Exception("Unexpected subtype: " + subtype);
+		}
+	}
+}
@@ -39,7 +39,6 @@ import spade.edge.opm.WasDerivedFrom;
 import spade.reporter.Audit;
 //import spade.reporter.Audit;
 import spade.reporter.audit.Globals;
-import spade.reporter.audit.LinuxPathResolver;
 import spade.reporter.audit.OPMConstants;
 import spade.utility.Converter;
 import spade.utility.HelperFunctions;
@@ -58,13 +57,13 @@ public class ArtifactManager{
 	
 	private static void testArtifactStateConverter() throws Exception{
 		boolean hasBeenPuts [] = {true, false};
-		BigInteger bigInts [] = {null, new BigInteger("261783")};
-		String strs [] = {null, "", "null","random"}; // no commas!!!
+		BigInteger bigInts [] = {null, BigInteger.ZERO, new BigInteger("261783"), BigInteger.ONE.shiftLeft(70).negate()};
+		String strs [] = {null, "", "null","random", "0644", "a,b"};
 		Set<Set<String>> sets = new HashSet<Set<String>>();
 		sets.add(null);
 		sets.add(new HashSet<String>());
 		Set<String> subset = new HashSet<String>();
-		subset.add(null);subset.add("");subset.add("null");subset.add("random"); // no commas!!!
+		subset.add(null);subset.add("");subset.add("null");subset.add("random");subset.add("0644");subset.add("a,b");
 		for(int x = 0; x < 10; x++){
 			subset.add(String.valueOf(x));
 		}
@@ -178,267 +177,9 @@ public class ArtifactManager{
 		}
 	}
 
-	private static final Converter<ArtifactIdentifier, byte[]> artifactIdentifierConverter =
-			new Converter<ArtifactIdentifier, byte[]>(){
-				private final StringBuilder append(StringBuilder str, String s){
-					return str.append(s == null ? "" : s);
-				}
-				@Override
-				public byte[] serialize(ArtifactIdentifier i) throws Exception{
-					if(i == null){
-						return null;
-					}else{
-						try{
-							StringBuilder str = new StringBuilder();
-							final String subtype = i.getSubtype();
-							append(str, subtype).append(",");
-							switch(subtype){
-								case OPMConstants.SUBTYPE_BLOCK_DEVICE:
-								case OPMConstants.SUBTYPE_CHARACTER_DEVICE:
-								case OPMConstants.SUBTYPE_DIRECTORY:
-								case OPMConstants.SUBTYPE_FILE:
-								case OPMConstants.SUBTYPE_LINK:
-								case OPMConstants.SUBTYPE_NAMED_PIPE:
-								case OPMConstants.SUBTYPE_UNIX_SOCKET:
-								case OPMConstants.SUBTYPE_POSIX_MSG_Q:
-									PathIdentifier pathIdentifier = (PathIdentifier)i;
-									append(str, pathIdentifier.rootFSPath);
-									append(str, LinuxPathResolver.PATH_SEPARATOR);
-									append(str, LinuxPathResolver.PATH_SEPARATOR);
-									append(str, LinuxPathResolver.PATH_SEPARATOR);
-									append(str, pathIdentifier.path).append(",");
-									append(str, pathIdentifier.getSubtype());
-									break;
-								case OPMConstants.SUBTYPE_MEMORY_ADDRESS: 
-									MemoryIdentifier mem = (MemoryIdentifier)i;
-									append(str, mem.getMemoryAddress()).append(",");
-									append(str, mem.getSize()).append(",");
-									append(str, mem.getTgid()).append(",");
-									append(str, mem.getSubtype());
-									break;
-								case OPMConstants.SUBTYPE_NETWORK_SOCKET:
-									NetworkSocketIdentifier net = (NetworkSocketIdentifier)i;
-									append(str, net.getLocalHost()).append(",");
-									append(str, net.getLocalPort()).append(",");
-									append(str, net.getRemoteHost()).append(",");
-									append(str, net.getRemotePort()).append(",");
-									append(str, net.getProtocol()).append(",");
-									append(str, net.netNamespaceId).append(",");
-									append(str, net.getSubtype());
-									break;
-								case OPMConstants.SUBTYPE_UNKNOWN:
-									UnknownIdentifier unknown = (UnknownIdentifier)i;
-									append(str, unknown.getFD()).append(",");
-									append(str, unknown.getTgid()).append(",");
-									append(str, unknown.getSubtype());
-									break;
-								case OPMConstants.SUBTYPE_UNNAMED_NETWORK_SOCKET_PAIR:
-									UnnamedNetworkSocketPairIdentifier unNet = (UnnamedNetworkSocketPairIdentifier)i;
-									append(str, unNet.fd0).append(",");
-									append(str, unNet.fd1).append(",");
-									append(str, unNet.protocol).append(",");
-									append(str, unNet.tgid).append(",");
-									append(str, unNet.getSubtype());
-									break;
-								case OPMConstants.SUBTYPE_UNNAMED_PIPE:
-									UnnamedPipeIdentifier unPipe = (UnnamedPipeIdentifier)i;
-									append(str, unPipe.fd0).append(",");
-									append(str, unPipe.fd1).append(",");
-									append(str, unPipe.tgid).append(",");
-									append(str, unPipe.getSubtype());
-									break;
-								case OPMConstants.SUBTYPE_UNNAMED_UNIX_SOCKET_PAIR:
-									UnnamedUnixSocketPairIdentifier unUnix = (UnnamedUnixSocketPairIdentifier)i;
-									append(str, unUnix.fd0).append(",");
-									append(str, unUnix.fd1).append(",");
-									append(str, unUnix.tgid).append(",");
-									append(str, unUnix.getSubtype());
-									break;
-								case OPMConstants.SUBTYPE_SYSV_MSG_Q:
-								case OPMConstants.SUBTYPE_SYSV_SHARED_MEMORY:
-									SystemVArtifactIdentifier sysv = (SystemVArtifactIdentifier)i;
-									append(str, sysv.id).append(",");
-									append(str, sysv.ouid).append(",");
-									append(str, sysv.ogid).append(",");
-									append(str, sysv.ipcNamespace).append(",");
-									append(str, sysv.getSubtype());
-									break;
-								default: throw new RuntimeException("Unexpected subtype: " + subtype);
-							}
-							return str.toString().getBytes();
-						}catch(Exception e){
-							throw new RuntimeException("Failed to serialize artifact identifier: " + i, e);
-						}
-					}
-				}
-				@Override
-				public byte[] serializeObject(Object o) throws Exception{
-					return serializeObject((ArtifactIdentifier)o);
-				}
-				@Override
-				public ArtifactIdentifier deserialize(byte[] j) throws Exception{
-					return null; // Only one-way needed
-				}
-				@Override
-				public ArtifactIdentifier deserializeObject(Object o) throws Exception{
-					return deserialize((byte[])o);
-				}
-			};
+	private static final Converter<ArtifactIdentifier, byte[]> artifactIdentifierConverter = new ArtifactIdentifierCodec();
 	
-	private static final Converter<ArtifactState, byte[]> artifactStateConverter = 
-			new Converter<ArtifactState, byte[]>(){
-				private final String nullStr = "null";
-				@Override
-				public byte[] serialize(ArtifactState i) throws Exception{
-					if(i != null){
-						String str = "";
-						str += formatBoolean(i.hasBeenPut()) + ",";
-						str += formatBigInteger(i.getEpoch()) + ",";
-						str += formatBigInteger(i.getVersion()) + ",";
-						str += formatBigInteger(i.getLastPutEpoch()) + ",";
-						str += formatBigInteger(i.getLastPutVersion()) + ",";
-						str += formatString(i.getPermissions()) + ",";
-						str += formatString(i.getLastPutPermissions()) + ",";
-						str += formatStringSet(i.getPreviousPutPermissions());
-						return str.getBytes();
-					}else{
-						return null;
-					}
-				}
-				@Override
-				public byte[] serializeObject(Object o) throws Exception{
-					return serialize((ArtifactState)o);
-				}
-				private int readUntil(String str, char delimiter, int offset, StringBuffer result){
-					for(int i = offset; i < str.length(); i++){
-						char c = str.charAt(i);
-						if(c == delimiter){
-							return i + 1;
-						}else{
-							result.append(c);
-						}
-					}
-					return -1;
-				}
-				private String formatStringSet(Set<String> set){
-					if(set == null){
-						return nullStr;
-					}else{
-						String str = "[";
-						for(String s : set){
-							str += formatString(s) + ",";
-						}
-						str += "]";
-						return str;
-					}
-				}
-				private Set<String> parseStringSet(String buffer){
-					if(buffer.equals(nullStr)){
-						return null;
-					}else{
-						buffer = buffer.substring(1, buffer.length());
-						Set<String> set = new HashSet<String>();
-						StringBuffer str = new StringBuffer();
-						int offset = readUntil(buffer, ',', 0, str);
-						while(offset < buffer.length() && offset > -1){
-							String v = parseString(str.toString());
-							set.add(v);
-							str.setLength(0);
-							offset = readUntil(buffer, ',', offset, str);
-						}
-						return set;
-					}
-				}
-				private String formatBigInteger(BigInteger bigInt){
-					if(bigInt == null){
-						return nullStr;
-					}else{
-						return bigInt.toString();
-					}
-				}
-				private BigInteger parseBigInteger(String buffer){
-					if(buffer.equals(nullStr)){
-						return null;
-					}else{
-						return new BigInteger(buffer);
-					}
-				}
-				private String formatBoolean(boolean value){
-					return value ? "1" : "0";
-				}
-				private boolean parseBoolean(String buffer){
-					return buffer.equals("1");
-				}
-				private String formatString(String buffer){
-					if(buffer == null){
-						return nullStr;
-					}else{
-						return "'" + buffer + "'";
-					}
-				}
-				private String parseString(String buffer){
-					if(buffer.equals(nullStr)){
-						return null;
-					}else{
-						return buffer.substring(1, buffer.length() - 1);
-					}
-				}
-				@Override
-				public ArtifactState deserialize(byte[] j) throws Exception{
-					if(j == null){
-						return null;
-					}else{
-						String str = new String(j);
-						int offset = 0;
-						StringBuffer parsed = new StringBuffer();
-
-						offset = readUntil(str, ',', offset, parsed);
-						boolean hasBeenPut = parseBoolean(parsed.toString());
-						
-						parsed.setLength(0);
-						
-						offset = readUntil(str, ',', offset, parsed);
-						BigInteger epoch = parseBigInteger(parsed.toString());
-						
-						parsed.setLength(0);
-						
-						offset = readUntil(str, ',', offset, parsed);
-						BigInteger version = parseBigInteger(parsed.toString());
-						
-						parsed.setLength(0);
-						
-						offset = readUntil(str, ',', offset, parsed);
-						BigInteger lastPutEpoch = parseBigInteger(parsed.toString());
-						
-						parsed.setLength(0);
-						
-						offset = readUntil(str, ',', offset, parsed);
-						BigInteger lastPutVersion = parseBigInteger(parsed.toString());
-						
-						parsed.setLength(0);
-						
-						offset = readUntil(str, ',', offset, parsed);
-						String permissions = parseString(parsed.toString());
-						
-						parsed.setLength(0);
-						
-						offset = readUntil(str, ',', offset, parsed);
-						String lastPutPermissions = parseString(parsed.toString());
-						
-						parsed.setLength(0);
-						
-						parsed.append(str.substring(offset));
-						Set<String> previousPutPermissions = parseStringSet(parsed.toString());
-						
-						return new ArtifactState(hasBeenPut, epoch, version, lastPutEpoch, 
-								lastPutVersion, permissions, lastPutPermissions, previousPutPermissions);
-					}
-				}
-				@Override
-				public ArtifactState deserializeObject(Object o) throws Exception{
-					return deserialize((byte[])o);
-				}
-			};
+	private static final Converter<ArtifactState, byte[]> artifactStateConverter = new ArtifactStateCodec();
 	
 	private final Audit reporter;
 	
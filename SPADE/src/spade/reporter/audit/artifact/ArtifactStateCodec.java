@@ -0,0 +1,88 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit.artifact;
+
+import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.Set;
+
+import spade.utility.BinaryCodec;
+
+/**
+ * Binary converter for the values of the artifacts external map.
+ * 
+ * Version 1: hasBeenPut, epoch, version, lastPutEpoch, lastPutVersion, permissions, lastPutPermissions,
+ * previousPutPermissions (size followed by the strings).
+ */
+public class ArtifactStateCodec extends BinaryCodec<ArtifactState>{
+
+	private static final int version = 1;
+
+	// Only append. Permissions are the last 4 octal digits of the mode.
+	private static final StringTable strings = new StringTable(
+			"0644", "0755", "0600", "0666", "0777", "0700", "0444", "0664", "0775", "0640", "0750", "0555",
+			"0400", "0660", "0770", "1777", "0711", "0000"
+			);
+
+	public ArtifactStateCodec(){
+		super(version, strings);
+	}
+
+	@Override
+	protected void write(ArtifactState value, Output output) throws Exception{
+		output.writeBoolean(value.hasBeenPut());
+		output.writeBigInteger(value.getEpoch());
+		output.writeBigInteger(value.getVersion());
+		output.writeBigInteger(value.getLastPutEpoch());
+		output.writeBigInteger(value.getLastPutVersion());
+		output.writeString(value.getPermissions());
+		output.writeString(value.getLastPutPermissions());
+		Set<String> previousPutPermissions = value.getPreviousPutPermissions();
+		if(previousPutPermissions == null){
+			output.writeSize(-1);
+		}else{
+			output.writeSize(previousPutPermissions.size());
+			for(String permissions : previousPutPermissions){
+				output.writeString(permissions);
+			}
+		}
+	}
+
+	@Override
+	protected ArtifactState read(Input input, int version) throws Exception{
+		boolean hasBeenPut = input.readBoolean();
+		BigInteger epoch = input.readBigInteger();
+		BigInteger artifactVersion = input.readBigInteger();
+		BigInteger lastPutEpoch = input.readBigInteger();
+		BigInteger lastPutVersion = input.readBigInteger();
+		String permissions = input.readString();
+		String lastPutPermissions = input.readString();
+		Set<String> previousPutPermissions = null;
+		int size = input.readSize();
+		if(size > -1){
+			previousPutPermissions = new HashSet<String>();
+			for(int i = 0; i < size; i++){
+				previousPutPermissions.add(input.readString());
+			}
+		}
+		return new ArtifactState(hasBeenPut, epoch, artifactVersion, lastPutEpoch, lastPutVersion,
+				permissions, lastPutPermissions, previousPutPermissions);
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit.process;
+
+import spade.utility.BinaryCodec;
+
+/**
+ * Binary converter for the keys of the processes external map.
+ * 
+ * Version 1: pid, time.
+ */
+class ProcessKeyCodec extends BinaryCodec<ProcessKey>{
+
+	private static final int version = 1;
+
+	ProcessKeyCodec(){
+		super(version, new StringTable());
+	}
+
+	@Override
+	protected void write(ProcessKey value, Output output) throws Exception{
+		output.writeString(value.pid);
+		output.writeString(value.time);
+	}
+
+	@Override
+	protected ProcessKey read(Input input, int version) throws Exception{
+		return new ProcessKey(input.readString(), input.readString());
+	}
+}
@@ -19,7 +19,6 @@
  */
 package spade.reporter.audit.process;
 
-import java.io.Serializable;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -31,6 +30,7 @@ import java.util.logging.Logger;
 import spade.core.Settings;
 import spade.edge.opm.WasTriggeredBy;
 import spade.reporter.Audit;
+import spade.reporter.audit.AuditEventData;
 import spade.reporter.audit.AuditEventReader;
 import spade.reporter.audit.OPMConstants;
 import spade.reporter.audit.SYSCALL;
@@ -137,7 +137,8 @@ public abstract class ProcessManager extends ProcessStateManager{
 			throw new Exception("Failed to parse external map arguments");
 		}else{
 			ExternalMapArgument externalMapArgument = externalMapArgumentResult.result;
-			Result<ExternalMap<ProcessKey, ProcessUnitState>> externalMapResult = ExternalMapManager.create(externalMapArgument);
+			Result<ExternalMap<ProcessKey, ProcessUnitState>> externalMapResult = ExternalMapManager.create(externalMapArgument,
+					new ProcessKeyCodec(), new ProcessUnitStateCodec());
 			if(externalMapResult.error){
 				logger.log(Level.SEVERE, "Failed to create external map '"+processUnitStateMapId+"' from arguments: " + externalMapArgument);
 				logger.log(Level.SEVERE, externalMapResult.toErrorString());
@@ -264,8 +265,8 @@ public abstract class ProcessManager extends ProcessStateManager{
 	 * 
 	 * @param eventData audit event key values
 	 */
-	public void processSeenInUnsupportedSyscall(Map<String, String> eventData){
-		String pid = eventData.get(AuditEventReader.PID);
+	public void processSeenInUnsupportedSyscall(AuditEventData eventData){
+		String pid = eventData.getPid();
 		String time = eventData.get(AuditEventReader.TIME);
 
 		ProcessKey existingProcessKey = activeProcesses.get(pid);
@@ -377,9 +378,9 @@ public abstract class ProcessManager extends ProcessStateManager{
 	 * @param eventData event data from a system call event
 	 * @return process identifier
 	 */
-	protected ProcessIdentifier buildProcessIdentifierFromSyscall(Map<String, String> eventData){
-		String pidInEvent = eventData.get(AuditEventReader.PID);
-		return new ProcessIdentifier(pidInEvent, eventData.get(AuditEventReader.PPID), 
+	protected ProcessIdentifier buildProcessIdentifierFromSyscall(AuditEventData eventData){
+		String pidInEvent = eventData.getPid();
+		return new ProcessIdentifier(pidInEvent, eventData.getPpid(), 
 				eventData.get(AuditEventReader.COMM), eventData.get(AuditEventReader.CWD), null, null, 
 				eventData.get(AuditEventReader.TIME), getUnitId(), OPMConstants.SOURCE_AUDIT_SYSCALL, null);
 	}
@@ -393,8 +394,8 @@ public abstract class ProcessManager extends ProcessStateManager{
 	 * @param eventData event data from a system call event
 	 * @return AgentIdentifier instance
 	 */
-	protected AgentIdentifier buildAgentIdentifierFromSyscall(Map<String, String> eventData){
-		String uid = eventData.get(AuditEventReader.UID);
+	protected AgentIdentifier buildAgentIdentifierFromSyscall(AuditEventData eventData){
+		String uid = eventData.getUid();
 		String euid = eventData.get(AuditEventReader.EUID);
 		String gid = eventData.get(AuditEventReader.GID);
 		String egid = eventData.get(AuditEventReader.EGID);
@@ -424,7 +425,7 @@ public abstract class ProcessManager extends ProcessStateManager{
 	 * @param eventData system call event data
 	 * @return the active vertex (unit or process) or null (if error i.e. no process state)
 	 */
-	public Process handleProcessFromSyscall(Map<String, String> eventData){
+	public Process handleProcessFromSyscall(AuditEventData eventData){
 		return handleProcessFromSyscall(eventData, OPMConstants.OPERATION_UPDATE);
 	}
 	
@@ -442,10 +443,10 @@ public abstract class ProcessManager extends ProcessStateManager{
 	 * @param operation can only be either update or setuid or setgid for now.
 	 * @return the vertex for the pid
 	 */
-	private Process handleProcessFromSyscall(Map<String, String> eventData, String operation){
+	private Process handleProcessFromSyscall(AuditEventData eventData, String operation){
 		String time = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 		String source = OPMConstants.SOURCE_AUDIT_SYSCALL;
 		
 		AgentIdentifier agentIdentifier = buildAgentIdentifierFromSyscall(eventData);
@@ -480,10 +481,10 @@ public abstract class ProcessManager extends ProcessStateManager{
 	 * @param syscall execve syscall
 	 * @return the created process vertex
 	 */
-	public Process handleExecve(Map<String, String> eventData, SYSCALL syscall){
+	public Process handleExecve(AuditEventData eventData, SYSCALL syscall){
 		String source = OPMConstants.SOURCE_AUDIT_SYSCALL;
-		String pid = eventData.get(AuditEventReader.PID);
-		String ppid = eventData.get(AuditEventReader.PPID);
+		String pid = eventData.getPid();
+		String ppid = eventData.getPpid();
 		String comm = eventData.get(AuditEventReader.COMM);
 		String cwd = eventData.get(AuditEventReader.CWD);
 		String time = eventData.get(AuditEventReader.TIME);
@@ -526,7 +527,7 @@ public abstract class ProcessManager extends ProcessStateManager{
 		return childProcessVertex;
 	}
 	
-	private NamespaceIdentifier getNamespaceIdentifierFromEventData(Map<String, String> eventData){
+	private NamespaceIdentifier getNamespaceIdentifierFromEventData(AuditEventData eventData){
 		if(namespaces){
 			return new NamespaceIdentifier(
 					eventData.get(AuditEventReader.NS_INUM_MNT),
@@ -553,16 +554,15 @@ public abstract class ProcessManager extends ProcessStateManager{
 	 * @param syscall fork/vfork/clone syscall
 	 * @return true
 	 */
-	public boolean handleForkVforkClone(Map<String, String> eventData, SYSCALL syscall){
+	public boolean handleForkVforkClone(AuditEventData eventData, SYSCALL syscall){
 		String source = OPMConstants.SOURCE_AUDIT_SYSCALL;
-		String flagsString = eventData.get(AuditEventReader.ARG0);
 		String comm = eventData.get(AuditEventReader.COMM);
 		String cwd = eventData.get(AuditEventReader.CWD);
 		String time = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
 		
-		long flags = HelperFunctions.parseLong(flagsString, 0L);
-		String parentPid = eventData.get(AuditEventReader.PID);
+		long flags = eventData.hasArgument(0) ? eventData.getArgument(0) : 0L;
+		String parentPid = eventData.getPid();
 		String childPid = null;
 		String nsChildPid = null;
 		
@@ -570,7 +570,7 @@ public abstract class ProcessManager extends ProcessStateManager{
 			childPid = eventData.get(AuditEventReader.NS_HOST_PID);
 			nsChildPid = eventData.get(AuditEventReader.NS_NS_PID);
 		}else{
-			childPid = eventData.get(AuditEventReader.EXIT);
+			childPid = eventData.getExit();
 		}
 		
 		// handle the parent process vertex
@@ -652,16 +652,16 @@ public abstract class ProcessManager extends ProcessStateManager{
 		}
 	}
 
-	public void handleSetns(Map<String, String> eventData, SYSCALL syscall){
+	public void handleSetns(AuditEventData eventData, SYSCALL syscall){
 		handleNamespaceUpdateFromSyscall(eventData, syscall);
 	}
 	
-	public void handleUnshare(Map<String, String> eventData, SYSCALL syscall){
+	public void handleUnshare(AuditEventData eventData, SYSCALL syscall){
 		handleNamespaceUpdateFromSyscall(eventData, syscall);
 	}
 	
-	private void handleNamespaceUpdateFromSyscall(Map<String, String> eventData, SYSCALL syscall){
-		String pid = eventData.get(AuditEventReader.PID);
+	private void handleNamespaceUpdateFromSyscall(AuditEventData eventData, SYSCALL syscall){
+		String pid = eventData.getPid();
 		String time = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
 		String operation = reporter.getOperation(syscall);
@@ -684,7 +684,7 @@ public abstract class ProcessManager extends ProcessStateManager{
 	 * @param syscall fork/vfork/clone syscall
 	 * @return true
 	 */
-	public boolean handleSetuidSetgid(Map<String, String> eventData, SYSCALL syscall){
+	public boolean handleSetuidSetgid(AuditEventData eventData, SYSCALL syscall){
 		if(simplify){
 			if(syscall == SYSCALL.SETRESUID 
 					|| syscall == SYSCALL.SETRESGID
@@ -700,7 +700,7 @@ public abstract class ProcessManager extends ProcessStateManager{
 		 * redrawn to itself but with different operation annotation.
 		 */
 		
-		String pid = eventData.get(AuditEventReader.PID);
+		String pid = eventData.getPid();
 		String time = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
 		AgentIdentifier agentIdentifier = buildAgentIdentifierFromSyscall(eventData);
@@ -726,8 +726,8 @@ public abstract class ProcessManager extends ProcessStateManager{
 	 * @param outputOPM generate OPM only if true
 	 * @return true
 	 */
-	public boolean handleExit(Map<String, String> eventData, SYSCALL syscall, boolean outputOPM){
-		String pid = eventData.get(AuditEventReader.PID);
+	public boolean handleExit(AuditEventData eventData, SYSCALL syscall, boolean outputOPM){
+		String pid = eventData.getPid();
 		String time = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
 		
@@ -807,8 +807,8 @@ public abstract class ProcessManager extends ProcessStateManager{
 	 * @param eventData system call audit event key values
 	 * @return true
 	 */
-	public boolean handleUnitEntry(Map<String, String> eventData){
-		String pid = eventData.get(AuditEventReader.PID);
+	public boolean handleUnitEntry(AuditEventData eventData){
+		String pid = eventData.getPid();
 		String time = eventData.get(AuditEventReader.TIME);
 		String eventId = eventData.get(AuditEventReader.EVENT_ID);
 		
@@ -846,8 +846,8 @@ public abstract class ProcessManager extends ProcessStateManager{
 	 * @param eventData system call audit event key values
 	 * @return true
 	 */
-	public boolean handleUnitExit(Map<String, String> eventData){
-		String pid = eventData.get(AuditEventReader.PID);
+	public boolean handleUnitExit(AuditEventData eventData){
+		String pid = eventData.getPid();
 		ProcessUnitState state = getProcessUnitState(pid);
 		if(state != null){
 			if(state.isUnitActive()){
@@ -870,7 +870,7 @@ public abstract class ProcessManager extends ProcessStateManager{
 	 * @param eventData system call audit event key values
 	 * @return true/false
 	 */
-	public boolean handleUnitDependency(Map<String, String> eventData){
+	public boolean handleUnitDependency(AuditEventData eventData){
 		String readingUnitPid = eventData.get(AuditEventReader.UNIT_PID);
 		String readingUnitThreadStartTime = eventData.get(AuditEventReader.UNIT_THREAD_START_TIME);
 		String readingUnitId = eventData.get(AuditEventReader.UNIT_UNITID);
@@ -1185,53 +1185,3 @@ public abstract class ProcessManager extends ProcessStateManager{
 	}
 	*/
 }
-
-class ProcessKey implements Serializable{
-	
-	private static final long serialVersionUID = -5735819091990559950L;
-	
-	String pid;
-	String time; // starttime or null
-	
-	ProcessKey(String pid, String time){
-		this.pid = pid;
-		this.time = time;
-	}
-
-	@Override
-	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((pid == null) ? 0 : pid.hashCode());
-		result = prime * result + ((time == null) ? 0 : time.hashCode());
-		return result;
-	}
-
-	@Override
-	public boolean equals(Object obj) {
-		if (this == obj)
-			return true;
-		if (obj == null)
-			return false;
-		if (getClass() != obj.getClass())
-			return false;
-		ProcessKey other = (ProcessKey) obj;
-		if (pid == null) {
-			if (other.pid != null)
-				return false;
-		} else if (!pid.equals(other.pid))
-			return false;
-		if (time == null) {
-			if (other.time != null)
-				return false;
-		} else if (!time.equals(other.time))
-			return false;
-		return true;
-	}
-
-	@Override
-	public String toString() {
-		return "ProcessKey [pid=" + pid + ", time=" + time + "]";
-	}
-
-}
@@ -74,6 +74,21 @@ public class ProcessUnitState implements Serializable{
 		}
 	}
 	
+	/**
+	 * Restores a state as it was when it was serialized
+	 */
+	public ProcessUnitState(ProcessIdentifier process, AgentIdentifier agent, UnitIdentifier unit, NamespaceIdentifier namespace,
+			String threadGroupId, Series<Double, SimpleEntry<AgentIdentifier, NamespaceIdentifier>> timeToAgentAndNamespace,
+			boolean hadUnits){
+		this.process = process;
+		this.agent = agent;
+		this.unit = unit;
+		this.namespace = namespace;
+		this.threadGroupId = threadGroupId;
+		this.timeToAgentAndNamespace = timeToAgentAndNamespace;
+		this.hadUnits = hadUnits;
+	}
+	
 	protected void setThreadGroupId(String threadGroupId){
 		this.threadGroupId = threadGroupId;
 	}
@@ -139,6 +154,10 @@ public class ProcessUnitState implements Serializable{
 		return unit != null;
 	}
 	
+	protected Series<Double, SimpleEntry<AgentIdentifier, NamespaceIdentifier>> getTimeToAgentAndNamespace(){
+		return timeToAgentAndNamespace;
+	}
+	
 	protected boolean hadUnits(){
 		return hadUnits;
 	}
@@ -0,0 +1,220 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2015 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.audit.process;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.List;
+
+import spade.reporter.audit.OPMConstants;
+import spade.utility.BinaryCodec;
+import spade.utility.Series;
+
+/**
+ * Binary converter for the values of the processes external map.
+ * 
+ * Version 1: process, agent, unit, namespace, threadGroupId, hadUnits, and the time to agent and namespace series.
+ * The agent and the namespace in a series entry are written as a reference when equal to the current one or to
+ * the one in the previous entry.
+ */
+public class ProcessUnitStateCodec extends BinaryCodec<ProcessUnitState>{
+
+	private static final int version = 1;
+
+	// Only append
+	private static final StringTable strings = new StringTable(
+			OPMConstants.SOURCE_AUDIT_SYSCALL, OPMConstants.SOURCE_PROCFS, OPMConstants.SOURCE_BEEP,
+			"0", "1", "/"
+			);
+
+	private static final int referenceNull = 0, referenceCurrent = 1, referencePrevious = 2, referenceNone = 3;
+
+	public ProcessUnitStateCodec(){
+		super(version, strings);
+	}
+
+	@Override
+	protected void write(ProcessUnitState value, Output output) throws Exception{
+		writeProcess(value.getProcess(), output);
+		writeAgent(value.getAgent(), output);
+		writeUnit(value.getUnit(), output);
+		writeNamespace(value.getNamespace(), output);
+		output.writeString(value.getThreadGroupId());
+		output.writeBoolean(value.hadUnits());
+
+		List<SimpleEntry<Double, SimpleEntry<AgentIdentifier, NamespaceIdentifier>>> entries =
+				value.getTimeToAgentAndNamespace().getEntries();
+		output.writeSize(entries.size());
+		AgentIdentifier previousAgent = null;
+		NamespaceIdentifier previousNamespace = null;
+		for(SimpleEntry<Double, SimpleEntry<AgentIdentifier, NamespaceIdentifier>> entry : entries){
+			output.writeDouble(entry.getKey());
+			SimpleEntry<AgentIdentifier, NamespaceIdentifier> agentAndNamespace = entry.getValue();
+			AgentIdentifier agent = agentAndNamespace.getKey();
+			NamespaceIdentifier namespace = agentAndNamespace.getValue();
+			int agentReference = reference(agent, value.getAgent(), previousAgent);
+			int namespaceReference = reference(namespace, value.getNamespace(), previousNamespace);
+			output.writeByte((agentReference << 2) | namespaceReference);
+			if(agentReference == referenceNone){
+				writeAgent(agent, output);
+			}
+			if(namespaceReference == referenceNone){
+				writeNamespace(namespace, output);
+			}
+			previousAgent = agent;
+			previousNamespace = namespace;
+		}
+	}
+
+	@Override
+	protected ProcessUnitState read(Input input, int version) throws Exception{
+		ProcessIdentifier process = readProcess(input);
+		AgentIdentifier agent = readAgent(input);
+		UnitIdentifier unit = readUnit(input);
+		NamespaceIdentifier namespace = readNamespace(input);
+		String threadGroupId = input.readString();
+		boolean hadUnits = input.readBoolean();
+
+		Series<Double, SimpleEntry<AgentIdentifier, NamespaceIdentifier>> timeToAgentAndNamespace =
+				new Series<Double, SimpleEntry<AgentIdentifier, NamespaceIdentifier>>();
+		int size = input.readSize();
+		AgentIdentifier previousAgent = null;
+		NamespaceIdentifier previousNamespace = null;
+		for(int i = 0; i < size; i++){
+			double time = input.readDouble();
+			int references = input.readByte();
+			int agentReference = references >>> 2, namespaceReference = references & 3;
+			AgentIdentifier entryAgent = agentReference == referenceNone
+					? readAgent(input) : dereference(agentReference, agent, previousAgent);
+			NamespaceIdentifier entryNamespace = namespaceReference == referenceNone
+					? readNamespace(input) : dereference(namespaceReference, namespace, previousNamespace);
+			timeToAgentAndNamespace.add(time, new SimpleEntry<AgentIdentifier, NamespaceIdentifier>(entryAgent, entryNamespace));
+			previousAgent = entryAgent;
+			previousNamespace = entryNamespace;
+		}
+		return new ProcessUnitState(process, agent, unit, namespace, threadGroupId, timeToAgentAndNamespace, hadUnits);
+	}
+
+	private static int reference(Object value, Object current, Object previous){
+		if(value == null){
+			return referenceNull;
+		}else if(value.equals(current)){
+			return referenceCurrent;
+		}else if(value.equals(previous)){
+			return referencePrevious;
+		}else{
+			return referenceNone;
+		}
+	}
+
+	private static <T> T dereference(int reference, T current, T previous) throws Exception{
+		switch(reference){
+			case referenceNull: return null;
+			case referenceCurrent: return current;
+			case referencePrevious: return previous;
+			default: throw new Exception("Invalid reference: " + reference);
+		}
+	}
+
+	private static void writeProcess(ProcessIdentifier process, Output output){
+		output.writeBoolean(process != null);
+		if(process != null){
+			output.writeString(process.pid);
+			output.writeString(process.ppid);
+			output.writeString(process.name);
+			output.writeString(process.cwd);
+			output.writeString(process.commandLine);
+			output.writeString(process.startTime);
+			output.writeString(process.seenTime);
+			output.writeString(process.processUnitId);
+			output.writeString(process.processSource);
+			output.writeString(process.nsPid);
+		}
+	}
+
+	private static ProcessIdentifier readProcess(Input input) throws Exception{
+		if(!input.readBoolean()){
+			return null;
+		}
+		return new ProcessIdentifier(input.readString(), input.readString(), input.readString(), input.readString(),
+				input.readString(), input.readString(), input.readString(), input.readString(), input.readString(),
+				input.readString());
+	}
+
+	private static void writeAgent(AgentIdentifier agent, Output output){
+		output.writeBoolean(agent != null);
+		if(agent != null){
+			output.writeString(agent.uid);
+			output.writeString(agent.euid);
+			output.writeString(agent.gid);
+			output.writeString(agent.egid);
+			output.writeString(agent.suid);
+			output.writeString(agent.fsuid);
+			output.writeString(agent.sgid);
+			output.writeString(agent.fsgid);
+		}
+	}
+
+	private static AgentIdentifier readAgent(Input input) throws Exception{
+		if(!input.readBoolean()){
+			return null;
+		}
+		return new AgentIdentifier(input.readString(), input.readString(), input.readString(), input.readString(),
+				input.readString(), input.readString(), input.readString(), input.readString());
+	}
+
+	private static void writeUnit(UnitIdentifier unit, Output output){
+		output.writeBoolean(unit != null);
+		if(unit != null){
+			output.writeString(unit.id);
+			output.writeString(unit.iteration);
+			output.writeString(unit.count);
+			output.writeString(unit.startTime);
+			output.writeString(unit.eventId);
+		}
+	}
+
+	private static UnitIdentifier readUnit(Input input) throws Exception{
+		if(!input.readBoolean()){
+			return null;
+		}
+		return new UnitIdentifier(input.readString(), input.readString(), input.readString(), input.readString(),
+				input.readString());
+	}
+
+	private static void writeNamespace(NamespaceIdentifier namespace, Output output){
+		output.writeBoolean(namespace != null);
+		if(namespace != null){
+			output.writeString(namespace.mount);
+			output.writeString(namespace.user);
+			output.writeString(namespace.net);
+			output.writeString(namespace.pid);
+			output.writeString(namespace.pid_children);
+			output.writeString(namespace.ipc);
+		}
+	}
+
+	private static NamespaceIdentifier readNamespace(Input input) throws Exception{
+		if(!input.readBoolean()){
+			return null;
+		}
+		return new NamespaceIdentifier(input.readString(), input.readString(), input.readString(), input.readString(),
+				input.readString(), input.readString());
+	}
+}
@@ -0,0 +1,421 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.reporter.camflow;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.utility.HelperFunctions;
+import spade.utility.Result;
+import spade.utility.map.external.ExternalMap;
+import spade.utility.map.external.ExternalMapArgument;
+import spade.utility.map.external.ExternalMapManager;
+import spade.utility.map.external.store.db.berkeleydb.BerkeleyDBArgument;
+import spade.utility.map.external.store.db.leveldb.LevelDBArgument;
+
+/**
+ * Resolves the endpoints of edges to the vertices seen with the same CamFlow id.
+ *
+ * An edge is held until both of its endpoints have been seen. Assumes that the duplicate flag
+ * is true in camflow i.e. a vertex is repeated as many times as it is referred in edges, which
+ * is used to discard a reference once all of its uses have been seen.
+ *
+ * The references are kept in an external map so that only the most recently used ones are in
+ * memory and the rest are on disk. An incomplete edge is shared by the references of both of its
+ * endpoints, so the incomplete edges are kept (once) in another external map and the references
+ * only hold their hashes. A value read from either map can be a copy, so it is put back after every
+ * change. The number of references and of incomplete edges are kept as counters.
+ *
+ * Not thread-safe.
+ */
+public class VertexReferences{
+
+	/**
+	 * Where the vertices, and the edges (once complete) are sent to
+	 */
+	public static interface Output{
+		public void putVertex(AbstractVertex vertex);
+		public void putEdge(AbstractEdge edge);
+	}
+
+	// Number of instances created in this process to keep their stores apart
+	private static final AtomicInteger instances = new AtomicInteger();
+
+	private final ExternalMap<String, VertexReference> vertexReferences;
+
+	// Incomplete edges by their hash at the time of adding
+	private final ExternalMap<String, IncompleteEdge> incompleteEdges;
+
+	private final Output output;
+
+	private long currentVertexReferences = 0;
+	private long currentIncompleteEdges = 0;
+
+	private VertexReferences(final Output output, final ExternalMap<String, VertexReference> vertexReferences,
+			final ExternalMap<String, IncompleteEdge> incompleteEdges){
+		this.output = output;
+		this.vertexReferences = vertexReferences;
+		this.incompleteEdges = incompleteEdges;
+	}
+
+	/**
+	 * Creates the external maps from the keys '&lt;vertexMapId&gt;.*' and '&lt;edgeMapId&gt;.*' in the given
+	 * key-value pairs (see cfg/spade.utility.map.external.examples).
+	 *
+	 * The first instance in the process uses the stores as configured. Later instances get '_&lt;n&gt;'
+	 * appended to the 'dbName' (BerkeleyDB) or the 'databasePath' (LevelDB) of the stores so that
+	 * multiple reporters can run at the same time.
+	 *
+	 * @param output Where to send the vertices and the complete edges
+	 * @param vertexMapId Id of the external map for the vertex references
+	 * @param edgeMapId Id of the external map for the incomplete edges
+	 * @param keyValues Key-value pairs from the arguments and/or the config file. The keys of the maps are removed
+	 * @return The vertex references or the error
+	 */
+	public static Result<VertexReferences> create(final Output output, final String vertexMapId, final String edgeMapId,
+			final Map<String, String> keyValues){
+		if(output == null){
+			return Result.failed("NULL output");
+		}
+		if(keyValues == null){
+			return Result.failed("NULL key-value pairs");
+		}
+		final int instance = instances.getAndIncrement();
+		final Result<ExternalMap<String, VertexReference>> vertexMapResult = createExternalMap(vertexMapId, keyValues, instance);
+		if(vertexMapResult.error){
+			return Result.failed("Failed to create vertex references map", vertexMapResult);
+		}
+		final Result<ExternalMap<String, IncompleteEdge>> edgeMapResult = createExternalMap(edgeMapId, keyValues, instance);
+		if(edgeMapResult.error){
+			vertexMapResult.result.close();
+			return Result.failed("Failed to create incomplete edges map", edgeMapResult);
+		}
+		return Result.successful(new VertexReferences(output, vertexMapResult.result, edgeMapResult.result));
+	}
+
+	private static <V extends Serializable> Result<ExternalMap<String, V>> createExternalMap(final String mapId, final Map<String, String> keyValues,
+			final int instance){
+		final Map<String, String> mapKeyValues = new HashMap<String, String>();
+		final Iterator<Map.Entry<String, String>> iterator = keyValues.entrySet().iterator();
+		while(iterator.hasNext()){
+			final Map.Entry<String, String> entry = iterator.next();
+			if(entry.getKey().startsWith(mapId + ".")){
+				mapKeyValues.put(entry.getKey(), entry.getValue());
+				iterator.remove();
+			}
+		}
+		if(instance > 0){
+			final String storeArgumentKey = mapId + "." + ExternalMapArgument.keyStoreArgument;
+			final Result<String> storeArgumentResult = makeStoreUnique(mapKeyValues.get(storeArgumentKey), instance);
+			if(storeArgumentResult.error){
+				return Result.failed("Invalid '" + storeArgumentKey + "'", storeArgumentResult);
+			}
+			mapKeyValues.put(storeArgumentKey, storeArgumentResult.result);
+		}
+		final Result<ExternalMapArgument> externalMapArgumentResult = ExternalMapManager.parseArgumentFromMap(mapId, mapKeyValues);
+		if(externalMapArgumentResult.error){
+			return Result.failed("Failed to parse argument for external map: '" + mapId + "'", externalMapArgumentResult);
+		}
+		final Result<ExternalMap<String, V>> externalMapResult = ExternalMapManager.create(externalMapArgumentResult.result);
+		if(externalMapResult.error){
+			return Result.failed("Failed to create external map '" + mapId + "' from arguments: "
+					+ externalMapArgumentResult.result, externalMapResult);
+		}
+		return externalMapResult;
+	}
+
+	private static Result<String> makeStoreUnique(final String storeArgument, final int instance){
+		final Result<HashMap<String, String>> parsedResult = HelperFunctions.parseKeysValuesInString(storeArgument);
+		if(parsedResult.error){
+			return Result.failed("Failed to parse store argument", parsedResult);
+		}
+		final HashMap<String, String> parsed = parsedResult.result;
+		for(final String key : new String[]{BerkeleyDBArgument.keyDatabaseName, LevelDBArgument.keyDatabasePath}){
+			final String value = parsed.get(key);
+			if(!HelperFunctions.isNullOrEmpty(value)){
+				parsed.put(key, value + "_" + instance);
+			}
+		}
+		final StringBuilder string = new StringBuilder();
+		for(final Map.Entry<String, String> entry : parsed.entrySet()){
+			string.append(entry.getKey()).append('=').append(entry.getValue()).append(' ');
+		}
+		return Result.successful(string.toString().trim());
+	}
+
+	private static class VertexReference implements Serializable{
+		private static final long serialVersionUID = 2185302651096651447L;
+		/**
+		 * The vertex (can be null if edge seen before this vertex)
+		 */
+		private AbstractVertex vertex = null;
+		/**
+		 * Incremented when referred in edge. Decremented when vertex seen.
+		 * When set (back) to 0 then it means that all references to vertices used.
+		 * Data in format where a vertex is repeated as many times as the number of times it
+		 * is referred in edges.
+		 */
+		private int used = 0;
+		/**
+		 * Hashes of edges where this vertex is the missing 'from' vertex
+		 */
+		private final Set<String> incompleteFromEdges = new HashSet<String>();
+		/**
+		 * Hashes of edges where this vertex is the missing 'to' vertex
+		 */
+		private final Set<String> incompleteToEdges = new HashSet<String>();
+	}
+
+	private static class IncompleteEdge implements Serializable{
+		private static final long serialVersionUID = -4305462788364511731L;
+		private final AbstractEdge edge;
+		/**
+		 * Number of vertex references holding the hash of this edge
+		 */
+		private int references = 0;
+		private IncompleteEdge(final AbstractEdge edge){
+			this.edge = edge;
+		}
+	}
+
+	public long size(){
+		return currentVertexReferences;
+	}
+
+	public long getCurrentTotalIncompleteEdges(){
+		return currentIncompleteEdges;
+	}
+
+	/**
+	 * Closes the external maps
+	 */
+	public void close(){
+		vertexReferences.close();
+		incompleteEdges.close();
+	}
+
+	/**
+	 * Removes if the used count is 0
+	 * @param id hash of the vertex as sent by camflow
+	 * @param vref the corresponding VertexReference object
+	 */
+	private void removeVertexReferenceIfAllUsed(String id, VertexReference vref){
+		if(vref.used == 0){
+			vertexReferences.remove(id);
+			currentVertexReferences--;
+			removeIncomplete(vref.incompleteFromEdges, vref.incompleteFromEdges);
+			removeIncomplete(vref.incompleteToEdges, vref.incompleteToEdges);
+		}else{
+			vertexReferences.put(id, vref); // Might be a copy
+		}
+	}
+
+	public void putVertex(final AbstractVertex vertex){
+		if(vertex == null){
+			throw new RuntimeException("NULL vertex");
+		}
+
+		final String id = vertex.id();
+		if(id == null){
+			throw new RuntimeException("NULL id for vertex: " + vertex);
+		}
+
+		output.putVertex(vertex);
+
+		VertexReference vref = vertexReferences.get(id);
+		if(vref == null){ // Vertex not seen before or was seen but was removed when used in all edges
+			vref = new VertexReference();
+			vref.vertex = vertex;
+
+			// Decrement the count, and wait till the corresponding edge seen (which will increment this)
+			vref.used--;
+			// No need to check for incomplete since vertex never seen before
+
+			vertexReferences.put(id, vref);
+			currentVertexReferences++;
+		}else{
+			vref.vertex = vertex;
+
+			// Decrement here too since vertex is seen again but not used yet (maybe)
+			vref.used--;
+
+			// Since the vertex cannot be null now check if there are any incomplete edges where this vertex was involved.
+			Set<AbstractEdge> completeEdges = new HashSet<AbstractEdge>();
+			Set<String> completeFromEdges = new HashSet<String>();
+			Set<String> completeToEdges = new HashSet<String>();
+			for(String fromEdgeHash : vref.incompleteFromEdges){
+				IncompleteEdge incompleteEdge = incompleteEdges.get(fromEdgeHash);
+				AbstractEdge fromEdge = incompleteEdge.edge;
+				fromEdge.setChildVertex(vertex);
+				if(fromEdge.getChildVertex() != null && fromEdge.getParentVertex() != null){
+					// Making sure that both the endpoints are non-null now
+					completeEdges.add(fromEdge);
+					completeFromEdges.add(fromEdgeHash);
+				}
+				incompleteEdges.put(fromEdgeHash, incompleteEdge); // Might be a copy
+			}
+			for(String toEdgeHash : vref.incompleteToEdges){
+				IncompleteEdge incompleteEdge = incompleteEdges.get(toEdgeHash);
+				AbstractEdge toEdge = incompleteEdge.edge;
+				toEdge.setParentVertex(vertex);
+				if(toEdge.getChildVertex() != null && toEdge.getParentVertex() != null){
+					completeEdges.add(toEdge);
+					completeToEdges.add(toEdgeHash);
+				}
+				incompleteEdges.put(toEdgeHash, incompleteEdge); // Might be a copy
+			}
+
+			// Remove all completed edges from incomplete sets
+			removeIncomplete(vref.incompleteFromEdges, completeFromEdges);
+			removeIncomplete(vref.incompleteToEdges, completeToEdges);
+
+			for(AbstractEdge completeEdge : completeEdges){
+				output.putEdge(completeEdge);
+			}
+
+			// Remove if the used count is 0 now i.e. the number of times this vertex was seen is equal to the number
+			// of times this vertex was seen in edges. Otherwise put back.
+			removeVertexReferenceIfAllUsed(id, vref);
+		}
+	}
+
+	public void putEdge(final AbstractEdge edge){
+		if(edge == null){
+			throw new RuntimeException("NULL edge");
+		}
+
+		final AbstractVertex childVertex = edge.getChildVertex();
+		if(childVertex == null){
+			throw new RuntimeException("NULL child vertex in edge: " + edge);
+		}
+
+		final String childVertexId = childVertex.id();
+		if(childVertexId == null){
+			throw new RuntimeException("NULL child vertex id in edge: " + edge);
+		}
+
+		final AbstractVertex parentVertex = edge.getParentVertex();
+		if(parentVertex == null){
+			throw new RuntimeException("NULL parent vertex in edge: " + edge);
+		}
+
+		final String parentVertexId = parentVertex.id();
+		if(parentVertexId == null){
+			throw new RuntimeException("NULL parent vertex id in edge: " + edge);
+		}
+
+		// Note: 'fromVRef', and 'toVRef' can be same.
+		// So, process one of them and then (after) use the same object for the other one otherwise
+		// the one gotten later would overwrite the previous one.
+		// The edge is added to incomplete only after both of its endpoints are filled (if seen) because the
+		// incomplete edge can be written out (a copy) as soon as it is added
+		boolean childMissing = false, parentMissing = false;
+		VertexReference fromVRef = vertexReferences.get(childVertexId);
+		if(fromVRef == null){
+			fromVRef = new VertexReference();
+			currentVertexReferences++;
+			childMissing = true;
+		}else{
+			if(fromVRef.vertex != null){
+				edge.setChildVertex(fromVRef.vertex); // If the vertex is not null then fill the edge
+			}else{
+				childMissing = true; // Add to incomplete since vertex still null. Wait for it.
+			}
+		}
+		fromVRef.used++; // Since vertex referred.
+
+		final boolean sameVertex = childVertexId.equals(parentVertexId);
+		VertexReference toVRef = sameVertex ? fromVRef : vertexReferences.get(parentVertexId);
+		if(toVRef == null){
+			toVRef = new VertexReference();
+			currentVertexReferences++;
+			parentMissing = true;
+		}else{
+			if(toVRef.vertex != null){
+				edge.setParentVertex(toVRef.vertex);
+			}else{
+				parentMissing = true;
+			}
+		}
+		toVRef.used++;
+
+		if(childMissing){
+			addIncomplete(fromVRef.incompleteFromEdges, edge);
+		}
+		if(parentMissing){
+			addIncomplete(toVRef.incompleteToEdges, edge);
+		}
+
+		// If both null
+		if(edge.getParentVertex() != null && edge.getChildVertex() != null){
+			output.putEdge(edge);
+		}
+
+		// Remove the references if all used up. Otherwise put back.
+		removeVertexReferenceIfAllUsed(childVertexId, fromVRef);
+		if(!sameVertex){
+			removeVertexReferenceIfAllUsed(parentVertexId, toVRef);
+		}
+	}
+
+	private void addIncomplete(final Set<String> edgeHashes, final AbstractEdge edge){
+		final String edgeHash = edge.bigHashCode();
+		if(edgeHashes.add(edgeHash)){
+			currentIncompleteEdges++;
+			IncompleteEdge incompleteEdge = incompleteEdges.get(edgeHash);
+			if(incompleteEdge == null){
+				incompleteEdge = new IncompleteEdge(edge);
+			}
+			incompleteEdge.references++;
+			incompleteEdges.put(edgeHash, incompleteEdge); // Might be a copy
+		}
+	}
+
+	/**
+	 * Removes the given hashes from the hashes of a vertex reference, and the edges which are not held by any
+	 * other vertex reference
+	 * 
+	 * @param edgeHashes the hashes in the vertex reference
+	 * @param removeEdgeHashes the hashes to remove (can be the same set as 'edgeHashes')
+	 */
+	private void removeIncomplete(final Set<String> edgeHashes, final Set<String> removeEdgeHashes){
+		for(final String edgeHash : removeEdgeHashes){
+			final IncompleteEdge incompleteEdge = incompleteEdges.get(edgeHash);
+			if(--incompleteEdge.references == 0){
+				incompleteEdges.remove(edgeHash);
+			}else{
+				incompleteEdges.put(edgeHash, incompleteEdge); // Might be a copy
+			}
+			currentIncompleteEdges--;
+		}
+		if(edgeHashes == removeEdgeHashes){
+			edgeHashes.clear();
+		}else{
+			edgeHashes.removeAll(removeEdgeHashes);
+		}
+	}
+}
@@ -51,17 +51,21 @@ public final class Deduplicate extends AbstractScreen{
 	private final String keyFalsePositiveProbabilityEdge = "edge.bloomFilter.falsePositiveProbability";
 	private final String keyCacheSizeEdge = "edge.cache.size";
 	private final String keyReportingIntervalSeconds = "reportingIntervalSeconds";
+	private final String keyBloomFilterBlocked = "bloomFilter.blocked";
 
 	private final Object blankObject = new Object();
 	private final Object lockObject = new Object();
 	
 	private String loadSavePathVertex = null;
-	private spade.core.BloomFilter<String> bloomFilterVertex = null;
+	private spade.core.MembershipFilter<String> bloomFilterVertex = null;
 	private LRUCache<String, Object> cacheVertex;
 	private String loadSavePathEdge = null;
-	private spade.core.BloomFilter<String> bloomFilterEdge = null;
+	private spade.core.MembershipFilter<String> bloomFilterEdge = null;
 	private LRUCache<String, Object> cacheEdge;
 	
+	// Only used for the bloomfilters created from arguments
+	private boolean bloomFilterBlocked = false;
+	
 	private boolean reportingEnabled;
 	private long reportingIntervalMillis;
 	private long lastReportedAtMillis;
@@ -86,6 +90,15 @@ public final class Deduplicate extends AbstractScreen{
 			final String edgeBloomFilterExpectedElementsString = map.get(keyExpectedElementsEdge);
 			final String edgeBloomFilterFalsePositiveProbabilityString = map.get(keyFalsePositiveProbabilityEdge);
 			final String edgeCacheSizeString = map.get(keyCacheSizeEdge);
+			final String bloomFilterBlockedString = map.get(keyBloomFilterBlocked);
+			if(bloomFilterBlockedString != null){
+				final Result<Boolean> bloomFilterBlockedResult = HelperFunctions.parseBoolean(bloomFilterBlockedString);
+				if(bloomFilterBlockedResult.error){
+					throw new Exception("Invalid value for '"+keyBloomFilterBlocked+"'='"+bloomFilterBlockedString+"'. "
+							+ bloomFilterBlockedResult.errorMessage);
+				}
+				this.bloomFilterBlocked = bloomFilterBlockedResult.result;
+			}
 
 			initialize(reportingIntervalSecondsString, 
 					vertexLoadSavePathString, 
@@ -200,19 +213,20 @@ public final class Deduplicate extends AbstractScreen{
 			}
 		}
 
-		spade.core.BloomFilter<String> bloomFilter = null;
+		spade.core.MembershipFilter<String> bloomFilter = null;
 		List<String> cacheEntries = null;
 		Integer cacheSize = null;
 		
 		if(loadFromFile){
 			try(final ObjectInputStream objectInputStream = new ObjectInputStream(
 					new FileInputStream(new File(loadSavePathString).getAbsolutePath()))){
-				bloomFilter = (spade.core.BloomFilter<String>)objectInputStream.readObject();
+				bloomFilter = (spade.core.MembershipFilter<String>)objectInputStream.readObject();
 				if(bloomFilter != null){
 					logger.log(Level.INFO,
 							logName + " BloomFilter initialized from file: " + loadSavePathString + " [falsePositiveProbability="
 									+ bloomFilter.getFalsePositiveProbability() + ", " + "expectedElements="
-									+ bloomFilter.getExpectedBitsPerElement() + "]");
+									+ bloomFilter.getExpectedNumberOfElements() + ", type="
+									+ bloomFilter.getClass().getSimpleName() + "]");
 					logger.log(Level.INFO, "Keys ignored: ['"+getExpectedElementsKeyFor(isForVertex)+"', '"+getFalsePositiveKeyFor(isForVertex)+"']");
 					cacheSize = (Integer)objectInputStream.readObject();
 					if(cacheSize != null){
@@ -248,11 +262,13 @@ public final class Deduplicate extends AbstractScreen{
 						+ "Must be between 0 and 1 (inclusive) but is '"+falsePositiveString+"'");
 			}
 
-			bloomFilter = new spade.core.BloomFilter<String>(falsePositiveResult.result, expectedElementsResult.result.intValue());
+			bloomFilter = new spade.core.ConcurrentBloomFilter<String>(falsePositiveResult.result, expectedElementsResult.result.intValue(),
+					bloomFilterBlocked);
 			logger.log(Level.INFO,
 					logName + " BloomFilter initialized from arguments: " + "[falsePositiveProbability="
 							+ String.format("%.9f", falsePositiveResult.result) + ", "
-							+ "expectedElements=" + expectedElementsResult.result.intValue() + "]");
+							+ "expectedElements=" + expectedElementsResult.result.intValue() + ", "
+							+ "blocked=" + bloomFilterBlocked + "]");
 		}
 
 		LRUCache<String, Object> cache = null;
@@ -337,7 +353,7 @@ public final class Deduplicate extends AbstractScreen{
 	}
 	
 	private final synchronized boolean block(final String hashCode, 
-			final spade.core.BloomFilter<String> bloomFilter, final LRUCache<String, Object> cache){
+			final spade.core.MembershipFilter<String> bloomFilter, final LRUCache<String, Object> cache){
 		printStats(false);
 		
 		if(bloomFilter.contains(hashCode)){
@@ -419,7 +435,7 @@ public final class Deduplicate extends AbstractScreen{
 	}
 	
 	private final void setCacheValueForStorage(
-			final spade.core.BloomFilter<String> bloomFilter, final LRUCache<String, Object> cache, final String hashCode, final Object value){
+			final spade.core.MembershipFilter<String> bloomFilter, final LRUCache<String, Object> cache, final String hashCode, final Object value){
 		if(hashCode == null){
 			return;
 		}
@@ -468,7 +484,7 @@ public final class Deduplicate extends AbstractScreen{
 		return true;
 	}
 	
-	private final void saveBloomFilterAndCache(final spade.core.BloomFilter<String> bloomFilter, 
+	private final void saveBloomFilterAndCache(final spade.core.MembershipFilter<String> bloomFilter, 
 			final LRUCache<String, Object> cache,
 			final String path, final String logName){
 		ObjectOutputStream objectOutputStream = null;
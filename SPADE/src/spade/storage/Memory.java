@@ -0,0 +1,174 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractStorage;
+import spade.core.AbstractVertex;
+import spade.core.Settings;
+import spade.query.quickgrail.core.QueryInstructionExecutor;
+import spade.storage.memory.GraphStore;
+import spade.storage.memory.MemoryInstructionExecutor;
+import spade.storage.memory.MemoryQueryEnvironment;
+import spade.utility.HelperFunctions;
+import spade.utility.Result;
+
+/**
+ * Queryable storage which keeps the graph in memory (see GraphStore).
+ * 
+ * If a snapshot file is configured then the graph and the query symbols are loaded from it on initialization
+ * (if it exists) and saved to it on shutdown.
+ */
+public final class Memory extends AbstractStorage{
+
+	private static final Logger logger = Logger.getLogger(Memory.class.getName());
+
+	private static final String
+		keySnapshot = "snapshot",
+		keyReset = "reset";
+
+	private static final String baseGraphName = "spade_base";
+
+	private String snapshotPath;
+	private boolean reset;
+
+	private GraphStore store;
+
+	private MemoryQueryEnvironment queryEnvironment = null;
+	private MemoryInstructionExecutor queryInstructionExecutor = null;
+
+	@Override
+	public final synchronized boolean initialize(String arguments){
+		final Map<String, String> map = new HashMap<String, String>();
+		try{
+			final String configFilePath = Settings.getDefaultConfigFilePath(this.getClass());
+			map.putAll(HelperFunctions.parseKeyValuePairsFrom(arguments, configFilePath, null));
+		}catch(Exception e){
+			logger.log(Level.SEVERE, "Failed to parse arguments and/or storage config file", e);
+			return false;
+		}
+
+		final String snapshotPathString = map.remove(keySnapshot);
+		final String resetString = map.remove(keyReset);
+
+		final Result<Boolean> resetResult = HelperFunctions.parseBoolean(resetString);
+		if(resetResult.error){
+			logger.log(Level.SEVERE, "Invalid value for '"+keyReset+"': '"+resetString+"'. " + resetResult.errorMessage);
+			return false;
+		}
+		this.reset = resetResult.result;
+		this.snapshotPath = HelperFunctions.isNullOrEmpty(snapshotPathString) ? null : snapshotPathString.trim();
+
+		try{
+			if(snapshotPath != null && !reset && new File(snapshotPath).isFile()){
+				final long startTime = System.currentTimeMillis();
+				store = GraphStore.load(snapshotPath, baseGraphName);
+				vertexCount = store.getVertexCount();
+				edgeCount = store.getEdgeCount();
+				logger.log(Level.INFO, "Loaded snapshot '"+snapshotPath+"' with "+vertexCount+" vertices and "
+						+edgeCount+" edges in "+(System.currentTimeMillis() - startTime)+" millis");
+			}else{
+				store = new GraphStore(baseGraphName);
+			}
+		}catch(Exception e){
+			logger.log(Level.SEVERE, "Failed to load snapshot: '"+snapshotPath+"'", e);
+			return false;
+		}
+
+		logger.log(Level.INFO, "Arguments ["+keySnapshot+"="+(snapshotPath == null ? "" : snapshotPath)+", "+keyReset+"="+reset+"]");
+		if(!map.isEmpty()){
+			logger.log(Level.INFO, "Unused key-value pairs in the arguments and/or config file: " + map);
+		}
+		return true;
+	}
+
+	@Override
+	public final synchronized boolean shutdown(){
+		if(store != null && snapshotPath != null){
+			try{
+				synchronized(store){
+					final long startTime = System.currentTimeMillis();
+					GraphStore.save(store, snapshotPath);
+					logger.log(Level.INFO, "Saved snapshot '"+snapshotPath+"' with "+store.getVertexCount()+" vertices and "
+							+store.getEdgeCount()+" edges in "+(System.currentTimeMillis() - startTime)+" millis");
+				}
+			}catch(Exception e){
+				logger.log(Level.SEVERE, "Failed to save snapshot: '"+snapshotPath+"'", e);
+			}
+		}
+		return super.shutdown();
+	}
+
+	@Override
+	public final boolean storeVertex(final AbstractVertex incomingVertex){
+		synchronized(store){
+			if(store.putVertex(incomingVertex.bigHashCode(), incomingVertex.getCopyOfAnnotations())){
+				vertexCount++;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	@Override
+	public final boolean storeEdge(final AbstractEdge incomingEdge){
+		final AbstractVertex child = incomingEdge.getChildVertex();
+		final AbstractVertex parent = incomingEdge.getParentVertex();
+		synchronized(store){
+			final int vertices = store.getVertexCount();
+			if(store.putEdge(incomingEdge.bigHashCode(), child.bigHashCode(), child.getCopyOfAnnotations(),
+					parent.bigHashCode(), parent.getCopyOfAnnotations(), incomingEdge.getCopyOfAnnotations())){
+				vertexCount += store.getVertexCount() - vertices;
+				edgeCount++;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	@Override
+	public final Object executeQuery(final String query){
+		throw new RuntimeException("Native queries not supported by the in-memory storage. Use QuickGrail");
+	}
+
+	@Override
+	public QueryInstructionExecutor getQueryInstructionExecutor(){
+		synchronized(this){
+			if(queryEnvironment == null){
+				queryEnvironment = new MemoryQueryEnvironment(baseGraphName, store);
+				if(reset){
+					queryEnvironment.resetWorkspace();
+				}else{
+					queryEnvironment.initialize();
+				}
+			}
+			if(queryInstructionExecutor == null){
+				queryInstructionExecutor = new MemoryInstructionExecutor(this, queryEnvironment, store);
+			}
+		}
+		return queryInstructionExecutor;
+	}
+}
@@ -19,7 +19,6 @@ package spade.storage;
 
 import spade.core.AbstractEdge;
 import spade.core.AbstractVertex;
-import spade.core.Cache;
 import spade.utility.HelperFunctions;
 
 import java.io.FileInputStream;
@@ -29,6 +28,8 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -41,6 +42,7 @@ public class MySQL extends SQL
     public MySQL()
     {
         DUPLICATE_COLUMN_ERROR_CODE = "1060";
+        DUPLICATE_KEY_ERROR_CODE = "23000";
         logger = Logger.getLogger(MySQL.class.getName());
         String configFile = CONFIG_PATH + FILE_SEPARATOR + "spade.storage.MySQL.config";
         try
@@ -88,6 +90,13 @@ public class MySQL extends SQL
                     databaseConfigs.getProperty("databasePassword");
 
             String databaseURL = databaseConfigs.getProperty("databaseURLPrefix") + database;
+            // Without it, the driver sends the rows of a batch one statement at a time
+            boolean rewriteBatchedStatements =
+                    Boolean.parseBoolean(databaseConfigs.getProperty("rewriteBatchedStatements", "true").trim());
+            if(rewriteBatchedStatements && !databaseURL.contains("rewriteBatchedStatements="))
+            {
+                databaseURL += (databaseURL.contains("?") ? "&" : "?") + "rewriteBatchedStatements=true";
+            }
 
             Class.forName(databaseConfigs.getProperty("databaseDriver")).newInstance();
             dbConnection = DriverManager.getConnection(databaseURL, databaseUsername, databasePassword);
@@ -138,6 +147,8 @@ public class MySQL extends SQL
             }
             dbStatement.close();
 
+            batchInserter = createBatchInserter("`");
+
             return true;
 
         }
@@ -159,6 +170,10 @@ public class MySQL extends SQL
     {
         try
         {
+            if(batchInserter != null)
+            {
+                batchInserter.close();
+            }
             dbConnection.commit();
             dbConnection.close();
             return true;
@@ -191,6 +206,12 @@ public class MySQL extends SQL
             return true;
         }
 
+        // Execute the pending inserts before the table changes since ALTER TABLE commits
+        if(batchInserter != null)
+        {
+            batchInserter.flush(false);
+        }
+
         try
         {
             Statement columnStatement = dbConnection.createStatement();
@@ -241,6 +262,8 @@ public class MySQL extends SQL
      * This function inserts the given edge into the underlying storage(s) and
      * updates the cache(s) accordingly.
      *
+     * The insert is added to a batch which is committed as configured by 'bulkUpload' and 'globalTxSize'.
+     *
      * @param incomingEdge edge to insert into the storage
      * @return returns true if the insertion is successful. Insertion is considered
      * not successful if the edge is already present in the storage.
@@ -249,95 +272,46 @@ public class MySQL extends SQL
     public boolean storeEdge(AbstractEdge incomingEdge)
     {
         String edgeHash = incomingEdge.bigHashCode();
-        if(Cache.isEdgePresent(edgeHash))
+        if(hashCache.isEdgePresent(edgeHash))
             return true;
 
         String childVertexHash = incomingEdge.getChildVertex().bigHashCode();
         String parentVertexHash = incomingEdge.getParentVertex().bigHashCode();
 
-        // Use StringBuilder to build the MySQL insert statement
-        StringBuilder insertStringBuilder = new StringBuilder(200);
-        insertStringBuilder.append("INSERT INTO ");
-        insertStringBuilder.append(EDGE_TABLE);
-        insertStringBuilder.append(" (");
-        insertStringBuilder.append(PRIMARY_KEY);
-        insertStringBuilder.append(", ");
-        if(!incomingEdge.getCopyOfAnnotations().containsKey(CHILD_VERTEX_KEY))
-        {
-            insertStringBuilder.append(CHILD_VERTEX_KEY);
-            insertStringBuilder.append(", ");
-        }
-        if(!incomingEdge.getCopyOfAnnotations().containsKey(PARENT_VERTEX_KEY))
-        {
-            insertStringBuilder.append(PARENT_VERTEX_KEY);
-            insertStringBuilder.append(", ");
-        }
-        for (String annotationKey : incomingEdge.getCopyOfAnnotations().keySet())
-        {
-            // Sanitize column name to remove special characters
-            String newAnnotationKey;
-            if(ENABLE_SANITIZATION)
-            {
-                newAnnotationKey = sanitizeColumn(annotationKey);
-            }
-            else
-                newAnnotationKey = annotationKey;
-
-            // As the annotation keys are being iterated, add them as new
-            // columns to the table_name if they do not already exist
-            addColumn(EDGE_TABLE, newAnnotationKey);
-
-            insertStringBuilder.append("`");
-            insertStringBuilder.append(newAnnotationKey);
-            insertStringBuilder.append("`");
-            insertStringBuilder.append(", ");
-        }
-
-        // Eliminate the last 2 characters from the string (", ") and begin adding values
-        String insertString = insertStringBuilder.substring(0, insertStringBuilder.length() - 2);
-        insertStringBuilder = new StringBuilder(insertString + ") VALUES ('");
+        Map<String, String> annotations = incomingEdge.getCopyOfAnnotations();
+        List<String> columns = new ArrayList<>(annotations.size() + 3);
+        List<String> values = new ArrayList<>(annotations.size() + 3);
         // Add the hash code, and source and destination vertex Ids
-        insertStringBuilder.append(edgeHash);
-        insertStringBuilder.append("', ");
-        if(!incomingEdge.getCopyOfAnnotations().containsKey(CHILD_VERTEX_KEY))
-        {
-            insertStringBuilder.append("'");
-            insertStringBuilder.append(childVertexHash);
-            insertStringBuilder.append("', ");
-        }
-        if(!incomingEdge.getCopyOfAnnotations().containsKey(PARENT_VERTEX_KEY))
+        columns.add(PRIMARY_KEY);
+        values.add(edgeHash);
+        if(!annotations.containsKey(CHILD_VERTEX_KEY))
         {
-            insertStringBuilder.append("'");
-            insertStringBuilder.append(parentVertexHash);
-            insertStringBuilder.append("', ");
+            columns.add(CHILD_VERTEX_KEY);
+            values.add(childVertexHash);
         }
-
-        // Add the annotation values
-        for (String annotationKey : incomingEdge.getCopyOfAnnotations().keySet())
+        if(!annotations.containsKey(PARENT_VERTEX_KEY))
         {
-            String value = (ENABLE_SANITIZATION) ? incomingEdge.getAnnotation(annotationKey).replace("'", "\"") : incomingEdge.getAnnotation(annotationKey);
-
-            insertStringBuilder.append("'");
-            insertStringBuilder.append(value);
-            insertStringBuilder.append("', ");
+            columns.add(PARENT_VERTEX_KEY);
+            values.add(parentVertexHash);
         }
-        insertString = insertStringBuilder.substring(0, insertStringBuilder.length() - 2) + ")";
+        addAnnotationColumns(EDGE_TABLE, annotations, columns, values);
 
         try
         {
-            Statement s = dbConnection.createStatement();
-            s.execute(insertString);
+            batchInserter.insert(EDGE_TABLE, columns, values, edgeHash);
             if(BUILD_SCAFFOLD)
             {
                 insertScaffoldEntry(incomingEdge);
             }
-            s.close();
         }
         catch (Exception e)
         {
             logger.log(Level.SEVERE, null, e);
+            return true;
         }
 
+        // cached once the batch with the edge is committed
+        pendingHashes.addEdge(edgeHash);
         return true;
     }
 
@@ -345,6 +319,8 @@ public class MySQL extends SQL
      * This function inserts the given vertex into the underlying storage(s) and
      * updates the cache(s) accordingly.
      *
+     * The insert is added to a batch which is committed as configured by 'bulkUpload' and 'globalTxSize'.
+     *
      * @param incomingVertex vertex to insert into the storage
      * @return returns true if the insertion is successful. Insertion is considered
      * not successful if the vertex is already present in the storage.
@@ -353,64 +329,20 @@ public class MySQL extends SQL
     public boolean storeVertex(AbstractVertex incomingVertex)
     {
         String vertexHash = incomingVertex.bigHashCode();
-        if(Cache.isVertexPresent(vertexHash))
+        if(hashCache.isVertexPresent(vertexHash))
             return true;
 
-        // Use StringBuilder to build the MySQL insert statement
-        StringBuilder insertStringBuilder = new StringBuilder( 100);
-        insertStringBuilder.append("INSERT INTO ");
-        insertStringBuilder.append(VERTEX_TABLE);
-        insertStringBuilder.append(" (");
-        insertStringBuilder.append(PRIMARY_KEY);
-        insertStringBuilder.append(", ");
-        for (String annotationKey : incomingVertex.getCopyOfAnnotations().keySet())
-        {
-            // Sanitize column name to remove special characters
-            String newAnnotationKey;
-            if(ENABLE_SANITIZATION)
-            {
-                newAnnotationKey = sanitizeColumn(annotationKey);
-            }
-            else
-                newAnnotationKey = annotationKey;
-
-            // As the annotation keys are being iterated, add them as new
-            // columns to the table if they do not already exist
-            addColumn(VERTEX_TABLE, newAnnotationKey);
-
-            insertStringBuilder.append("`");
-            insertStringBuilder.append(newAnnotationKey);
-            insertStringBuilder.append("`");
-            insertStringBuilder.append(", ");
-        }
-
-        // Eliminate the last 2 characters from the string (", ") and begin adding values
-        String insertString = insertStringBuilder.substring(0, insertStringBuilder.length() - 2);
-        insertStringBuilder = new StringBuilder(insertString + ") VALUES (");
-
+        Map<String, String> annotations = incomingVertex.getCopyOfAnnotations();
+        List<String> columns = new ArrayList<>(annotations.size() + 1);
+        List<String> values = new ArrayList<>(annotations.size() + 1);
         // Add the hash code primary key
-        insertStringBuilder.append("'");
-        insertStringBuilder.append(vertexHash);
-        insertStringBuilder.append("', ");
-
-        // Add the annotation values
-        for (String annotationKey : incomingVertex.getCopyOfAnnotations().keySet())
-        {
-            String value = (ENABLE_SANITIZATION) ? incomingVertex.getAnnotation(annotationKey).replace("'", "\"") :
-                    incomingVertex.getAnnotation(annotationKey);
-
-            insertStringBuilder.append("'");
-            insertStringBuilder.append(value);
-            insertStringBuilder.append("', ");
-        }
-        insertString = insertStringBuilder.substring(0, insertStringBuilder.length() - 2) + ")";
+        columns.add(PRIMARY_KEY);
+        values.add(vertexHash);
+        addAnnotationColumns(VERTEX_TABLE, annotations, columns, values);
 
         try
         {
-            dbConnection.commit();
-            Statement s = dbConnection.createStatement();
-            s.execute(insertString);
-            s.close();
+            batchInserter.insert(VERTEX_TABLE, columns, values, vertexHash);
         }
         catch (Exception e)
         {
@@ -418,11 +350,33 @@ public class MySQL extends SQL
             return false;
         }
 
-        // cache the vertex successfully inserted in the storage
-        Cache.addItem(incomingVertex);
+        // cached once the batch with the vertex is committed
+        pendingHashes.addVertex(vertexHash);
+        return true;
+    }
 
+    private void addAnnotationColumns(String table, Map<String, String> annotations,
+                                      List<String> columns, List<String> values)
+    {
+        for (Map.Entry<String, String> annotation : annotations.entrySet())
+        {
+            // Sanitize column name to remove special characters
+            String newAnnotationKey;
+            if(ENABLE_SANITIZATION)
+            {
+                newAnnotationKey = sanitizeColumn(annotation.getKey());
+            }
+            else
+                newAnnotationKey = annotation.getKey();
 
-        return true;
+            // As the annotation keys are being iterated, add them as new
+            // columns to the table if they do not already exist
+            addColumn(table, newAnnotationKey);
+
+            // The value is a parameter of the prepared statement, so it is not escaped
+            columns.add(newAnnotationKey);
+            values.add(annotation.getValue());
+        }
     }
 
     @Override
@@ -431,7 +385,14 @@ public class MySQL extends SQL
         ResultSet result = null;
         try
         {
-            dbConnection.commit();
+            if(batchInserter != null)
+            {
+                batchInserter.flush(true);
+            }
+            else
+            {
+                dbConnection.commit();
+            }
             Statement queryStatement = dbConnection.createStatement();
             if(CURSOR_FETCH_SIZE > 0)
                 queryStatement.setFetchSize(CURSOR_FETCH_SIZE);
@@ -425,6 +425,7 @@ public class Neo4j extends AbstractStorage{
 				try{
 					if(commit){
 						getDatabaseManager().timedCommit(tx);
+						advanceIngestWatermark();
 					}else{
 						tx.rollback();
 					}
@@ -572,6 +573,7 @@ public class Neo4j extends AbstractStorage{
 				if(tx != null){
 					try{
 						getDatabaseManager().timedCommit(tx);
+						advanceIngestWatermark();
 					}catch(Throwable t){
 						logger.log(Level.SEVERE, "Failed to commit data in the buffer", t);
 					}finally{
@@ -695,6 +697,15 @@ public class Neo4j extends AbstractStorage{
 	}
 
 	// start - public
+	/**
+	 * The vertices and edges are put by the main thread and only visible to the queries once its transaction is
+	 * committed
+	 */
+	@Override
+	protected final boolean isIngestBuffered(){
+		return true;
+	}
+
 	@Override
 	public final boolean storeVertex(final AbstractVertex vertex){
 		if(!isShutdown() && isMainThreadRunning()){
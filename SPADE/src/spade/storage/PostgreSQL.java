@@ -22,9 +22,7 @@ package spade.storage;
 import static spade.core.Kernel.CONFIG_PATH;
 import static spade.core.Kernel.FILE_SEPARATOR;
 
-import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.sql.DriverManager;
 import java.sql.ResultSet;
@@ -39,11 +37,11 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import au.com.bytecode.opencsv.CSVWriter;
 import spade.core.AbstractEdge;
 import spade.core.AbstractVertex;
-import spade.core.Cache;
+import spade.core.StorageHashCache;
 import spade.query.quickgrail.core.QueryInstructionExecutor;
+import spade.storage.postgresql.PostgreSQLCopyLoader;
 import spade.storage.postgresql.PostgreSQLInstructionExecutor;
 import spade.storage.postgresql.PostgreSQLQueryEnvironment;
 import spade.utility.HelperFunctions;
@@ -78,8 +76,13 @@ public class PostgreSQL extends SQL
     
     private boolean reset = false;
     
-    private List<Map<String, String>> edgeList = new ArrayList<>();
-    private List<Map<String, String>> vertexList = new ArrayList<>();
+    // Rows are streamed with COPY over the connection. One batch fills while the other is being copied.
+    private PostgreSQLCopyLoader copyLoader = null;
+    private PostgreSQLCopyLoader.Batch edgeBatch = null;
+    private PostgreSQLCopyLoader.Batch vertexBatch = null;
+    // Hashes of the rows in the batches above. Cached once the batch is copied and committed
+    private StorageHashCache.Batch edgeBatchHashes = null;
+    private StorageHashCache.Batch vertexBatchHashes = null;
     private ArrayList<String> edgeColumnNames = new ArrayList<>();
     private ArrayList<String> vertexColumnNames = new ArrayList<>();
 
@@ -252,6 +255,15 @@ public class PostgreSQL extends SQL
             dbStatement.close();
             globalTxCheckin(true);
 
+            if(bulkUpload)
+            {
+                copyLoader = new PostgreSQLCopyLoader(dbConnection);
+                edgeBatch = newEdgeBatch();
+                vertexBatch = newVertexBatch();
+                edgeBatchHashes = hashCache.newBatch();
+                vertexBatchHashes = hashCache.newBatch();
+            }
+
             return true;
 
         }
@@ -264,16 +276,20 @@ public class PostgreSQL extends SQL
 
     private synchronized void globalTxCheckin(boolean forcedFlush)
     {
+        awaitBulkUpload();
         if ((globalTxCount % GLOBAL_TX_SIZE == 0) || (forcedFlush))
         {
             try
             {
                 dbConnection.commit();
                 globalTxCount = 0;
+                pendingHashes.commit();
+                advanceIngestWatermark();
             }
             catch(SQLException ex)
             {
                 logger.log(Level.SEVERE, null, ex);
+                pendingHashes.discard();
             }
         }
         else
@@ -293,12 +309,13 @@ public class PostgreSQL extends SQL
     {
         try
         {
-            dbConnection.commit();
             if(bulkUpload)
             {
                 flushBulkEdges(true);
                 flushBulkVertices(true);
+                copyLoader.shutdown();
             }
+            dbConnection.commit();
             dbConnection.close();
         }
         catch (Exception ex)
@@ -330,6 +347,9 @@ public class PostgreSQL extends SQL
             return true;
         }
 
+        // The connection must not be used while a batch is being copied
+        awaitBulkUpload();
+
         try
         {
             Statement columnStatement = dbConnection.createStatement();
@@ -380,6 +400,15 @@ public class PostgreSQL extends SQL
         return false;
     }
 
+    /**
+     * The rows are only visible to the queries once the batch is copied or the transaction is committed.
+     */
+    @Override
+    protected boolean isIngestBuffered()
+    {
+        return true;
+    }
+
     @Override
 	public synchronized boolean flushTransactions(boolean force){
     	if(bulkUpload){
@@ -408,7 +437,7 @@ public class PostgreSQL extends SQL
             return true;
         }
         String edgeHash = incomingEdge.bigHashCode();
-        if(Cache.isEdgePresent(edgeHash))
+        if(hashCache.isEdgePresent(edgeHash))
             return true;
 
         String childVertexHash = incomingEdge.getChildVertex().bigHashCode();
@@ -492,6 +521,8 @@ public class PostgreSQL extends SQL
             Statement s = dbConnection.createStatement();
             s.execute(insertString);
             s.close();
+            // cached once the transaction with the edge is committed
+            pendingHashes.addEdge(edgeHash);
             globalTxCheckin(false);
 
             if(BUILD_SCAFFOLD)
@@ -509,28 +540,32 @@ public class PostgreSQL extends SQL
             computeStats();
         }
 
-        // cache the vertex successfully inserted in the storage
-        Cache.addItem(incomingEdge);
-
-
         return true;
     }
 
     private void processBulkEdges(AbstractEdge incomingEdge)
     {
+        String edgeHash = incomingEdge.bigHashCode();
+        if(hashCache.isEdgePresent(edgeHash))
+            return;
+
         Map<String, String> annotations = new HashMap<>(incomingEdge.getCopyOfAnnotations());
-        annotations.put(PRIMARY_KEY, incomingEdge.bigHashCode());
+        annotations.put(PRIMARY_KEY, edgeHash);
         annotations.put(CHILD_VERTEX_KEY, incomingEdge.getChildVertex().bigHashCode());
         annotations.put(PARENT_VERTEX_KEY, incomingEdge.getParentVertex().bigHashCode());
-        edgeList.add(annotations);
         for(String annotationKey: annotations.keySet())
         {
             if(!edgeColumnNames.contains(annotationKey))
             {
+                // Rows in a batch have the same columns. Copy the rows with the old columns first
+                flushBulkEdges(true);
                 edgeColumnNames.add(annotationKey);
                 addColumn(EDGE_TABLE, annotationKey);
+                edgeBatch = newEdgeBatch();
             }
         }
+        edgeBatch.add(annotations);
+        edgeBatchHashes.addEdge(edgeHash);
 
         if(BUILD_SCAFFOLD)
         {
@@ -539,187 +574,133 @@ public class PostgreSQL extends SQL
         flushBulkEdges(false);
     }
 
+    private PostgreSQLCopyLoader.Batch newEdgeBatch()
+    {
+        return copyLoader.newBatch(EDGE_TABLE, edgeColumnNames, PRIMARY_KEY, tableNameBaseEdge);
+    }
+
     private synchronized void flushBulkEdges(boolean forcedFlush)
     {
-        if(( (edgeCount > 0) && (edgeCount % GLOBAL_TX_SIZE == 0) ) || forcedFlush)
+        if((edgeBatch.size() >= GLOBAL_TX_SIZE) || (forcedFlush && edgeBatch.size() > 0))
         {
-        	StringBuilder edgeHashes = new StringBuilder((int) (edgeCount * 32));
-            String edgeFileName = "/tmp/bulk_edges.csv";
-            try
+            final StorageHashCache.Batch submittedHashes = edgeBatchHashes;
+            copyLoader.submit(edgeBatch, new PostgreSQLCopyLoader.CompletionListener()
             {
-                File file = new File(edgeFileName);
-                file.createNewFile();
-                if(!(file.setWritable(true, false)
-                    && file.setReadable(true, false)))
-                {
-                    logger.log(Level.SEVERE, "Permission denied to read/write from edge buffer files!");
-                    return;
-                }
-                FileWriter fileWriter = new FileWriter(file);
-
-                CSVWriter writer = new CSVWriter(fileWriter);
-                writer.writeNext(edgeColumnNames.toArray(new String[edgeColumnNames.size()]));
-                for(Map<String, String> edge: edgeList)
+                @Override
+                public void completed(String table, int rows, boolean success)
                 {
-                    ArrayList<String> annotationValues = new ArrayList<>();
-                    for(String edgeColumnName : edgeColumnNames)
+                    submittedHashes.completed(success);
+                    if(!success)
                     {
-                    	String annotationValue = edge.get(edgeColumnName);
-                        annotationValues.add(annotationValue);
-                        if(edgeColumnName.equals(PRIMARY_KEY))
-                        {
-                            edgeHashes.append("(");
-                            edgeHashes.append("'");
-                            edgeHashes.append(annotationValue);
-                            edgeHashes.append("'), ");
-                        }
+                        return;
+                    }
+                    advanceIngestWatermark();
+                    logger.log(Level.INFO, "Bulk uploaded " + rows + " edges to databases. Total edges: " + edgeCount);
+                    edgeBatches++;
+                    long currentTime = System.currentTimeMillis();
+                    if((currentTime - lastReportedTime) >= reportEveryMs)
+                    {
+                        lastReportedTime = currentTime;
+                        logger.log(Level.INFO, "edge batches flushed per " + reportingInterval + "sec: " + edgeBatches);
+                        edgeBatches = 0;
                     }
-                    writer.writeNext(annotationValues.toArray(new String[annotationValues.size()]));
-                }
-                writer.close();
-            }
-            catch(Exception ex)
-            {
-                logger.log(Level.SEVERE, "Error writing edges to file", ex);
-            }
-
-            String copyTableString = "COPY "
-                    + EDGE_TABLE
-                    + " FROM '"
-                    + edgeFileName
-                    + "' CSV HEADER";
-            try
-            {
-                Statement s = dbConnection.createStatement();
-                s.execute(copyTableString);
-                if(edgeHashes.length() > 0)
-                {
-                    String baseGraphEdgeInsert = "INSERT INTO "
-                            + tableNameBaseEdge
-                            + "(\""
-                            + PRIMARY_KEY
-                            + "\") VALUES "
-                            + edgeHashes.substring(0, edgeHashes.length() - 2);
-                    s.execute(baseGraphEdgeInsert);
-                }
-                s.close();
-                globalTxCheckin(true);
-                edgeList.clear();
-                logger.log(Level.INFO, "Bulk uploaded " + GLOBAL_TX_SIZE + " edges to databases. Total edges: " + edgeCount);
-                edgeBatches++;
-                long currentTime = System.currentTimeMillis();
-                if((currentTime - lastReportedTime) >= reportEveryMs)
-                {
-                    lastReportedTime = currentTime;
-                    logger.log(Level.INFO, "edge batches flushed per " + reportingInterval + "sec: " + edgeBatches);
-                    edgeBatches = 0;
                 }
-            }
-            catch (Exception ex)
-            {
-                logger.log(Level.SEVERE, null, ex);
-            }
+            });
+            edgeBatch = newEdgeBatch();
+            edgeBatchHashes = hashCache.newBatch();
+        }
+        if(forcedFlush)
+        {
+            copyLoader.awaitInFlight();
         }
     }
 
     private void processBulkVertices(AbstractVertex incomingVertex)
     {
+        String vertexHash = incomingVertex.bigHashCode();
+        if(hashCache.isVertexPresent(vertexHash))
+            return;
+
         Map<String, String> annotations = incomingVertex.getCopyOfAnnotations();
-        annotations.put(PRIMARY_KEY, incomingVertex.bigHashCode());
-        vertexList.add(annotations);
+        annotations.put(PRIMARY_KEY, vertexHash);
         for(String annotationKey: annotations.keySet())
         {
             if(!vertexColumnNames.contains(annotationKey))
             {
+                // Rows in a batch have the same columns. Copy the rows with the old columns first
+                flushBulkVertices(true);
                 vertexColumnNames.add(annotationKey);
                 addColumn(VERTEX_TABLE, annotationKey);
+                vertexBatch = newVertexBatch();
             }
         }
+        vertexBatch.add(annotations);
+        vertexBatchHashes.addVertex(vertexHash);
         flushBulkVertices(false);
     }
 
+    private PostgreSQLCopyLoader.Batch newVertexBatch()
+    {
+        return copyLoader.newBatch(VERTEX_TABLE, vertexColumnNames, PRIMARY_KEY, tableNameBaseVertex);
+    }
+
     private synchronized void flushBulkVertices(boolean forcedFlush)
     {
-        if(( (vertexCount > 0) && (vertexCount % GLOBAL_TX_SIZE == 0) ) || forcedFlush)
+        if((vertexBatch.size() >= GLOBAL_TX_SIZE) || (forcedFlush && vertexBatch.size() > 0))
         {
-        	StringBuilder vertexHashes = new StringBuilder((int) (vertexCount * 32));
-            String vertexFileName = "/tmp/bulk_vertices.csv";
-            try
+            final StorageHashCache.Batch submittedHashes = vertexBatchHashes;
+            copyLoader.submit(vertexBatch, new PostgreSQLCopyLoader.CompletionListener()
             {
-                File file = new File(vertexFileName);
-                file.createNewFile();
-                if(!(file.setWritable(true, false)
-                        && file.setReadable(true, false)))
-                {
-                    logger.log(Level.SEVERE, "Permission denied to read/write from vertex buffer files!");
-                    return;
-                }
-                FileWriter fileWriter = new FileWriter(file);
-                CSVWriter writer = new CSVWriter(fileWriter);
-                writer.writeNext(vertexColumnNames.toArray(new String[vertexColumnNames.size()]));
-                for(Map<String, String> vertex: vertexList)
+                @Override
+                public void completed(String table, int rows, boolean success)
                 {
-                    ArrayList<String> annotationValues = new ArrayList<>();
-                    for(String vertexColumnName : vertexColumnNames)
+                    submittedHashes.completed(success);
+                    if(!success)
                     {
-                    	String annotationValue = vertex.get(vertexColumnName);
-                        annotationValues.add(annotationValue);
-                        if(vertexColumnName.equals(PRIMARY_KEY))
-                        {
-                            vertexHashes.append("(");
-                            vertexHashes.append("'");
-                            vertexHashes.append(annotationValue);
-                            vertexHashes.append("'), ");
-                        }
+                        return;
+                    }
+                    advanceIngestWatermark();
+                    logger.log(Level.INFO, "Bulk uploaded " + rows + " vertices to databases. Total vertices: " + vertexCount);
+                    vertexBatches++;
+                    long currentTime = System.currentTimeMillis();
+                    if((currentTime - lastReportedTime) >= reportEveryMs)
+                    {
+                        lastReportedTime = currentTime;
+                        logger.log(Level.INFO, "vertex batches flushed per " + reportingInterval + "sec: " + vertexBatches);
+                        vertexBatches = 0;
                     }
-                    writer.writeNext(annotationValues.toArray(new String[annotationValues.size()]));
                 }
-                writer.close();
-            }
-            catch(Exception ex)
-            {
-                logger.log(Level.SEVERE, "Error writing vertices to file", ex);
-            }
+            });
+            vertexBatch = newVertexBatch();
+            vertexBatchHashes = hashCache.newBatch();
+        }
+        if(forcedFlush)
+        {
+            copyLoader.awaitInFlight();
+        }
+    }
 
-            String copyTableString = "COPY "
-                    + VERTEX_TABLE
-                    + " FROM '"
-                    + vertexFileName
-                    + "' CSV HEADER";
-            try
-            {
-                Statement s = dbConnection.createStatement();
-                s.execute(copyTableString);
-                if(vertexHashes.length() > 0)
-                {
-                    String baseGraphVertexInsert = "INSERT INTO "
-                            + tableNameBaseVertex
-                            + "(\""
-                            + PRIMARY_KEY
-                            + "\") VALUES "
-                            + vertexHashes.substring(0, vertexHashes.length() - 2);
-                    s.execute(baseGraphVertexInsert);
-                }
-                s.close();
-                globalTxCheckin(true);
-                vertexList.clear();
-                logger.log(Level.INFO, "Bulk uploaded " + GLOBAL_TX_SIZE + " vertices to databases. Total vertices: " + vertexCount);
-                vertexBatches++;
-                long currentTime = System.currentTimeMillis();
-                if((currentTime - lastReportedTime) >= reportEveryMs)
-                {
-                    lastReportedTime = currentTime;
-                    logger.log(Level.INFO, "vertex batches flushed per " + reportingInterval + "sec: " + vertexBatches);
-                    vertexBatches = 0;
-                }
-            }
-            catch (Exception ex)
-            {
-                logger.log(Level.SEVERE, null, ex);
-            }
+    /**
+     * Copies the rows still pending in the vertex and edge batches (vertices first) and commits
+     * so that a query sees everything stored so far.
+     */
+    private void flushForQuery()
+    {
+        if(bulkUpload)
+        {
+            flushBulkVertices(true);
+            flushBulkEdges(true);
         }
+        globalTxCheckin(true);
     }
 
+    private void awaitBulkUpload()
+    {
+        if(copyLoader != null)
+        {
+            copyLoader.awaitInFlight();
+        }
+    }
 
     /**
      * This function inserts the given vertex into the underlying storage(s) and
@@ -738,7 +719,7 @@ public class PostgreSQL extends SQL
             return true;
         }
         String vertexHash = incomingVertex.bigHashCode();
-        if(Cache.isVertexPresent(vertexHash))
+        if(hashCache.isVertexPresent(vertexHash))
             return true;
 
         // Use StringBuilder to build the PostgreSQL insert statement
@@ -806,6 +787,8 @@ public class PostgreSQL extends SQL
             s.execute(insertString);
             s.execute(baseGraphVertexInsert);
             s.close();
+            // cached once the transaction with the vertex is committed
+            pendingHashes.addVertex(vertexHash);
             globalTxCheckin(false);
         }
         catch (Exception e)
@@ -819,10 +802,6 @@ public class PostgreSQL extends SQL
             computeStats();
         }
 
-        // cache the vertex successfully inserted in the storage
-        Cache.addItem(incomingVertex);
-
-
         return true;
     }
 
@@ -832,7 +811,7 @@ public class PostgreSQL extends SQL
         ResultSet result = null;
         try
         {
-            globalTxCheckin(true);
+            flushForQuery();
             Statement queryStatement = dbConnection.createStatement();
             if(CURSOR_FETCH_SIZE > 0)
                 queryStatement.setFetchSize(CURSOR_FETCH_SIZE);
@@ -857,7 +836,7 @@ public class PostgreSQL extends SQL
 	public synchronized List<List<String>> executeQueryForResult(String query, boolean addColumnNames){
 		Statement queryStatement = null;
 		try{
-			globalTxCheckin(true);
+			flushForQuery();
 			queryStatement = dbConnection.createStatement();
 			if(CURSOR_FETCH_SIZE > 0){
 				queryStatement.setFetchSize(CURSOR_FETCH_SIZE);
@@ -299,6 +299,8 @@ public class Quickstep extends AbstractStorage {
         e.printStackTrace(new PrintWriter(sw));
         logger.log(Level.SEVERE, sw.toString());
       }
+      // Even on failure because a part of the batch might have been loaded
+      advanceIngestWatermark();
       garbageCollectVertexIds();
       totalNumVerticesProcessed += batchBuffer.getVertices().size();
       totalNumEdgesProcessed += batchBuffer.getEdges().size();
@@ -559,6 +561,14 @@ public class Quickstep extends AbstractStorage {
     return true;
   }
   
+  /**
+   * The vertices and edges are only visible to the queries once their batch has been loaded.
+   */
+  @Override
+  protected boolean isIngestBuffered() {
+    return true;
+  }
+
 	@Override
 	public synchronized boolean flushTransactions(boolean force){
 		synchronized(batch){
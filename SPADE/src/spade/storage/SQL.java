@@ -22,11 +22,16 @@ package spade.storage;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import spade.core.AbstractEdge;
 import spade.core.AbstractStorage;
 import spade.core.AbstractVertex;
+import spade.core.Cache;
+import spade.core.StorageHashCache;
+import spade.storage.sql.BatchInserter;
 
 
 /**
@@ -43,14 +48,89 @@ public abstract class SQL extends AbstractStorage
     protected static final String VERTEX_TABLE = "vertex";
     protected static final String EDGE_TABLE = "edge";
     protected String DUPLICATE_COLUMN_ERROR_CODE;
+    // SQL state of the error for inserting a row with a primary key which is already present
+    protected String DUPLICATE_KEY_ERROR_CODE;
     protected int CURSOR_FETCH_SIZE = 0;
     public int MAX_COLUMN_VALUE_LENGTH = 256;
+    // Performance tuning note: Set 'bulkUpload' to true and 'globalTxSize' to a higher value (e.g. 10000) to insert
+    // and commit in batches. This increases ingestion rate.
+    // Downside: Any external (non atomic) quering to database won't report non-committed data.
+    protected BatchInserter batchInserter;
+    // Hashes of the vertices and edges stored by this storage
+    protected final StorageHashCache hashCache;
+    // Hashes of the rows inserted since the last commit of the batch inserter
+    protected final StorageHashCache.Batch pendingHashes;
 
     public SQL()
     {
         logger = Logger.getLogger(SQL.class.getName());
         vertexAnnotations = new HashSet<>();
         edgeAnnotations = new HashSet<>();
+        hashCache = Cache.newStorageHashCache(getClass().getSimpleName());
+        pendingHashes = hashCache.newBatch();
+    }
+
+    /**
+     * Creates the batch inserter for the open database connection using the following keys in the storage config:
+     * 'bulkUpload' (batch inserts if true, otherwise commit every insert), 'globalTxSize' (rows per commit),
+     * 'flushIntervalMillis' (commit on the next insert after this much time) and 'maxCachedStatements'.
+     *
+     * @param identifierQuote The string used to quote column names.
+     * @return The batch inserter.
+     */
+    protected BatchInserter createBatchInserter(String identifierQuote)
+    {
+        boolean bulkUpload = Boolean.parseBoolean(databaseConfigs.getProperty("bulkUpload", "false"));
+        int globalTxSize = Integer.parseInt(databaseConfigs.getProperty("globalTxSize", "10000").trim());
+        long flushIntervalMillis = Long.parseLong(databaseConfigs.getProperty("flushIntervalMillis", "15000").trim());
+        int maxCachedStatements = Integer.parseInt(databaseConfigs.getProperty("maxCachedStatements", "256").trim());
+        logger.log(Level.INFO, "bulkUpload=" + bulkUpload + ", globalTxSize=" + globalTxSize
+                + ", flushIntervalMillis=" + flushIntervalMillis + ", maxCachedStatements=" + maxCachedStatements);
+        BatchInserter inserter = new BatchInserter(dbConnection, identifierQuote, bulkUpload ? globalTxSize : 1,
+                flushIntervalMillis, maxCachedStatements, DUPLICATE_KEY_ERROR_CODE);
+        // The hashes are only cached once the rows are committed. The rows which failed are stored again when seen next
+        inserter.setCommitListener(new BatchInserter.CommitListener()
+        {
+            @Override
+            public void committed(boolean committed, Set<String> failedRowKeys)
+            {
+                if(committed)
+                {
+                    pendingHashes.commit(failedRowKeys);
+                }
+                else
+                {
+                    pendingHashes.discard();
+                }
+                // Even if the commit failed because it is not known whether any of it was applied
+                advanceIngestWatermark();
+            }
+        });
+        return inserter;
+    }
+
+    /**
+     * The rows are only visible to the queries once the batch inserter commits them.
+     */
+    @Override
+    protected boolean isIngestBuffered()
+    {
+        return batchInserter != null;
+    }
+
+    /**
+     * Commits the pending batched inserts.
+     *
+     * @return True if the commit succeeded.
+     */
+    @Override
+    public boolean flushTransactions(boolean force)
+    {
+        if(batchInserter != null)
+        {
+            return batchInserter.flush(force);
+        }
+        return true;
     }
 
     public int getCursorFetchSize()
@@ -0,0 +1,138 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.memory;
+
+import java.util.Arrays;
+
+/**
+ * Edge ids of every vertex in one direction, kept as rows in a single array.
+ * 
+ * Each row has some free space at its end so that an edge is added in place. A full row is moved to the end of the
+ * array with twice the space, and the space that it used is reclaimed when the unused space in the array is more
+ * than the used space. Adding an edge is amortized constant time, and the edges of a vertex are contiguous.
+ */
+final class Adjacency{
+
+	private int[] starts = new int[16], sizes = new int[16], capacities = new int[16];
+	private int rowCount = 0;
+
+	// Edge ids of the rows in [starts[v], starts[v] + sizes[v])
+	int[] edges = new int[64];
+	private int length = 0, unused = 0;
+
+	/**
+	 * @return index (in 'edges') of the first edge of the vertex
+	 */
+	int start(final int vertex){
+		return vertex < rowCount ? starts[vertex] : 0;
+	}
+
+	/**
+	 * @return index (in 'edges') after the last edge of the vertex
+	 */
+	int end(final int vertex){
+		return vertex < rowCount ? starts[vertex] + sizes[vertex] : 0;
+	}
+
+	void add(final int vertex, final int edge){
+		if(vertex >= rowCount){
+			if(vertex >= starts.length){
+				final int rows = Math.max(vertex + 1, starts.length * 2);
+				starts = Arrays.copyOf(starts, rows);
+				sizes = Arrays.copyOf(sizes, rows);
+				capacities = Arrays.copyOf(capacities, rows);
+			}
+			rowCount = vertex + 1;
+		}
+		if(sizes[vertex] == capacities[vertex]){
+			grow(vertex);
+		}
+		edges[starts[vertex] + sizes[vertex]++] = edge;
+	}
+
+	private void grow(final int vertex){
+		final int capacity = capacities[vertex];
+		final int newCapacity = Math.max(2, capacity * 2);
+		if(capacity > 0 && starts[vertex] + capacity == length){
+			// Last row. Grow in place
+			ensureLength(length + newCapacity - capacity);
+			length += newCapacity - capacity;
+		}else{
+			if(unused + capacity > length - unused - capacity + newCapacity){
+				compact();
+			}
+			ensureLength(length + newCapacity);
+			System.arraycopy(edges, starts[vertex], edges, length, sizes[vertex]);
+			starts[vertex] = length;
+			length += newCapacity;
+			unused += capacity;
+		}
+		capacities[vertex] = newCapacity;
+	}
+
+	private void ensureLength(final int minimumLength){
+		if(minimumLength > edges.length){
+			edges = Arrays.copyOf(edges, Math.max(minimumLength, edges.length * 2));
+		}
+	}
+
+	// Rows copied in the vertex order without the unused space between them
+	private void compact(){
+		final int[] compacted = new int[Math.max(64, (length - unused) * 2)];
+		int position = 0;
+		for(int v = 0; v < rowCount; v++){
+			System.arraycopy(edges, starts[v], compacted, position, sizes[v]);
+			starts[v] = position;
+			position += capacities[v];
+		}
+		edges = compacted;
+		length = position;
+		unused = 0;
+	}
+
+	/**
+	 * Replaces all the rows with the edges grouped by the given endpoints (counting sort). The rows have no free space.
+	 * 
+	 * @param endpoints endpoint of each edge id in this direction
+	 */
+	void build(final int vertexCount, final int[] endpoints){
+		starts = new int[Math.max(16, vertexCount)];
+		sizes = new int[starts.length];
+		capacities = new int[starts.length];
+		rowCount = vertexCount;
+		for(final int endpoint : endpoints){
+			sizes[endpoint]++;
+		}
+		int position = 0;
+		for(int v = 0; v < vertexCount; v++){
+			starts[v] = position;
+			capacities[v] = sizes[v];
+			position += sizes[v];
+			sizes[v] = 0;
+		}
+		edges = new int[Math.max(64, position)];
+		for(int edge = 0; edge < endpoints.length; edge++){
+			final int endpoint = endpoints[edge];
+			edges[starts[endpoint] + sizes[endpoint]++] = edge;
+		}
+		length = position;
+		unused = 0;
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.memory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Annotations of vertices (or edges) stored as one column per annotation key. A column holds the id of the value
+ * (in a dictionary shared by all columns) for each element id, in pages which are only allocated once a value is
+ * set in them.
+ */
+final class Columns{
+
+	static final int pageBits = 12, pageSize = 1 << pageBits, pageMask = pageSize - 1;
+
+	final Dictionary keys = new Dictionary();
+	private final Dictionary values;
+	// Index is the key id. Index 0 unused.
+	private final List<int[][]> columns = new ArrayList<int[][]>();
+
+	Columns(final Dictionary values){
+		this.values = values;
+		this.columns.add(null);
+	}
+
+	void put(final int element, final Map<String, String> annotations){
+		for(final Map.Entry<String, String> entry : annotations.entrySet()){
+			if(entry.getKey() == null || entry.getValue() == null){
+				continue;
+			}
+			final int keyId = keys.getOrAdd(entry.getKey());
+			if(keyId == columns.size()){
+				columns.add(new int[0][]);
+			}
+			set(keyId, element, values.getOrAdd(entry.getValue()));
+		}
+	}
+
+	private void set(final int keyId, final int element, final int valueId){
+		int[][] pages = columns.get(keyId);
+		final int page = element >>> pageBits;
+		if(page >= pages.length){
+			final int[][] grown = new int[Math.max(page + 1, pages.length * 2)][];
+			System.arraycopy(pages, 0, grown, 0, pages.length);
+			pages = grown;
+			columns.set(keyId, pages);
+		}
+		if(pages[page] == null){
+			pages[page] = new int[pageSize];
+		}
+		pages[page][element & pageMask] = valueId;
+	}
+
+	/**
+	 * @return value id or Dictionary.absent
+	 */
+	int getValueId(final int keyId, final int element){
+		if(keyId <= Dictionary.absent || keyId >= columns.size()){
+			return Dictionary.absent;
+		}
+		final int[][] pages = columns.get(keyId);
+		final int page = element >>> pageBits;
+		if(page >= pages.length || pages[page] == null){
+			return Dictionary.absent;
+		}
+		return pages[page][element & pageMask];
+	}
+
+	int getKeyId(final String key){
+		return keys.getId(key);
+	}
+
+	String get(final int element, final String key){
+		return values.getString(getValueId(getKeyId(key), element));
+	}
+
+	Map<String, String> getAll(final int element){
+		final Map<String, String> annotations = new HashMap<String, String>();
+		for(int keyId = 1; keyId < columns.size(); keyId++){
+			final int valueId = getValueId(keyId, element);
+			if(valueId != Dictionary.absent){
+				annotations.put(keys.getString(keyId), values.getString(valueId));
+			}
+		}
+		return annotations;
+	}
+
+	Set<String> getKeys(final int element){
+		final Set<String> result = new TreeSet<String>();
+		for(int keyId = 1; keyId < columns.size(); keyId++){
+			if(getValueId(keyId, element) != Dictionary.absent){
+				result.add(keys.getString(keyId));
+			}
+		}
+		return result;
+	}
+
+	int keyCount(){
+		return columns.size();
+	}
+
+	int[][] getPages(final int keyId){
+		return columns.get(keyId);
+	}
+
+	void setPages(final int keyId, final int[][] pages){
+		while(columns.size() <= keyId){
+			columns.add(new int[0][]);
+		}
+		columns.set(keyId, pages);
+	}
+}
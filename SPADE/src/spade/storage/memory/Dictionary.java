@@ -0,0 +1,66 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.memory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Two-way mapping between strings and dense int ids. Id 0 is reserved for 'absent'.
+ */
+final class Dictionary{
+
+	static final int absent = 0;
+
+	private final Map<String, Integer> ids = new HashMap<String, Integer>();
+	private final List<String> strings = new ArrayList<String>();
+
+	Dictionary(){
+		strings.add(null);
+	}
+
+	int getOrAdd(final String string){
+		Integer id = ids.get(string);
+		if(id == null){
+			id = strings.size();
+			strings.add(string);
+			ids.put(string, id);
+		}
+		return id;
+	}
+
+	int getId(final String string){
+		final Integer id = ids.get(string);
+		return id == null ? absent : id;
+	}
+
+	String getString(final int id){
+		return strings.get(id);
+	}
+
+	/**
+	 * @return number of ids including the reserved one
+	 */
+	int size(){
+		return strings.size();
+	}
+}
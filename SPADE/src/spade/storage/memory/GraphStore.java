@@ -0,0 +1,255 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.memory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory graph with integer ids.
+ * 
+ * Vertices and edges get dense ids in the order they are added. The endpoints of the edges are kept in two int
+ * arrays, and the edge ids are indexed by endpoint in both directions (see Adjacency). The index is updated as the
+ * edges are added. Annotations are stored in dictionary-encoded
+ * columns (see Columns) and every graph (other than the base graph which has everything) is a pair of bitsets over
+ * the vertex and the edge ids.
+ * 
+ * Not thread-safe. Callers synchronize on the instance.
+ */
+public final class GraphStore{
+
+	public static final class GraphSet{
+		final BitSet vertices = new BitSet();
+		final BitSet edges = new BitSet();
+	}
+
+	final String baseGraphName;
+
+	final Dictionary values = new Dictionary();
+
+	final List<String> vertexHashes = new ArrayList<String>();
+	final Map<String, Integer> vertexIds = new HashMap<String, Integer>();
+	final Columns vertexAnnotations = new Columns(values);
+
+	final List<String> edgeHashes = new ArrayList<String>();
+	final Map<String, Integer> edgeIds = new HashMap<String, Integer>();
+	IntList edgeSources = new IntList(1024), edgeDestinations = new IntList(1024);
+	final Columns edgeAnnotations = new Columns(values);
+
+	final Map<String, GraphSet> graphs = new HashMap<String, GraphSet>();
+
+	// Symbols of the query environment
+	int idCounter = 0;
+	final Map<String, String> graphSymbols = new HashMap<String, String>();
+	final Map<String, String> metadataSymbols = new HashMap<String, String>();
+	final Map<String, String> predicateSymbols = new HashMap<String, String>();
+
+	// Edge ids grouped by source (out) and by destination (in)
+	private final Adjacency outAdjacency = new Adjacency(), inAdjacency = new Adjacency();
+
+	public GraphStore(final String baseGraphName){
+		this.baseGraphName = baseGraphName;
+	}
+
+	/**
+	 * @see Snapshot
+	 */
+	public static GraphStore load(final String path, final String baseGraphName) throws IOException{
+		return Snapshot.load(path, baseGraphName);
+	}
+
+	/**
+	 * @see Snapshot
+	 */
+	public static void save(final GraphStore store, final String path) throws IOException{
+		Snapshot.save(store, path);
+	}
+
+	public int getVertexCount(){
+		return vertexHashes.size();
+	}
+
+	public int getEdgeCount(){
+		return edgeHashes.size();
+	}
+
+	/**
+	 * @return true if added and false if a vertex with the hash already existed
+	 */
+	public boolean putVertex(final String hash, final Map<String, String> annotations){
+		if(vertexIds.containsKey(hash)){
+			return false;
+		}
+		addVertex(hash, annotations);
+		return true;
+	}
+
+	private int addVertex(final String hash, final Map<String, String> annotations){
+		final int id = vertexHashes.size();
+		vertexHashes.add(hash);
+		vertexIds.put(hash, id);
+		vertexAnnotations.put(id, annotations);
+		return id;
+	}
+
+	/**
+	 * Endpoints not added yet are added with the annotations given.
+	 * 
+	 * @return true if added and false if an edge with the hash already existed
+	 */
+	public boolean putEdge(final String hash, final String childHash, final Map<String, String> childAnnotations,
+			final String parentHash, final Map<String, String> parentAnnotations, final Map<String, String> annotations){
+		if(edgeIds.containsKey(hash)){
+			return false;
+		}
+		Integer childId = vertexIds.get(childHash);
+		if(childId == null){
+			childId = addVertex(childHash, childAnnotations);
+		}
+		Integer parentId = vertexIds.get(parentHash);
+		if(parentId == null){
+			parentId = addVertex(parentHash, parentAnnotations);
+		}
+		final int id = edgeHashes.size();
+		edgeHashes.add(hash);
+		edgeIds.put(hash, id);
+		edgeSources.add(childId);
+		edgeDestinations.add(parentId);
+		outAdjacency.add(childId, id);
+		inAdjacency.add(parentId, id);
+		edgeAnnotations.put(id, annotations);
+		return true;
+	}
+
+	Integer getVertexId(final String hash){
+		return vertexIds.get(hash);
+	}
+
+	Integer getEdgeId(final String hash){
+		return edgeIds.get(hash);
+	}
+
+	String getVertexHash(final int vertex){
+		return vertexHashes.get(vertex);
+	}
+
+	String getEdgeHash(final int edge){
+		return edgeHashes.get(edge);
+	}
+
+	int getEdgeSource(final int edge){
+		return edgeSources.get(edge);
+	}
+
+	int getEdgeDestination(final int edge){
+		return edgeDestinations.get(edge);
+	}
+
+	boolean isBaseGraph(final String graphName){
+		return baseGraphName.equals(graphName);
+	}
+
+	/**
+	 * @return the sets of the graph. Created (empty) if missing. Must not be called for the base graph
+	 */
+	GraphSet getOrCreateGraph(final String graphName){
+		if(isBaseGraph(graphName)){
+			throw new RuntimeException("Cannot modify the base graph: '" + graphName + "'");
+		}
+		GraphSet graph = graphs.get(graphName);
+		if(graph == null){
+			graph = new GraphSet();
+			graphs.put(graphName, graph);
+		}
+		return graph;
+	}
+
+	void clearGraph(final String graphName){
+		graphs.put(graphName, new GraphSet());
+	}
+
+	/**
+	 * @return vertex ids in the graph or null if the graph is the base graph (i.e. all). Must not be modified
+	 */
+	BitSet getVerticesOrNull(final String graphName){
+		return isBaseGraph(graphName) ? null : getOrCreateGraph(graphName).vertices;
+	}
+
+	/**
+	 * @return edge ids in the graph or null if the graph is the base graph (i.e. all). Must not be modified
+	 */
+	BitSet getEdgesOrNull(final String graphName){
+		return isBaseGraph(graphName) ? null : getOrCreateGraph(graphName).edges;
+	}
+
+	/**
+	 * @return a copy of the vertex ids in the graph
+	 */
+	BitSet copyVertices(final String graphName){
+		final BitSet vertices = getVerticesOrNull(graphName);
+		if(vertices == null){
+			final BitSet all = new BitSet(getVertexCount());
+			all.set(0, getVertexCount());
+			return all;
+		}
+		return (BitSet)vertices.clone();
+	}
+
+	/**
+	 * @return a copy of the edge ids in the graph
+	 */
+	BitSet copyEdges(final String graphName){
+		final BitSet edges = getEdgesOrNull(graphName);
+		if(edges == null){
+			final BitSet all = new BitSet(getEdgeCount());
+			all.set(0, getEdgeCount());
+			return all;
+		}
+		return (BitSet)edges.clone();
+	}
+
+	void retainGraphs(final Set<String> graphNames){
+		graphs.keySet().retainAll(graphNames);
+	}
+
+	/**
+	 * Rebuilds the index from the edge endpoints. Only needed when the endpoints are set directly (see Snapshot)
+	 */
+	void indexEdges(){
+		outAdjacency.build(getVertexCount(), edgeSources.toArray());
+		inAdjacency.build(getVertexCount(), edgeDestinations.toArray());
+	}
+
+	/**
+	 * Edge ids of the vertex are in [start(vertex), end(vertex)) of the edges array of the adjacency. Only valid
+	 * while the lock of the store is held.
+	 * 
+	 * @param outgoing true for the edges where the vertex is the child (source) and false for the edges where the
+	 * vertex is the parent (destination)
+	 */
+	Adjacency getAdjacency(final boolean outgoing){
+		return outgoing ? outAdjacency : inAdjacency;
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.memory;
+
+import java.util.Arrays;
+
+/**
+ * Map from non-negative int keys to int values with open addressing. Sized to the number of keys put (unlike an
+ * array indexed by the key).
+ */
+final class IntIntMap{
+
+	private static final int emptyKey = -1;
+
+	private int[] keys, values;
+	private int size = 0;
+
+	IntIntMap(final int expectedSize){
+		int capacity = 16;
+		while(capacity < expectedSize * 2){
+			capacity <<= 1;
+		}
+		keys = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, emptyKey);
+	}
+
+	int size(){
+		return size;
+	}
+
+	private static int slot(final int key, final int mask){
+		final int hash = key * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & mask;
+	}
+
+	/**
+	 * @return the value of the key or the missing value if the key was not put
+	 */
+	int get(final int key, final int missingValue){
+		final int mask = keys.length - 1;
+		for(int i = slot(key, mask); ; i = (i + 1) & mask){
+			final int k = keys[i];
+			if(k == key){
+				return values[i];
+			}
+			if(k == emptyKey){
+				return missingValue;
+			}
+		}
+	}
+
+	void put(final int key, final int value){
+		if(key < 0){
+			throw new IllegalArgumentException("Negative key: " + key);
+		}
+		final int mask = keys.length - 1;
+		int i = slot(key, mask);
+		while(keys[i] != emptyKey && keys[i] != key){
+			i = (i + 1) & mask;
+		}
+		if(keys[i] == emptyKey){
+			keys[i] = key;
+			size++;
+		}
+		values[i] = value;
+		if(size * 2 > keys.length){
+			resize();
+		}
+	}
+
+	private void resize(){
+		final int[] oldKeys = keys, oldValues = values;
+		keys = new int[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+		Arrays.fill(keys, emptyKey);
+		final int mask = keys.length - 1;
+		for(int j = 0; j < oldKeys.length; j++){
+			if(oldKeys[j] != emptyKey){
+				int i = slot(oldKeys[j], mask);
+				while(keys[i] != emptyKey){
+					i = (i + 1) & mask;
+				}
+				keys[i] = oldKeys[j];
+				values[i] = oldValues[j];
+			}
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.memory;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of primitive ints
+ */
+final class IntList{
+
+	private int[] values;
+	private int size;
+
+	IntList(final int capacity){
+		this.values = new int[Math.max(capacity, 16)];
+	}
+
+	IntList(final int[] values){
+		this.values = values;
+		this.size = values.length;
+	}
+
+	int size(){
+		return size;
+	}
+
+	int get(final int index){
+		if(index >= size){
+			throw new IndexOutOfBoundsException("Index " + index + " >= size " + size);
+		}
+		return values[index];
+	}
+
+	void add(final int value){
+		if(size == values.length){
+			values = Arrays.copyOf(values, values.length * 2);
+		}
+		values[size++] = value;
+	}
+
+	void clear(){
+		size = 0;
+	}
+
+	int[] toArray(){
+		return Arrays.copyOf(values, size);
+	}
+}
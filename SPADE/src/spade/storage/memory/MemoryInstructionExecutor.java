@@ -0,0 +1,1099 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.memory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import spade.core.AbstractStorage;
+import spade.query.quickgrail.core.AbstractQueryEnvironment;
+import spade.query.quickgrail.core.ExportCursor;
+import spade.query.quickgrail.core.GraphDescription;
+import spade.query.quickgrail.core.GraphStats;
+import spade.query.quickgrail.core.QueriedEdge;
+import spade.query.quickgrail.core.QueryInstructionExecutor;
+import spade.query.quickgrail.core.QuickGrailQueryResolver.PredicateOperator;
+import spade.query.quickgrail.entities.Graph;
+import spade.query.quickgrail.instruction.CollapseEdge;
+import spade.query.quickgrail.instruction.CreateEmptyGraph;
+import spade.query.quickgrail.instruction.CreateEmptyGraphMetadata;
+import spade.query.quickgrail.instruction.DescribeGraph;
+import spade.query.quickgrail.instruction.DistinctifyGraph;
+import spade.query.quickgrail.instruction.EvaluateQuery;
+import spade.query.quickgrail.instruction.ExportGraph;
+import spade.query.quickgrail.instruction.GetAdjacentVertex;
+import spade.query.quickgrail.instruction.GetEdge;
+import spade.query.quickgrail.instruction.GetEdgeEndpoint;
+import spade.query.quickgrail.instruction.GetFilteredLineage;
+import spade.query.quickgrail.instruction.GetLineage;
+import spade.query.quickgrail.instruction.GetLink;
+import spade.query.quickgrail.instruction.GetMatch;
+import spade.query.quickgrail.instruction.GetShortestPath;
+import spade.query.quickgrail.instruction.GetSimplePath;
+import spade.query.quickgrail.instruction.GetSubgraph;
+import spade.query.quickgrail.instruction.GetVertex;
+import spade.query.quickgrail.instruction.GetWhereAnnotationsExist;
+import spade.query.quickgrail.instruction.InsertLiteralEdge;
+import spade.query.quickgrail.instruction.InsertLiteralVertex;
+import spade.query.quickgrail.instruction.IntersectGraph;
+import spade.query.quickgrail.instruction.LimitGraph;
+import spade.query.quickgrail.instruction.OverwriteGraphMetadata;
+import spade.query.quickgrail.instruction.SetGraphMetadata;
+import spade.query.quickgrail.instruction.StatGraph;
+import spade.query.quickgrail.instruction.SubtractGraph;
+import spade.query.quickgrail.instruction.UnionGraph;
+import spade.query.quickgrail.utility.ResultTable;
+
+/**
+ * Executes the QuickGrail instructions directly on the GraphStore.
+ * 
+ * The semantics are the same as the ones of the Neo4j executor (edges go from the child to the parent, string
+ * comparisons, and regex/like must match the whole value). The set operations are bitset operations, and the
+ * traversals are breadth-first over the edges indexed by endpoint so that they only touch the visited vertices and
+ * their edges. Predicates on annotations are evaluated once per distinct value id instead of once per element.
+ * 
+ * Every instruction holds the lock of the store for its duration, except the traversals which take it for slices of
+ * at most 'sliceSize' vertices (so that the ingestion is not blocked for the whole traversal). A traversal collects
+ * its result in its own sets which are added to the target graph at the end.
+ */
+public class MemoryInstructionExecutor extends QueryInstructionExecutor{
+
+	// Vertices expanded by a traversal per hold of the lock of the store
+	private static final int sliceSize = 4096;
+
+	private final AbstractStorage storage;
+	private final MemoryQueryEnvironment queryEnvironment;
+	private final GraphStore store;
+
+	public MemoryInstructionExecutor(final AbstractStorage storage, final MemoryQueryEnvironment queryEnvironment,
+			final GraphStore store){
+		this.storage = storage;
+		this.queryEnvironment = queryEnvironment;
+		this.store = store;
+		if(this.queryEnvironment == null){
+			throw new IllegalArgumentException("NULL Query Environment");
+		}
+		if(this.storage == null){
+			throw new IllegalArgumentException("NULL storage");
+		}
+		if(this.store == null){
+			throw new IllegalArgumentException("NULL graph store");
+		}
+	}
+
+	@Override
+	public final MemoryQueryEnvironment getQueryEnvironment(){
+		return queryEnvironment;
+	}
+
+	@Override
+	public AbstractStorage getStorage(){
+		return storage;
+	}
+
+	@Override
+	public boolean hasDistinctGraphs(){
+		return true;
+	}
+
+	////////////////////
+	// Helpers
+	////////////////////
+
+	// null means all
+	private BitSet vertices(final Graph graph){
+		return store.getVerticesOrNull(graph.name);
+	}
+
+	// null means all
+	private BitSet edges(final Graph graph){
+		return store.getEdgesOrNull(graph.name);
+	}
+
+	private GraphStore.GraphSet target(final Graph graph){
+		return store.getOrCreateGraph(graph.name);
+	}
+
+	private static boolean contains(final BitSet set, final int id){
+		return set == null || set.get(id);
+	}
+
+	// Next id in the set (or in [0, count) if the set is null) at or after 'from'. -1 if none
+	private static int next(final BitSet set, final int count, final int from){
+		if(set == null){
+			return from < count ? from : -1;
+		}
+		final int id = set.nextSetBit(from);
+		return id < count ? id : -1;
+	}
+
+	/**
+	 * Evaluates a comparison against the values of one key (or all keys if the key is '*') of an element.
+	 * The result for a value id is computed once and remembered.
+	 */
+	private final class Comparison{
+		private final Columns columns;
+		private final List<String> hashes;
+		private final PredicateOperator operator;
+		private final String value;
+		private final Pattern pattern;
+		private final int keyId;
+		private final boolean anyKey, hashKey;
+		private byte[] verdicts = new byte[0]; // 0 = not computed, 1 = true, 2 = false
+
+		private Comparison(final Columns columns, final List<String> hashes, final String key,
+				final PredicateOperator operator, final String value){
+			this.columns = columns;
+			this.hashes = hashes;
+			this.operator = operator;
+			this.value = value;
+			switch(operator){
+				case REGEX: pattern = Pattern.compile(value); break;
+				case LIKE: pattern = Pattern.compile(value.replace("%", ".*")); break;
+				case EQUAL: case GREATER: case GREATER_EQUAL: case LESSER: case LESSER_EQUAL: case NOT_EQUAL:
+					pattern = null;
+					break;
+				default: throw new RuntimeException("Unexpected comparison operator");
+			}
+			this.anyKey = "*".equals(key);
+			this.hashKey = AbstractStorage.PRIMARY_KEY.equals(key);
+			this.keyId = (anyKey || hashKey) ? Dictionary.absent : columns.getKeyId(key);
+		}
+
+		private boolean test(final String string){
+			switch(operator){
+				case EQUAL: return string.equals(value);
+				case GREATER: return string.compareTo(value) > 0;
+				case GREATER_EQUAL: return string.compareTo(value) >= 0;
+				case LESSER: return string.compareTo(value) < 0;
+				case LESSER_EQUAL: return string.compareTo(value) <= 0;
+				case NOT_EQUAL: return !string.equals(value);
+				case REGEX: case LIKE: return pattern.matcher(string).matches();
+				default: throw new RuntimeException("Unexpected comparison operator");
+			}
+		}
+
+		private boolean testValueId(final int valueId){
+			if(valueId == Dictionary.absent){
+				return false;
+			}
+			if(valueId >= verdicts.length){
+				verdicts = Arrays.copyOf(verdicts, Math.max(valueId + 1, verdicts.length * 2));
+			}
+			if(verdicts[valueId] == 0){
+				verdicts[valueId] = test(store.values.getString(valueId)) ? (byte)1 : (byte)2;
+			}
+			return verdicts[valueId] == 1;
+		}
+
+		private boolean matches(final int element){
+			if(hashKey){
+				return test(hashes.get(element));
+			}else if(anyKey){
+				for(int keyId = 1; keyId < columns.keyCount(); keyId++){
+					if(testValueId(columns.getValueId(keyId, element))){
+						return true;
+					}
+				}
+				return false;
+			}else{
+				return testValueId(columns.getValueId(keyId, element));
+			}
+		}
+	}
+
+	// Value ids of the keys of an element. Used as a grouping key
+	private static final class ValueTuple{
+		private final int[] values;
+		private final int hashCode;
+
+		private ValueTuple(final int[] values){
+			this.values = values;
+			this.hashCode = Arrays.hashCode(values);
+		}
+
+		@Override
+		public int hashCode(){
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(final Object obj){
+			return obj instanceof ValueTuple && Arrays.equals(values, ((ValueTuple)obj).values);
+		}
+	}
+
+	/**
+	 * @return value ids of the keys or null if any of the keys is absent
+	 */
+	private static int[] valueIds(final Columns columns, final int[] keyIds, final int element){
+		final int[] values = new int[keyIds.length];
+		for(int i = 0; i < keyIds.length; i++){
+			values[i] = columns.getValueId(keyIds[i], element);
+			if(values[i] == Dictionary.absent){
+				return null;
+			}
+		}
+		return values;
+	}
+
+	private static int[] keyIds(final Columns columns, final List<String> keys){
+		final int[] keyIds = new int[keys.size()];
+		for(int i = 0; i < keyIds.length; i++){
+			keyIds[i] = columns.getKeyId(keys.get(i));
+		}
+		return keyIds;
+	}
+
+	/**
+	 * Result of a breadth-first traversal. The distances are only kept for the visited vertices
+	 */
+	private static final class Traversal{
+		private final IntIntMap distances = new IntIntMap(64);
+		private final IntList visited = new IntList(64);
+
+		// -1 if not visited
+		private int distance(final int vertex){
+			return distances.get(vertex, -1);
+		}
+
+		private void visit(final int vertex, final int distance){
+			distances.put(vertex, distance);
+			visited.add(vertex);
+		}
+	}
+
+	/**
+	 * Visits the subject vertices reachable from the subject vertices in the start set within the max depth
+	 * over the subject edges. Must be called without the lock of the store.
+	 * 
+	 * @param outgoing true to go from the child to the parent (ancestors) and false for the opposite (descendants)
+	 * @param result if not null then the visited vertices and the traversed edges are added to it
+	 */
+	private Traversal breadthFirst(final BitSet start, final BitSet subjectVertices, final BitSet subjectEdges,
+			final boolean outgoing, final int maxDepth, final GraphStore.GraphSet result){
+		final Traversal traversal = new Traversal();
+		synchronized(store){
+			final int vertexCount = store.getVertexCount();
+			for(int v = next(start, vertexCount, 0); v > -1; v = next(start, vertexCount, v + 1)){
+				if(contains(subjectVertices, v)){
+					traversal.visit(v, 0);
+					if(result != null){
+						result.vertices.set(v);
+					}
+				}
+			}
+		}
+		int levelStart = 0;
+		for(int depth = 0; depth < maxDepth && levelStart < traversal.visited.size(); depth++){
+			final int levelEnd = traversal.visited.size();
+			int i = levelStart;
+			while(i < levelEnd){
+				synchronized(store){
+					final Adjacency adjacency = store.getAdjacency(outgoing);
+					for(final int sliceEnd = Math.min(levelEnd, i + sliceSize); i < sliceEnd; i++){
+						final int v = traversal.visited.get(i);
+						for(int j = adjacency.start(v), end = adjacency.end(v); j < end; j++){
+							final int edge = adjacency.edges[j];
+							if(!contains(subjectEdges, edge)){
+								continue;
+							}
+							final int other = outgoing ? store.getEdgeDestination(edge) : store.getEdgeSource(edge);
+							if(!contains(subjectVertices, other)){
+								continue;
+							}
+							if(result != null){
+								result.edges.set(edge);
+							}
+							if(traversal.distance(other) == -1){
+								traversal.visit(other, depth + 1);
+								if(result != null){
+									result.vertices.set(other);
+								}
+							}
+						}
+					}
+				}
+			}
+			levelStart = levelEnd;
+		}
+		return traversal;
+	}
+
+	/**
+	 * Only the vertices with an edge are added (unlike the breadth-first traversal which adds the start vertices).
+	 * Must be called without the lock of the store.
+	 */
+	private void adjacent(final BitSet source, final BitSet subjectVertices, final BitSet subjectEdges,
+			final boolean outgoing, final GraphStore.GraphSet result){
+		int v = source.nextSetBit(0);
+		while(v > -1){
+			synchronized(store){
+				final Adjacency adjacency = store.getAdjacency(outgoing);
+				for(int count = 0; v > -1 && count < sliceSize; v = source.nextSetBit(v + 1), count++){
+					for(int j = adjacency.start(v), end = adjacency.end(v); j < end; j++){
+						final int edge = adjacency.edges[j];
+						final int other = outgoing ? store.getEdgeDestination(edge) : store.getEdgeSource(edge);
+						if(contains(subjectEdges, edge) && contains(subjectVertices, other)){
+							result.vertices.set(v);
+							result.vertices.set(other);
+							result.edges.set(edge);
+						}
+					}
+				}
+			}
+		}
+	}
+
+	// Adds the result of a traversal to the graph
+	private void addResult(final Graph graph, final GraphStore.GraphSet result){
+		synchronized(store){
+			final GraphStore.GraphSet target = target(graph);
+			target.vertices.or(result.vertices);
+			target.edges.or(result.edges);
+		}
+	}
+
+	// Must be called without the lock of the store
+	private void path(final Graph srcGraph, final Graph dstGraph, final Graph subjectGraph,
+			final GraphStore.GraphSet result, final int maxDepth){
+		final BitSet srcVertices, dstVertices, subjectVertices, subjectEdges;
+		synchronized(store){
+			srcVertices = vertices(srcGraph);
+			dstVertices = vertices(dstGraph);
+			subjectVertices = vertices(subjectGraph);
+			subjectEdges = edges(subjectGraph);
+		}
+		final Traversal fromSrc = breadthFirst(srcVertices, subjectVertices, subjectEdges, true, maxDepth, null);
+		final Traversal toDst = breadthFirst(dstVertices, subjectVertices, subjectEdges, false, maxDepth, null);
+		int i = 0;
+		while(i < fromSrc.visited.size()){
+			synchronized(store){
+				final Adjacency adjacency = store.getAdjacency(true);
+				for(final int sliceEnd = Math.min(fromSrc.visited.size(), i + sliceSize); i < sliceEnd; i++){
+					final int v = fromSrc.visited.get(i);
+					final int srcDistance = fromSrc.distance(v);
+					final int dstDistance = toDst.distance(v);
+					if(dstDistance == -1 || srcDistance + dstDistance > maxDepth){
+						continue;
+					}
+					result.vertices.set(v);
+					if(srcDistance < maxDepth){
+						for(int j = adjacency.start(v), end = adjacency.end(v); j < end; j++){
+							final int edge = adjacency.edges[j];
+							final int otherDstDistance = toDst.distance(store.getEdgeDestination(edge));
+							if(otherDstDistance != -1 && srcDistance + 1 + otherDstDistance <= maxDepth
+									&& contains(subjectEdges, edge)){
+								result.edges.set(edge);
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	////////////////////
+	// Instructions
+	////////////////////
+
+	@Override
+	public void insertLiteralEdge(InsertLiteralEdge instruction){
+		synchronized(store){
+			final GraphStore.GraphSet target = target(instruction.targetGraph);
+			for(final String hash : instruction.getEdges()){
+				final Integer edge = store.getEdgeId(hash);
+				if(edge != null){
+					target.edges.set(edge);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void insertLiteralVertex(InsertLiteralVertex instruction){
+		synchronized(store){
+			final GraphStore.GraphSet target = target(instruction.targetGraph);
+			for(final String hash : instruction.getVertices()){
+				final Integer vertex = store.getVertexId(hash);
+				if(vertex != null){
+					target.vertices.set(vertex);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void createEmptyGraph(CreateEmptyGraph instruction){
+		synchronized(store){
+			store.clearGraph(instruction.graph.name);
+		}
+	}
+
+	@Override
+	public void distinctifyGraph(DistinctifyGraph instruction){
+		unionGraph(new UnionGraph(instruction.targetGraph, instruction.sourceGraph));
+	}
+
+	@Override
+	public void getWhereAnnotationsExist(final GetWhereAnnotationsExist instruction){
+		synchronized(store){
+			final int[] keyIds = keyIds(store.vertexAnnotations, instruction.getAnnotationKeys());
+			final BitSet subject = vertices(instruction.subjectGraph);
+			final GraphStore.GraphSet target = target(instruction.targetGraph);
+			final int count = store.getVertexCount();
+			for(int v = next(subject, count, 0); v > -1; v = next(subject, count, v + 1)){
+				if(valueIds(store.vertexAnnotations, keyIds, v) != null){
+					target.vertices.set(v);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void getMatch(final GetMatch instruction){
+		synchronized(store){
+			final Columns columns = store.vertexAnnotations;
+			final int[] keyIds = keyIds(columns, instruction.getAnnotationKeys());
+			final int count = store.getVertexCount();
+
+			final Map<ValueTuple, IntList> groups = new HashMap<ValueTuple, IntList>();
+			final BitSet graph1 = vertices(instruction.graph1);
+			for(int v = next(graph1, count, 0); v > -1; v = next(graph1, count, v + 1)){
+				final int[] values = valueIds(columns, keyIds, v);
+				if(values != null){
+					final ValueTuple tuple = new ValueTuple(values);
+					IntList group = groups.get(tuple);
+					if(group == null){
+						group = new IntList(4);
+						groups.put(tuple, group);
+					}
+					group.add(v);
+				}
+			}
+
+			final GraphStore.GraphSet target = target(instruction.targetGraph);
+			final BitSet graph2 = vertices(instruction.graph2);
+			final Set<ValueTuple> matched = new HashSet<ValueTuple>();
+			for(int v = next(graph2, count, 0); v > -1; v = next(graph2, count, v + 1)){
+				final int[] values = valueIds(columns, keyIds, v);
+				if(values != null){
+					final ValueTuple tuple = new ValueTuple(values);
+					final IntList group = groups.get(tuple);
+					if(group != null){
+						target.vertices.set(v);
+						if(matched.add(tuple)){
+							for(int i = 0; i < group.size(); i++){
+								target.vertices.set(group.get(i));
+							}
+						}
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	public void getVertex(GetVertex instruction){
+		synchronized(store){
+			final BitSet subject = vertices(instruction.subjectGraph);
+			final GraphStore.GraphSet target = target(instruction.targetGraph);
+			final int count = store.getVertexCount();
+			if(!instruction.hasArguments()){
+				if(subject == null){
+					target.vertices.set(0, count);
+				}else{
+					target.vertices.or(subject);
+				}
+				return;
+			}
+			final Comparison comparison = new Comparison(store.vertexAnnotations, store.vertexHashes,
+					instruction.annotationKey, instruction.operator, instruction.annotationValue);
+			for(int v = next(subject, count, 0); v > -1; v = next(subject, count, v + 1)){
+				if(comparison.matches(v)){
+					target.vertices.set(v);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void getEdge(GetEdge instruction){
+		synchronized(store){
+			final BitSet subject = edges(instruction.subjectGraph);
+			final GraphStore.GraphSet target = target(instruction.targetGraph);
+			final int count = store.getEdgeCount();
+			if(!instruction.hasArguments()){
+				if(subject == null){
+					target.edges.set(0, count);
+				}else{
+					target.edges.or(subject);
+				}
+				return;
+			}
+			final Comparison comparison = new Comparison(store.edgeAnnotations, store.edgeHashes,
+					instruction.annotationKey, instruction.operator, instruction.annotationValue);
+			for(int e = next(subject, count, 0); e > -1; e = next(subject, count, e + 1)){
+				if(comparison.matches(e)){
+					target.edges.set(e);
+				}
+			}
+		}
+	}
+
+	@Override
+	public ResultTable evaluateQuery(EvaluateQuery instruction){
+		throw new RuntimeException("Native queries not supported by the in-memory storage");
+	}
+
+	@Override
+	public void collapseEdge(CollapseEdge instruction){
+		synchronized(store){
+			final GraphStore.GraphSet target = target(instruction.targetGraph);
+			final BitSet sourceVertices = vertices(instruction.sourceGraph);
+			if(sourceVertices == null){
+				target.vertices.set(0, store.getVertexCount());
+			}else{
+				target.vertices.or(sourceVertices);
+			}
+
+			final Columns columns = store.edgeAnnotations;
+			final int[] keyIds = keyIds(columns, instruction.getFields());
+			final BitSet sourceEdges = edges(instruction.sourceGraph);
+			final int count = store.getEdgeCount();
+			final Set<ValueTuple> seen = new HashSet<ValueTuple>();
+			// Edges visited in increasing order so the first one of a group is the one with the minimum id
+			for(int e = next(sourceEdges, count, 0); e > -1; e = next(sourceEdges, count, e + 1)){
+				final int[] group = new int[keyIds.length + 2];
+				group[0] = store.getEdgeSource(e);
+				group[1] = store.getEdgeDestination(e);
+				for(int i = 0; i < keyIds.length; i++){
+					group[i + 2] = columns.getValueId(keyIds[i], e);
+				}
+				if(seen.add(new ValueTuple(group))){
+					target.edges.set(e);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void getEdgeEndpoint(GetEdgeEndpoint instruction){
+		synchronized(store){
+			final boolean source = instruction.component.equals(GetEdgeEndpoint.Component.kSource)
+					|| instruction.component.equals(GetEdgeEndpoint.Component.kBoth);
+			final boolean destination = instruction.component.equals(GetEdgeEndpoint.Component.kDestination)
+					|| instruction.component.equals(GetEdgeEndpoint.Component.kBoth);
+			final BitSet subject = edges(instruction.subjectGraph);
+			final GraphStore.GraphSet target = target(instruction.targetGraph);
+			final int count = store.getEdgeCount();
+			for(int e = next(subject, count, 0); e > -1; e = next(subject, count, e + 1)){
+				if(source){
+					target.vertices.set(store.getEdgeSource(e));
+				}
+				if(destination){
+					target.vertices.set(store.getEdgeDestination(e));
+				}
+			}
+		}
+	}
+
+	@Override
+	public void intersectGraph(IntersectGraph instruction){
+		synchronized(store){
+			final BitSet vertices = store.copyVertices(instruction.lhsGraph.name);
+			vertices.and(store.copyVertices(instruction.rhsGraph.name));
+			final BitSet edges = store.copyEdges(instruction.lhsGraph.name);
+			edges.and(store.copyEdges(instruction.rhsGraph.name));
+			final GraphStore.GraphSet target = target(instruction.outputGraph);
+			target.vertices.or(vertices);
+			target.edges.or(edges);
+		}
+	}
+
+	@Override
+	public void limitGraph(LimitGraph instruction){
+		synchronized(store){
+			final GraphStore.GraphSet target = target(instruction.targetGraph);
+			final BitSet vertices = vertices(instruction.sourceGraph);
+			final int vertexCount = store.getVertexCount();
+			int added = 0;
+			for(int v = next(vertices, vertexCount, 0); v > -1 && added < instruction.limit;
+					v = next(vertices, vertexCount, v + 1), added++){
+				target.vertices.set(v);
+			}
+			final BitSet edges = edges(instruction.sourceGraph);
+			final int edgeCount = store.getEdgeCount();
+			added = 0;
+			for(int e = next(edges, edgeCount, 0); e > -1 && added < instruction.limit;
+					e = next(edges, edgeCount, e + 1), added++){
+				target.edges.set(e);
+			}
+		}
+	}
+
+	@Override
+	public GraphStats statGraph(StatGraph instruction){
+		synchronized(store){
+			final BitSet vertices = vertices(instruction.targetGraph);
+			final BitSet edges = edges(instruction.targetGraph);
+			return new GraphStats(vertices == null ? store.getVertexCount() : vertices.cardinality(),
+					edges == null ? store.getEdgeCount() : edges.cardinality());
+		}
+	}
+
+	@Override
+	public void subtractGraph(SubtractGraph instruction){
+		synchronized(store){
+			if(queryEnvironment.isBaseGraph(instruction.subtrahendGraph)){
+				// no resulting vertices and edges since the subtrahend is base
+				return;
+			}
+			final GraphStore.GraphSet target = target(instruction.outputGraph);
+			if(instruction.component == null || instruction.component == Graph.Component.kVertex){
+				final BitSet vertices = store.copyVertices(instruction.minuendGraph.name);
+				vertices.andNot(vertices(instruction.subtrahendGraph));
+				target.vertices.or(vertices);
+			}
+			if(instruction.component == null || instruction.component == Graph.Component.kEdge){
+				final BitSet edges = store.copyEdges(instruction.minuendGraph.name);
+				edges.andNot(edges(instruction.subtrahendGraph));
+				target.edges.or(edges);
+			}
+		}
+	}
+
+	@Override
+	public void unionGraph(UnionGraph instruction){
+		synchronized(store){
+			final BitSet vertices = vertices(instruction.sourceGraph);
+			final BitSet edges = edges(instruction.sourceGraph);
+			final GraphStore.GraphSet target = target(instruction.targetGraph);
+			if(vertices == null){
+				target.vertices.set(0, store.getVertexCount());
+			}else{
+				target.vertices.or(vertices);
+			}
+			if(edges == null){
+				target.edges.set(0, store.getEdgeCount());
+			}else{
+				target.edges.or(edges);
+			}
+		}
+	}
+
+	@Override
+	public void getAdjacentVertex(GetAdjacentVertex instruction){
+		final BitSet source, subjectVertices, subjectEdges;
+		synchronized(store){
+			source = store.copyVertices(instruction.sourceGraph.name);
+			subjectVertices = vertices(instruction.subjectGraph);
+			subjectEdges = edges(instruction.subjectGraph);
+			if(subjectVertices != null){
+				source.and(subjectVertices);
+			}
+		}
+		final boolean ancestors = instruction.direction.equals(GetLineage.Direction.kAncestor)
+				|| instruction.direction.equals(GetLineage.Direction.kBoth);
+		final boolean descendants = instruction.direction.equals(GetLineage.Direction.kDescendant)
+				|| instruction.direction.equals(GetLineage.Direction.kBoth);
+		final GraphStore.GraphSet result = new GraphStore.GraphSet();
+		if(ancestors){
+			adjacent(source, subjectVertices, subjectEdges, true, result);
+		}
+		if(descendants){
+			adjacent(source, subjectVertices, subjectEdges, false, result);
+		}
+		addResult(instruction.targetGraph, result);
+	}
+
+	@Override
+	public GraphDescription describeGraph(DescribeGraph instruction){
+		if(instruction.graph == null){
+			throw new RuntimeException("NULL graph");
+		}
+		if(instruction.elementType == null){
+			throw new RuntimeException("NULL element type");
+		}
+		synchronized(store){
+			final Columns columns;
+			final BitSet elements;
+			final int count;
+			switch(instruction.elementType){
+				case VERTEX:
+					columns = store.vertexAnnotations;
+					elements = vertices(instruction.graph);
+					count = store.getVertexCount();
+					break;
+				case EDGE:
+					columns = store.edgeAnnotations;
+					elements = edges(instruction.graph);
+					count = store.getEdgeCount();
+					break;
+				default: throw new RuntimeException("Unhandled element type: " + instruction.elementType);
+			}
+
+			if(instruction.all){
+				final TreeSet<String> annotations = new TreeSet<String>();
+				for(int keyId = 1; keyId < columns.keyCount(); keyId++){
+					for(int i = next(elements, count, 0); i > -1; i = next(elements, count, i + 1)){
+						if(columns.getValueId(keyId, i) != Dictionary.absent){
+							annotations.add(columns.keys.getString(keyId));
+							break;
+						}
+					}
+				}
+				final List<String> limited = new ArrayList<String>();
+				for(final String annotation : annotations){
+					if(instruction.limit != null && limited.size() >= instruction.limit){
+						break;
+					}
+					limited.add(annotation);
+				}
+				final GraphDescription desc = new GraphDescription(instruction.elementType);
+				desc.addAnnotations(limited);
+				return desc;
+			}
+
+			if(instruction.annotationName == null){
+				throw new RuntimeException("NULL annotation name");
+			}
+			if(instruction.descriptionType == null){
+				throw new RuntimeException("NULL annotation description type");
+			}
+
+			final int keyId = columns.getKeyId(instruction.annotationName);
+			final Map<Integer, Long> valueCounts = new HashMap<Integer, Long>();
+			if(keyId != Dictionary.absent){
+				for(int i = next(elements, count, 0); i > -1; i = next(elements, count, i + 1)){
+					final int valueId = columns.getValueId(keyId, i);
+					if(valueId != Dictionary.absent){
+						final Long valueCount = valueCounts.get(valueId);
+						valueCounts.put(valueId, valueCount == null ? 1L : valueCount + 1);
+					}
+				}
+			}
+			final TreeMap<String, Long> sorted = new TreeMap<String, Long>();
+			for(final Map.Entry<Integer, Long> entry : valueCounts.entrySet()){
+				sorted.put(store.values.getString(entry.getKey()), entry.getValue());
+			}
+
+			final GraphDescription desc = new GraphDescription(instruction.elementType, instruction.annotationName,
+					instruction.descriptionType);
+			switch(instruction.descriptionType){
+				case COUNT:{
+					int added = 0;
+					for(final Map.Entry<String, Long> entry : sorted.entrySet()){
+						if(instruction.limit != null && added++ >= instruction.limit){
+							break;
+						}
+						desc.putValueToCount(entry.getKey(), entry.getValue());
+					}
+					return desc;
+				}
+				case MINMAX:{
+					if(sorted.isEmpty()){
+						desc.setMinMax(AbstractQueryEnvironment.environmentVariableValueUNSET,
+								AbstractQueryEnvironment.environmentVariableValueUNSET);
+					}else{
+						desc.setMinMax(sorted.firstKey(), sorted.lastKey());
+					}
+					return desc;
+				}
+				default: throw new RuntimeException("Unhandled description type: " + instruction.descriptionType);
+			}
+		}
+	}
+
+	@Override
+	public Map<String, Map<String, String>> exportVertices(ExportGraph instruction){
+		synchronized(store){
+			final Map<String, Map<String, String>> hashToVertexMap = new HashMap<String, Map<String, String>>();
+			final BitSet vertices = vertices(instruction.targetGraph);
+			final int count = store.getVertexCount();
+			for(int v = next(vertices, count, 0); v > -1; v = next(vertices, count, v + 1)){
+				hashToVertexMap.put(store.getVertexHash(v), store.vertexAnnotations.getAll(v));
+			}
+			return hashToVertexMap;
+		}
+	}
+
+	@Override
+	public Set<QueriedEdge> exportEdges(ExportGraph instruction){
+		synchronized(store){
+			final Set<QueriedEdge> edgeSet = new HashSet<QueriedEdge>();
+			final BitSet edges = edges(instruction.targetGraph);
+			final int count = store.getEdgeCount();
+			for(int e = next(edges, count, 0); e > -1; e = next(edges, count, e + 1)){
+				edgeSet.add(new QueriedEdge(store.getEdgeHash(e), store.getVertexHash(store.getEdgeSource(e)),
+						store.getVertexHash(store.getEdgeDestination(e)), store.edgeAnnotations.getAll(e)));
+			}
+			return edgeSet;
+		}
+	}
+
+	/**
+	 * Reads the annotations of a chunk at a time (holding the lock of the store only for the chunk) from a copy of
+	 * the vertex and the edge sets taken when the cursor is created.
+	 */
+	@Override
+	public ExportCursor exportGraphCursor(final ExportGraph instruction){
+		final BitSet vertices, edges;
+		synchronized(store){
+			vertices = store.copyVertices(instruction.targetGraph.name);
+			edges = store.copyEdges(instruction.targetGraph.name);
+		}
+		return new ExportCursor(){
+			private static final long serialVersionUID = 6002379217064950498L;
+			private int nextVertex = vertices.nextSetBit(0), nextEdge = edges.nextSetBit(0);
+
+			@Override
+			protected Map<String, Map<String, String>> nextVertices(final int max){
+				final Map<String, Map<String, String>> result = new LinkedHashMap<String, Map<String, String>>();
+				synchronized(store){
+					for(; nextVertex > -1 && result.size() < max; nextVertex = vertices.nextSetBit(nextVertex + 1)){
+						result.put(store.getVertexHash(nextVertex), store.vertexAnnotations.getAll(nextVertex));
+					}
+				}
+				return result;
+			}
+
+			@Override
+			protected List<QueriedEdge> nextEdges(final int max){
+				final List<QueriedEdge> result = new ArrayList<QueriedEdge>();
+				synchronized(store){
+					for(; nextEdge > -1 && result.size() < max; nextEdge = edges.nextSetBit(nextEdge + 1)){
+						result.add(new QueriedEdge(store.getEdgeHash(nextEdge),
+								store.getVertexHash(store.getEdgeSource(nextEdge)),
+								store.getVertexHash(store.getEdgeDestination(nextEdge)),
+								store.edgeAnnotations.getAll(nextEdge)));
+					}
+				}
+				return result;
+			}
+		};
+	}
+
+	@Override
+	public void getLineage(GetLineage instruction){
+		final BitSet start, subjectVertices, subjectEdges;
+		synchronized(store){
+			start = vertices(instruction.startGraph);
+			subjectVertices = vertices(instruction.subjectGraph);
+			subjectEdges = edges(instruction.subjectGraph);
+		}
+		final GraphStore.GraphSet result = new GraphStore.GraphSet();
+		if(instruction.direction.equals(GetLineage.Direction.kAncestor) || instruction.direction.equals(GetLineage.Direction.kBoth)){
+			breadthFirst(start, subjectVertices, subjectEdges, true, instruction.depth, result);
+		}
+		if(instruction.direction.equals(GetLineage.Direction.kDescendant) || instruction.direction.equals(GetLineage.Direction.kBoth)){
+			breadthFirst(start, subjectVertices, subjectEdges, false, instruction.depth, result);
+		}
+		addResult(instruction.targetGraph, result);
+	}
+
+	/**
+	 * The lineage is only kept as a set of vertices (and not added to a graph) before applying the predicate
+	 */
+	@Override
+	public void getFilteredLineage(final GetFilteredLineage instruction){
+		final BitSet start, subjectVertices, subjectEdges;
+		synchronized(store){
+			start = vertices(instruction.startGraph);
+			subjectVertices = vertices(instruction.subjectGraph);
+			subjectEdges = edges(instruction.subjectGraph);
+		}
+		final BitSet lineage = new BitSet();
+		if(instruction.direction.equals(GetLineage.Direction.kAncestor) || instruction.direction.equals(GetLineage.Direction.kBoth)){
+			final Traversal traversal = breadthFirst(start, subjectVertices, subjectEdges, true, instruction.depth, null);
+			for(int i = 0; i < traversal.visited.size(); i++){
+				lineage.set(traversal.visited.get(i));
+			}
+		}
+		if(instruction.direction.equals(GetLineage.Direction.kDescendant) || instruction.direction.equals(GetLineage.Direction.kBoth)){
+			final Traversal traversal = breadthFirst(start, subjectVertices, subjectEdges, false, instruction.depth, null);
+			for(int i = 0; i < traversal.visited.size(); i++){
+				lineage.set(traversal.visited.get(i));
+			}
+		}
+		synchronized(store){
+			final GraphStore.GraphSet target = target(instruction.targetGraph);
+			final Comparison comparison = new Comparison(store.vertexAnnotations, store.vertexHashes,
+					instruction.annotationKey, instruction.operator, instruction.annotationValue);
+			// Same order as limitGraph
+			int added = 0;
+			for(int v = lineage.nextSetBit(0); v > -1 && (instruction.limit == null || added < instruction.limit);
+					v = lineage.nextSetBit(v + 1)){
+				if(comparison.matches(v)){
+					target.vertices.set(v);
+					added++;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void getPath(GetSimplePath instruction){
+		final GraphStore.GraphSet result = new GraphStore.GraphSet();
+		path(instruction.srcGraph, instruction.dstGraph, instruction.subjectGraph, result, instruction.maxDepth);
+		addResult(instruction.targetGraph, result);
+	}
+
+	@Override
+	public void getLink(GetLink instruction){
+		final GraphStore.GraphSet result = new GraphStore.GraphSet();
+		path(instruction.srcGraph, instruction.dstGraph, instruction.subjectGraph, result, instruction.maxDepth);
+		path(instruction.dstGraph, instruction.srcGraph, instruction.subjectGraph, result, instruction.maxDepth);
+		addResult(instruction.targetGraph, result);
+	}
+
+	/**
+	 * One shortest path to every reachable destination vertex from the nearest source vertex (instead of one per
+	 * source and destination pair).
+	 */
+	@Override
+	public void getShortestPath(GetShortestPath instruction){
+		final BitSet start, destinations, subjectVertices, subjectEdges;
+		synchronized(store){
+			start = vertices(instruction.srcGraph);
+			destinations = vertices(instruction.dstGraph);
+			subjectVertices = vertices(instruction.subjectGraph);
+			subjectEdges = edges(instruction.subjectGraph);
+		}
+
+		// Edge used to reach the vertex. -1 for the start vertices and missing for the vertices not reached
+		final IntIntMap parentEdges = new IntIntMap(64);
+		final IntList visited = new IntList(64);
+		synchronized(store){
+			final int vertexCount = store.getVertexCount();
+			for(int v = next(start, vertexCount, 0); v > -1; v = next(start, vertexCount, v + 1)){
+				if(contains(subjectVertices, v)){
+					parentEdges.put(v, -1);
+					visited.add(v);
+				}
+			}
+		}
+		int levelStart = 0;
+		for(int depth = 0; depth < instruction.maxDepth && levelStart < visited.size(); depth++){
+			final int levelEnd = visited.size();
+			int i = levelStart;
+			while(i < levelEnd){
+				synchronized(store){
+					final Adjacency adjacency = store.getAdjacency(true);
+					for(final int sliceEnd = Math.min(levelEnd, i + sliceSize); i < sliceEnd; i++){
+						final int v = visited.get(i);
+						for(int j = adjacency.start(v), end = adjacency.end(v); j < end; j++){
+							final int edge = adjacency.edges[j];
+							final int other = store.getEdgeDestination(edge);
+							if(parentEdges.get(other, -2) == -2 && contains(subjectEdges, edge)
+									&& contains(subjectVertices, other)){
+								parentEdges.put(other, edge);
+								visited.add(other);
+							}
+						}
+					}
+				}
+			}
+			levelStart = levelEnd;
+		}
+
+		final GraphStore.GraphSet result = new GraphStore.GraphSet();
+		synchronized(store){
+			for(int i = 0; i < visited.size(); i++){
+				int v = visited.get(i);
+				if(!contains(destinations, v)){
+					continue;
+				}
+				// Walk back until a vertex already on an added path or a start vertex
+				while(true){
+					final boolean added = result.vertices.get(v);
+					result.vertices.set(v);
+					final int edge = parentEdges.get(v, -1);
+					if(edge < 0 || (added && result.edges.get(edge))){
+						break;
+					}
+					result.edges.set(edge);
+					v = store.getEdgeSource(edge);
+				}
+			}
+		}
+		addResult(instruction.targetGraph, result);
+	}
+
+	@Override
+	public void getSubgraph(GetSubgraph instruction){
+		final BitSet subjectEdges;
+		final GraphStore.GraphSet result = new GraphStore.GraphSet();
+		synchronized(store){
+			final BitSet subjectVertices = vertices(instruction.subjectGraph);
+			subjectEdges = edges(instruction.subjectGraph);
+
+			// order matters
+			final BitSet skeletonVertices = store.copyVertices(instruction.skeletonGraph.name);
+			if(subjectVertices != null){
+				skeletonVertices.and(subjectVertices);
+			}
+			result.vertices.or(skeletonVertices);
+
+			final BitSet skeletonEdges = edges(instruction.skeletonGraph);
+			final int edgeCount = store.getEdgeCount();
+			for(int e = next(skeletonEdges, edgeCount, 0); e > -1; e = next(skeletonEdges, edgeCount, e + 1)){
+				final int source = store.getEdgeSource(e), destination = store.getEdgeDestination(e);
+				if(contains(subjectVertices, destination)){
+					result.vertices.set(destination);
+				}
+				if(contains(subjectVertices, source)){
+					result.vertices.set(source);
+				}
+			}
+		}
+
+		int v = result.vertices.nextSetBit(0);
+		while(v > -1){
+			synchronized(store){
+				final Adjacency adjacency = store.getAdjacency(true);
+				for(int count = 0; v > -1 && count < sliceSize; v = result.vertices.nextSetBit(v + 1), count++){
+					for(int j = adjacency.start(v), end = adjacency.end(v); j < end; j++){
+						final int edge = adjacency.edges[j];
+						if(contains(subjectEdges, edge) && result.vertices.get(store.getEdgeDestination(edge))){
+							result.edges.set(edge);
+						}
+					}
+				}
+			}
+		}
+		addResult(instruction.targetGraph, result);
+	}
+
+	@Override public void createEmptyGraphMetadata(CreateEmptyGraphMetadata instruction){}
+	@Override public void overwriteGraphMetadata(OverwriteGraphMetadata instruction){}
+	@Override public void setGraphMetadata(SetGraphMetadata instruction){}
+
+}
@@ -0,0 +1,149 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.memory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import spade.query.quickgrail.core.AbstractQueryEnvironment;
+
+/**
+ * Keeps the symbols in the GraphStore so that they are saved with the snapshot of the graph.
+ */
+public class MemoryQueryEnvironment extends AbstractQueryEnvironment{
+
+	private final GraphStore store;
+
+	public MemoryQueryEnvironment(final String baseGraphName, final GraphStore store){
+		super(baseGraphName);
+		this.store = store;
+		if(this.store == null){
+			throw new RuntimeException("NULL graph store");
+		}
+	}
+
+	@Override
+	public void createSymbolStorageIfNotPresent(){
+		// Always present
+	}
+
+	@Override
+	public void deleteSymbolStorageIfPresent(){
+		synchronized(store){
+			store.idCounter = 0;
+			store.graphSymbols.clear();
+			store.metadataSymbols.clear();
+			store.predicateSymbols.clear();
+		}
+	}
+
+	@Override
+	public int readIdCount(){
+		synchronized(store){
+			return store.idCounter;
+		}
+	}
+
+	@Override
+	public Map<String, String> readGraphSymbols(){
+		synchronized(store){
+			return new HashMap<String, String>(store.graphSymbols);
+		}
+	}
+
+	@Override
+	public Map<String, String> readMetadataSymbols(){
+		synchronized(store){
+			return new HashMap<String, String>(store.metadataSymbols);
+		}
+	}
+
+	@Override
+	public Map<String, String> readPredicateSymbols(){
+		synchronized(store){
+			return new HashMap<String, String>(store.predicateSymbols);
+		}
+	}
+
+	@Override
+	public void saveIdCounter(int idCounter){
+		synchronized(store){
+			store.idCounter = idCounter;
+		}
+	}
+
+	@Override
+	public void saveGraphSymbol(String symbol, String graphName, boolean symbolNameWasPresent){
+		synchronized(store){
+			store.graphSymbols.put(symbol, graphName);
+		}
+	}
+
+	@Override
+	public void saveMetadataSymbol(String symbol, String metadataName, boolean symbolNameWasPresent){
+		synchronized(store){
+			store.metadataSymbols.put(symbol, metadataName);
+		}
+	}
+
+	@Override
+	public void savePredicateSymbol(String symbol, String predicate, boolean symbolNameWasPresent){
+		synchronized(store){
+			store.predicateSymbols.put(symbol, predicate);
+		}
+	}
+
+	@Override
+	public void deleteGraphSymbol(String symbol){
+		synchronized(store){
+			store.graphSymbols.remove(symbol);
+		}
+	}
+
+	@Override
+	public void deleteMetadataSymbol(String symbol){
+		synchronized(store){
+			store.metadataSymbols.remove(symbol);
+		}
+	}
+
+	@Override
+	public void deletePredicateSymbol(String symbol){
+		synchronized(store){
+			store.predicateSymbols.remove(symbol);
+		}
+	}
+
+	@Override
+	public final void doGarbageCollection(){
+		final Set<String> referencedGraphNames = new HashSet<String>(getCurrentGraphSymbolsStringMap().values());
+		synchronized(store){
+			final Set<String> nonGarbageNames = new HashSet<String>();
+			for(final String graphName : store.graphs.keySet()){
+				if(!isSPADEGraphOrSPADEMetadataName(graphName) || referencedGraphNames.contains(graphName)){
+					nonGarbageNames.add(graphName);
+				}
+			}
+			store.retainGraphs(nonGarbageNames);
+		}
+	}
+}
@@ -0,0 +1,317 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.memory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary image of a GraphStore.
+ * 
+ * Written sequentially to a temporary file which then replaces the snapshot. Read back by mapping the file in
+ * windows (of at most 1 GB each) so that the arrays are copied straight out of the page cache.
+ * 
+ * All integers are big-endian. Layout: magic, version, values dictionary, vertex hashes, vertex columns, edge
+ * hashes, edge sources, edge destinations, edge columns, graphs, symbols.
+ */
+final class Snapshot{
+
+	private static final int magic = 0x5350444D; // 'SPDM'
+	private static final int version = 1;
+
+	private static final long maxWindowSize = 1L << 30;
+
+	static void save(final GraphStore store, final String path) throws IOException{
+		final File file = new File(path);
+		final File temporaryFile = new File(path + ".tmp");
+		try(final DataOutputStream output = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temporaryFile), 1 << 20))){
+			output.writeInt(magic);
+			output.writeInt(version);
+			writeString(output, store.baseGraphName);
+
+			writeDictionary(output, store.values);
+
+			writeStrings(output, store.vertexHashes);
+			writeColumns(output, store.vertexAnnotations);
+
+			writeStrings(output, store.edgeHashes);
+			writeInts(output, store.edgeSources.toArray());
+			writeInts(output, store.edgeDestinations.toArray());
+			writeColumns(output, store.edgeAnnotations);
+
+			output.writeInt(store.graphs.size());
+			for(final Map.Entry<String, GraphStore.GraphSet> entry : store.graphs.entrySet()){
+				writeString(output, entry.getKey());
+				writeLongs(output, entry.getValue().vertices.toLongArray());
+				writeLongs(output, entry.getValue().edges.toLongArray());
+			}
+
+			output.writeInt(store.idCounter);
+			writeMap(output, store.graphSymbols);
+			writeMap(output, store.metadataSymbols);
+			writeMap(output, store.predicateSymbols);
+		}
+		Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	static GraphStore load(final String path, final String baseGraphName) throws IOException{
+		try(final RandomAccessFile file = new RandomAccessFile(path, "r"); final FileChannel channel = file.getChannel()){
+			final Input input = new Input(channel);
+			if(input.readInt() != magic){
+				throw new IOException("Not a snapshot file: '" + path + "'");
+			}
+			final int writtenVersion = input.readInt();
+			if(writtenVersion != version){
+				throw new IOException("Unsupported snapshot version " + writtenVersion + " (current version " + version + ")");
+			}
+			final String writtenBaseGraphName = input.readString();
+			if(!writtenBaseGraphName.equals(baseGraphName)){
+				throw new IOException("Snapshot base graph name '" + writtenBaseGraphName + "' does not match '"
+						+ baseGraphName + "'");
+			}
+
+			final GraphStore store = new GraphStore(baseGraphName);
+			readDictionary(input, store.values);
+
+			readHashes(input, store.vertexHashes, store.vertexIds);
+			readColumns(input, store.vertexAnnotations);
+
+			readHashes(input, store.edgeHashes, store.edgeIds);
+			store.edgeSources = new IntList(input.readInts());
+			store.edgeDestinations = new IntList(input.readInts());
+			readColumns(input, store.edgeAnnotations);
+			if(store.edgeSources.size() != store.edgeHashes.size()
+					|| store.edgeDestinations.size() != store.edgeHashes.size()){
+				throw new IOException("Corrupt snapshot. Mismatched edge array sizes");
+			}
+			store.indexEdges();
+
+			final int graphCount = input.readInt();
+			for(int i = 0; i < graphCount; i++){
+				final GraphStore.GraphSet graph = store.getOrCreateGraph(input.readString());
+				graph.vertices.or(BitSet.valueOf(input.readLongs()));
+				graph.edges.or(BitSet.valueOf(input.readLongs()));
+			}
+
+			store.idCounter = input.readInt();
+			readMap(input, store.graphSymbols);
+			readMap(input, store.metadataSymbols);
+			readMap(input, store.predicateSymbols);
+			return store;
+		}
+	}
+
+	private static void writeString(final DataOutputStream output, final String string) throws IOException{
+		final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		output.writeInt(bytes.length);
+		output.write(bytes);
+	}
+
+	private static void writeStrings(final DataOutputStream output, final List<String> strings) throws IOException{
+		output.writeInt(strings.size());
+		for(final String string : strings){
+			writeString(output, string);
+		}
+	}
+
+	private static void writeDictionary(final DataOutputStream output, final Dictionary dictionary) throws IOException{
+		output.writeInt(dictionary.size());
+		for(int id = 1; id < dictionary.size(); id++){
+			writeString(output, dictionary.getString(id));
+		}
+	}
+
+	private static void writeInts(final DataOutputStream output, final int[] values) throws IOException{
+		output.writeInt(values.length);
+		for(final int value : values){
+			output.writeInt(value);
+		}
+	}
+
+	private static void writeLongs(final DataOutputStream output, final long[] values) throws IOException{
+		output.writeInt(values.length);
+		for(final long value : values){
+			output.writeLong(value);
+		}
+	}
+
+	private static void writeColumns(final DataOutputStream output, final Columns columns) throws IOException{
+		writeDictionary(output, columns.keys);
+		for(int keyId = 1; keyId < columns.keyCount(); keyId++){
+			final int[][] pages = columns.getPages(keyId);
+			output.writeInt(pages.length);
+			for(final int[] page : pages){
+				if(page == null){
+					output.writeInt(-1);
+				}else{
+					writeInts(output, page);
+				}
+			}
+		}
+	}
+
+	private static void writeMap(final DataOutputStream output, final Map<String, String> map) throws IOException{
+		output.writeInt(map.size());
+		for(final Map.Entry<String, String> entry : map.entrySet()){
+			writeString(output, entry.getKey());
+			writeString(output, entry.getValue());
+		}
+	}
+
+	private static void readDictionary(final Input input, final Dictionary dictionary) throws IOException{
+		final int size = input.readInt();
+		for(int id = 1; id < size; id++){
+			if(dictionary.getOrAdd(input.readString()) != id){
+				throw new IOException("Corrupt snapshot. Duplicate dictionary entry");
+			}
+		}
+	}
+
+	private static void readHashes(final Input input, final List<String> hashes,
+			final Map<String, Integer> ids) throws IOException{
+		final int size = input.readInt();
+		for(int id = 0; id < size; id++){
+			final String hash = input.readString();
+			hashes.add(hash);
+			ids.put(hash, id);
+		}
+	}
+
+	private static void readColumns(final Input input, final Columns columns) throws IOException{
+		readDictionary(input, columns.keys);
+		for(int keyId = 1; keyId < columns.keys.size(); keyId++){
+			final int[][] pages = new int[input.readInt()][];
+			for(int page = 0; page < pages.length; page++){
+				pages[page] = input.readInts();
+				if(pages[page] != null && pages[page].length != Columns.pageSize){
+					throw new IOException("Corrupt snapshot. Invalid column page size: " + pages[page].length);
+				}
+			}
+			columns.setPages(keyId, pages);
+		}
+	}
+
+	private static void readMap(final Input input, final Map<String, String> map) throws IOException{
+		final int size = input.readInt();
+		for(int i = 0; i < size; i++){
+			map.put(input.readString(), input.readString());
+		}
+	}
+
+	/**
+	 * Reads from a window of the file mapped in memory. The window is moved forward when a read crosses its end.
+	 */
+	private static final class Input{
+		private final FileChannel channel;
+		private final long size;
+		private long windowStart = 0;
+		private MappedByteBuffer window;
+
+		private Input(final FileChannel channel) throws IOException{
+			this.channel = channel;
+			this.size = channel.size();
+			map(0);
+		}
+
+		private void map(final long position) throws IOException{
+			windowStart = position;
+			window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(maxWindowSize, size - position));
+		}
+
+		private void require(final int bytes) throws IOException{
+			if(window.remaining() < bytes){
+				final long position = windowStart + window.position();
+				if(position + bytes > size){
+					throw new IOException("Truncated snapshot. Needed " + bytes + " byte(s) at offset " + position);
+				}
+				map(position);
+			}
+		}
+
+		private int readInt() throws IOException{
+			require(Integer.BYTES);
+			return window.getInt();
+		}
+
+		private String readString() throws IOException{
+			final int length = readInt();
+			if(length < 0){
+				throw new IOException("Corrupt snapshot. Negative string length");
+			}
+			require(length);
+			final byte[] bytes = new byte[length];
+			window.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * @return null if written as length -1
+		 */
+		private int[] readInts() throws IOException{
+			final int length = readInt();
+			if(length == -1){
+				return null;
+			}else if(length < 0){
+				throw new IOException("Corrupt snapshot. Negative array length");
+			}
+			final int[] values = new int[length];
+			int offset = 0;
+			while(offset < length){
+				require(Integer.BYTES);
+				final int count = Math.min(length - offset, window.remaining() / Integer.BYTES);
+				window.asIntBuffer().get(values, offset, count);
+				window.position(window.position() + count * Integer.BYTES);
+				offset += count;
+			}
+			return values;
+		}
+
+		private long[] readLongs() throws IOException{
+			final int length = readInt();
+			if(length < 0){
+				throw new IOException("Corrupt snapshot. Negative array length");
+			}
+			final long[] values = new long[length];
+			int offset = 0;
+			while(offset < length){
+				require(Long.BYTES);
+				final int count = Math.min(length - offset, window.remaining() / Long.BYTES);
+				window.asLongBuffer().get(values, offset, count);
+				window.position(window.position() + count * Long.BYTES);
+				offset += count;
+			}
+			return values;
+		}
+	}
+}
@@ -28,6 +28,7 @@ import java.util.TreeMap;
 
 import spade.core.AbstractStorage;
 import spade.query.quickgrail.core.AbstractQueryEnvironment;
+import spade.query.quickgrail.core.ExportCursor;
 import spade.query.quickgrail.core.GraphDescription;
 import spade.query.quickgrail.core.GraphStats;
 import spade.query.quickgrail.core.QueriedEdge;
@@ -98,6 +99,12 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 		return storage;
 	}
 
+	// A graph is a label on the vertices and a name in the list on the edges
+	@Override
+	public boolean hasDistinctGraphs(){
+		return true;
+	}
+
 	@Override
 	public void insertLiteralEdge(InsertLiteralEdge instruction){
 		List<String> hashes = instruction.getEdges();
@@ -640,93 +647,123 @@ public class Neo4jInstructionExecutor extends QueryInstructionExecutor{
 		}
 	}
 	
+	/*
+	 * Vertices of the graph in the order of the hash, only the ones after the given hash if not null, and at most
+	 * 'limit' if greater than 0
+	 */
+	private String getExportVerticesQuery(final ExportGraph instruction, final String afterHash, final int limit){
+		String nodesQuery = "match (v:" + instruction.targetGraph.name + ")";
+		if(afterHash != null){
+			nodesQuery += " where v.`" + hashKey + "` > '" + afterHash + "'";
+		}
+		nodesQuery += " return v";
+		if(limit > 0){
+			nodesQuery += " order by v.`" + hashKey + "` limit " + limit;
+		}
+		return nodesQuery + ";";
+	}
+
+	// Same as getExportVerticesQuery but for edges
+	private String getExportEdgesQuery(final ExportGraph instruction, final String afterHash, final int limit){
+		final String edgeProperty = "e.`"+neo4jQueryEnvironment.edgeLabelsPropertyName+"`";
+		final List<String> conditions = new ArrayList<String>();
+		if(!neo4jQueryEnvironment.isBaseGraph(instruction.targetGraph)){
+			conditions.add(edgeProperty + " contains '," + instruction.targetGraph.name + ",'");
+		}
+		if(afterHash != null){
+			conditions.add("e.`" + hashKey + "` > '" + afterHash + "'");
+		}
+		String edgeQuery = "match ()-[e]->()";
+		if(!conditions.isEmpty()){
+			edgeQuery += " where " + String.join(" and ", conditions);
+		}
+		edgeQuery += " return e";
+		if(limit > 0){
+			edgeQuery += " order by e.`" + hashKey + "` limit " + limit;
+		}
+		return edgeQuery + ";";
+	}
+
 	@Override
 	public Map<String, Map<String, String>> exportVertices(ExportGraph instruction){
-		String nodesQuery = "match (v:" + instruction.targetGraph.name + ") return v;";
-		return storage.readHashToVertexMap("v", nodesQuery);
+		return storage.readHashToVertexMap("v", getExportVerticesQuery(instruction, null, 0));
 	}
 	
 	@Override
 	public Set<QueriedEdge> exportEdges(ExportGraph instruction){
-		final String edgeProperty = "e.`"+neo4jQueryEnvironment.edgeLabelsPropertyName+"`";
-		String edgeQuery = "match ()-[e]->()";
-		if(!neo4jQueryEnvironment.isBaseGraph(instruction.targetGraph)){
-			edgeQuery += " where " + edgeProperty + " contains '," + instruction.targetGraph.name + ",'";
-		}
-		edgeQuery += " return e;";
-		
-		return storage.readEdgeSet("e", edgeQuery);
+		return storage.readEdgeSet("e", getExportEdgesQuery(instruction, null, 0));
+	}
+
+	/**
+	 * Reads a page of vertices (and then edges) per chunk, in the order of the hash, starting after the last hash
+	 * read. No transaction is kept open between the chunks.
+	 */
+	@Override
+	public ExportCursor exportGraphCursor(final ExportGraph instruction){
+		return new ExportCursor(){
+			private static final long serialVersionUID = 3846950175360923617L;
+			private String lastVertexHash = null, lastEdgeHash = null;
+
+			@Override
+			protected Map<String, Map<String, String>> nextVertices(final int max){
+				final Map<String, Map<String, String>> vertices = storage.readHashToVertexMap("v",
+						getExportVerticesQuery(instruction, lastVertexHash, max));
+				// Not in order
+				for(final String hash : vertices.keySet()){
+					if(lastVertexHash == null || hash.compareTo(lastVertexHash) > 0){
+						lastVertexHash = hash;
+					}
+				}
+				return vertices;
+			}
+
+			@Override
+			protected List<QueriedEdge> nextEdges(final int max){
+				final List<QueriedEdge> edges = new ArrayList<QueriedEdge>(storage.readEdgeSet("e",
+						getExportEdgesQuery(instruction, lastEdgeHash, max)));
+				// Not in order
+				for(final QueriedEdge edge : edges){
+					if(lastEdgeHash == null || edge.edgeHash.compareTo(lastEdgeHash) > 0){
+						lastEdgeHash = edge.edgeHash;
+					}
+				}
+				return edges;
+			}
+		};
 	}
 	
 	@Override
 	public void getLineage(GetLineage instruction){
-		final String edgeProperty = "e1.`"+neo4jQueryEnvironment.edgeLabelsPropertyName+"`";
+		final boolean subjectIsBaseGraph = neo4jQueryEnvironment.isBaseGraph(instruction.subjectGraph);
 		if(instruction.direction.equals(GetLineage.Direction.kAncestor) || instruction.direction.equals(GetLineage.Direction.kBoth)){
-			String query = "match ";
-			query += "p=(a:"+instruction.startGraph.name+":"+instruction.subjectGraph.name+")"
-					+ "-[e0*0.."+instruction.depth+"]->"
-					+ "(b:"+instruction.subjectGraph.name+") ";
-			if(!neo4jQueryEnvironment.isBaseGraph(instruction.subjectGraph)){
-				query += " where all(e1 in relationships(p) where " + edgeProperty + " contains '," + instruction.subjectGraph.name + ",') ";
-			}
-			query += " foreach (n in nodes(p) | set n:" + instruction.targetGraph.name + ") ";
-			query += " foreach (e in relationships(p) | " + buildSubqueryForUpdatingEdgeSymbols("e", instruction.targetGraph.name) + ");";
-			storage.executeQuery(query);
+			storage.executeQueryAndBlockForResult(new TaskGetLineage(instruction.startGraph.name, instruction.subjectGraph.name,
+					subjectIsBaseGraph, instruction.targetGraph.name, neo4jQueryEnvironment.edgeLabelsPropertyName,
+					true, instruction.depth));
 		}
 		
 		if(instruction.direction.equals(GetLineage.Direction.kDescendant) || instruction.direction.equals(GetLineage.Direction.kBoth)){
-			String query = "match ";
-			query += "p=(a:"+instruction.subjectGraph.name+")"
-					+ "-[e0*0.."+instruction.depth+"]->"
-					+ "(b:"+instruction.startGraph.name+":"+instruction.subjectGraph.name+") ";
-			if(!neo4jQueryEnvironment.isBaseGraph(instruction.subjectGraph)){
-				query += " where all(e1 in relationships(p) where " + edgeProperty + " contains '," + instruction.subjectGraph.name + ",') ";
-			}
-			query += " foreach (n in nodes(p) | set n:" + instruction.targetGraph.name + ") ";
-			query += " foreach (e in relationships(p) | " + buildSubqueryForUpdatingEdgeSymbols("e", instruction.targetGraph.name) + ");";
-			storage.executeQuery(query);
+			storage.executeQueryAndBlockForResult(new TaskGetLineage(instruction.startGraph.name, instruction.subjectGraph.name,
+					subjectIsBaseGraph, instruction.targetGraph.name, neo4jQueryEnvironment.edgeLabelsPropertyName,
+					false, instruction.depth));
 		}
 	}
 
 	@Override
 	public void getPath(GetSimplePath instruction){
-		final String edgeProperty = "e1.`"+neo4jQueryEnvironment.edgeLabelsPropertyName+"`";
-		String query = "match ";
-		query += "p=(a:"+instruction.srcGraph.name+":"+instruction.subjectGraph.name+")"
-				+ "-[e0*0.."+instruction.maxDepth+"]->"
-				+ "(b:"+instruction.dstGraph.name+":"+instruction.subjectGraph.name+") ";
-		if(!neo4jQueryEnvironment.isBaseGraph(instruction.subjectGraph)){
-			query += " where all(e1 in relationships(p) where " + edgeProperty + " contains '," + instruction.subjectGraph.name + ",') ";
-		}
-		query += " foreach (n in nodes(p) | set n:" + instruction.targetGraph.name + ") ";
-		query += " foreach (e in relationships(p) | " + buildSubqueryForUpdatingEdgeSymbols("e", instruction.targetGraph.name) + ");";
-		storage.executeQuery(query);
+		storage.executeQueryAndBlockForResult(new TaskGetPath(instruction.srcGraph.name, instruction.dstGraph.name,
+				instruction.subjectGraph.name, neo4jQueryEnvironment.isBaseGraph(instruction.subjectGraph),
+				instruction.targetGraph.name, neo4jQueryEnvironment.edgeLabelsPropertyName, instruction.maxDepth));
 	}
 	
 	@Override
 	public void getLink(GetLink instruction){
-		final String edgeProperty = "e1.`"+neo4jQueryEnvironment.edgeLabelsPropertyName+"`";
-		String query = "match ";
-		query += "p=(a:"+instruction.srcGraph.name+":"+instruction.subjectGraph.name+")"
-				+ "-[e0*0.."+instruction.maxDepth+"]->"
-				+ "(b:"+instruction.dstGraph.name+":"+instruction.subjectGraph.name+") ";
-		if(!neo4jQueryEnvironment.isBaseGraph(instruction.subjectGraph)){
-			query += " where all(e1 in relationships(p) where " + edgeProperty + " contains '," + instruction.subjectGraph.name + ",') ";
-		}
-		query += " foreach (n in nodes(p) | set n:" + instruction.targetGraph.name + ") ";
-		query += " foreach (e in relationships(p) | " + buildSubqueryForUpdatingEdgeSymbols("e", instruction.targetGraph.name) + ");";
-		storage.executeQuery(query);
-		
-		query = "match ";
-		query += "p=(a:"+instruction.dstGraph.name+":"+instruction.subjectGraph.name+")"
-				+ "-[e0*0.."+instruction.maxDepth+"]->"
-				+ "(b:"+instruction.srcGraph.name+":"+instruction.subjectGraph.name+") ";
-		if(!neo4jQueryEnvironment.isBaseGraph(instruction.subjectGraph)){
-			query += " where all(e1 in relationships(p) where " + edgeProperty + " contains '," + instruction.subjectGraph.name + ",') ";
-		}
-		query += " foreach (n in nodes(p) | set n:" + instruction.targetGraph.name + ") ";
-		query += " foreach (e in relationships(p) | " + buildSubqueryForUpdatingEdgeSymbols("e", instruction.targetGraph.name) + ");";
-		storage.executeQuery(query);
+		final boolean subjectIsBaseGraph = neo4jQueryEnvironment.isBaseGraph(instruction.subjectGraph);
+		storage.executeQueryAndBlockForResult(new TaskGetPath(instruction.srcGraph.name, instruction.dstGraph.name,
+				instruction.subjectGraph.name, subjectIsBaseGraph,
+				instruction.targetGraph.name, neo4jQueryEnvironment.edgeLabelsPropertyName, instruction.maxDepth));
+		storage.executeQueryAndBlockForResult(new TaskGetPath(instruction.dstGraph.name, instruction.srcGraph.name,
+				instruction.subjectGraph.name, subjectIsBaseGraph,
+				instruction.targetGraph.name, neo4jQueryEnvironment.edgeLabelsPropertyName, instruction.maxDepth));
 	}
 
 	@Override
@@ -0,0 +1,62 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.neo4j;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Transaction;
+
+import spade.storage.Neo4j;
+
+/**
+ * Adds the ancestors (outgoing edges) or the descendants (incoming edges) of the start graph within the depth
+ * to the target graph. Same result as matching '(a:start:subject)-[*0..depth]->(b:subject)' but each vertex
+ * is expanded only once.
+ */
+public class TaskGetLineage extends TaskTraverse{
+
+	private final String startGraphName;
+	private final boolean ancestors;
+	private final int depth;
+
+	@Override
+	public String toString(){
+		return "TaskGetLineage [startGraphName=" + startGraphName + ", subjectGraphName=" + subjectGraphName
+				+ ", targetGraphName=" + targetGraphName + ", ancestors=" + ancestors + ", depth=" + depth + "]";
+	}
+
+	public TaskGetLineage(final String startGraphName, final String subjectGraphName, final boolean subjectIsBaseGraph,
+			final String targetGraphName, final String edgeLabelsPropertyName, final boolean ancestors, final int depth){
+		super(subjectGraphName, subjectIsBaseGraph, targetGraphName, edgeLabelsPropertyName);
+		this.startGraphName = startGraphName;
+		this.ancestors = ancestors;
+		this.depth = depth;
+	}
+
+	@Override
+	public final Integer execute(final Neo4j storage, final Transaction tx) throws Exception{
+		final long startTime = System.currentTimeMillis();
+		final int vertices = breadthFirst(tx, startGraphName, ancestors ? Direction.OUTGOING : Direction.INCOMING,
+				depth, true).size();
+		final long endTime = System.currentTimeMillis();
+		storage.debug((endTime - startTime) + " millis taken to visit " + vertices + " vertices for " + this);
+		setResult(vertices);
+		return vertices;
+	}
+}
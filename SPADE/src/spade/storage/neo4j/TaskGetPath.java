@@ -0,0 +1,91 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.neo4j;
+
+import java.util.Map;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+
+import spade.storage.Neo4j;
+
+/**
+ * Adds the vertices and edges on the paths from the source graph to the destination graph within the max depth
+ * to the target graph.
+ * 
+ * The distances from the source (outgoing edges) and to the destination (incoming edges) are computed with
+ * one breadth-first traversal each. A vertex is on a path if the sum of its distances is within the max depth
+ * and an edge (u, v) is on a path if distance from source to u + 1 + distance from v to destination is within
+ * the max depth. Unlike the Cypher path match, this allows the path to repeat edges.
+ */
+public class TaskGetPath extends TaskTraverse{
+
+	private final String srcGraphName, dstGraphName;
+	private final int maxDepth;
+
+	@Override
+	public String toString(){
+		return "TaskGetPath [srcGraphName=" + srcGraphName + ", dstGraphName=" + dstGraphName + ", subjectGraphName="
+				+ subjectGraphName + ", targetGraphName=" + targetGraphName + ", maxDepth=" + maxDepth + "]";
+	}
+
+	public TaskGetPath(final String srcGraphName, final String dstGraphName, final String subjectGraphName,
+			final boolean subjectIsBaseGraph, final String targetGraphName, final String edgeLabelsPropertyName,
+			final int maxDepth){
+		super(subjectGraphName, subjectIsBaseGraph, targetGraphName, edgeLabelsPropertyName);
+		this.srcGraphName = srcGraphName;
+		this.dstGraphName = dstGraphName;
+		this.maxDepth = maxDepth;
+	}
+
+	@Override
+	public final Integer execute(final Neo4j storage, final Transaction tx) throws Exception{
+		final long startTime = System.currentTimeMillis();
+		final Map<Long, Integer> fromSrc = breadthFirst(tx, srcGraphName, Direction.OUTGOING, maxDepth, false);
+		final Map<Long, Integer> toDst = breadthFirst(tx, dstGraphName, Direction.INCOMING, maxDepth, false);
+
+		int vertices = 0;
+		for(final Map.Entry<Long, Integer> entry : fromSrc.entrySet()){
+			final int srcDistance = entry.getValue();
+			final Integer dstDistance = toDst.get(entry.getKey());
+			if(dstDistance == null || srcDistance + dstDistance > maxDepth){
+				continue;
+			}
+			final Node node = tx.getNodeById(entry.getKey());
+			addToTarget(node);
+			vertices++;
+			if(srcDistance < maxDepth){
+				for(final Relationship relationship : node.getRelationships(Direction.OUTGOING)){
+					final Integer otherDstDistance = toDst.get(relationship.getEndNode().getId());
+					if(otherDstDistance != null && srcDistance + 1 + otherDstDistance <= maxDepth
+							&& isSubjectEdge(relationship)){
+						addToTarget(relationship);
+					}
+				}
+			}
+		}
+		final long endTime = System.currentTimeMillis();
+		storage.debug((endTime - startTime) + " millis taken to find " + vertices + " vertices on paths for " + this);
+		setResult(vertices);
+		return vertices;
+	}
+}
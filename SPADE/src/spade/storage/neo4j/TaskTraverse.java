@@ -0,0 +1,157 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.neo4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+
+/**
+ * Breadth-first traversal over the core API (instead of variable-length path matching in Cypher) for the
+ * QuickGrail instructions that label everything reachable within a depth.
+ * 
+ * A vertex is visited at most once (at its shortest distance) so the cost is linear in the size of the
+ * visited subgraph. A vertex is traversable only if it has the label of the subject graph, and an edge is
+ * traversable only if the subject graph is the base graph or the edge labels property contains the subject graph.
+ */
+public abstract class TaskTraverse extends StorageTask<Integer>{
+
+	protected final String subjectGraphName, targetGraphName;
+	protected final boolean subjectIsBaseGraph;
+	protected final String edgeLabelsPropertyName;
+
+	private final Label subjectLabel, targetLabel;
+	private final String subjectEdgeLabel, targetEdgeLabel;
+
+	public TaskTraverse(final String subjectGraphName, final boolean subjectIsBaseGraph, final String targetGraphName,
+			final String edgeLabelsPropertyName){
+		super(true, true);
+		this.subjectGraphName = subjectGraphName;
+		this.subjectIsBaseGraph = subjectIsBaseGraph;
+		this.targetGraphName = targetGraphName;
+		this.edgeLabelsPropertyName = edgeLabelsPropertyName;
+		this.subjectLabel = Label.label(subjectGraphName);
+		this.targetLabel = Label.label(targetGraphName);
+		this.subjectEdgeLabel = "," + subjectGraphName + ",";
+		this.targetEdgeLabel = "," + targetGraphName + ",";
+	}
+
+	protected final boolean isSubjectVertex(final Node node){
+		return node.hasLabel(subjectLabel);
+	}
+
+	protected final boolean isSubjectEdge(final Relationship relationship){
+		if(subjectIsBaseGraph){
+			return true;
+		}
+		final Object value = relationship.getProperty(edgeLabelsPropertyName, null);
+		return value != null && value.toString().contains(subjectEdgeLabel);
+	}
+
+	protected final void addToTarget(final Node node){
+		if(!node.hasLabel(targetLabel)){
+			node.addLabel(targetLabel);
+		}
+	}
+
+	// Same value as set by the Cypher queries: ',a,' followed by ',b,' and so on
+	protected final void addToTarget(final Relationship relationship){
+		final Object value = relationship.getProperty(edgeLabelsPropertyName, null);
+		if(value == null){
+			relationship.setProperty(edgeLabelsPropertyName, targetEdgeLabel);
+		}else{
+			final String labels = value.toString();
+			if(!labels.contains(targetEdgeLabel)){
+				relationship.setProperty(edgeLabelsPropertyName, labels + targetEdgeLabel);
+			}
+		}
+	}
+
+	/**
+	 * Visits the subject vertices reachable from the subject vertices with the start label within the max depth.
+	 * 
+	 * If 'label' is true then all the visited vertices and the traversed edges are added to the target graph.
+	 * The writes for a level are done after the level has been expanded.
+	 * 
+	 * @return map from node id to the distance from the nearest start vertex
+	 */
+	protected final Map<Long, Integer> breadthFirst(final Transaction tx, final String startGraphName,
+			final Direction direction, final int maxDepth, final boolean label){
+		final Map<Long, Integer> distances = new HashMap<Long, Integer>();
+		List<Node> frontier = new ArrayList<Node>();
+		final ResourceIterator<Node> startNodes = tx.findNodes(Label.label(startGraphName));
+		try{
+			while(startNodes.hasNext()){
+				final Node node = startNodes.next();
+				if(isSubjectVertex(node) && distances.putIfAbsent(node.getId(), 0) == null){
+					frontier.add(node);
+				}
+			}
+		}finally{
+			startNodes.close();
+		}
+		if(label){
+			for(final Node node : frontier){
+				addToTarget(node);
+			}
+		}
+
+		final List<Relationship> traversed = new ArrayList<Relationship>();
+		for(int depth = 0; depth < maxDepth && !frontier.isEmpty(); depth++){
+			final List<Node> next = new ArrayList<Node>();
+			for(final Node node : frontier){
+				for(final Relationship relationship : node.getRelationships(direction)){
+					if(!isSubjectEdge(relationship)){
+						continue;
+					}
+					final Node other = relationship.getOtherNode(node);
+					if(!isSubjectVertex(other)){
+						continue;
+					}
+					if(label){
+						traversed.add(relationship);
+					}
+					if(distances.putIfAbsent(other.getId(), depth + 1) == null){
+						next.add(other);
+					}
+				}
+			}
+			if(label){
+				for(final Node node : next){
+					addToTarget(node);
+				}
+				for(final Relationship relationship : traversed){
+					addToTarget(relationship);
+				}
+				traversed.clear();
+			}
+			frontier = next;
+		}
+		return distances;
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.postgresql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * Streams rows into PostgreSQL tables with 'COPY ... FROM STDIN' over the JDBC connection.
+ *
+ * Rows are encoded in the COPY text format into an in-memory batch. A full batch is handed to a
+ * single background thread which copies it (and the primary keys of its rows into the base graph
+ * table) and commits, while the caller fills the next batch. At most one batch is in flight.
+ *
+ * The connection is not thread-safe. Any other use of the connection must be preceded by a call
+ * to {@link #awaitInFlight()}.
+ */
+public class PostgreSQLCopyLoader{
+
+	private static final int chunkSize = 64 * 1024;
+
+	private final Logger logger = Logger.getLogger(PostgreSQLCopyLoader.class.getName());
+
+	private final Connection connection;
+	private final CopyManager copyManager;
+	private final ExecutorService executor;
+
+	private Future<?> inFlight = null;
+	private Batch inFlightBatch = null;
+	private CopyEncoder spareRowEncoder = null, spareKeyEncoder = null;
+
+	public PostgreSQLCopyLoader(final Connection connection) throws SQLException{
+		this.connection = connection;
+		this.copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+			@Override
+			public Thread newThread(final Runnable runnable){
+				final Thread thread = new Thread(runnable, "PostgreSQL-CopyLoader");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @param table Table to copy the rows into
+	 * @param columns Columns of the table in the order in which row values are encoded
+	 * @param keyColumn Column whose values are also copied into the base graph table
+	 * @param baseGraphTable Table with the single column 'keyColumn'
+	 * @return An empty batch
+	 */
+	public synchronized Batch newBatch(final String table, final List<String> columns,
+			final String keyColumn, final String baseGraphTable){
+		final CopyEncoder rowEncoder = spareRowEncoder == null ? new CopyEncoder() : spareRowEncoder;
+		final CopyEncoder keyEncoder = spareKeyEncoder == null ? new CopyEncoder() : spareKeyEncoder;
+		spareRowEncoder = spareKeyEncoder = null;
+		return new Batch(table, columns, keyColumn, baseGraphTable, rowEncoder, keyEncoder);
+	}
+
+	/**
+	 * Waits for the batch in flight (if any) and then starts copying the given batch in the background.
+	 *
+	 * @param batch The batch to copy. Must not be used by the caller after this
+	 * @param onCompletion Called by the background thread with the result after the batch has been committed
+	 */
+	public synchronized void submit(final Batch batch, final CompletionListener onCompletion){
+		awaitInFlight();
+		if(batch.size() == 0){
+			recycle(batch);
+			return;
+		}
+		inFlight = executor.submit(new Runnable(){
+			@Override
+			public void run(){
+				boolean success = false;
+				try{
+					copy(batch);
+					connection.commit();
+					success = true;
+				}catch(Exception e){
+					logger.log(Level.SEVERE, "Failed to copy " + batch.size() + " row(s) into table '" + batch.table + "'", e);
+					try{
+						connection.rollback();
+					}catch(SQLException rollbackException){
+						logger.log(Level.WARNING, "Failed to rollback", rollbackException);
+					}
+				}
+				if(onCompletion != null){
+					onCompletion.completed(batch.table, batch.size(), success);
+				}
+			}
+		});
+		inFlightBatch = batch;
+	}
+
+	/**
+	 * Waits for the batch in flight (if any) to be committed.
+	 */
+	public synchronized void awaitInFlight(){
+		if(inFlight != null){
+			try{
+				inFlight.get();
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+				logger.log(Level.WARNING, "Interrupted while waiting for copy to finish");
+			}catch(ExecutionException e){
+				logger.log(Level.SEVERE, "Copy failed", e.getCause());
+			}
+			inFlight = null;
+			// Reuse the buffers for the next batch
+			recycle(inFlightBatch);
+			inFlightBatch = null;
+		}
+	}
+
+	/**
+	 * Waits for the batch in flight and stops the background thread.
+	 */
+	public synchronized void shutdown(){
+		awaitInFlight();
+		executor.shutdown();
+	}
+
+	private void copy(final Batch batch) throws SQLException{
+		copy("COPY " + batch.table + " (" + quoteColumns(batch.columns) + ") FROM STDIN", batch.rowEncoder);
+		if(batch.baseGraphTable != null){
+			copy("COPY " + batch.baseGraphTable + " (" + quoteColumns(Arrays.asList(batch.keyColumn)) + ") FROM STDIN",
+					batch.keyEncoder);
+		}
+	}
+
+	private void copy(final String sql, final CopyEncoder encoder) throws SQLException{
+		final CopyIn copyIn = copyManager.copyIn(sql);
+		try{
+			for(int offset = 0; offset < encoder.length; offset += chunkSize){
+				copyIn.writeToCopy(encoder.bytes, offset, Math.min(chunkSize, encoder.length - offset));
+			}
+			copyIn.endCopy();
+		}finally{
+			if(copyIn.isActive()){
+				copyIn.cancelCopy();
+			}
+		}
+	}
+
+	private void recycle(final Batch batch){
+		batch.rowEncoder.reset();
+		batch.keyEncoder.reset();
+		spareRowEncoder = batch.rowEncoder;
+		spareKeyEncoder = batch.keyEncoder;
+	}
+
+	private static String quoteColumns(final List<String> columns){
+		final StringBuilder string = new StringBuilder();
+		for(final String column : columns){
+			if(string.length() > 0){
+				string.append(", ");
+			}
+			string.append('"').append(column.replace("\"", "\"\"")).append('"');
+		}
+		return string.toString();
+	}
+
+	public static interface CompletionListener{
+		public void completed(String table, int rows, boolean success);
+	}
+
+	/**
+	 * Rows for a single table with a fixed set of columns.
+	 */
+	public static final class Batch{
+		private final String table;
+		private final List<String> columns;
+		private final String keyColumn;
+		private final String baseGraphTable;
+		private final CopyEncoder rowEncoder;
+		private final CopyEncoder keyEncoder;
+		private int rows = 0;
+
+		private Batch(final String table, final List<String> columns, final String keyColumn, final String baseGraphTable,
+				final CopyEncoder rowEncoder, final CopyEncoder keyEncoder){
+			this.table = table;
+			this.columns = new ArrayList<String>(columns);
+			this.keyColumn = keyColumn;
+			this.baseGraphTable = baseGraphTable;
+			this.rowEncoder = rowEncoder;
+			this.keyEncoder = keyEncoder;
+		}
+
+		/**
+		 * Encodes the row. Columns missing in the row are copied as NULL.
+		 * Keys in the row which are not a column of the batch are ignored.
+		 *
+		 * @param row Map from column name to value
+		 */
+		public void add(final Map<String, String> row){
+			for(int i = 0; i < columns.size(); i++){
+				if(i > 0){
+					rowEncoder.putByte('\t');
+				}
+				rowEncoder.putValue(row.get(columns.get(i)));
+			}
+			rowEncoder.putByte('\n');
+			if(baseGraphTable != null){
+				keyEncoder.putValue(row.get(keyColumn));
+				keyEncoder.putByte('\n');
+			}
+			rows++;
+		}
+
+		public boolean hasColumn(final String column){
+			return columns.contains(column);
+		}
+
+		public int size(){
+			return rows;
+		}
+	}
+
+	/**
+	 * Growable UTF-8 buffer of values in the COPY text format.
+	 */
+	private static final class CopyEncoder{
+		private byte[] bytes = new byte[chunkSize];
+		private int length = 0;
+
+		private void reset(){
+			length = 0;
+		}
+
+		private void ensureCapacity(final int additional){
+			if(length + additional > bytes.length){
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + additional));
+			}
+		}
+
+		private void putByte(final char c){
+			ensureCapacity(1);
+			bytes[length++] = (byte)c;
+		}
+
+		private void putValue(final String value){
+			if(value == null){
+				ensureCapacity(2);
+				bytes[length++] = '\\';
+				bytes[length++] = 'N';
+				return;
+			}
+			// At most 3 bytes per char (a surrogate pair is 4 bytes for 2 chars), and 2 when escaped
+			ensureCapacity(value.length() * 3);
+			for(int i = 0; i < value.length(); i++){
+				final char c = value.charAt(i);
+				if(c < 0x80){
+					switch(c){
+						case '\\': bytes[length++] = '\\'; bytes[length++] = '\\'; break;
+						case '\n': bytes[length++] = '\\'; bytes[length++] = 'n'; break;
+						case '\r': bytes[length++] = '\\'; bytes[length++] = 'r'; break;
+						case '\t': bytes[length++] = '\\'; bytes[length++] = 't'; break;
+						case '\0': break; // Not allowed in text by the server
+						default: bytes[length++] = (byte)c; break;
+					}
+				}else if(c < 0x800){
+					bytes[length++] = (byte)(0xC0 | (c >> 6));
+					bytes[length++] = (byte)(0x80 | (c & 0x3F));
+				}else if(Character.isHighSurrogate(c) && i + 1 < value.length()
+						&& Character.isLowSurrogate(value.charAt(i + 1))){
+					final int codePoint = Character.toCodePoint(c, value.charAt(++i));
+					bytes[length++] = (byte)(0xF0 | (codePoint >> 18));
+					bytes[length++] = (byte)(0x80 | ((codePoint >> 12) & 0x3F));
+					bytes[length++] = (byte)(0x80 | ((codePoint >> 6) & 0x3F));
+					bytes[length++] = (byte)(0x80 | (codePoint & 0x3F));
+				}else if(Character.isSurrogate(c)){
+					bytes[length++] = '?'; // Same as String.getBytes for an unpaired surrogate
+				}else{
+					bytes[length++] = (byte)(0xE0 | (c >> 12));
+					bytes[length++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+					bytes[length++] = (byte)(0x80 | (c & 0x3F));
+				}
+			}
+		}
+	}
+}
@@ -22,11 +22,13 @@ package spade.storage.postgresql;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import spade.core.AbstractStorage;
+import spade.query.quickgrail.core.ExportCursor;
 import spade.query.quickgrail.core.GraphDescription;
 import spade.query.quickgrail.core.GraphStats;
 import spade.query.quickgrail.core.QueriedEdge;
@@ -815,16 +817,31 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		dropTable(answerTable);
 	}
 
-	@Override
-	public Map<String, Map<String, String>> exportVertices(ExportGraph instruction){
-		String targetVertexTable = getVertexTableName(instruction.targetGraph);
-		
-		List<List<String>> verticesListOfList = executeQueryForResult("select * from " + getVertexAnnotationTableName() 
-				+ " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from "+targetVertexTable+")", true);
+	/*
+	 * Vertices (or edges) of the graph in the order of the id, only the ones after the given hash if not null, and
+	 * at most 'limit' if greater than 0
+	 */
+	private String getExportQuery(final String annotationTableName, final String graphTableName,
+			final String afterHash, final int limit){
+		String query = "select * from " + annotationTableName + " where " + getIdColumnName() + " in (select "
+				+ getIdColumnName() + " from " + graphTableName + ")";
+		if(afterHash != null){
+			// The hash is the uuid without the dashes which is a valid uuid value too
+			query += " and " + getIdColumnName() + " > '" + afterHash + "'";
+		}
+		if(limit > 0){
+			query += " order by " + getIdColumnName() + " limit " + limit;
+		}
+		return query;
+	}
+
+	// In the order of the result
+	private Map<String, Map<String, String>> readVertices(final String query){
+		List<List<String>> verticesListOfList = executeQueryForResult(query, true);
 		
 		List<String> vertexHeader = verticesListOfList.remove(0); // remove the header
 		
-		Map<String, Map<String, String>> hashToVertexMap = new HashMap<String, Map<String, String>>();
+		Map<String, Map<String, String>> hashToVertexMap = new LinkedHashMap<String, Map<String, String>>();
 		
 		for(List<String> vertexList : verticesListOfList){
 			String hash = null;
@@ -844,26 +861,23 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		}
 		return hashToVertexMap;
 	}
-	
-	@Override
-	public Set<QueriedEdge> exportEdges(ExportGraph instruction){
-		String targetEdgeTable = getEdgeTableName(instruction.targetGraph);
-		
-		List<List<String>> edgesListOfList = executeQueryForResult("select * from " + getEdgeAnnotationTableName() 
-		+ " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from "+targetEdgeTable+")", true);
+
+	// In the order of the result
+	private List<QueriedEdge> readEdges(final String query){
+		List<List<String>> edgesListOfList = executeQueryForResult(query, true);
 
 		List<String> edgeHeader = edgesListOfList.remove(0); // remove the header
 		
-		Set<QueriedEdge> edgeSet = new HashSet<QueriedEdge>();
+		List<QueriedEdge> edgeList = new ArrayList<QueriedEdge>();
 		
-		for(List<String> edgeList : edgesListOfList){
+		for(List<String> edgeValues : edgesListOfList){
 			String hash = null;
 			String childHash = null;
 			String parentHash = null;
 			Map<String, String> annotations = new HashMap<String, String>();
 			for(int i = 0; i < edgeHeader.size(); i++){
 				String annotationKey = edgeHeader.get(i);
-				String annotationValue = edgeList.get(i);
+				String annotationValue = edgeValues.get(i);
 				if(annotationKey.equals(getIdColumnName())){
 					hash = annotationValue.replaceAll("\\-", "");
 				}else if(annotationKey.equals(getIdColumnNameChildVertex())){
@@ -876,10 +890,56 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 					}
 				}
 			}
-			edgeSet.add(new QueriedEdge(hash, childHash, parentHash, annotations));
+			edgeList.add(new QueriedEdge(hash, childHash, parentHash, annotations));
 		}
 		
-		return edgeSet;
+		return edgeList;
+	}
+
+	@Override
+	public Map<String, Map<String, String>> exportVertices(ExportGraph instruction){
+		return readVertices(getExportQuery(getVertexAnnotationTableName(), getVertexTableName(instruction.targetGraph),
+				null, 0));
+	}
+	
+	@Override
+	public Set<QueriedEdge> exportEdges(ExportGraph instruction){
+		return new HashSet<QueriedEdge>(readEdges(getExportQuery(getEdgeAnnotationTableName(),
+				getEdgeTableName(instruction.targetGraph), null, 0)));
+	}
+
+	/**
+	 * Reads a page of vertices (and then edges) per chunk, in the order of the id, starting after the last id read.
+	 * Nothing is kept open between the chunks.
+	 */
+	@Override
+	public ExportCursor exportGraphCursor(final ExportGraph instruction){
+		final String vertexTable = getVertexTableName(instruction.targetGraph);
+		final String edgeTable = getEdgeTableName(instruction.targetGraph);
+		return new ExportCursor(){
+			private static final long serialVersionUID = -2519386390327462270L;
+			private String lastVertexHash = null, lastEdgeHash = null;
+
+			@Override
+			protected Map<String, Map<String, String>> nextVertices(final int max){
+				final Map<String, Map<String, String>> vertices = readVertices(
+						getExportQuery(getVertexAnnotationTableName(), vertexTable, lastVertexHash, max));
+				for(final String hash : vertices.keySet()){
+					lastVertexHash = hash;
+				}
+				return vertices;
+			}
+
+			@Override
+			protected List<QueriedEdge> nextEdges(final int max){
+				final List<QueriedEdge> edges = readEdges(
+						getExportQuery(getEdgeAnnotationTableName(), edgeTable, lastEdgeHash, max));
+				if(!edges.isEmpty()){
+					lastEdgeHash = edges.get(edges.size() - 1).edgeHash;
+				}
+				return edges;
+			}
+		};
 	}
 
 	@Override
@@ -945,100 +1005,98 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 		executeQueryForResult(query, false);
 	}
 	
-	@Override
-	public void getShortestPath(GetShortestPath instruction){
-		String filter;
-		dropTable("m_conn");
-		noResultExecuteQuery("create table m_conn ("+getIdColumnNameChildVertex()+" uuid, "+getIdColumnNameParentVertex()+" uuid)");
-		if(queryEnvironment.isBaseGraph(instruction.subjectGraph)){
-			filter = "";
-			noResultExecuteQuery("insert into m_conn select \"" + getIdColumnNameChildVertex() + "\", \"" + getIdColumnNameParentVertex() + "\" "
-					+ "from " + getEdgeAnnotationTableName() + " group by \"" + getIdColumnNameChildVertex() + "\", \"" + getIdColumnNameParentVertex() + "\"");
-		}else{
-			String subjectEdgeTable = getEdgeTableName(instruction.subjectGraph);
-			filter = " and "+getEdgeAnnotationTableName()+".\""+getIdColumnName()+"\" in (select "+getIdColumnName()+" from " + subjectEdgeTable + ")";
-			dropTable("m_sgedge");
-			noResultExecuteQuery("create table m_sgedge ("+getIdColumnNameChildVertex()+" uuid, "+getIdColumnNameParentVertex()+" uuid)");
-			noResultExecuteQuery("insert into m_sgedge select \"" + getIdColumnNameChildVertex() + "\", \"" + getIdColumnNameParentVertex() + "\" "
-					+ "from " + getEdgeAnnotationTableName() + " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from "
-					+ subjectEdgeTable + ")");
-			noResultExecuteQuery("insert into m_conn select "+getIdColumnNameChildVertex()+", "+getIdColumnNameParentVertex()+" from "
-					+ "m_sgedge group by " + getIdColumnNameChildVertex() + ", " + getIdColumnNameParentVertex());
-			dropTable("m_sgedge");
-		}
-		// Create subgraph edges table.
-		dropTable("m_sgconn");
-		noResultExecuteQuery("create table m_sgconn ("+getIdColumnNameChildVertex()+" uuid, "+getIdColumnNameParentVertex()+" uuid,"
-				+ "reaching uuid, depth int)");
-		
-		dropTable("m_cur"); dropTable("m_next"); dropTable("m_answer");
-		noResultExecuteQuery("create table m_cur ("+getIdColumnName()+" uuid, reaching uuid)");
-		noResultExecuteQuery("create table m_next ("+getIdColumnName()+" uuid, reaching uuid)");
-		noResultExecuteQuery("create table m_answer ("+getIdColumnName()+" uuid)");
-
-		noResultExecuteQuery("insert into m_cur select "+getIdColumnName()+", " + getIdColumnName() + " from " 
-				+ getVertexTableName(instruction.dstGraph));
-		noResultExecuteQuery("insert into m_answer select " + getIdColumnName() + " from m_cur group by " + getIdColumnName());
-		
-		for(int i = 0; i < instruction.maxDepth; ++i){
-			noResultExecuteQuery(
-					"insert into m_sgconn select " + getIdColumnNameChildVertex() + ", " + getIdColumnNameParentVertex() + ", reaching, "+String.valueOf(i + 1)+" "
-					+ "from m_cur, m_conn where " + getIdColumnName() + " = " + getIdColumnNameParentVertex());
-			dropTable("m_next");
-			noResultExecuteQuery("create table m_next ("+getIdColumnName()+" uuid, reaching uuid)");
-			noResultExecuteQuery("insert into m_next select " + getIdColumnNameChildVertex() + ", reaching from "
-				+ "m_cur, m_conn where "+getIdColumnName()+" = " + getIdColumnNameParentVertex());
-			dropTable("m_cur");
-			noResultExecuteQuery("create table m_cur ("+getIdColumnName()+" uuid, reaching uuid)");
-			noResultExecuteQuery("insert into m_cur select " + getIdColumnName() + ", reaching from m_next where "
-				+ getIdColumnName() + " not in (select "+getIdColumnName()+" from m_answer) group by " + getIdColumnName() + ", reaching");
-			noResultExecuteQuery("insert into m_answer select " + getIdColumnName() + " from m_cur group by " + getIdColumnName());
-
-			List<List<String>> countResult = executeQueryForResult("select count(*) from m_cur", false);
-			long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
-			if(cursorTableCount == 0){
-				break;
-			}
+	/**
+	 * Filter on the edges (aliased as 'e') to keep only the edges in the given subject graph
+	 */
+	private String getSubjectEdgeFilter(Graph subjectGraph){
+		if(queryEnvironment.isBaseGraph(subjectGraph)){
+			return "";
 		}
+		return " and e." + getIdColumnName() + " in (select " + getIdColumnName() + " from "
+				+ getEdgeTableName(subjectGraph) + ")";
+	}
 
-		dropTable("m_cur"); dropTable("m_next");
-		noResultExecuteQuery("create table m_cur ("+getIdColumnName()+" uuid)");
-		noResultExecuteQuery("create table m_next ("+getIdColumnName()+" uuid)");
-
-		noResultExecuteQuery("insert into m_cur select " + getIdColumnName() + " from " + getVertexTableName(instruction.srcGraph)
-				+ " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from m_answer)");
-
-		dropTable("m_answer");
-		noResultExecuteQuery("create table m_answer ("+getIdColumnName()+" uuid)");
-		noResultExecuteQuery("insert into m_answer select " + getIdColumnName() + " from m_cur");
-
-		for(int i = 0; i < instruction.maxDepth; ++i){
-			dropTable("m_next");
-			noResultExecuteQuery("create table m_next ("+getIdColumnName()+" uuid)");
-			noResultExecuteQuery("insert into m_next select min(" + getIdColumnNameParentVertex() + "::text)::uuid" // TODO as?
-					+ " from m_cur, m_sgconn where " + getIdColumnName() + " = " + getIdColumnNameChildVertex() + " and depth + " + String.valueOf(i) 
-					+ " <= " + String.valueOf(instruction.maxDepth) + " group by " + getIdColumnNameChildVertex() + ", reaching");
-			dropTable("m_cur");
-			noResultExecuteQuery("create table m_cur ("+getIdColumnName()+" uuid)");
-			noResultExecuteQuery("insert into m_cur select "+getIdColumnName()+" from m_next where "
-					+getIdColumnName()+" not in (select "+getIdColumnName()+" from m_answer)");
-			noResultExecuteQuery("insert into m_answer select "+getIdColumnName()+" from m_cur");
-			
-			List<List<String>> countResult = executeQueryForResult("select count(*) from m_cur", false);
-			long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
-			if(cursorTableCount == 0){
-				break;
-			}
-		}
+	/*
+	 * The shortest path, the lineage and the path are each a single statement. The traversals are breadth-first recursive
+	 * queries with one row per depth (see getBreadthFirstQueries). A vertex is only expanded at the depth where it is
+	 * first reached which stops the traversals on cycles. The vertices and the edges are inserted into the target graph
+	 * by the same statement so that no intermediate tables are needed.
+	 */
+
+	/**
+	 * Two queries for a 'with recursive'. The first one ('&lt;name&gt;_bfs') has one row per depth with the vertices first
+	 * reached at that depth ('frontier') and all the vertices reached until that depth ('visited'). Only the frontier is
+	 * expanded and the visited vertices are excluded from the next frontier. The second one ('&lt;name&gt;(&lt;id&gt;, depth)')
+	 * has one row for each reached vertex with its minimum depth.
+	 *
+	 * @param name Name of the query with the reached vertices
+	 * @param startQuery Query with the start vertices in the column '&lt;id&gt;'
+	 * @param src Quoted edge column of the vertex to go from
+	 * @param dst Quoted edge column of the vertex to go to
+	 * @param maxDepth Maximum depth
+	 * @param join Additional tables for the expansion (starting with ', '). Empty if none
+	 * @param condition Additional condition for the expansion (starting with ' and ') where 'b.depth' is the depth of
+	 * the vertex being expanded. Empty if none
+	 * @param filter The subject edge filter
+	 */
+	private String getBreadthFirstQueries(final String name, final String startQuery, final String src, final String dst,
+			final int maxDepth, final String join, final String condition, final String filter){
+		final String id = getIdColumnName();
+		final String bfs = name + "_bfs";
+		return bfs + "(frontier, visited, depth) as (select array_agg(distinct s." + id + "), array_agg(distinct s." + id + "), 0"
+				+ " from (" + startQuery + ") s"
+				+ " union all select n.next, b.visited || n.next, b.depth + 1 from " + bfs + " b,"
+				+ " lateral (select array_agg(distinct e." + dst + ") as next from " + getEdgeAnnotationTableName() + " e"
+				+ " left join unnest(b.visited) v(" + id + ") on v." + id + " = e." + dst + join
+				+ " where e." + src + " = any(b.frontier) and v." + id + " is null" + condition + filter + ") n"
+				+ " where b.depth < " + maxDepth + " and cardinality(b.frontier) > 0), "
+				+ name + "(" + id + ", depth) as (select f." + id + ", b.depth from " + bfs + " b, unnest(b.frontier) f(" + id + ")), ";
+	}
 
-		String targetVertexTable = getVertexTableName(instruction.targetGraph);
-		String targetEdgeTable = getEdgeTableName(instruction.targetGraph);
+	/**
+	 * For each pair of vertices in source and destination, a shortest path (of length at most maxDepth) from the source
+	 * to the destination. Ties are broken by picking the smallest parent vertex id.
+	 */
+	@Override
+	public void getShortestPath(GetShortestPath instruction){
+		final int maxDepth = instruction.maxDepth;
+		final String id = getIdColumnName();
+		final String childId = "\"" + getIdColumnNameChildVertex() + "\"";
+		final String parentId = "\"" + getIdColumnNameParentVertex() + "\"";
+		final String filter = getSubjectEdgeFilter(instruction.subjectGraph);
+		final String targetVertexTable = getVertexTableName(instruction.targetGraph);
+		final String targetEdgeTable = getEdgeTableName(instruction.targetGraph);
 
-		noResultExecuteQuery("insert into " + targetVertexTable + " select " + getIdColumnName() + " from m_answer");
-		noResultExecuteQuery("insert into " + targetEdgeTable + " select \"" + getIdColumnName() + "\" from " + getEdgeAnnotationTableName()
-			+ " where \"" + getIdColumnNameChildVertex() + "\" in (select "+getIdColumnName()+" from m_answer)"
-			+ " and \"" + getIdColumnNameParentVertex() + "\" in (select "+getIdColumnName()+" from m_answer) " + filter);
-		dropTable("m_cur");dropTable("m_next");dropTable("m_answer");dropTable("m_conn");dropTable("m_sgconn");
+		final String query = "with recursive "
+				// Connections in the subject graph
+				+ "m_conn(child, parent) as (select e." + childId + ", e." + parentId + " from " + getEdgeAnnotationTableName() + " e"
+				+ " where true" + filter + " group by e." + childId + ", e." + parentId + "), "
+				// Distance of a vertex to each of the reachable destination vertices ('reaching'). Breadth-first (like
+				// getBreadthFirstQueries) with (vertex, reaching) pairs as two arrays of the same length
+				+ "m_back(ids, reaching, visited_ids, visited_reaching, depth) as (select array_agg(s." + id + "), array_agg(s." + id + "),"
+				+ " array_agg(s." + id + "), array_agg(s." + id + "), 0 from (select " + id + " from " + getVertexTableName(instruction.dstGraph)
+				+ " group by " + id + ") s"
+				+ " union all select n.ids, n.reaching, b.visited_ids || n.ids, b.visited_reaching || n.reaching, b.depth + 1 from m_back b,"
+				+ " lateral (select array_agg(x.child) as ids, array_agg(x.reaching) as reaching from (select c.child, f.reaching"
+				+ " from unnest(b.ids, b.reaching) f(" + id + ", reaching) join m_conn c on c.parent = f." + id
+				+ " left join unnest(b.visited_ids, b.visited_reaching) v(" + id + ", reaching) on v." + id + " = c.child and v.reaching = f.reaching"
+				+ " where v." + id + " is null group by c.child, f.reaching) x) n"
+				+ " where b.depth < " + maxDepth + " and cardinality(b.ids) > 0), "
+				+ "m_distance(" + id + ", reaching, distance) as (select f." + id + ", f.reaching, b.depth from m_back b,"
+				+ " unnest(b.ids, b.reaching) f(" + id + ", reaching)), "
+				// The next vertex on a shortest path to each destination vertex
+				+ "m_step(child, reaching, parent) as (select c.child, dc.reaching, min(c.parent::text)::uuid"
+				+ " from m_conn c, m_distance dc, m_distance dp where dc." + id + " = c.child and dp." + id + " = c.parent"
+				+ " and dp.reaching = dc.reaching and dp.distance = dc.distance - 1 group by c.child, dc.reaching), "
+				+ "m_path(" + id + ", reaching) as (select d." + id + ", d.reaching from " + getVertexTableName(instruction.srcGraph) + " s,"
+				+ " m_distance d where d." + id + " = s." + id
+				+ " union select st.parent, p.reaching from m_path p, m_step st"
+				+ " where st.child = p." + id + " and st.reaching = p.reaching), "
+				+ "m_insert_vertices as (insert into " + targetVertexTable + " select " + id + " from m_path group by " + id + ") "
+				+ "insert into " + targetEdgeTable + " select e." + id + " from " + getEdgeAnnotationTableName() + " e"
+				+ " where e." + childId + " in (select " + id + " from m_path)"
+				+ " and e." + parentId + " in (select " + id + " from m_path)" + filter + ";";
+		noResultExecuteQuery(query);
 	}
 	
 	@Override
@@ -1051,173 +1109,63 @@ public class PostgreSQLInstructionExecutor extends QueryInstructionExecutor{
 			directions.add(instruction.direction);
 		}
 
+		final int depth = instruction.depth;
+		final String id = getIdColumnName();
+		final String filter = getSubjectEdgeFilter(instruction.subjectGraph);
+		final String startVertexTable = getVertexTableName(instruction.startGraph);
 		final String targetVertexTable = getVertexTableName(instruction.targetGraph);
 		final String targetEdgeTable = getEdgeTableName(instruction.targetGraph);
-		final String subjectEdgeTable = getEdgeTableName(instruction.subjectGraph);
-		final String currentTable = "m_cur";
-		final String nextTable = "m_next";
-		final String answerTable = "m_answer";
-		final String answerEdgeTable = "m_answer_edge";
-		
-		final String filter = queryEnvironment.isBaseGraph(instruction.subjectGraph) ? ""
-				: " and " + getEdgeAnnotationTableName() + "." + getIdColumnName() 
-				+ " in (select "+getIdColumnName()+" from "+subjectEdgeTable+")";
 
+		String query = "with recursive ";
+		String vertexQuery = "", edgeQuery = "";
 		for(final Direction direction : directions){
 			if(direction != Direction.kAncestor && direction != Direction.kDescendant){
 				throw new RuntimeException("Unexpected direction: " + direction);
 			}
-			final String startVertexTable = getVertexTableName(instruction.startGraph);
-			final String src = direction == Direction.kAncestor ? getIdColumnNameChildVertex() : getIdColumnNameParentVertex();
-			final String dst = direction == Direction.kAncestor ? getIdColumnNameParentVertex() : getIdColumnNameChildVertex();
-			
-			createUUIDTable(currentTable, true);
-			createUUIDTable(nextTable, true);
-			createUUIDTable(answerTable, true);
-			createUUIDTable(answerEdgeTable, true);
+			final String src = "\"" + (direction == Direction.kAncestor ? getIdColumnNameChildVertex() : getIdColumnNameParentVertex()) + "\"";
+			final String dst = "\"" + (direction == Direction.kAncestor ? getIdColumnNameParentVertex() : getIdColumnNameChildVertex()) + "\"";
+			final String lineageTable = direction == Direction.kAncestor ? "m_ancestors" : "m_descendants";
 
-			executeQueryForResult("insert into "+currentTable+" select "+getIdColumnName()+" from " + startVertexTable + ";", false);
-			executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";", false);
+			// Vertices with the (minimum) depth at which reached
+			query += getBreadthFirstQueries(lineageTable, "select " + id + " from " + startVertexTable, src, dst, depth, "", "", filter);
 
-			for(int i = 0; i < instruction.depth; ++i){
-				createUUIDTable(nextTable, true);
-				executeQueryForResult("insert into " + nextTable + " select \"" + dst + "\" from " + getEdgeAnnotationTableName()
-					+ " where \"" + src + "\" in (select "+getIdColumnName()+" from "+currentTable+")"
-					+ " " + filter + " group by \"" + dst + "\";", false);
-				executeQueryForResult("insert into " + answerEdgeTable + " select " + getIdColumnName() + " from " + getEdgeAnnotationTableName()
-					+ " where \"" + src + "\" in (select "+getIdColumnName()+" from "+currentTable+") " + filter + ";", false);
-				createUUIDTable(currentTable, true);
-				executeQueryForResult("insert into " + currentTable + " select " + getIdColumnName() + " from " + nextTable
-						+ " where " + getIdColumnName() + " not in (select "+getIdColumnName()+" from "+answerTable+");", false);
-				executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";", 
-						false);
-
-				List<List<String>> countResult = executeQueryForResult("select count(*) from "+currentTable+";", false);
-				long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
-				if(cursorTableCount == 0){
-					break;
-				}
-			}
-
-			executeQueryForResult("insert into " + targetVertexTable 
-					+ " select " + getIdColumnName() + " from " + answerTable + ";", false);
-			executeQueryForResult("insert into " + targetEdgeTable 
-					+ " select " + getIdColumnName() + " from " + answerEdgeTable + " group by " + getIdColumnName() + ";", false);
+			vertexQuery += (vertexQuery.isEmpty() ? "" : " union ") + "select " + id + " from " + lineageTable;
+			// Edges going out of the vertices reached before the max depth
+			edgeQuery += (edgeQuery.isEmpty() ? "" : " union ") + "select e." + id + " from " + getEdgeAnnotationTableName() + " e"
+					+ " where e." + src + " in (select " + id + " from " + lineageTable + " where depth < " + depth + ")" + filter;
 		}
 
-		dropTable(currentTable);
-		dropTable(nextTable);
-		dropTable(answerEdgeTable);
-		dropTable(answerTable);
+		query += "m_insert_vertices as (insert into " + targetVertexTable + " " + vertexQuery + ") "
+				+ "insert into " + targetEdgeTable + " " + edgeQuery + ";";
+		noResultExecuteQuery(query);
 	}
 	
 	@Override
 	public void getPath(GetSimplePath instruction){
 		final int maxDepth = instruction.maxDepth;
-		
-		final String depthColumnName = "depth";
-		final String currentTable = "m_cur";
-		final String nextTable = "m_next";
-		final String answerTable = "m_answer";
-		final String currentSubgraphTable = "m_sgconn";
-		
+		final String id = getIdColumnName();
+		final String childId = "\"" + getIdColumnNameChildVertex() + "\"";
+		final String parentId = "\"" + getIdColumnNameParentVertex() + "\"";
+		final String filter = getSubjectEdgeFilter(instruction.subjectGraph);
 		final String targetVertexTable = getVertexTableName(instruction.targetGraph);
 		final String targetEdgeTable = getEdgeTableName(instruction.targetGraph);
-		final String subjectEdgeTable = getEdgeTableName(instruction.subjectGraph);
-		final String dstVertexTable = getVertexTableName(instruction.dstGraph);
-		final String srcVertexTable = getVertexTableName(instruction.srcGraph);
-		
-		createUUIDTable(currentTable, true);
-		createUUIDTable(nextTable, true);
-		createUUIDTable(answerTable, true);
-		
-		dropTable(currentSubgraphTable);
-		executeQueryForResult("create table " + currentSubgraphTable + "("
-				+ "\""+getIdColumnNameChildVertex()+"\" uuid, "
-				+ "\""+getIdColumnNameParentVertex()+"\" uuid, "
-				+ depthColumnName + " int);", false);
-
-		executeQueryForResult("insert into "+currentTable+" select "+getIdColumnName()+" from " + dstVertexTable, false);
-		executeQueryForResult("insert into "+answerTable+" select "+getIdColumnName()+" from " + currentTable, false);
-		
-		final String filter = queryEnvironment.isBaseGraph(instruction.subjectGraph) 
-				? "" : " and "+getEdgeAnnotationTableName()+"."+getIdColumnName()+" in (select "+getIdColumnName()+" from " + subjectEdgeTable + ")";
-		
-		final String q0 = "insert into " + currentSubgraphTable + " select \"" + getIdColumnNameChildVertex() + "\", \""
-				+ getIdColumnNameParentVertex() + "\", %s from " + getEdgeAnnotationTableName() + " where \""
-				+ getIdColumnNameParentVertex() + "\" in (select " + getIdColumnName() + " from " + currentTable + ")"
-				+ " " + filter + ";";
-		final String q1 = ""; // createUUIDTable(nextTable, true);
-		final String q2 = "insert into " + nextTable + " select \"" + getIdColumnNameChildVertex() + "\" from "
-				+ getEdgeAnnotationTableName() + " where \"" + getIdColumnNameParentVertex() + "\" in (select "
-				+ getIdColumnName() + " from " + currentTable + ")" + " " + filter + " group by \""
-				+ getIdColumnNameChildVertex() + "\";";
-		final String q3 = ""; // createUUIDTable(cursorTable, true);
-		final String q4 = "insert into " + currentTable + " select " + getIdColumnName() + " from " + nextTable
-				+ " where " + getIdColumnName() + " not in (select " + getIdColumnName() + " from " + answerTable
-				+ ");";
-		final String q5 = "insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";";
-		
-		for(int i = 0; i < maxDepth; ++i){
-			final String formattedQ0 = String.format(q0, i+1);
-			
-			executeQueryForResult(formattedQ0, false);
-			createUUIDTable(nextTable, true);
-			executeQueryForResult(q2, false);
-			createUUIDTable(currentTable, true);
-			executeQueryForResult(q4, false);
-			executeQueryForResult(q5, false);
 
-			List<List<String>> countResult = executeQueryForResult("select count(*) from "+currentTable+";", false);
-			long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
-			if(cursorTableCount == 0){
-				break;
-			}
-		}
-
-		createUUIDTable(currentTable, true);
-		createUUIDTable(nextTable, true);
-		
-		executeQueryForResult("insert into " + currentTable + " select " + getIdColumnName() + " from " + srcVertexTable
-				+ " where " + getIdColumnName() + " in (select "+getIdColumnName()+" from "+answerTable+");", false);
-
-		createUUIDTable(answerTable, true);
-		
-		executeQueryForResult("insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable, false);
-
-		final String qq0 = ""; // createUUIDTable(nextTable, true);
-		final String qq1 = "insert into " + nextTable + " select \"" + getIdColumnNameParentVertex() + "\" from " + currentSubgraphTable
-				+ " where \"" + getIdColumnNameChildVertex() + "\" in (select "+getIdColumnName()+" from "+currentTable+")"
-				+ " and " + depthColumnName + " + %s <= " + instruction.maxDepth + " group by \""+getIdColumnNameParentVertex()+"\";";
-		final String qq2 = "insert into " + targetEdgeTable + " select " + getIdColumnName() + " from " + getEdgeAnnotationTableName()
-				+ " where \""+getIdColumnNameChildVertex()+"\" in (select " + getIdColumnName() + " from " + currentTable + ")"
-				+ " and \""+getIdColumnNameParentVertex()+"\" in (select "+getIdColumnName()+" from "+nextTable+") " + filter + ";";
-		final String qq3 = ""; // createUUIDTable(cursorTable, true);
-		final String qq4 = "insert into " + currentTable + " select " + getIdColumnName() + " from " + nextTable 
-				+ " where " + getIdColumnName() + " not in (select "+getIdColumnName()+" from "+answerTable+");";
-		final String qq5 = "insert into " + answerTable + " select " + getIdColumnName() + " from " + currentTable + ";";
-
-		for(int i = 0; i < maxDepth; ++i){
-			createUUIDTable(nextTable, true);
-			final String formattedQq1 = String.format(qq1, i);
-			executeQueryForResult(formattedQq1, false);
-			executeQueryForResult(qq2, false);
-			createUUIDTable(currentTable, true);
-			executeQueryForResult(qq4, false);
-			executeQueryForResult(qq5, false);
-			
-			List<List<String>> countResult = executeQueryForResult("select count(*) from "+currentTable+";", false);
-			long cursorTableCount = Long.parseLong(countResult.get(0).get(0));
-			if(cursorTableCount == 0){
-				break;
-			}
-		}
-
-		executeQueryForResult("insert into " + targetVertexTable + " select " + getIdColumnName() + " from " + answerTable, false);
-		dropTable(currentSubgraphTable);
-		dropTable(currentTable);
-		dropTable(nextTable);
-		dropTable(answerTable);
+		final String query = "with recursive "
+				// Distance of vertices to the destination vertices
+				+ getBreadthFirstQueries("m_back", "select " + id + " from " + getVertexTableName(instruction.dstGraph),
+						parentId, childId, maxDepth, "", "", filter)
+				+ "m_distance(" + id + ", distance) as (select " + id + ", depth from m_back), "
+				// From the source vertices only to the vertices from where a destination vertex is within the max depth.
+				// The minimum depth is enough because the condition holds for it if it holds for any depth
+				+ getBreadthFirstQueries("m_forward", "select s." + id + " from " + getVertexTableName(instruction.srcGraph) + " s"
+						+ " where s." + id + " in (select " + id + " from m_distance)",
+						childId, parentId, maxDepth, ", m_distance d",
+						" and d." + id + " = e." + parentId + " and b.depth + 1 + d.distance <= " + maxDepth, filter)
+				+ "m_insert_vertices as (insert into " + targetVertexTable + " select " + id + " from m_forward group by " + id + ") "
+				+ "insert into " + targetEdgeTable + " select e." + id + " from " + getEdgeAnnotationTableName() + " e"
+				+ " where exists (select 1 from m_forward f, m_distance d where f." + id + " = e." + childId
+				+ " and d." + id + " = e." + parentId + " and f.depth + 1 + d.distance <= " + maxDepth + ")" + filter + ";";
+		noResultExecuteQuery(query);
 	}
 	
 	@Override
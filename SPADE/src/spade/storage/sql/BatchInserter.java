@@ -0,0 +1,343 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.storage.sql;
+
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Inserts rows using JDBC batches on cached prepared statements.
+ *
+ * One prepared statement is kept for each combination of table and columns, and a row is added
+ * to the batch of its statement. All pending batches are executed and committed together when the
+ * number of pending rows reaches the batch size, or when a row is added after the flush interval
+ * has passed since the last commit.
+ *
+ * The connection must not be in auto-commit mode.
+ *
+ * The rows of a batch which the driver does not report as inserted (see BatchUpdateException.getUpdateCounts)
+ * are inserted again one at a time to know the outcome of each. A row which fails with the duplicate key error
+ * is already present. The commit listener (if set) is told after every commit whether the commit succeeded and
+ * the keys of the rows since the last commit which could not be inserted.
+ */
+public class BatchInserter{
+
+	private final Logger logger = Logger.getLogger(BatchInserter.class.getName());
+
+	private final Connection connection;
+	private final String identifierQuote;
+	private final int batchSize;
+	private final long flushIntervalMillis;
+	private final int maxCachedStatements;
+	// SQL state of the error for a row with a key which is already present
+	private final String duplicateKeySQLState;
+
+	// Access ordered to evict the least recently used statement
+	private final LinkedHashMap<String, CachedStatement> statements =
+			new LinkedHashMap<String, CachedStatement>(16, 0.75f, true);
+
+	private int pendingRows = 0;
+	// Keys of the rows failed since the last commit
+	private Set<String> failedRowKeys = new HashSet<String>();
+	private long lastFlushMillis = System.currentTimeMillis();
+	private CommitListener commitListener;
+
+	private long insertedRows = 0;
+	private long failedRows = 0;
+	private long duplicateRows = 0;
+	private long commits = 0;
+
+	/**
+	 * @param connection The connection to insert on
+	 * @param identifierQuote The string to quote table column names with
+	 * @param batchSize Number of pending rows after which all batches are committed. 1 to commit every row
+	 * @param flushIntervalMillis Time after which pending rows are committed on the next insert. 0 to disable
+	 * @param maxCachedStatements Maximum number of prepared statements to keep open
+	 * @param duplicateKeySQLState SQL state of the error for a row with a key which is already present
+	 */
+	public BatchInserter(final Connection connection, final String identifierQuote,
+			final int batchSize, final long flushIntervalMillis, final int maxCachedStatements,
+			final String duplicateKeySQLState){
+		if(connection == null){
+			throw new IllegalArgumentException("NULL connection");
+		}
+		if(batchSize < 1){
+			throw new IllegalArgumentException("Batch size must be greater than 0: " + batchSize);
+		}
+		if(maxCachedStatements < 1){
+			throw new IllegalArgumentException("Maximum cached statements must be greater than 0: " + maxCachedStatements);
+		}
+		this.connection = connection;
+		this.identifierQuote = identifierQuote == null ? "" : identifierQuote;
+		this.batchSize = batchSize;
+		this.flushIntervalMillis = flushIntervalMillis;
+		this.maxCachedStatements = maxCachedStatements;
+		this.duplicateKeySQLState = duplicateKeySQLState;
+	}
+
+	public synchronized void setCommitListener(final CommitListener commitListener){
+		this.commitListener = commitListener;
+	}
+
+	/**
+	 * Adds the row to the batch and commits if the batch size or the flush interval has been reached.
+	 *
+	 * Errors in individual rows (like duplicate keys) are not reported here but logged when the
+	 * batch is executed.
+	 *
+	 * @param table Name of the table
+	 * @param columns Column names in the order of the values
+	 * @param values Values of the row
+	 * @param key Key of the row given to the commit listener if the row fails
+	 * @throws SQLException If the statement could not be prepared or the row could not be added
+	 */
+	public synchronized void insert(final String table, final List<String> columns, final List<String> values,
+			final String key) throws SQLException{
+		final String statementKey = buildKey(table, columns);
+		CachedStatement cachedStatement = statements.get(statementKey);
+		if(cachedStatement == null){
+			if(statements.size() >= maxCachedStatements){
+				evictEldest();
+			}
+			cachedStatement = new CachedStatement(connection.prepareStatement(buildInsertQuery(table, columns)));
+			statements.put(statementKey, cachedStatement);
+		}
+		setValues(cachedStatement.statement, values);
+		cachedStatement.statement.addBatch();
+		cachedStatement.pendingRows.add(new Row(values, key));
+		pendingRows++;
+
+		if(pendingRows >= batchSize
+				|| (flushIntervalMillis > 0 && System.currentTimeMillis() - lastFlushMillis >= flushIntervalMillis)){
+			flush(true);
+		}
+	}
+
+	/**
+	 * Executes all pending batches and commits them.
+	 *
+	 * @param commitIfEmpty Commit even if there are no pending rows
+	 * @return True if the commit succeeded. False otherwise.
+	 */
+	public synchronized boolean flush(final boolean commitIfEmpty){
+		if(pendingRows == 0 && !commitIfEmpty){
+			return true;
+		}
+		for(final CachedStatement cachedStatement : statements.values()){
+			executeBatch(cachedStatement);
+		}
+		pendingRows = 0;
+		lastFlushMillis = System.currentTimeMillis();
+		boolean committed;
+		try{
+			connection.commit();
+			commits++;
+			committed = true;
+		}catch(SQLException e){
+			logger.log(Level.SEVERE, "Failed to commit batch", e);
+			committed = false;
+		}
+		final Set<String> failedKeys = failedRowKeys;
+		failedRowKeys = new HashSet<String>();
+		if(commitListener != null){
+			commitListener.committed(committed, failedKeys);
+		}
+		return committed;
+	}
+
+	/**
+	 * Commits the pending rows and closes all the cached statements.
+	 *
+	 * @return True if the commit succeeded. False otherwise.
+	 */
+	public synchronized boolean close(){
+		final boolean success = flush(true);
+		for(final CachedStatement cachedStatement : statements.values()){
+			closeQuietly(cachedStatement.statement);
+		}
+		statements.clear();
+		logger.log(Level.INFO, getStats());
+		return success;
+	}
+
+	public synchronized int getPendingRows(){
+		return pendingRows;
+	}
+
+	public synchronized String getStats(){
+		return String.format("Inserted rows=%s, Duplicate rows=%s, Failed rows=%s, Commits=%s, Cached statements=%s, "
+				+ "Pending rows=%s", insertedRows, duplicateRows, failedRows, commits, statements.size(), pendingRows);
+	}
+
+	private void evictEldest(){
+		final Iterator<Map.Entry<String, CachedStatement>> iterator = statements.entrySet().iterator();
+		if(iterator.hasNext()){
+			final CachedStatement cachedStatement = iterator.next().getValue();
+			iterator.remove();
+			// Rows stay in the current transaction until the next commit
+			pendingRows -= executeBatch(cachedStatement);
+			closeQuietly(cachedStatement.statement);
+		}
+	}
+
+	/**
+	 * @return The number of pending rows that were in the batch
+	 */
+	private int executeBatch(final CachedStatement cachedStatement){
+		final List<Row> rows = cachedStatement.pendingRows;
+		final int pending = rows.size();
+		if(pending == 0){
+			return 0;
+		}
+		cachedStatement.pendingRows = new ArrayList<Row>();
+		try{
+			cachedStatement.statement.executeBatch();
+			insertedRows += pending;
+		}catch(BatchUpdateException e){
+			clearBatchQuietly(cachedStatement.statement);
+			// Drivers either stop at the first failure or continue and mark the failed rows. The rows after the
+			// update counts were not executed
+			final int[] updateCounts = e.getUpdateCounts();
+			final int executed = updateCounts == null ? 0 : Math.min(updateCounts.length, pending);
+			final List<Row> retryRows = new ArrayList<Row>();
+			for(int i = 0; i < pending; i++){
+				if(i < executed && updateCounts[i] != Statement.EXECUTE_FAILED){
+					insertedRows++;
+				}else{
+					retryRows.add(rows.get(i));
+				}
+			}
+			logger.log(Level.WARNING, "Failed to insert " + retryRows.size() + " out of " + pending
+					+ " row(s) in batch. Inserting them one at a time. " + e.getMessage());
+			insertOneAtATime(cachedStatement.statement, retryRows);
+		}catch(SQLException e){
+			clearBatchQuietly(cachedStatement.statement);
+			logger.log(Level.WARNING, "Failed to execute batch of " + pending + " row(s). Inserting them one at a time", e);
+			insertOneAtATime(cachedStatement.statement, rows);
+		}
+		return pending;
+	}
+
+	private void insertOneAtATime(final PreparedStatement statement, final List<Row> rows){
+		for(final Row row : rows){
+			try{
+				setValues(statement, row.values);
+				statement.executeUpdate();
+				insertedRows++;
+			}catch(SQLException e){
+				if(duplicateKeySQLState != null && duplicateKeySQLState.equals(e.getSQLState())){
+					duplicateRows++;
+				}else{
+					failedRows++;
+					failedRowKeys.add(row.key);
+					logger.log(Level.SEVERE, "Failed to insert row with key '" + row.key + "'", e);
+				}
+			}
+		}
+	}
+
+	private void setValues(final PreparedStatement statement, final List<String> values) throws SQLException{
+		for(int i = 0; i < values.size(); i++){
+			statement.setString(i + 1, values.get(i));
+		}
+	}
+
+	private String buildKey(final String table, final List<String> columns){
+		final StringBuilder key = new StringBuilder(table.length() + columns.size() * 16);
+		key.append(table);
+		for(final String column : columns){
+			key.append('\0').append(column);
+		}
+		return key.toString();
+	}
+
+	private String buildInsertQuery(final String table, final List<String> columns){
+		final StringBuilder query = new StringBuilder(64 + columns.size() * 24);
+		query.append("INSERT INTO ").append(table).append(" (");
+		for(int i = 0; i < columns.size(); i++){
+			if(i > 0){
+				query.append(", ");
+			}
+			query.append(identifierQuote).append(columns.get(i)).append(identifierQuote);
+		}
+		query.append(") VALUES (");
+		for(int i = 0; i < columns.size(); i++){
+			query.append(i > 0 ? ", ?" : "?");
+		}
+		query.append(")");
+		return query.toString();
+	}
+
+	private void clearBatchQuietly(final PreparedStatement statement){
+		try{
+			statement.clearBatch();
+		}catch(SQLException e){
+			// ignore
+		}
+	}
+
+	private void closeQuietly(final PreparedStatement statement){
+		try{
+			statement.close();
+		}catch(SQLException e){
+			logger.log(Level.WARNING, "Failed to close prepared statement", e);
+		}
+	}
+
+	public static interface CommitListener{
+		/**
+		 * @param committed True if the commit succeeded
+		 * @param failedRowKeys Keys of the rows since the last commit which could not be inserted. Rows with a
+		 * duplicate key are not included because they are present
+		 */
+		public void committed(boolean committed, Set<String> failedRowKeys);
+	}
+
+	private static final class Row{
+		private final List<String> values;
+		private final String key;
+
+		private Row(final List<String> values, final String key){
+			this.values = values;
+			this.key = key;
+		}
+	}
+
+	private static final class CachedStatement{
+		private final PreparedStatement statement;
+		private List<Row> pendingRows = new ArrayList<Row>();
+
+		private CachedStatement(final PreparedStatement statement){
+			this.statement = statement;
+		}
+	}
+}
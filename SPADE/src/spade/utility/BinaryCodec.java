@@ -0,0 +1,420 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Base of the hand-written binary converters used for the values (and keys) of the external maps instead of
+ * Serializable2ByteArrayConverter.
+ *
+ * The first byte of every serialized value is the version of the schema that wrote it. The subclasses write
+ * the fields in a fixed order using the varint, string and BigInteger methods of Output and read them back
+ * in the same order. A subclass must increment its version whenever it changes what it writes, and must keep
+ * being able to read all the previous versions (or fail with an exception for the ones it cannot read).
+ *
+ * Serialized output is built in a buffer reused per thread and only the final array is allocated.
+ *
+ * Encoding:
+ * 1) Unsigned varint: 7 bits per byte, least significant group first, high bit set if more bytes follow.
+ * 2) Signed varint: zigzag encoded unsigned varint.
+ * 3) String: unsigned varint header which is 0 for null, (index << 1) | 1 for a string in the StringTable
+ * of the codec, and (length + 1) << 1 for a literal string followed by 'length' bytes of UTF-8.
+ * 4) BigInteger: unsigned varint header which is 0 for null, (zigzag(value) << 1) | 1 for a value that fits
+ * in 62 bits, and length << 1 for a larger value followed by 'length' bytes of the two's-complement value.
+ *
+ * @param <X> type of the object converted
+ */
+public abstract class BinaryCodec<X> implements Converter<X, byte[]>{
+
+	private static final int initialBufferSize = 256;
+	// Buffers larger than this are not kept around for reuse
+	private static final int maxReusedBufferSize = 64 * 1024;
+
+	private static final ThreadLocal<Output> outputs = new ThreadLocal<Output>(){
+		@Override
+		protected Output initialValue(){
+			return new Output(initialBufferSize);
+		}
+	};
+
+	private static final ThreadLocal<Input> inputs = new ThreadLocal<Input>(){
+		@Override
+		protected Input initialValue(){
+			return new Input();
+		}
+	};
+
+	private final int version;
+	private final StringTable strings;
+
+	/**
+	 * @param version current version of the schema (1-255) which is written with every value
+	 * @param strings table of strings written as indices. Only append to the table because the indices are
+	 * stored
+	 */
+	protected BinaryCodec(final int version, final StringTable strings){
+		if(version < 1 || version > 255){
+			throw new IllegalArgumentException("Version must be in range [1-255]: " + version);
+		}
+		if(strings == null){
+			throw new IllegalArgumentException("NULL string table");
+		}
+		this.version = version;
+		this.strings = strings;
+	}
+
+	public final int getVersion(){
+		return version;
+	}
+
+	/**
+	 * Writes the fields of the non-null value
+	 */
+	protected abstract void write(X value, Output output) throws Exception;
+
+	/**
+	 * Reads the fields written by the 'version' of the schema
+	 */
+	protected abstract X read(Input input, int version) throws Exception;
+
+	@Override
+	public final byte[] serialize(final X i) throws Exception{
+		if(i == null){
+			return null;
+		}else{
+			final Output output = outputs.get();
+			output.reset(strings);
+			try{
+				output.writeByte(version);
+				write(i, output);
+				return output.toByteArray();
+			}finally{
+				output.release();
+			}
+		}
+	}
+
+	@Override
+	public final X deserialize(final byte[] j) throws Exception{
+		if(j == null){
+			return null;
+		}else{
+			final Input input = inputs.get();
+			input.reset(j, strings);
+			try{
+				final int writtenVersion = input.readByte();
+				if(writtenVersion < 1 || writtenVersion > version){
+					throw new Exception("Unsupported version " + writtenVersion + " in " + getClass().getSimpleName()
+							+ " (current version " + version + ")");
+				}
+				final X value = read(input, writtenVersion);
+				if(input.remaining() != 0){
+					throw new Exception(input.remaining() + " unread byte(s) in " + getClass().getSimpleName());
+				}
+				return value;
+			}finally{
+				input.release();
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public final byte[] serializeObject(final Object o) throws Exception{
+		return serialize((X)o);
+	}
+
+	@Override
+	public final X deserializeObject(final Object o) throws Exception{
+		return deserialize((byte[])o);
+	}
+
+	/**
+	 * Strings that are written as their index in the table. Decoded strings in the table are returned as the
+	 * same instance.
+	 */
+	public static final class StringTable{
+		private final String[] strings;
+		private final Map<String, Integer> indices = new HashMap<String, Integer>();
+
+		public StringTable(final String... strings){
+			this.strings = strings == null ? new String[0] : Arrays.copyOf(strings, strings.length);
+			for(int i = 0; i < this.strings.length; i++){
+				final String string = this.strings[i];
+				if(string == null){
+					throw new IllegalArgumentException("NULL string at index " + i);
+				}
+				if(indices.put(string, i) != null){
+					throw new IllegalArgumentException("Duplicate string at index " + i + ": " + string);
+				}
+			}
+		}
+
+		private int indexOf(final String string){
+			final Integer index = indices.get(string);
+			return index == null ? -1 : index;
+		}
+
+		private String get(final int index) throws Exception{
+			if(index < 0 || index >= strings.length){
+				throw new Exception("Invalid string table index: " + index);
+			}
+			return strings[index];
+		}
+	}
+
+	public static final class Output{
+		private byte[] buffer;
+		private int position;
+		private StringTable strings;
+
+		private Output(final int size){
+			this.buffer = new byte[size];
+		}
+
+		private void reset(final StringTable strings){
+			this.position = 0;
+			this.strings = strings;
+		}
+
+		private void release(){
+			if(buffer.length > maxReusedBufferSize){
+				buffer = new byte[initialBufferSize];
+			}
+			strings = null;
+		}
+
+		private byte[] toByteArray(){
+			return Arrays.copyOf(buffer, position);
+		}
+
+		private void ensure(final int bytes){
+			if(position + bytes > buffer.length){
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + bytes));
+			}
+		}
+
+		public void writeByte(final int value){
+			ensure(1);
+			buffer[position++] = (byte)value;
+		}
+
+		public void writeBoolean(final boolean value){
+			writeByte(value ? 1 : 0);
+		}
+
+		public void writeVarLong(long value){
+			ensure(10);
+			while((value & ~0x7FL) != 0){
+				buffer[position++] = (byte)((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			buffer[position++] = (byte)value;
+		}
+
+		public void writeSignedVarLong(final long value){
+			writeVarLong((value << 1) ^ (value >> 63));
+		}
+
+		public void writeDouble(final double value){
+			final long bits = Double.doubleToLongBits(value);
+			ensure(8);
+			for(int shift = 56; shift >= 0; shift -= 8){
+				buffer[position++] = (byte)(bits >>> shift);
+			}
+		}
+
+		public void writeBytes(final byte[] bytes){
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buffer, position, bytes.length);
+			position += bytes.length;
+		}
+
+		public void writeString(final String value){
+			if(value == null){
+				writeVarLong(0);
+				return;
+			}
+			final int index = strings.indexOf(value);
+			if(index > -1){
+				writeVarLong(((long)index << 1) | 1);
+				return;
+			}
+			final int length = value.length();
+			boolean ascii = true;
+			for(int i = 0; i < length && ascii; i++){
+				ascii = value.charAt(i) < 0x80;
+			}
+			if(ascii){
+				writeVarLong(((long)length + 1) << 1);
+				ensure(length);
+				for(int i = 0; i < length; i++){
+					buffer[position++] = (byte)value.charAt(i);
+				}
+			}else{
+				final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+				writeVarLong(((long)bytes.length + 1) << 1);
+				writeBytes(bytes);
+			}
+		}
+
+		public void writeBigInteger(final BigInteger value){
+			if(value == null){
+				writeVarLong(0);
+			}else if(value.bitLength() <= 62){
+				final long longValue = value.longValue();
+				writeVarLong((((longValue << 1) ^ (longValue >> 63)) << 1) | 1);
+			}else{
+				final byte[] bytes = value.toByteArray();
+				writeVarLong((long)bytes.length << 1);
+				writeBytes(bytes);
+			}
+		}
+
+		/**
+		 * Writes the size of a collection (or array) where -1 means null
+		 */
+		public void writeSize(final int size){
+			writeVarLong((long)size + 1);
+		}
+	}
+
+	public static final class Input{
+		private byte[] buffer;
+		private int position;
+		private StringTable strings;
+
+		private Input(){}
+
+		private void reset(final byte[] buffer, final StringTable strings){
+			this.buffer = buffer;
+			this.position = 0;
+			this.strings = strings;
+		}
+
+		private void release(){
+			this.buffer = null;
+			this.strings = null;
+		}
+
+		private int remaining(){
+			return buffer.length - position;
+		}
+
+		private void require(final int bytes) throws Exception{
+			if(bytes < 0 || position + bytes > buffer.length){
+				throw new Exception("Truncated input. Needed " + bytes + " byte(s) at offset " + position
+						+ " of " + buffer.length);
+			}
+		}
+
+		public int readByte() throws Exception{
+			require(1);
+			return buffer[position++] & 0xFF;
+		}
+
+		public boolean readBoolean() throws Exception{
+			final int value = readByte();
+			if(value > 1){
+				throw new Exception("Invalid boolean value: " + value);
+			}
+			return value == 1;
+		}
+
+		public long readVarLong() throws Exception{
+			long value = 0;
+			for(int shift = 0; shift < 64; shift += 7){
+				final int b = readByte();
+				value |= (long)(b & 0x7F) << shift;
+				if((b & 0x80) == 0){
+					return value;
+				}
+			}
+			throw new Exception("Malformed varint at offset " + position);
+		}
+
+		public long readSignedVarLong() throws Exception{
+			final long value = readVarLong();
+			return (value >>> 1) ^ -(value & 1);
+		}
+
+		public double readDouble() throws Exception{
+			require(8);
+			long bits = 0;
+			for(int i = 0; i < 8; i++){
+				bits = (bits << 8) | (buffer[position++] & 0xFF);
+			}
+			return Double.longBitsToDouble(bits);
+		}
+
+		public byte[] readBytes(final int length) throws Exception{
+			require(length);
+			final byte[] bytes = Arrays.copyOfRange(buffer, position, position + length);
+			position += length;
+			return bytes;
+		}
+
+		public String readString() throws Exception{
+			final long header = readVarLong();
+			if(header == 0){
+				return null;
+			}else if((header & 1) == 1){
+				return strings.get(toInt(header >>> 1));
+			}else{
+				final int length = toInt((header >>> 1) - 1);
+				require(length);
+				final String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+				position += length;
+				return value;
+			}
+		}
+
+		public BigInteger readBigInteger() throws Exception{
+			final long header = readVarLong();
+			if(header == 0){
+				return null;
+			}else if((header & 1) == 1){
+				final long zigzag = header >>> 1;
+				return BigInteger.valueOf((zigzag >>> 1) ^ -(zigzag & 1));
+			}else{
+				return new BigInteger(readBytes(toInt(header >>> 1)));
+			}
+		}
+
+		/**
+		 * @return the size written by writeSize or -1 for null
+		 */
+		public int readSize() throws Exception{
+			return toInt(readVarLong() - 1);
+		}
+
+		private int toInt(final long value) throws Exception{
+			if(value < -1 || value > Integer.MAX_VALUE){
+				throw new Exception("Invalid length or index: " + value);
+			}
+			return (int)value;
+		}
+	}
+}
@@ -144,6 +144,10 @@ public class DiscrepancyDetector{
 			long start_time = System.nanoTime();
 			graphCache.addGraph(response);
 			prunableGraphs.add(response);
+			// The cache removes the oldest graphs when full
+			while(!prunableGraphs.isEmpty() && !graphCache.isGraphCached(prunableGraphs.peek())){
+				prunableGraphs.remove();
+			}
 			for(AbstractVertex responseVertex : response.vertexSet()){
 				// put new vertex in cached graph
 				graphCache.addVertex(responseVertex);
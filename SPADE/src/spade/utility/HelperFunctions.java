@@ -31,8 +31,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.commons.codec.binary.Hex;
 import org.json.JSONObject;
@@ -42,15 +40,12 @@ import spade.core.Settings;
 public class HelperFunctions{
 
 	private static final Logger logger = Logger.getLogger(HelperFunctions.class.getName());
-	// Group 1: key
-    // Group 2: value
-    private static final Pattern pattern_key_value = Pattern.compile("(\\w+)=\"*((?<=\")[^\"]+(?=\")|([^\\s]+))\"*");
 	
     /**
      * Converts a string of the format [a="b" c=d e=f] into a map of key values
      * Any portions of the string not matching the pattern [a="b"] or [c=d] are ignored
      * 
-     * Uses the pattern {@link #pattern_key_value pattern_key_value}
+     * See {@link #parseKeyValPairs(String, Map) parseKeyValPairs} for the format
      * 
      * @param messageData string to parse
      * @return a hashmap
@@ -65,12 +60,88 @@ public class HelperFunctions{
     	if(messageData == null || messageData.trim().isEmpty()){
     		return keyValPairs;
     	}
-        Matcher key_value_matcher = pattern_key_value.matcher(messageData);
-        while (key_value_matcher.find()) {
-            keyValPairs.put(key_value_matcher.group(1).trim(), key_value_matcher.group(2).trim());
-        }
+    	parseKeyValPairs(messageData, keyValPairs);
         return keyValPairs;
     }
+
+    /**
+     * Puts the key values in the string of the format [a="b" c=d e=f] into the given map.
+     * Any portions of the string not matching the pattern [a="b"] or [c=d] are ignored.
+     * 
+     * Hand-written (and allocation free except for the keys and the values) equivalent of finding all the matches of
+     * the pattern (\w+)="*((?&lt;=")[^"]+(?=")|([^\s]+))"* where group 1 is the key and group 2 is the value (trimmed).
+     * 
+     * @param messageData string to parse
+     * @param keyValPairs map to put the key values in
+     */
+    public static void parseKeyValPairs(final String messageData, final Map<String, String> keyValPairs){
+    	if(messageData == null){
+    		return;
+    	}
+    	final int length = messageData.length();
+    	int i = 0;
+    	while(i < length){
+    		if(!isWordChar(messageData.charAt(i))){
+    			i++;
+    			continue;
+    		}
+    		final int keyStart = i;
+    		while(i < length && isWordChar(messageData.charAt(i))){
+    			i++;
+    		}
+    		if(i == length || messageData.charAt(i) != '='){
+    			continue; // No key can start inside this word either
+    		}
+    		final int keyEnd = i;
+    		final int quotesStart = i + 1;
+    		int quotes = 0;
+    		while(quotesStart + quotes < length && messageData.charAt(quotesStart + quotes) == '"'){
+    			quotes++;
+    		}
+    		int valueStart = -1, valueEnd = -1;
+    		if(quotes > 0){
+    			// Quoted value (non-empty), if all the leading quotes are followed by a closing quote
+    			final int start = quotesStart + quotes;
+    			final int closingQuote = messageData.indexOf('"', start);
+    			if(closingQuote > start){
+    				valueStart = start;
+    				valueEnd = closingQuote;
+    			}else if(start < length && !isRegexWhitespace(messageData.charAt(start))){
+    				valueStart = start;
+    			}else{
+    				// Give back a quote and take it as part of an unquoted value
+    				valueStart = start - 1;
+    			}
+    		}else if(quotesStart < length && !isRegexWhitespace(messageData.charAt(quotesStart))){
+    			valueStart = quotesStart;
+    		}else{
+    			// Empty value
+    			i = quotesStart;
+    			continue;
+    		}
+    		if(valueEnd < 0){
+    			valueEnd = valueStart;
+    			while(valueEnd < length && !isRegexWhitespace(messageData.charAt(valueEnd))){
+    				valueEnd++;
+    			}
+    		}
+    		keyValPairs.put(messageData.substring(keyStart, keyEnd), messageData.substring(valueStart, valueEnd).trim());
+    		i = valueEnd;
+    		while(i < length && messageData.charAt(i) == '"'){
+    			i++;
+    		}
+    	}
+    }
+
+    // '\w' in a regex
+    private static boolean isWordChar(final char c){
+    	return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    // '\s' in a regex
+    private static boolean isRegexWhitespace(final char c){
+    	return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
     
     /**
 	 * Input: a=b c='d' e="f f"
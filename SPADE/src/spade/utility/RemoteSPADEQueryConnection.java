@@ -21,17 +21,24 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.Serializable;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.security.Signature;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.net.SocketFactory;
 
+import spade.core.AbstractEdge;
 import spade.core.AbstractStorage;
+import spade.core.AbstractVertex;
+import spade.core.GraphChunk;
 import spade.core.Query;
 import spade.query.quickgrail.core.GraphStats;
 import spade.query.quickgrail.instruction.GetLineage;
@@ -41,6 +48,8 @@ public final class RemoteSPADEQueryConnection implements Closeable{
 	private static final Logger logger = Logger.getLogger(RemoteSPADEQueryConnection.class.getName());
 
 	private static final String baseSymbol = "$base";
+	// Exported graphs are received in chunks of this many vertices and edges
+	private static final int exportChunkSize = 10000;
 	
 	public final String localHostName;
 	public final String serverAddress;
@@ -148,17 +157,10 @@ public final class RemoteSPADEQueryConnection implements Closeable{
 	public synchronized void close() throws IOException{
 		mustBeConnected();
 		
-		if(!generatedSymbols.isEmpty()){
-			String str = "";
-			for(String symbol : generatedSymbols){
-				str += " " + symbol;
-			}
-			try{
-				_executeQuery("erase " + str, false);
-			}catch(Throwable t){
-				logger.log(Level.WARNING, "Failed to execute 'erase' query", t);
-			}
-			generatedSymbols.clear();
+		try{
+			eraseGeneratedSymbols();
+		}catch(Throwable t){
+			logger.log(Level.WARNING, "Failed to execute 'erase' query", t);
 		}
 		
 		try{
@@ -190,6 +192,33 @@ public final class RemoteSPADEQueryConnection implements Closeable{
 		}
 	}
 	
+	/**
+	 * Erases the symbols generated on the server by this connection. Used before reusing the connection.
+	 */
+	public synchronized void eraseGeneratedSymbols(){
+		mustBeConnected();
+		if(!generatedSymbols.isEmpty()){
+			String str = "";
+			for(String symbol : generatedSymbols){
+				str += " " + symbol;
+			}
+			generatedSymbols.clear();
+			_executeQuery("erase " + str, false);
+		}
+	}
+	
+	public synchronized boolean isConnected(){
+		return connected;
+	}
+	
+	/**
+	 * Timeout for reading a query response. 0 means no timeout.
+	 */
+	public synchronized void setReadTimeout(final int timeoutInMillis) throws IOException{
+		mustBeConnected();
+		querySocket.setSoTimeout(timeoutInMillis);
+	}
+	
 	//////////////////////////////
 	
 	public synchronized boolean isStorageSet(){
@@ -226,25 +255,133 @@ public final class RemoteSPADEQueryConnection implements Closeable{
 	}
 	
 	public synchronized spade.core.Graph exportGraph(final String symbol, final boolean verify){
+		final spade.core.Graph graph = new spade.core.Graph();
+		exportGraph(symbol, verify, new Consumer<GraphChunk>(){
+			@Override
+			public void accept(final GraphChunk chunk){
+				if(chunk.getHostName() != null){
+					graph.setHostName(chunk.getHostName());
+				}
+				for(final AbstractVertex vertex : chunk.getVertices()){
+					graph.putVertex(vertex);
+				}
+				for(final AbstractEdge edge : chunk.getEdges()){
+					graph.putEdge(edge);
+				}
+			}
+		});
+		return graph;
+	}
+
+	/**
+	 * Passes the exported graph to the consumer a chunk (of at most exportChunkSize vertices and edges) at a time.
+	 * The vertices are passed before the edges. If verify is true then the signature is checked once the last chunk
+	 * has been read i.e. the exception is thrown after all the chunks have been passed to the consumer.
+	 */
+	public synchronized void exportGraph(final String symbol, final boolean verify, final Consumer<GraphChunk> consumer){
 		final String nonce = String.valueOf(System.nanoTime());
-		Query response = executeQuery("dump force " + symbol, nonce);
-		spade.core.Graph graph = (spade.core.Graph)response.getResult();
+		final Query query = buildSPADEQueryObject("dump force " + symbol, nonce);
+		query.setStreamChunkSize(exportChunkSize);
+		final Query response = executeQuery(query);
+		if(response.getResult() instanceof spade.core.Graph){
+			// Server which does not stream
+			final spade.core.Graph graph = (spade.core.Graph)response.getResult();
+			if(verify){
+				if(!graph.verifySignature(nonce)){
+					throw new RuntimeException("Failed to verify signature. Response graph discarded");
+				}
+			}
+			final GraphChunk chunk = new GraphChunk();
+			chunk.setHostName(graph.getHostName());
+			chunk.getVertices().addAll(graph.vertexSet());
+			chunk.getEdges().addAll(graph.edgeSet());
+			chunk.setLast(true);
+			consumer.accept(chunk);
+			return;
+		}
+
+		GraphChunk chunk = (GraphChunk)response.getResult();
+		Signature verifier = null;
 		if(verify){
-			if(!graph.verifySignature(nonce)){
+			try{
+				verifier = GraphChunk.createVerifier(chunk.getHostName());
+			}catch(Exception e){
+				throw new RuntimeException("Failed to verify signature", e);
+			}
+			if(verifier == null){
+				throw new RuntimeException("Failed to verify signature. No public key for server: " + chunk.getHostName());
+			}
+		}
+		// Must read all the chunks (even if the consumer fails) to keep the connection usable
+		RuntimeException consumerException = null;
+		while(true){
+			if(verifier != null){
+				try{
+					chunk.updateSignature(verifier);
+				}catch(Exception e){
+					throw new RuntimeException("Failed to verify signature", e);
+				}
+			}
+			if(consumerException == null){
+				try{
+					consumer.accept(chunk);
+				}catch(RuntimeException e){
+					consumerException = e;
+				}
+			}
+			if(chunk.isLast()){
+				break;
+			}
+			try{
+				chunk = (GraphChunk)queryResponseReader.readObject();
+			}catch(Throwable t){
+				throw new RuntimeException("Failed to read graph chunk from server", t);
+			}
+			if(chunk == null){
+				throw new RuntimeException("Connection closed by the server!");
+			}
+		}
+		if(chunk.getError() != null){
+			if(chunk.getError() instanceof Throwable){
+				throw new RuntimeException("Query failed!", (Throwable)chunk.getError());
+			}else{
+				throw new RuntimeException("Query failed! Error: " + String.valueOf(chunk.getError()));
+			}
+		}
+		if(consumerException != null){
+			throw consumerException;
+		}
+		if(verifier != null){
+			boolean verified = false;
+			try{
+				verified = GraphChunk.verify(verifier, nonce, chunk.getSignature());
+			}catch(Exception e){
+				throw new RuntimeException("Failed to verify signature", e);
+			}
+			if(!verified){
 				throw new RuntimeException("Failed to verify signature. Response graph discarded");
 			}
 		}
-		return graph;
 	}
 	
 	public synchronized Query executeQuery(String queryString){
-		return executeQuery(queryString, null);
+		return executeQuery(queryString, (String)null);
 	}
 	
 	public synchronized Query executeQuery(String queryString, String nonce){
 		return executeQuery(buildSPADEQueryObject(queryString, nonce));
 	}
 	
+	/**
+	 * Values bound to $1, $2, ... in the query. Same query string with different values is only parsed once by the
+	 * server
+	 */
+	public synchronized Query executeQuery(String queryString, List<? extends Serializable> parameters){
+		final Query query = buildSPADEQueryObject(queryString, null);
+		query.setParameters(parameters);
+		return executeQuery(query);
+	}
+	
 	public synchronized Query executeQuery(Query query){
 		storageMustBeSet();
 		return _executeQuery(query, false);
@@ -0,0 +1,252 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package spade.utility;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.net.SocketFactory;
+
+/**
+ * Pool of connected (and authenticated) query connections to remote SPADE servers, keyed by the server address and
+ * the query port.
+ *
+ * At most 'maxConnectionsPerHost' connections to a host are borrowed at a time. A returned connection is kept for
+ * reuse (after erasing the symbols it generated) for at most 'maxIdleMillis'. An idle connection is checked with a
+ * query before being reused. A connection which failed or timed out must be returned as not reusable.
+ *
+ * Thread-safe.
+ */
+public final class RemoteSPADEQueryConnectionPool implements Closeable{
+
+	private static final Logger logger = Logger.getLogger(RemoteSPADEQueryConnectionPool.class.getName());
+
+	private final String localHostName;
+	private final SocketFactory socketFactory;
+	private final int connectTimeoutMillis;
+	private final int maxConnectionsPerHost;
+	private final long maxIdleMillis;
+
+	private final Map<String, Host> hosts = new HashMap<String, Host>();
+	private boolean closed = false;
+
+	private static final class Host{
+		private final Semaphore permits;
+		private final Deque<IdleConnection> idleConnections = new ArrayDeque<IdleConnection>();
+		private Host(final int maxConnections){
+			this.permits = new Semaphore(maxConnections, true);
+		}
+	}
+
+	private static final class IdleConnection{
+		private final RemoteSPADEQueryConnection connection;
+		private final long idleSinceMillis;
+		private IdleConnection(final RemoteSPADEQueryConnection connection, final long idleSinceMillis){
+			this.connection = connection;
+			this.idleSinceMillis = idleSinceMillis;
+		}
+	}
+
+	public RemoteSPADEQueryConnectionPool(final String localHostName, final SocketFactory socketFactory,
+			final int connectTimeoutMillis, final int maxConnectionsPerHost, final long maxIdleMillis){
+		if(socketFactory == null){
+			throw new IllegalArgumentException("NULL socket factory");
+		}
+		if(maxConnectionsPerHost < 1){
+			throw new IllegalArgumentException("Max connections per host must be greater than 0: " + maxConnectionsPerHost);
+		}
+		this.localHostName = localHostName; // can be null
+		this.socketFactory = socketFactory;
+		this.connectTimeoutMillis = connectTimeoutMillis;
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		this.maxIdleMillis = maxIdleMillis;
+	}
+
+	private static String getKey(final String serverAddress, final int queryPort){
+		return serverAddress + ":" + queryPort;
+	}
+
+	private synchronized Host getHost(final String serverAddress, final int queryPort){
+		if(closed){
+			throw new RuntimeException("Connection pool closed");
+		}
+		final String key = getKey(serverAddress, queryPort);
+		Host host = hosts.get(key);
+		if(host == null){
+			host = new Host(maxConnectionsPerHost);
+			hosts.put(key, host);
+		}
+		return host;
+	}
+
+	/**
+	 * Returns a connected connection to the server. Must be returned with 'release'.
+	 *
+	 * @param serverAddress address of the server
+	 * @param queryPort query port of the server
+	 * @param timeoutMillis max time to wait if all the connections to the server are in use (and for an idle
+	 * connection to respond)
+	 * @return connection
+	 * @throws Exception if timed out, interrupted or failed to connect
+	 */
+	public RemoteSPADEQueryConnection borrow(final String serverAddress, final int queryPort,
+			final long timeoutMillis) throws Exception{
+		final long deadlineMillis = System.currentTimeMillis() + timeoutMillis;
+		final Host host = getHost(serverAddress, queryPort);
+		if(!host.permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)){
+			throw new RuntimeException("Timed out waiting for a connection to '" + getKey(serverAddress, queryPort) + "'");
+		}
+		try{
+			closeConnections(removeExpiredIdleConnections());
+			while(true){
+				final IdleConnection idleConnection;
+				synchronized(this){
+					idleConnection = host.idleConnections.pollLast();
+				}
+				if(idleConnection == null){
+					break;
+				}
+				final RemoteSPADEQueryConnection connection = idleConnection.connection;
+				try{
+					// The read timeout of an idle connection is infinite. A half-open connection must not block here
+					connection.setReadTimeout(getCheckTimeoutMillis(deadlineMillis));
+					connection.executeQuery("print storage");
+					return connection;
+				}catch(Throwable t){
+					// Closed by the server or the network
+					closeConnection(connection);
+				}
+			}
+			final RemoteSPADEQueryConnection connection = new RemoteSPADEQueryConnection(localHostName, serverAddress, queryPort);
+			connection.connect(socketFactory, connectTimeoutMillis);
+			return connection;
+		}catch(Exception e){
+			host.permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the connect timeout or the time left until the deadline (if less), and at least 1 millisecond
+	 */
+	private int getCheckTimeoutMillis(final long deadlineMillis){
+		final long remainingMillis = deadlineMillis - System.currentTimeMillis();
+		final long checkTimeoutMillis = connectTimeoutMillis > 0 ? Math.min(connectTimeoutMillis, remainingMillis) : remainingMillis;
+		return (int)Math.max(1, Math.min(checkTimeoutMillis, Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Returns the borrowed connection to the pool
+	 *
+	 * @param connection the borrowed connection
+	 * @param reusable false if the connection failed or the response of a query was not read (i.e. timed out)
+	 */
+	public void release(final RemoteSPADEQueryConnection connection, final boolean reusable){
+		if(connection == null){
+			return;
+		}
+		final Host host;
+		synchronized(this){
+			host = hosts.get(getKey(connection.serverAddress, connection.queryPort)); // Added when borrowed
+		}
+		boolean kept = false;
+		try{
+			if(reusable && connection.isConnected()){
+				connection.eraseGeneratedSymbols();
+				connection.setReadTimeout(0);
+				synchronized(this){
+					if(!closed){
+						host.idleConnections.addLast(new IdleConnection(connection, System.currentTimeMillis()));
+						kept = true;
+					}
+				}
+			}
+		}catch(Throwable t){
+			logger.log(Level.WARNING, "Failed to reset connection for reuse: '"
+					+ getKey(connection.serverAddress, connection.queryPort) + "'", t);
+		}finally{
+			if(!kept){
+				closeConnection(connection);
+			}
+			host.permits.release();
+		}
+	}
+
+	private synchronized List<RemoteSPADEQueryConnection> removeExpiredIdleConnections(){
+		final List<RemoteSPADEQueryConnection> expired = new ArrayList<RemoteSPADEQueryConnection>();
+		final long now = System.currentTimeMillis();
+		for(final Host host : hosts.values()){
+			final Iterator<IdleConnection> iterator = host.idleConnections.iterator();
+			while(iterator.hasNext()){
+				final IdleConnection idleConnection = iterator.next();
+				if(now - idleConnection.idleSinceMillis > maxIdleMillis){
+					expired.add(idleConnection.connection);
+					iterator.remove();
+				}
+			}
+		}
+		return expired;
+	}
+
+	private static void closeConnections(final List<RemoteSPADEQueryConnection> connections){
+		for(final RemoteSPADEQueryConnection connection : connections){
+			closeConnection(connection);
+		}
+	}
+
+	private static void closeConnection(final RemoteSPADEQueryConnection connection){
+		try{
+			if(connection.isConnected()){
+				connection.close();
+			}
+		}catch(Throwable t){
+			logger.log(Level.WARNING, "Failed to close connection: '"
+					+ getKey(connection.serverAddress, connection.queryPort) + "'", t);
+		}
+	}
+
+	/**
+	 * Closes the idle connections. The borrowed connections are closed when released.
+	 */
+	@Override
+	public void close(){
+		final List<RemoteSPADEQueryConnection> idle = new ArrayList<RemoteSPADEQueryConnection>();
+		synchronized(this){
+			closed = true;
+			for(final Host host : hosts.values()){
+				for(final IdleConnection idleConnection : host.idleConnections){
+					idle.add(idleConnection.connection);
+				}
+				host.idleConnections.clear();
+			}
+		}
+		closeConnections(idle);
+	}
+}
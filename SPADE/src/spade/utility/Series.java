@@ -50,6 +50,13 @@ public class Series<T extends Serializable & Comparable<T>, V extends Serializab
 		}
 	}
 	
+	/**
+	 * @return entries in the order in which they were added (or sorted if a match was looked up)
+	 */
+	public List<SimpleEntry<T, V>> getEntries(){
+		return Collections.unmodifiableList(series);
+	}
+	
 	public Set<V> getValues(){
 		final Set<V> values = new HashSet<V>();
 		series.forEach(v -> values.add(v.getValue()));
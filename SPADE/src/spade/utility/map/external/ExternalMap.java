@@ -20,6 +20,13 @@
 package spade.utility.map.external;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,6 +40,13 @@ import spade.utility.profile.Intervaler;
 /**
  * A map backed by a persistent storage
  * 
+ * Thread-safe. The keys are split into 'shards' by their hash code. Each shard has its own cache (with the maximum
+ * size of the cache divided by the number of shards) and its own lock.
+ * 
+ * If the write-back queue size is greater than 0, then the evicted entries are serialized (in the evicting thread)
+ * and written to the store in batches by a background thread. The entries not written yet are returned by 'get' and
+ * 'contains'. Otherwise, the evicted entries are written to the store in the evicting thread (as before).
+ * 
  * @param <K> key 	Must be Serializable
  * @param <V> value Must be Serializable
  */
@@ -40,10 +54,13 @@ public class ExternalMap<K, V>{
 
 	private static final Logger logger = Logger.getLogger(ExternalMap.class.getName());
 	
-	private BigInteger totalEvictions = BigInteger.ZERO,
-			totalFalsePositives = BigInteger.ZERO,
-			cacheHits = BigInteger.ZERO,
-			cacheMisses = BigInteger.ZERO;
+	private final LongAdder totalEvictions = new LongAdder(),
+			totalFalsePositives = new LongAdder(),
+			cacheHits = new LongAdder(),
+			cacheMisses = new LongAdder(),
+			writeBackHits = new LongAdder(),
+			writeBackBatches = new LongAdder(),
+			writeBackWrites = new LongAdder();
 	
 	private final Intervaler intervaler;
 	
@@ -52,9 +69,34 @@ public class ExternalMap<K, V>{
 	public final String mapId;
 	
 	private Screen<K> screen;
-	private Cache<K, V> cache;
+	private final List<Shard<K, V>> shards;
 	private Store<K, V> store;
 	
+	private final WriteBack writeBack;
+	
+	/**
+	 * Cache and its lock
+	 */
+	private static final class Shard<K, V>{
+		private final Cache<K, V> cache;
+		private final int maximumSize;
+		private Shard(final Cache<K, V> cache, final int maximumSize){
+			this.cache = cache;
+			this.maximumSize = maximumSize;
+		}
+	}
+	
+	/**
+	 * Evicted entry waiting to be written to the store
+	 */
+	private static final class PendingWrite{
+		private final byte[] key, value;
+		private PendingWrite(final byte[] key, final byte[] value){
+			this.key = key;
+			this.value = value;
+		}
+	}
+	
 	/**
 	 * Use ExternalMapArgument for correct initialization
 	 * 
@@ -65,11 +107,32 @@ public class ExternalMap<K, V>{
 	 */
 	protected ExternalMap(String mapId, Screen<K> screen, Cache<K, V> cache, Store<K, V> store,
 			Long reportingIntervalMillis, boolean flushCacheOnClose){
+		this(mapId, screen, singletonList(cache), store, reportingIntervalMillis, flushCacheOnClose, 0, 1);
+	}
+	
+	/**
+	 * Use ExternalMapArgument for correct initialization
+	 * 
+	 * @param mapId		id of the map
+	 * @param screen	screen to use to check whether element ever put. Might return false positive.
+	 * @param caches	one cache per shard. The maximum size of the first one is divided between the shards.
+	 * @param store		persistent db to evict data to from cache
+	 * @param writeBackQueueSize	max evicted entries waiting to be written. 0 to write in the evicting thread.
+	 * @param writeBackBatchSize	max entries written to the store at a time
+	 */
+	protected ExternalMap(String mapId, Screen<K> screen, List<Cache<K, V>> caches, Store<K, V> store,
+			Long reportingIntervalMillis, boolean flushCacheOnClose, int writeBackQueueSize, int writeBackBatchSize){
 		this.mapId = mapId;
 		this.screen = screen;
-		this.cache = cache;
 		this.store = store;
 		
+		final int maximumSize = caches.get(0).getMaximumSize();
+		final int shardMaximumSize = Math.max(1, (int)Math.ceil(maximumSize / (double)caches.size()));
+		this.shards = new ArrayList<Shard<K, V>>(caches.size());
+		for(int i = 0; i < caches.size(); i++){
+			shards.add(new Shard<K, V>(caches.get(i), caches.size() == 1 ? maximumSize : shardMaximumSize));
+		}
+		
 		if(reportingIntervalMillis != null){
 			intervaler = new Intervaler(reportingIntervalMillis);
 		}else{
@@ -77,18 +140,58 @@ public class ExternalMap<K, V>{
 		}
 		
 		this.flushCacheOnClose = flushCacheOnClose;
+		
+		if(writeBackQueueSize > 0){
+			writeBack = new WriteBack(writeBackQueueSize, Math.max(1, writeBackBatchSize));
+			writeBack.start();
+		}else{
+			writeBack = null;
+		}
+	}
+	
+	private static <K, V> List<Cache<K, V>> singletonList(final Cache<K, V> cache){
+		final List<Cache<K, V>> list = new ArrayList<Cache<K, V>>();
+		list.add(cache);
+		return list;
+	}
+	
+	private Shard<K, V> getShard(final K key){
+		if(shards.size() == 1){
+			return shards.get(0);
+		}
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return shards.get((hash & Integer.MAX_VALUE) % shards.size());
 	}
 	
 	/**
-	 * Puts the current evictable item (if any) in cache to store
+	 * Puts the current evictable item (if any) in cache to store (or to the write-back queue)
+	 * Must be called with the lock of the shard
 	 * 
 	 * @throws Exception exception thrown by store
 	 */
-	private void _evict() throws Exception{
-		CacheEntry<K, V> cacheEntry = cache.evict();
+	private void _evict(final Shard<K, V> shard) throws Exception{
+		CacheEntry<K, V> cacheEntry = shard.cache.evict();
 		if(cacheEntry != null){
-			totalEvictions = totalEvictions.add(BigInteger.ONE);
-			store.put(cacheEntry.key, cacheEntry.getValue());
+			totalEvictions.increment();
+			if(writeBack == null){
+				store.put(cacheEntry.key, cacheEntry.getValue());
+			}else{
+				writeBack.add(cacheEntry.key, cacheEntry.getValue());
+			}
+		}
+	}
+	
+	/**
+	 * Evict if cache size exceeded. Must be called with the lock of the shard
+	 */
+	private void _evictExceeded(final Shard<K, V> shard){
+		try{
+			while(shard.cache.getCurrentSize() > shard.maximumSize){
+				_evict(shard);
+			}
+		}catch(Exception e){
+			logger.log(Level.SEVERE, mapId + ": Failed 'evict' for cache and/or 'put' for store", e);
 		}
 	}
 	
@@ -110,18 +213,14 @@ public class ExternalMap<K, V>{
 		}catch(Exception e){
 			logger.log(Level.SEVERE, mapId + ": Failed 'add' for screen", e);
 		}
-		try{
-			cache.put(key, value);
-		}catch(Exception e){
-			logger.log(Level.SEVERE, mapId + ": Failed 'put' for cache", e);
-		}
-		// Evict if cache size exceeded
-		try{
-			while(cache.hasExceededMaximumSize()){
-				_evict();
+		final Shard<K, V> shard = getShard(key);
+		synchronized(shard){
+			try{
+				shard.cache.put(key, value);
+			}catch(Exception e){
+				logger.log(Level.SEVERE, mapId + ": Failed 'put' for cache", e);
 			}
-		}catch(Exception e){
-			logger.log(Level.SEVERE, mapId + ": Failed 'evict' for cache and/or 'put' for store", e);
+			_evictExceeded(shard);
 		}
 	}
 	
@@ -129,7 +228,7 @@ public class ExternalMap<K, V>{
 	 * If key not in screen then return null.
 	 * If key is in screen then get from cache. 
 	 * If is in cache then return that.
-	 * If not in cache then get from store.
+	 * If not in cache then get from the write-back queue (if any) or the store.
 	 * If not in store then return null.
 	 * If key is in store then add to cache, evict if cache limit exceeded and return the value.
 	 * 
@@ -142,53 +241,57 @@ public class ExternalMap<K, V>{
 			return null;
 		}
 		try{
-			if(screen.contains(key)){
-				// False positive possible
-				try{
-					V value = cache.get(key);
+			if(!screen.contains(key)){
+				// Definitely does not exist
+				return null;
+			}
+		}catch(Exception e){
+			logger.log(Level.SEVERE, mapId + ": Failed 'contains' for screen", e);
+			return null;
+		}
+		// False positive possible
+		final Shard<K, V> shard = getShard(key);
+		synchronized(shard){
+			V value;
+			try{
+				value = shard.cache.get(key);
+			}catch(Exception e){
+				logger.log(Level.SEVERE, mapId + ": Failed 'get' for cache", e);
+				return null;
+			}
+			if(value != null){
+				// Exists in cache
+				cacheHits.increment();
+				return value;
+			}
+			// Not in cache. Might have been evicted
+			try{
+				if(writeBack != null){
+					value = writeBack.get(key);
 					if(value != null){
-						// Exists in cache
-						cacheHits = cacheHits.add(BigInteger.ONE);
-						return value;
-					}else{
-						// Not in cache. Might have been evicted
-						try{
-							value = store.get(key);
-							if(value != null){
-								cacheMisses = cacheMisses.add(BigInteger.ONE);
-								try{
-									cache.put(key, value);
-									try{
-										while(cache.hasExceededMaximumSize()){
-											_evict();
-										}
-									}catch(Exception e){
-										logger.log(Level.SEVERE, mapId + ": Failed 'evict' for cache and/or 'put' for store", e);
-									}
-								}catch(Exception e){
-									logger.log(Level.SEVERE, mapId + ": Failed 'put' for cache", e);
-								}
-								return value;
-							}else{
-								totalFalsePositives = totalFalsePositives.add(BigInteger.ONE);
-								return null;
-							}
-						}catch(Exception e){
-							logger.log(Level.SEVERE, mapId + ": Failed 'get' for store", e);
-							return null;
-						}
+						writeBackHits.increment();
 					}
+				}
+				if(value == null){
+					value = store.get(key);
+				}
+			}catch(Exception e){
+				logger.log(Level.SEVERE, mapId + ": Failed 'get' for store", e);
+				return null;
+			}
+			if(value != null){
+				cacheMisses.increment();
+				try{
+					shard.cache.put(key, value);
+					_evictExceeded(shard);
 				}catch(Exception e){
-					logger.log(Level.SEVERE, mapId + ": Failed 'get' for cache", e);
-					return null;
+					logger.log(Level.SEVERE, mapId + ": Failed 'put' for cache", e);
 				}
+				return value;
 			}else{
-				// Definitely does not exist
+				totalFalsePositives.increment();
 				return null;
 			}
-		}catch(Exception e){
-			logger.log(Level.SEVERE, mapId + ": Failed 'contains' for screen", e);
-			return null;
 		}
 	}
 	
@@ -198,33 +301,37 @@ public class ExternalMap<K, V>{
 			return false;
 		}
 		try{
-			if(screen.contains(key)){
-				try{
-					if(cache.contains(key)){
-						return true;
-					}else{
-						try{
-							return store.contains(key);
-						}catch(Exception e){
-							logger.log(Level.SEVERE, mapId + ": Failed 'contains' for store", e);
-							return false;
-						}
-					}
-				}catch(Exception e){
-					logger.log(Level.SEVERE, mapId + ": Failed 'contains' for cache", e);
-					return false;
-				}
-			}else{
+			if(!screen.contains(key)){
 				return false;
 			}
 		}catch(Exception e){
 			logger.log(Level.SEVERE, mapId + ": Failed 'contains' for screen", e);
 			return false;
 		}
+		final Shard<K, V> shard = getShard(key);
+		synchronized(shard){
+			try{
+				if(shard.cache.contains(key)){
+					return true;
+				}
+			}catch(Exception e){
+				logger.log(Level.SEVERE, mapId + ": Failed 'contains' for cache", e);
+				return false;
+			}
+			try{
+				if(writeBack != null && writeBack.contains(key)){
+					return true;
+				}
+				return store.contains(key);
+			}catch(Exception e){
+				logger.log(Level.SEVERE, mapId + ": Failed 'contains' for store", e);
+				return false;
+			}
+		}
 	}
 	
 	/**
-	 * If present in screen then remove from screen, cache and store indiscriminately
+	 * If present in screen then remove from screen, cache, write-back queue and store indiscriminately
 	 * 
 	 * @param key
 	 */
@@ -240,15 +347,22 @@ public class ExternalMap<K, V>{
 				}catch(Exception e){
 					logger.log(Level.SEVERE, mapId + ": Failed 'remove' for screen", e);
 				}
-				try{
-					cache.remove(key);
-				}catch(Exception e){
-					logger.log(Level.SEVERE, mapId + ": Failed 'remove' for cache", e);
-				}
-				try{
-					store.remove(key);
-				}catch(Exception e){
-					logger.log(Level.SEVERE, mapId + ": Failed 'remove' for store", e);
+				final Shard<K, V> shard = getShard(key);
+				synchronized(shard){
+					try{
+						shard.cache.remove(key);
+					}catch(Exception e){
+						logger.log(Level.SEVERE, mapId + ": Failed 'remove' for cache", e);
+					}
+					try{
+						if(writeBack != null){
+							writeBack.remove(key);
+						}else{
+							store.remove(key);
+						}
+					}catch(Exception e){
+						logger.log(Level.SEVERE, mapId + ": Failed 'remove' for store", e);
+					}
 				}
 			}
 		}catch(Exception e){
@@ -257,13 +371,17 @@ public class ExternalMap<K, V>{
 	}
 	
 	/**
-	 * Flush the cache to the store
+	 * Flush the cache to the store (or to the write-back queue)
 	 * 
 	 * @throws Exception exception thrown by store
 	 */
 	private void flushToStore() throws Exception{
-		while(cache.getCurrentSize() > 0){
-			_evict();
+		for(final Shard<K, V> shard : shards){
+			synchronized(shard){
+				while(shard.cache.getCurrentSize() > 0){
+					_evict(shard);
+				}
+			}
 		}
 	}
 	
@@ -277,13 +395,21 @@ public class ExternalMap<K, V>{
 		}catch(Exception e){
 			logger.log(Level.SEVERE, mapId + ": Failed to clear screen", e);
 		}
-		try{
-			cache.clear();
-		}catch(Exception e){
-			logger.log(Level.SEVERE, mapId + ": Failed to clear cache", e);
+		for(final Shard<K, V> shard : shards){
+			synchronized(shard){
+				try{
+					shard.cache.clear();
+				}catch(Exception e){
+					logger.log(Level.SEVERE, mapId + ": Failed to clear cache", e);
+				}
+			}
 		}
 		try{
-			store.clear();
+			if(writeBack != null){
+				writeBack.clear();
+			}else{
+				store.clear();
+			}
 		}catch(Exception e){
 			logger.log(Level.SEVERE, mapId + ": Failed to clear store", e);
 		}
@@ -291,6 +417,7 @@ public class ExternalMap<K, V>{
 	
 	/**
 	 * Close the screen, close the cache and close the store
+	 * The write-back queue is written to the store before closing the store.
 	 */
 	public void close(){
 		if(flushCacheOnClose){
@@ -300,8 +427,14 @@ public class ExternalMap<K, V>{
 			}catch(Exception e){
 				logger.log(Level.SEVERE, mapId + ": Failed to flush cache to store", e);
 			}
+			if(writeBack != null){
+				writeBack.close();
+			}
 			printStats("POST-FLUSH");
 		}else{
+			if(writeBack != null){
+				writeBack.close();
+			}
 			printStats();
 		}
 		
@@ -310,10 +443,12 @@ public class ExternalMap<K, V>{
 		}catch(Exception e){
 			logger.log(Level.SEVERE, mapId + ": Failed to close screen", e);
 		}
-		try{
-			cache.close();
-		}catch(Exception e){
-			logger.log(Level.SEVERE, mapId + ": Failed to close cache", e);
+		for(final Shard<K, V> shard : shards){
+			try{
+				shard.cache.close();
+			}catch(Exception e){
+				logger.log(Level.SEVERE, mapId + ": Failed to close cache", e);
+			}
 		}
 		try{
 			store.close();
@@ -332,6 +467,16 @@ public class ExternalMap<K, V>{
 		return store.getSizeOnDiskInBytes();
 	}
 	
+	private long getCacheCount(){
+		long count = 0;
+		for(final Shard<K, V> shard : shards){
+			synchronized(shard){
+				count += shard.cache.getCurrentSize();
+			}
+		}
+		return count;
+	}
+	
 	private void printStats(){
 		printStats("");
 	}
@@ -354,18 +499,197 @@ public class ExternalMap<K, V>{
 		
 		String str = String.format("%s%s: evictions=%s, falsePositives=%s, cacheHits=%s, cacheMisses=%s, "
 				+ "screenCount=%s, cacheCount=%s, storeSize=(%s)", 
-				mapId, msg, totalEvictions, totalFalsePositives, cacheHits, cacheMisses,
-				screen.size(), cache.getCurrentSize(), FileUtility.formatBytesSizeToDisplaySize(sizeBytes));
+				mapId, msg, totalEvictions.sum(), totalFalsePositives.sum(), cacheHits.sum(), cacheMisses.sum(),
+				screen.size(), getCacheCount(), FileUtility.formatBytesSizeToDisplaySize(sizeBytes));
+		if(writeBack != null){
+			str += String.format(", writeBackHits=%s, writeBackPending=%s, writeBackWrites=%s, writeBackBatches=%s",
+					writeBackHits.sum(), writeBack.pending.size(), writeBackWrites.sum(), writeBackBatches.sum());
+		}
 		
 		logger.log(Level.INFO, str);
 	}
 	
 	private void checkInterval(){
 		if(intervaler != null){
-			if(intervaler.check()){
+			final boolean print;
+			synchronized(intervaler){
+				print = intervaler.check();
+			}
+			if(print){
 				printStats();
 			}
 		}
 	}
 	
+	/**
+	 * Background writer of the evicted entries.
+	 * 
+	 * An evicted entry is serialized in the evicting thread (so that the value written is the one at eviction) and
+	 * put in 'pending' (for reads) and its key in the queue. The writer takes up to 'batchSize' keys from the queue
+	 * and writes the latest pending value of each to the store in one batch. An entry is removed from 'pending' only
+	 * after it is in the store, and only if it was not evicted again meanwhile.
+	 * 
+	 * If the batch cannot be written then its entries stay in 'pending' and are retried after a delay which doubles
+	 * on every consecutive failure (up to 'maxRetryDelayMillis'). On close, the entries are given up after
+	 * 'closeRetries' consecutive failures.
+	 */
+	private final class WriteBack extends Thread{
+		private final ConcurrentHashMap<K, PendingWrite> pending = new ConcurrentHashMap<K, PendingWrite>();
+		private final BlockingQueue<K> queue;
+		private final int batchSize;
+		private final long minRetryDelayMillis = 100, maxRetryDelayMillis = 10000;
+		private final int closeRetries = 3;
+		/**
+		 * Held while writing a batch. 'remove' and 'clear' hold it too so that a batch doesn't put back a removed
+		 * entry.
+		 */
+		private final Object writeLock = new Object();
+		private volatile boolean closing = false;
+		
+		private WriteBack(final int queueSize, final int batchSize){
+			super(mapId + "-write-back");
+			setDaemon(true);
+			this.queue = new ArrayBlockingQueue<K>(queueSize);
+			this.batchSize = batchSize;
+		}
+		
+		/*
+		 * Waits if the queue is full
+		 */
+		private void add(final K key, final V value) throws Exception{
+			final PendingWrite write = new PendingWrite(store.keyConverter.serialize(key),
+					store.valueConverter.serialize(value));
+			if(pending.put(key, write) == null){
+				try{
+					queue.put(key);
+				}catch(InterruptedException e){
+					pending.remove(key, write);
+					Thread.currentThread().interrupt();
+					throw new Exception("Interrupted waiting for the write-back queue", e);
+				}
+			}// else the key is in the queue already and the writer takes the latest value
+		}
+		
+		private V get(final K key) throws Exception{
+			final PendingWrite write = pending.get(key);
+			if(write == null){
+				return null;
+			}
+			return store.valueConverter.deserialize(write.value);
+		}
+		
+		private boolean contains(final K key){
+			return pending.containsKey(key);
+		}
+		
+		private void remove(final K key) throws Exception{
+			synchronized(writeLock){
+				pending.remove(key);
+				store.remove(key);
+			}
+		}
+		
+		private void clear() throws Exception{
+			synchronized(writeLock){
+				pending.clear();
+				queue.clear();
+				store.clear();
+			}
+		}
+		
+		@Override
+		public void run(){
+			// Keys evicted again while being written are carried to the next batch (not in the queue)
+			final List<K> keys = new ArrayList<K>(batchSize);
+			final List<K> writtenKeys = new ArrayList<K>(batchSize);
+			final List<PendingWrite> writes = new ArrayList<PendingWrite>(batchSize);
+			final List<byte[]> keyBytes = new ArrayList<byte[]>(batchSize);
+			final List<byte[]> valueBytes = new ArrayList<byte[]>(batchSize);
+			int failures = 0;
+			while(true){
+				if(keys.isEmpty()){
+					final K first;
+					try{
+						first = queue.poll(100, TimeUnit.MILLISECONDS);
+					}catch(InterruptedException e){
+						break;
+					}
+					if(first == null){
+						if(closing){
+							break;
+						}
+						continue;
+					}
+					keys.add(first);
+				}
+				if(keys.size() < batchSize){
+					queue.drainTo(keys, batchSize - keys.size());
+				}
+				synchronized(writeLock){
+					for(final K key : keys){
+						final PendingWrite write = pending.get(key);
+						if(write != null){ // NULL if removed or cleared
+							writtenKeys.add(key);
+							writes.add(write);
+							keyBytes.add(write.key);
+							valueBytes.add(write.value);
+						}
+					}
+					keys.clear();
+					if(!writes.isEmpty()){
+						try{
+							store.putAllSerialized(keyBytes, valueBytes);
+							writeBackWrites.add(writes.size());
+							writeBackBatches.increment();
+							failures = 0;
+						}catch(Exception e){
+							failures++;
+							logger.log(Level.SEVERE, mapId + ": Failed 'put' for store of " + writes.size()
+									+ " evicted entries. Attempt: " + failures, e);
+						}
+						if(failures == 0){
+							for(int i = 0; i < writtenKeys.size(); i++){
+								final K key = writtenKeys.get(i);
+								if(!pending.remove(key, writes.get(i)) && pending.containsKey(key)){
+									keys.add(key);
+								}
+							}
+						}else{
+							// Still in 'pending' (unless removed meanwhile). Retried with the latest values
+							keys.addAll(writtenKeys);
+						}
+					}
+				}
+				if(failures > 0){
+					if(closing && failures >= closeRetries){
+						logger.log(Level.SEVERE, mapId + ": Closing without writing " + pending.size()
+								+ " evicted entries to the store");
+						break;
+					}
+					try{
+						Thread.sleep(Math.min(maxRetryDelayMillis, minRetryDelayMillis << Math.min(failures - 1, 20)));
+					}catch(InterruptedException e){
+						break;
+					}
+				}
+				writtenKeys.clear();
+				writes.clear();
+				keyBytes.clear();
+				valueBytes.clear();
+			}
+		}
+		
+		/**
+		 * Writes the queue to the store and stops the thread
+		 */
+		private void close(){
+			closing = true;
+			try{
+				join();
+			}catch(InterruptedException e){
+				logger.log(Level.WARNING, mapId + ": Interrupted waiting for the write-back queue. Pending: " + pending.size());
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
 }
@@ -28,6 +28,9 @@ public class ExternalMapArgument{
 	public static final String keyMapArgument = "argument",
 								keyMapReportingSeconds = "reportingSeconds",
 								keyMapFlushOnClose = "flushOnClose",
+								keyMapShards = "shards",
+								keyMapWriteBackQueueSize = "writeBackQueueSize",
+								keyMapWriteBackBatchSize = "writeBackBatchSize",
 								keyScreenName = "screenName",
 								keyScreenArgument = "screenArgument",
 								keyCacheName = "cacheName",
@@ -44,15 +47,40 @@ public class ExternalMapArgument{
 	public final Long reportingIntervalMillis;
 	public final boolean flushCacheOnClose;
 	
+	/**
+	 * Number of caches (each with its own lock)
+	 */
+	public final int shards;
+	/**
+	 * Max evicted entries waiting to be written to the store by the background thread. 0 to write in the evicting
+	 * thread
+	 */
+	public final int writeBackQueueSize;
+	/**
+	 * Max evicted entries written to the store at a time by the background thread
+	 */
+	public final int writeBackBatchSize;
+	
 	protected ExternalMapArgument(String mapId, 
 			ScreenArgument screenArgument, CacheArgument cacheArgument, StoreArgument storeArgument,
 			Long reportingIntervalMillis, boolean flushCacheOnClose){
+		this(mapId, screenArgument, cacheArgument, storeArgument, reportingIntervalMillis, flushCacheOnClose,
+				1, 0, 1);
+	}
+	
+	protected ExternalMapArgument(String mapId, 
+			ScreenArgument screenArgument, CacheArgument cacheArgument, StoreArgument storeArgument,
+			Long reportingIntervalMillis, boolean flushCacheOnClose,
+			int shards, int writeBackQueueSize, int writeBackBatchSize){
 		this.mapId = mapId;
 		this.screenArgument = screenArgument;
 		this.cacheArgument = cacheArgument;
 		this.storeArgument = storeArgument;
 		this.reportingIntervalMillis = reportingIntervalMillis;
 		this.flushCacheOnClose = flushCacheOnClose;
+		this.shards = shards;
+		this.writeBackQueueSize = writeBackQueueSize;
+		this.writeBackBatchSize = writeBackBatchSize;
 	}
 
 	@Override
@@ -61,6 +89,9 @@ public class ExternalMapArgument{
 		int result = 1;
 		result = prime * result + ((cacheArgument == null) ? 0 : cacheArgument.hashCode());
 		result = prime * result + (flushCacheOnClose ? 1231 : 1237);
+		result = prime * result + shards;
+		result = prime * result + writeBackQueueSize;
+		result = prime * result + writeBackBatchSize;
 		result = prime * result + ((mapId == null) ? 0 : mapId.hashCode());
 		result = prime * result + ((reportingIntervalMillis == null) ? 0 : reportingIntervalMillis.hashCode());
 		result = prime * result + ((screenArgument == null) ? 0 : screenArgument.hashCode());
@@ -84,6 +115,12 @@ public class ExternalMapArgument{
 			return false;
 		if(flushCacheOnClose != other.flushCacheOnClose)
 			return false;
+		if(shards != other.shards)
+			return false;
+		if(writeBackQueueSize != other.writeBackQueueSize)
+			return false;
+		if(writeBackBatchSize != other.writeBackBatchSize)
+			return false;
 		if(mapId == null){
 			if(other.mapId != null)
 				return false;
@@ -111,6 +148,7 @@ public class ExternalMapArgument{
 	public String toString(){
 		return "ExternalMapArgument [mapId=" + mapId + ", screenArgument=" + screenArgument + ", cacheArgument="
 				+ cacheArgument + ", storeArgument=" + storeArgument + ", reportingIntervalMillis="
-				+ reportingIntervalMillis + ", flushCacheOnClose=" + flushCacheOnClose + "]";
+				+ reportingIntervalMillis + ", flushCacheOnClose=" + flushCacheOnClose + ", shards=" + shards
+				+ ", writeBackQueueSize=" + writeBackQueueSize + ", writeBackBatchSize=" + writeBackBatchSize + "]";
 	}
 }
@@ -20,7 +20,9 @@
 package spade.utility.map.external;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import spade.utility.HelperFunctions;
@@ -72,7 +74,7 @@ public class ExternalMapManager{
 	/**
 	 * Expected key value:
 	 * 
-	 * <mapid>.argument=reportingSeconds= flushOnClose=
+	 * <mapid>.argument=reportingSeconds= flushOnClose= [shards= writeBackQueueSize= writeBackBatchSize=]
 	 * <mapid>.screenName=
 	 * <mapid>.screenArgument=
 	 * <mapid>.cacheName=
@@ -167,6 +169,20 @@ public class ExternalMapManager{
 					return Result.failed("Failed to parse flush on close value", flushResult);
 				}else{
 					boolean flushOnClose = flushResult.result;
+					Result<Long> shardsResult = parseOptionalInt(mapArgumentMap, ExternalMapArgument.keyMapShards, 1, 1);
+					if(shardsResult.error){
+						return Result.failed("Invalid map shards", shardsResult);
+					}
+					Result<Long> writeBackQueueSizeResult = parseOptionalInt(mapArgumentMap, 
+							ExternalMapArgument.keyMapWriteBackQueueSize, 0, 0);
+					if(writeBackQueueSizeResult.error){
+						return Result.failed("Invalid map write-back queue size", writeBackQueueSizeResult);
+					}
+					Result<Long> writeBackBatchSizeResult = parseOptionalInt(mapArgumentMap, 
+							ExternalMapArgument.keyMapWriteBackBatchSize, 256, 1);
+					if(writeBackBatchSizeResult.error){
+						return Result.failed("Invalid map write-back batch size", writeBackBatchSizeResult);
+					}
 					Result<ScreenArgument> screenResult = ScreenManager.parseArgument(screenNameString, screenArgumentString);
 					if(screenResult.error){
 						return Result.failed("Invalid screen argument", screenResult);
@@ -181,7 +197,9 @@ public class ExternalMapManager{
 							}else{
 								return Result.successful(new ExternalMapArgument(mapId, 
 										screenResult.result, cacheResult.result, storeResult.result,
-										reportingIntervalMillis, flushOnClose));
+										reportingIntervalMillis, flushOnClose,
+										shardsResult.result.intValue(), writeBackQueueSizeResult.result.intValue(),
+										writeBackBatchSizeResult.result.intValue()));
 							}
 						}
 					}
@@ -190,6 +208,15 @@ public class ExternalMapManager{
 		}
 	}
 	
+	private static Result<Long> parseOptionalInt(Map<String, String> map, String key, long defaultValue, long min){
+		String value = map.get(key);
+		if(value == null){
+			return Result.successful(defaultValue);
+		}else{
+			return HelperFunctions.parseLong(value, 10, min, Integer.MAX_VALUE);
+		}
+	}
+	
 	public static Result<Boolean> validateArgument(ExternalMapArgument argument){
 		if(argument == null){
 			return Result.failed("NULL argument");
@@ -203,6 +230,8 @@ public class ExternalMapManager{
 				return Result.failed("NULL cache argument");
 			}else if(argument.storeArgument == null){
 				return Result.failed("NULL store argument");
+			}else if(argument.shards < 1){
+				return Result.failed("Shards must be greater than 0: " + argument.shards);
 			}else{
 				return Result.successful(true);
 			}
@@ -229,20 +258,23 @@ public class ExternalMapManager{
 					return Result.failed("Failed to create screen", screenResult);
 				}else{
 					Screen<K> screen = screenResult.result;
-					Result<? extends Cache<K, V>> cacheResult = CacheManager.createCache(argument.cacheArgument);
-					if(cacheResult.error){
-						return Result.failed("Failed to create cache", cacheResult);
-					}else{
-						Cache<K, V> cache = cacheResult.result;
-						Result<? extends Store<K, V>> storeResult = 
-								StoreManager.createStore(argument.storeArgument, keyConverter, valueConverter);
-						if(storeResult.error){
-							return Result.failed("Failed to create store", storeResult);
-						}else{
-							Store<K, V> store = storeResult.result;
-							return Result.successful(new ExternalMap<K, V>(argument.mapId, screen, cache, store, 
-									argument.reportingIntervalMillis, argument.flushCacheOnClose));
+					List<Cache<K, V>> caches = new ArrayList<Cache<K, V>>();
+					for(int i = 0; i < argument.shards; i++){
+						Result<? extends Cache<K, V>> cacheResult = CacheManager.createCache(argument.cacheArgument);
+						if(cacheResult.error){
+							return Result.failed("Failed to create cache", cacheResult);
 						}
+						caches.add(cacheResult.result);
+					}
+					Result<? extends Store<K, V>> storeResult = 
+							StoreManager.createStore(argument.storeArgument, keyConverter, valueConverter);
+					if(storeResult.error){
+						return Result.failed("Failed to create store", storeResult);
+					}else{
+						Store<K, V> store = storeResult.result;
+						return Result.successful(new ExternalMap<K, V>(argument.mapId, screen, caches, store, 
+								argument.reportingIntervalMillis, argument.flushCacheOnClose,
+								argument.writeBackQueueSize, argument.writeBackBatchSize));
 					}
 				}
 			}
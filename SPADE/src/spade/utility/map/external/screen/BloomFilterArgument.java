@@ -27,7 +27,8 @@ public abstract class BloomFilterArgument extends ScreenArgument{
 	public final static String keyExpectedElements = "expectedElements",
 			keyFalsePositiveProbability = "falsePositiveProbability",
 			keySavePath = "savePath",
-			keyLoadPath = "loadPath";
+			keyLoadPath = "loadPath",
+			keyBlocked = "blocked";
 	/**
 	 * Path to write the bloom filter object to at close
 	 */
@@ -113,17 +114,22 @@ public abstract class BloomFilterArgument extends ScreenArgument{
 		
 		public final int expectedElements;
 		public final double falsePositiveProbability;
+		/**
+		 * All the bits of a key in one cache line
+		 */
+		public final boolean blocked;
 		
-		protected CreateFromArgs(int expectedElements, double falsePositiveProbability, String savePath){
+		protected CreateFromArgs(int expectedElements, double falsePositiveProbability, boolean blocked, String savePath){
 			super(savePath);
 			this.expectedElements = expectedElements;
 			this.falsePositiveProbability = falsePositiveProbability;
+			this.blocked = blocked;
 		}
 		
 		@Override
 		public String toString(){
 			return "CreateFromArgs [expectedElements=" + expectedElements + ", falsePositiveProbability="
-					+ falsePositiveProbability + ", savePath=" + savePath + ", name=" + name + "]";
+					+ falsePositiveProbability + ", blocked=" + blocked + ", savePath=" + savePath + ", name=" + name + "]";
 		}
 
 		@Override
@@ -134,6 +140,7 @@ public abstract class BloomFilterArgument extends ScreenArgument{
 			long temp;
 			temp = Double.doubleToLongBits(falsePositiveProbability);
 			result = prime * result + (int)(temp ^ (temp >>> 32));
+			result = prime * result + (blocked ? 1231 : 1237);
 			return result;
 		}
 
@@ -151,6 +158,8 @@ public abstract class BloomFilterArgument extends ScreenArgument{
 			if(Double.doubleToLongBits(falsePositiveProbability) != Double
 					.doubleToLongBits(other.falsePositiveProbability))
 				return false;
+			if(blocked != other.blocked)
+				return false;
 			return true;
 		}		
 	}
@@ -25,7 +25,8 @@ import java.io.ObjectInputStream;
 import java.util.HashMap;
 import java.util.Map;
 
-import spade.core.BloomFilter;
+import spade.core.ConcurrentBloomFilter;
+import spade.core.MembershipFilter;
 import spade.utility.HelperFunctions;
 import spade.utility.Result;
 
@@ -39,9 +40,9 @@ public class BloomFilterManager extends ScreenManager{
 	
 	/**
 	 * Create BloomFilterArgument.
-	 * Sample: "expectedElements=[1-n] falsePositiveProbability=[0-1] [savePath=<writable-filepath> loadPath=<existing-filepath>]"
+	 * Sample: "expectedElements=[1-n] falsePositiveProbability=[0-1] [blocked=true|false] [savePath=<writable-filepath> loadPath=<existing-filepath>]"
 	 * 
-	 * 'savePath' and 'loadPath' are optional.
+	 * 'blocked', 'savePath' and 'loadPath' are optional.
 	 * 
 	 * @param arguments See above sample
 	 */
@@ -64,7 +65,7 @@ public class BloomFilterManager extends ScreenManager{
 	 * Must contains valid values for keys: 'expectedElements', 'falsePositiveProbability'.
 	 * All values must be non-null and non-empty.
 	 * 
-	 * Optional keys: 'loadPath', 'savePath'
+	 * Optional keys: 'blocked', 'loadPath', 'savePath'
 	 */
 	@Override
 	public Result<ScreenArgument> parseArgument(Map<String, String> arguments){
@@ -162,8 +163,17 @@ public class BloomFilterManager extends ScreenManager{
 						return Result.failed("Failed to parse '"+BloomFilterArgument.keyFalsePositiveProbability+"'", falsePositiveProbResult);
 					}else{
 						double falsePositiveProbability = falsePositiveProbResult.result;
+						boolean blocked = false;
+						final String blockedString = arguments.get(BloomFilterArgument.keyBlocked);
+						if(blockedString != null){
+							Result<Boolean> blockedResult = HelperFunctions.parseBoolean(blockedString);
+							if(blockedResult.error){
+								return Result.failed("Failed to parse '"+BloomFilterArgument.keyBlocked+"'", blockedResult);
+							}
+							blocked = blockedResult.result;
+						}
 						return Result.successful(new BloomFilterArgument.CreateFromArgs(expectedElements, falsePositiveProbability, 
-								saveToPath));
+								blocked, saveToPath));
 					}
 				}
 			}
@@ -215,13 +225,14 @@ public class BloomFilterManager extends ScreenManager{
 			if(argument == null){
 				return Result.failed("NULL argument");
 			}else{
-				BloomFilter<K> bloomFilter = null;
+				MembershipFilter<K> bloomFilter = null;
 				if(argument.getClass().equals(BloomFilterArgument.CreateFromArgs.class)){
 					BloomFilterArgument.CreateFromArgs createArg = (BloomFilterArgument.CreateFromArgs)argument;
-					bloomFilter = new BloomFilter<K>(createArg.falsePositiveProbability, createArg.expectedElements);
+					bloomFilter = new ConcurrentBloomFilter<K>(createArg.falsePositiveProbability, createArg.expectedElements,
+							createArg.blocked);
 				}else if(argument.getClass().equals(BloomFilterArgument.LoadFromFile.class)){
 					BloomFilterArgument.LoadFromFile loadArg = (BloomFilterArgument.LoadFromFile)argument;
-					Result<BloomFilter<K>> resultBloomFilter = loadBloomFilterFromFile(loadArg.loadPath);
+					Result<MembershipFilter<K>> resultBloomFilter = loadBloomFilterFromFile(loadArg.loadPath);
 					if(resultBloomFilter.error){
 						return Result.failed("Invalid load path", resultBloomFilter);
 					}else{
@@ -241,18 +252,19 @@ public class BloomFilterManager extends ScreenManager{
 	}
 	
 	/**
-	 * Loads BloomFilter from path
+	 * Loads BloomFilter from path. The file can have a ConcurrentBloomFilter or a BloomFilter (saved by the
+	 * previous versions).
 	 * 
 	 * @param <K> key type
 	 * @param path path of the file to load bloomfilter from
 	 * @return bloomfilter object
 	 */
-	private <K> Result<BloomFilter<K>> loadBloomFilterFromFile(String path){
+	private <K> Result<MembershipFilter<K>> loadBloomFilterFromFile(String path){
 		try{
 			FileInputStream fis = new FileInputStream(new File(path));
 			ObjectInputStream ois = new ObjectInputStream(fis);
 			@SuppressWarnings("unchecked")
-			BloomFilter<K> bloomFilter = (BloomFilter<K>)ois.readObject();
+			MembershipFilter<K> bloomFilter = (MembershipFilter<K>)ois.readObject();
 			ois.close();
 			fis.close();
 			if(bloomFilter == null){
@@ -23,7 +23,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.ObjectOutputStream;
 
-import spade.core.BloomFilter;
+import spade.core.ConcurrentBloomFilter;
+import spade.core.MembershipFilter;
 import spade.utility.HelperFunctions;
 
 /**
@@ -39,15 +40,31 @@ public class BloomFilterScreen<K> implements Screen<K>{
 	/**
 	 * Bloomfilter object
 	 */
-	private final BloomFilter<K> bloomFilter;
+	private final MembershipFilter<K> bloomFilter;
+	/**
+	 * NULL if the bloomfilter is thread-safe otherwise the bloomfilter (loaded from a file saved by the previous
+	 * versions)
+	 */
+	private final Object lock;
 	
-	protected BloomFilterScreen(String savePath, BloomFilter<K> bloomFilter){
+	protected BloomFilterScreen(String savePath, MembershipFilter<K> bloomFilter){
 		this.savePath = savePath;
 		this.bloomFilter = bloomFilter;
+		this.lock = (bloomFilter instanceof ConcurrentBloomFilter) ? null : bloomFilter;
 	}
 	
 	@Override
 	public void add(K key){
+		if(lock == null){
+			_add(key);
+		}else{
+			synchronized(lock){
+				_add(key);
+			}
+		}
+	}
+	
+	private void _add(K key){
 		if(key == null){
 			bloomFilter.add(String.valueOf(key).getBytes());
 		}else{
@@ -57,6 +74,16 @@ public class BloomFilterScreen<K> implements Screen<K>{
 	
 	@Override
 	public boolean contains(K key){
+		if(lock == null){
+			return _contains(key);
+		}else{
+			synchronized(lock){
+				return _contains(key);
+			}
+		}
+	}
+	
+	private boolean _contains(K key){
 		if(key == null){
 			return bloomFilter.contains(String.valueOf(key).getBytes());
 		}else{
@@ -23,6 +23,7 @@ import spade.utility.profile.ReportingArgument;
 
 /**
  * Profiled screen with instrumentation for measuring time for add, contains, remove.
+ * Synchronized because the profile is not thread-safe (the external map can use the screen from multiple threads).
  *
  * @param <K>
  */
@@ -41,7 +42,7 @@ public class ProfiledScreen<K> implements Screen<K>{
 	}
 	
 	@Override
-	public void add(K key){
+	public synchronized void add(K key){
 		try{
 			profile.addStart();
 			screen.add(key);
@@ -53,7 +54,7 @@ public class ProfiledScreen<K> implements Screen<K>{
 	}
 
 	@Override
-	public boolean contains(K key){
+	public synchronized boolean contains(K key){
 		try{
 			profile.containsStart();
 			return screen.contains(key);
@@ -65,7 +66,7 @@ public class ProfiledScreen<K> implements Screen<K>{
 	}
 
 	@Override
-	public boolean remove(K key){
+	public synchronized boolean remove(K key){
 		try{
 			profile.removeStart();
 			return screen.remove(key);
@@ -77,12 +78,12 @@ public class ProfiledScreen<K> implements Screen<K>{
 	}
 
 	@Override
-	public void clear(){
+	public synchronized void clear(){
 		screen.clear();
 	}
 
 	@Override
-	public void close() throws Exception{
+	public synchronized void close() throws Exception{
 		try{
 			profile.stopAll();
 		}catch(Exception e){
@@ -96,7 +97,7 @@ public class ProfiledScreen<K> implements Screen<K>{
 	}
 	
 	@Override
-	public long size(){
+	public synchronized long size(){
 		return screen.size();
 	}
 
@@ -20,6 +20,7 @@
 package spade.utility.map.external.store;
 
 import java.math.BigInteger;
+import java.util.List;
 
 import spade.utility.Converter;
 import spade.utility.map.external.store.db.DatabaseHandle;
@@ -54,6 +55,11 @@ public class DBStore<K, V> extends Store<K, V>{
 		dbHandle.put(keyBytes, valueBytes);
 	}
 	
+	@Override
+	public void putAllSerialized(List<byte[]> keys, List<byte[]> values) throws Exception{
+		dbHandle.putAll(keys, values);
+	}
+	
 	@Override
 	public V get(K key) throws Exception{
 		byte[] keyBytes = keyConverter.serialize(key);
@@ -20,11 +20,13 @@
 package spade.utility.map.external.store;
 
 import java.math.BigInteger;
+import java.util.List;
 
 import spade.utility.profile.ReportingArgument;
 
 /**
  * Profiled store with instrumentation for measuring time for get, put, contains, and remove.
+ * Synchronized because the profile is not thread-safe (the external map can use the store from multiple threads).
  *
  * @param <K>
  * @param <V>
@@ -46,7 +48,7 @@ public class ProfiledStore<K, V> extends Store<K, V>{
 	}
 
 	@Override
-	public void put(K key, V value) throws Exception{
+	public synchronized void put(K key, V value) throws Exception{
 		try{
 			profile.putStart();
 			store.put(key, value);
@@ -58,7 +60,19 @@ public class ProfiledStore<K, V> extends Store<K, V>{
 	}
 
 	@Override
-	public V get(K key) throws Exception{
+	public synchronized void putAllSerialized(List<byte[]> keys, List<byte[]> values) throws Exception{
+		try{
+			profile.putStart();
+			store.putAllSerialized(keys, values);
+		}catch(Exception e){
+			throw e;
+		}finally{
+			profile.putStop();
+		}
+	}
+
+	@Override
+	public synchronized V get(K key) throws Exception{
 		try{
 			profile.getStart();
 			return store.get(key);
@@ -70,7 +84,7 @@ public class ProfiledStore<K, V> extends Store<K, V>{
 	}
 
 	@Override
-	public void remove(K key) throws Exception{
+	public synchronized void remove(K key) throws Exception{
 		try{
 			profile.removeStart();
 			store.remove(key);
@@ -82,7 +96,7 @@ public class ProfiledStore<K, V> extends Store<K, V>{
 	}
 	
 	@Override
-	public boolean contains(K key) throws Exception{
+	public synchronized boolean contains(K key) throws Exception{
 		try{
 			profile.containsStart();
 			return store.contains(key);
@@ -94,7 +108,7 @@ public class ProfiledStore<K, V> extends Store<K, V>{
 	}
 
 	@Override
-	public void close() throws Exception{
+	public synchronized void close() throws Exception{
 		try{
 			profile.stopAll();
 		}catch(Exception e){
@@ -108,7 +122,7 @@ public class ProfiledStore<K, V> extends Store<K, V>{
 	}
 	
 	@Override
-	public void clear() throws Exception{
+	public synchronized void clear() throws Exception{
 		try{
 			store.clear();
 		}catch(Exception e){
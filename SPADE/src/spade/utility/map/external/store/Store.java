@@ -20,6 +20,7 @@
 package spade.utility.map.external.store;
 
 import java.math.BigInteger;
+import java.util.List;
 
 import spade.utility.Converter;
 
@@ -58,6 +59,15 @@ public abstract class Store<K, V>{
 	 */
 	public abstract void put(K key, V value) throws Exception;
 	
+	/**
+	 * Put into store in one batch the keys and values already serialized with 'keyConverter' and 'valueConverter'
+	 * 
+	 * @param keys serialized keys
+	 * @param values serialized values. Same size as keys
+	 * @throws Exception any underlying store and database exception
+	 */
+	public abstract void putAllSerialized(List<byte[]> keys, List<byte[]> values) throws Exception;
+	
 	/**
 	 * Get from store
 	 * 
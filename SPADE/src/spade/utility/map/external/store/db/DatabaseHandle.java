@@ -20,6 +20,7 @@
 package spade.utility.map.external.store.db;
 
 import java.math.BigInteger;
+import java.util.List;
 
 /**
  * A key value based database handle to be used by the external map
@@ -34,6 +35,14 @@ public interface DatabaseHandle{
 	 * @throws Exception any exception by the underlying database
 	 */
 	public void put(byte[] key, byte[] value) throws Exception;
+	/**
+	 * Put 'values.get(i)' for 'keys.get(i)' for all i in one batch write if supported by the database
+	 * 
+	 * @param keys
+	 * @param values same size as keys
+	 * @throws Exception any exception by the underlying database
+	 */
+	public void putAll(List<byte[]> keys, List<byte[]> values) throws Exception;
 	/**
 	 * Returns the value for 'key'. NULL if not found.
 	 * 
@@ -21,6 +21,7 @@ package spade.utility.map.external.store.db.berkeleydb;
 
 import java.io.File;
 import java.math.BigInteger;
+import java.util.List;
 
 import org.apache.commons.io.FileUtils;
 
@@ -88,6 +89,16 @@ public class BerkeleyDBHandle implements DatabaseHandle{
 		}
 	}
 
+	/**
+	 * One put per key (the database is not opened as transactional)
+	 */
+	@Override
+	public void putAll(List<byte[]> keys, List<byte[]> values) throws Exception{
+		for(int i = 0; i < keys.size(); i++){
+			put(keys.get(i), values.get(i));
+		}
+	}
+
 	@Override
 	public byte[] get(byte[] key) throws Exception{
 		DatabaseEntry keyEntry = new DatabaseEntry(key);
@@ -23,10 +23,12 @@ import static org.fusesource.leveldbjni.JniDBFactory.factory;
 
 import java.io.File;
 import java.math.BigInteger;
+import java.util.List;
 
 import org.apache.commons.io.FileUtils;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.Options;
+import org.iq80.leveldb.WriteBatch;
 
 import spade.utility.HelperFunctions;
 import spade.utility.map.external.store.db.DatabaseHandle;
@@ -65,6 +67,19 @@ public class LevelDBHandle implements DatabaseHandle{
 		db.put(key, value);
 	}
 
+	@Override
+	public void putAll(List<byte[]> keys, List<byte[]> values) throws Exception{
+		final WriteBatch batch = db.createWriteBatch();
+		try{
+			for(int i = 0; i < keys.size(); i++){
+				batch.put(keys.get(i), values.get(i));
+			}
+			db.write(batch);
+		}finally{
+			batch.close();
+		}
+	}
+
 	@Override
 	public byte[] get(byte[] key) throws Exception{
 		return db.get(key);
@@ -0,0 +1,220 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package core;
+
+import spade.core.BloomFilter;
+import spade.core.ConcurrentBloomFilter;
+import spade.core.MembershipFilter;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class measures the adds/sec and contains/sec of spade.core.BloomFilter (MD5 digest per element)
+ * against spade.core.ConcurrentBloomFilter (standard and blocked layout) with the given number of threads,
+ * using keys that look like the ones added by the Deduplicate screen (bigHashCode of vertices and edges).
+ * The measured false positive rate is reported against the expected one. Each thread adds and checks its
+ * own keys, all threads use the same filter. BloomFilter is not thread-safe (its BitSet loses concurrent
+ * updates), so it is used under a lock as done by its users.
+ *
+ * Usage: BloomFilterBenchmark [elements] [false positive probability] [threads] [rounds]
+ * Defaults: 1000000 elements, 0.0000001, 4 threads, 3 rounds.
+ */
+public class BloomFilterBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        final int elements = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final double falsePositiveProbability = args.length > 1 ? Double.parseDouble(args[1]) : 0.0000001;
+        final int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        final int rounds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        System.out.println(String.format("elements=%d, falsePositiveProbability=%s, threads=%d, cpus=%d",
+                elements, falsePositiveProbability, threads, Runtime.getRuntime().availableProcessors()));
+        // The first half is added, the second half is used for the false positives
+        final String[] keys = new String[elements * 2];
+        for(int i = 0; i < keys.length; i++)
+        {
+            // Same length as the hex of a 128-bit hash
+            keys[i] = String.format("%032x", (long)i * 0x9E3779B97F4A7C15L);
+        }
+        for(int round = 1; round <= rounds; round++)
+        {
+            run(round, "BloomFilter", new Synchronized(new BloomFilter<String>(falsePositiveProbability, elements)),
+                    keys, threads);
+            run(round, "ConcurrentBloomFilter", new ConcurrentBloomFilter<String>(falsePositiveProbability, elements,
+                    false), keys, threads);
+            run(round, "ConcurrentBloomFilter(blocked)", new ConcurrentBloomFilter<String>(falsePositiveProbability,
+                    elements, true), keys, threads);
+        }
+    }
+
+    private static void run(int round, String name, final MembershipFilter<String> filter, final String[] keys,
+                            final int threads) throws Exception
+    {
+        final int elements = keys.length / 2;
+        final AtomicLong missing = new AtomicLong();
+        final AtomicLong falsePositives = new AtomicLong();
+
+        final long addNanos = inParallel(threads, new Task()
+        {
+            @Override
+            public void run(int thread)
+            {
+                for(int i = thread; i < elements; i += threads)
+                {
+                    filter.add(keys[i]);
+                }
+            }
+        });
+        final long containsNanos = inParallel(threads, new Task()
+        {
+            @Override
+            public void run(int thread)
+            {
+                long notFound = 0;
+                for(int i = thread; i < elements; i += threads)
+                {
+                    if(!filter.contains(keys[i]))
+                    {
+                        notFound++;
+                    }
+                }
+                missing.addAndGet(notFound);
+            }
+        });
+        final long absentNanos = inParallel(threads, new Task()
+        {
+            @Override
+            public void run(int thread)
+            {
+                long found = 0;
+                for(int i = thread; i < elements; i += threads)
+                {
+                    if(filter.contains(keys[elements + i]))
+                    {
+                        found++;
+                    }
+                }
+                falsePositives.addAndGet(found);
+            }
+        });
+
+        if(missing.get() != 0)
+        {
+            throw new RuntimeException(name + ": " + missing.get() + " added elements not found");
+        }
+        System.out.println(String.format("Round %d: %-31s add=%.0f/sec, contains=%.0f/sec, contains(absent)=%.0f/sec, "
+                + "false positives=%.9f (expected %.9f)", round, name, elements / (addNanos / 1e9),
+                elements / (containsNanos / 1e9), elements / (absentNanos / 1e9),
+                falsePositives.get() / (double)elements, filter.expectedFalsePositiveProbability()));
+    }
+
+    private static class Synchronized implements MembershipFilter<String>
+    {
+        private final MembershipFilter<String> filter;
+
+        private Synchronized(MembershipFilter<String> filter)
+        {
+            this.filter = filter;
+        }
+
+        public synchronized void add(String element)
+        {
+            filter.add(element);
+        }
+
+        public synchronized void add(byte[] bytes)
+        {
+            filter.add(bytes);
+        }
+
+        public synchronized boolean contains(String element)
+        {
+            return filter.contains(element);
+        }
+
+        public synchronized boolean contains(byte[] bytes)
+        {
+            return filter.contains(bytes);
+        }
+
+        public synchronized void clear()
+        {
+            filter.clear();
+        }
+
+        public synchronized int count()
+        {
+            return filter.count();
+        }
+
+        public int getExpectedNumberOfElements()
+        {
+            return filter.getExpectedNumberOfElements();
+        }
+
+        public double expectedFalsePositiveProbability()
+        {
+            return filter.expectedFalsePositiveProbability();
+        }
+
+        public synchronized double getFalsePositiveProbability()
+        {
+            return filter.getFalsePositiveProbability();
+        }
+    }
+
+    private interface Task
+    {
+        void run(int thread);
+    }
+
+    private static long inParallel(final int threads, final Task task) throws Exception
+    {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] workers = new Thread[threads];
+        for(int t = 0; t < threads; t++)
+        {
+            final int thread = t;
+            workers[t] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch(InterruptedException e)
+                    {
+                        return;
+                    }
+                    task.run(thread);
+                }
+            };
+            workers[t].start();
+        }
+        final long startNanos = System.nanoTime();
+        start.countDown();
+        for(Thread worker : workers)
+        {
+            worker.join();
+        }
+        return System.nanoTime() - startNanos;
+    }
+}
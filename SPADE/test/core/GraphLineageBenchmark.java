@@ -0,0 +1,142 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package core;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.Graph;
+import spade.core.Vertex;
+import spade.query.quickgrail.instruction.GetLineage.Direction;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * This class measures spade.core.Graph#getLineage on a generated graph against the edge set
+ * scan that it replaced (one pass over all the edges per level). Both results are compared.
+ *
+ * Usage: GraphLineageBenchmark [edges] [max depth] [rounds]
+ * Defaults: 1000000 edges, depth 6, 3 rounds. Needs a large heap (-Xmx4g) for the default.
+ */
+public class GraphLineageBenchmark
+{
+    // Parents of a vertex are picked from the previous 'window' vertices
+    private static final int parentsPerVertex = 2, window = 1000;
+
+    public static void main(String[] args) throws Exception
+    {
+        final int edges = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        final int maxDepth = args.length > 1 ? Integer.parseInt(args[1]) : 6;
+        final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        long start = System.nanoTime();
+        final Vertex[] vertices = new Vertex[edges / parentsPerVertex + 1];
+        final Graph graph = generate(vertices, edges);
+        System.out.println(String.format("Generated: vertices=%d, edges=%d in %.0f ms",
+                graph.vertexSet().size(), graph.edgeSet().size(), (System.nanoTime() - start) / 1e6));
+
+        final Random random = new Random(2);
+        for(int round = 1; round <= rounds; round++)
+        {
+            final Set<AbstractVertex> startingVertices = new HashSet<AbstractVertex>();
+            startingVertices.add(vertices[vertices.length / 2 + random.nextInt(vertices.length / 2)]);
+            for(Direction direction : new Direction[]{Direction.kAncestor, Direction.kDescendant})
+            {
+                start = System.nanoTime();
+                final Graph scanResult = getLineageByScan(graph, startingVertices, direction, maxDepth);
+                final long scanNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                final Graph indexResult = graph.getLineage(startingVertices, direction, maxDepth);
+                final long indexNanos = System.nanoTime() - start;
+
+                if(!indexResult.equals(scanResult))
+                {
+                    throw new RuntimeException("Result mismatch for " + direction + ": "
+                            + indexResult.edgeSet().size() + " != " + scanResult.edgeSet().size() + " edges");
+                }
+                System.out.println(String.format("Round %d: %s depth=%d, result edges=%d, scan=%.1f ms, "
+                        + "index=%.1f ms (first call includes building the index), speedup=%.1fx",
+                        round, direction, maxDepth, indexResult.edgeSet().size(), scanNanos / 1e6,
+                        indexNanos / 1e6, (double)scanNanos / indexNanos));
+            }
+        }
+    }
+
+    private static Graph generate(Vertex[] vertices, int edges)
+    {
+        final Random random = new Random(1);
+        final Graph graph = new Graph();
+        for(int i = 0; i < vertices.length; i++)
+        {
+            vertices[i] = new Vertex();
+            vertices[i].addAnnotation("name", "v" + i);
+            graph.putVertex(vertices[i]);
+        }
+        int edgeCount = 0;
+        for(int i = 1; i < vertices.length && edgeCount < edges; i++)
+        {
+            for(int p = 0; p < parentsPerVertex && edgeCount < edges; p++)
+            {
+                final int parent = Math.max(0, i - 1 - random.nextInt(window));
+                final Edge edge = new Edge(vertices[i], vertices[parent]);
+                edge.addAnnotation("seq", String.valueOf(edgeCount));
+                if(graph.putEdge(edge))
+                {
+                    edgeCount++;
+                }
+            }
+        }
+        return graph;
+    }
+
+    /*
+     * The previous implementation (a pass over the edge set for each level)
+     */
+    private static Graph getLineageByScan(Graph graph, Set<AbstractVertex> startingVertices,
+                                          Direction direction, int maxDepth)
+    {
+        final boolean ancestors = Direction.kAncestor.equals(direction);
+        final Graph result = new Graph();
+        Set<AbstractVertex> currentLevelVertices = new HashSet<AbstractVertex>(startingVertices);
+        for(int depth = 1; depth <= maxDepth && !currentLevelVertices.isEmpty(); depth++)
+        {
+            final Graph adjacentGraph = new Graph();
+            for(AbstractEdge edge : graph.edgeSet())
+            {
+                final AbstractVertex edgeVertex = ancestors ? edge.getChildVertex() : edge.getParentVertex();
+                for(AbstractVertex vertex : currentLevelVertices)
+                {
+                    if(vertex.bigHashCode().equals(edgeVertex.bigHashCode()))
+                    {
+                        adjacentGraph.putVertex(edge.getChildVertex());
+                        adjacentGraph.putVertex(edge.getParentVertex());
+                        adjacentGraph.putEdge(edge);
+                    }
+                }
+            }
+            final Set<AbstractVertex> nextLevelVertices = new HashSet<AbstractVertex>(adjacentGraph.vertexSet());
+            nextLevelVertices.removeAll(currentLevelVertices);
+            nextLevelVertices.removeAll(result.vertexSet());
+            currentLevelVertices = nextLevelVertices;
+            result.union(adjacentGraph);
+        }
+        return result;
+    }
+}
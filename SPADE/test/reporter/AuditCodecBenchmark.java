@@ -0,0 +1,184 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package reporter;
+
+import java.math.BigInteger;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import spade.reporter.audit.OPMConstants;
+import spade.reporter.audit.artifact.ArtifactIdentifier;
+import spade.reporter.audit.artifact.ArtifactIdentifierCodec;
+import spade.reporter.audit.artifact.ArtifactState;
+import spade.reporter.audit.artifact.ArtifactStateCodec;
+import spade.reporter.audit.artifact.FileIdentifier;
+import spade.reporter.audit.artifact.MemoryIdentifier;
+import spade.reporter.audit.artifact.NetworkSocketIdentifier;
+import spade.reporter.audit.artifact.UnnamedPipeIdentifier;
+import spade.reporter.audit.process.AgentIdentifier;
+import spade.reporter.audit.process.NamespaceIdentifier;
+import spade.reporter.audit.process.ProcessIdentifier;
+import spade.reporter.audit.process.ProcessUnitState;
+import spade.reporter.audit.process.ProcessUnitStateCodec;
+import spade.reporter.audit.process.UnitIdentifier;
+import spade.utility.Converter;
+import spade.utility.Serializable2ByteArrayConverter;
+import spade.utility.Series;
+
+/**
+ * This class measures the bytes/entry and the ns/entry (serialize and deserialize) of the binary codecs used by
+ * the Audit external maps against Java serialization (Serializable2ByteArrayConverter) on generated artifact
+ * identifiers, artifact states and process states. Every value is checked to round-trip.
+ *
+ * Usage: AuditCodecBenchmark [entries] [rounds]
+ * Defaults: 200000 entries, 5 rounds.
+ */
+public class AuditCodecBenchmark
+{
+    public static void main(String[] args) throws Exception
+    {
+        final int entries = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        final Random random = new Random(42);
+        final List<ArtifactIdentifier> identifiers = new ArrayList<ArtifactIdentifier>();
+        final List<ArtifactState> artifactStates = new ArrayList<ArtifactState>();
+        final List<ProcessUnitState> processStates = new ArrayList<ProcessUnitState>();
+        for(int i = 0; i < entries; i++)
+        {
+            identifiers.add(identifier(random, i));
+            artifactStates.add(artifactState(random));
+            processStates.add(processState(random, i));
+        }
+
+        for(int round = 1; round <= rounds; round++)
+        {
+            run(round, "ArtifactIdentifier", identifiers, new ArtifactIdentifierCodec(), false);
+            run(round, "ArtifactIdentifier", identifiers, new Serializable2ByteArrayConverter<ArtifactIdentifier>(), false);
+            run(round, "ArtifactState", artifactStates, new ArtifactStateCodec(), false);
+            run(round, "ArtifactState", artifactStates, new Serializable2ByteArrayConverter<ArtifactState>(), false);
+            // ProcessUnitState has no equals so the round-trip is checked on the bytes
+            run(round, "ProcessUnitState", processStates, new ProcessUnitStateCodec(), true);
+            run(round, "ProcessUnitState", processStates, new Serializable2ByteArrayConverter<ProcessUnitState>(), true);
+        }
+    }
+
+    private static <X> void run(int round, String name, List<X> values, Converter<X, byte[]> converter,
+                                boolean compareBytes) throws Exception
+    {
+        final byte[][] serialized = new byte[values.size()][];
+        long bytes = 0;
+        long start = System.nanoTime();
+        for(int i = 0; i < serialized.length; i++)
+        {
+            serialized[i] = converter.serialize(values.get(i));
+        }
+        final long serializeNanos = System.nanoTime() - start;
+        for(byte[] value : serialized)
+        {
+            bytes += value.length;
+        }
+
+        final List<X> deserialized = new ArrayList<X>(serialized.length);
+        start = System.nanoTime();
+        for(byte[] value : serialized)
+        {
+            deserialized.add(converter.deserialize(value));
+        }
+        final long deserializeNanos = System.nanoTime() - start;
+
+        for(int i = 0; i < serialized.length; i++)
+        {
+            final boolean equal = compareBytes
+                    ? Arrays.equals(serialized[i], converter.serialize(deserialized.get(i)))
+                    : values.get(i).equals(deserialized.get(i));
+            if(!equal)
+            {
+                throw new RuntimeException(name + ": value " + i + " did not round-trip with "
+                        + converter.getClass().getSimpleName() + ": " + values.get(i));
+            }
+        }
+
+        final int count = values.size();
+        System.out.println(String.format("Round %d: %-18s %-34s bytes/entry=%7.1f, serialize=%6.0f ns/entry, "
+                + "deserialize=%6.0f ns/entry", round, name, converter.getClass().getSimpleName(),
+                bytes / (double)count, serializeNanos / (double)count, deserializeNanos / (double)count));
+    }
+
+    private static ArtifactIdentifier identifier(Random random, int i)
+    {
+        final String tgid = String.valueOf(1000 + random.nextInt(30000));
+        switch(i % 4)
+        {
+            case 0:
+                return new FileIdentifier("/home/user/project/src/file" + random.nextInt(100000) + ".c", "/");
+            case 1:
+                return new MemoryIdentifier(tgid, Long.toHexString(0x7f0000000000L + random.nextInt(1 << 30)),
+                        String.valueOf(4096 * (1 + random.nextInt(64))));
+            case 2:
+                return new NetworkSocketIdentifier("10.0.0." + random.nextInt(256), String.valueOf(random.nextInt(65536)),
+                        "192.168." + random.nextInt(256) + "." + random.nextInt(256), "443", "tcp", "4026531992");
+            default:
+                return new UnnamedPipeIdentifier(tgid, String.valueOf(random.nextInt(1024)),
+                        String.valueOf(random.nextInt(1024)));
+        }
+    }
+
+    private static final String[] permissions = {"0644", "0755", "0600", "0664"};
+
+    private static ArtifactState artifactState(Random random)
+    {
+        final Set<String> previousPutPermissions = new HashSet<String>();
+        final int puts = random.nextInt(3);
+        for(int i = 0; i < puts; i++)
+        {
+            previousPutPermissions.add(permissions[random.nextInt(permissions.length)]);
+        }
+        final BigInteger epoch = BigInteger.valueOf(random.nextInt(4));
+        final BigInteger version = BigInteger.valueOf(random.nextInt(200));
+        final String current = permissions[random.nextInt(permissions.length)];
+        return new ArtifactState(puts > 0, epoch, version, puts > 0 ? epoch : null, puts > 0 ? version : null,
+                current, puts > 0 ? current : null, previousPutPermissions);
+    }
+
+    private static ProcessUnitState processState(Random random, int i)
+    {
+        final String pid = String.valueOf(1000 + random.nextInt(30000));
+        final String time = String.format("%d.%03d", 1588000000 + i, random.nextInt(1000));
+        final ProcessIdentifier process = new ProcessIdentifier(pid, String.valueOf(1 + random.nextInt(1000)),
+                "bash", "/home/user", "/bin/bash -c make all", time, null, "0", OPMConstants.SOURCE_AUDIT_SYSCALL, pid);
+        final AgentIdentifier agent = new AgentIdentifier("1000", "1000", "1000", "1000", "1000", "1000", "1000", "1000");
+        final NamespaceIdentifier namespace = new NamespaceIdentifier("4026531840", "4026531837", "4026531992",
+                "4026531836", "4026531836", "4026531839");
+        final Series<Double, SimpleEntry<AgentIdentifier, NamespaceIdentifier>> series =
+                new Series<Double, SimpleEntry<AgentIdentifier, NamespaceIdentifier>>();
+        series.add(Double.valueOf(time), new SimpleEntry<AgentIdentifier, NamespaceIdentifier>(agent, namespace));
+        UnitIdentifier unit = null;
+        if(random.nextInt(4) == 0)
+        {
+            final AgentIdentifier root = new AgentIdentifier("0", "0", "0", "0", "0", "0", "0", "0");
+            series.add(Double.valueOf(time) + 1, new SimpleEntry<AgentIdentifier, NamespaceIdentifier>(root, namespace));
+            unit = new UnitIdentifier(String.valueOf(random.nextInt(10)), "0", "1", time, String.valueOf(i));
+        }
+        return new ProcessUnitState(process, agent, unit, namespace, pid, series, unit != null);
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ --------------------------------------------------------------------------------
+ SPADE - Support for Provenance Auditing in Distributed Environments.
+ Copyright (C) 2020 SRI International
+ This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU General Public License as
+ published by the Free Software Foundation, either version 3 of the
+ License, or (at your option) any later version.
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ General Public License for more details.
+ You should have received a copy of the GNU General Public License
+ along with this program. If not, see <http://www.gnu.org/licenses/>.
+ --------------------------------------------------------------------------------
+ */
+package reporter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringUtils;
+
+import spade.reporter.audit.AuditEventData;
+import spade.reporter.audit.AuditEventReader;
+import spade.reporter.audit.AuditRecord;
+
+/**
+ * This class measures the events/sec of reading audit events and getting the syscall number and the decimal
+ * arguments out of them (what every Audit syscall handler starts with): the previous regex + map per record + merge
+ * path against AuditEventReader/AuditEventData. The key values of every event are compared.
+ *
+ * Usage: AuditEventReaderBenchmark [path to an audit log with SYSCALL/CWD/PATH/SOCKADDR records] [rounds]
+ * Without a path, a log is generated.
+ */
+public class AuditEventReaderBenchmark
+{
+    private static final int generatedEvents = 300000;
+
+    private static final Pattern pattern_key_value = Pattern.compile("(\\w+)=\"*((?<=\")[^\"]+(?=\")|([^\\s]+))\"*");
+    private static final String[] argKeys = {"a0", "a1", "a2", "a3"};
+
+    public static void main(String[] args) throws Exception
+    {
+        final File file;
+        if(args.length > 0)
+        {
+            file = new File(args[0]);
+        }
+        else
+        {
+            file = File.createTempFile("audit", ".log");
+            file.deleteOnExit();
+            generate(file, generatedEvents);
+        }
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        System.out.println("Input: " + file + " (" + file.length() / (1024 * 1024) + " MB)");
+        compare(file);
+        for(int round = 1; round <= rounds; round++)
+        {
+            long start = System.nanoTime();
+            long[] eventsAndChecksum = readWithRegex(file, null);
+            long events = eventsAndChecksum[0];
+            long checksum = eventsAndChecksum[1];
+            long regexNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long checksum2 = 0;
+            long events2 = 0;
+            AuditEventReader reader = new AuditEventReader("benchmark", new FileInputStream(file));
+            AuditEventData eventData;
+            while((eventData = reader.readEventData()) != null)
+            {
+                checksum2 += handleWithEventData(eventData);
+                events2++;
+            }
+            reader.close();
+            long readerNanos = System.nanoTime() - start;
+
+            if(events != events2 || checksum != checksum2)
+            {
+                throw new RuntimeException("Mismatch: events " + events + " != " + events2
+                        + " or checksum " + checksum + " != " + checksum2);
+            }
+            System.out.println(String.format("Round %d: events=%d, regex=%.0f events/sec, "
+                    + "AuditEventReader=%.0f events/sec, speedup=%.2fx", round, events,
+                    events / (regexNanos / 1e9), events / (readerNanos / 1e9), (double)regexNanos / readerNanos));
+        }
+    }
+
+    private static void compare(File file) throws Exception
+    {
+        List<Map<String, String>> expected = new ArrayList<Map<String, String>>();
+        readWithRegex(file, expected);
+        AuditEventReader reader = new AuditEventReader("benchmark", new FileInputStream(file));
+        int i = 0;
+        AuditEventData eventData;
+        while((eventData = reader.readEventData()) != null)
+        {
+            if(i >= expected.size() || !expected.get(i).equals(eventData))
+            {
+                throw new RuntimeException("Event " + i + " mismatch: " + (i < expected.size() ? expected.get(i) : null)
+                        + " != " + eventData);
+            }
+            i++;
+        }
+        reader.close();
+        if(i != expected.size())
+        {
+            throw new RuntimeException("Event count mismatch: " + expected.size() + " != " + i);
+        }
+        System.out.println("Same key values for all " + i + " events");
+    }
+
+    /*
+     * Previous argument conversion and syscall lookup
+     */
+    private static long handleWithMap(Map<String, String> eventData)
+    {
+        long sum = Integer.parseInt(eventData.get(AuditEventReader.SYSCALL));
+        for(String argKey : argKeys)
+        {
+            String hex = eventData.get(argKey);
+            BigInteger bigInt = new BigInteger(hex, 16);
+            String value = hex.length() <= 8 ? Integer.toString(bigInt.intValue()) : Long.toString(bigInt.longValue());
+            eventData.put(argKey, value);
+            sum += value.length();
+        }
+        return sum;
+    }
+
+    private static long handleWithEventData(AuditEventData eventData)
+    {
+        long sum = eventData.getSyscall();
+        for(int i = 0; i < argKeys.length; i++)
+        {
+            String value = Long.toString(eventData.getArgument(i));
+            eventData.put(argKeys[i], value);
+            sum += value.length();
+        }
+        return sum;
+    }
+
+    /*
+     * The previous AuditEventReader parsing (for the record types in the generated log).
+     * Events are handled if 'collect' is null, and collected (as parsed) otherwise.
+     */
+    private static long[] readWithRegex(File file, List<Map<String, String>> collect) throws Exception
+    {
+        long[] eventsAndChecksum = new long[2];
+        try(BufferedReader reader = new BufferedReader(new FileReader(file)))
+        {
+            String line;
+            String currentId = null;
+            Map<String, String> event = null;
+            while((line = reader.readLine()) != null)
+            {
+                AuditRecord record = new AuditRecord(line);
+                if(record.type.equals("EOE") || record.type.equals("PROCTITLE"))
+                {
+                    continue;
+                }
+                if(!record.id.equals(currentId))
+                {
+                    if(event != null)
+                    {
+                        addEvent(event, collect, eventsAndChecksum);
+                    }
+                    event = new HashMap<String, String>();
+                    currentId = record.id;
+                }
+                event.putAll(parseRecord(record));
+            }
+            if(event != null)
+            {
+                addEvent(event, collect, eventsAndChecksum);
+            }
+        }
+        return eventsAndChecksum;
+    }
+
+    private static void addEvent(Map<String, String> event, List<Map<String, String>> collect, long[] eventsAndChecksum)
+    {
+        eventsAndChecksum[0]++;
+        if(collect == null)
+        {
+            eventsAndChecksum[1] += handleWithMap(event);
+        }
+        else
+        {
+            collect.add(event);
+        }
+    }
+
+    private static Map<String, String> parseRecord(AuditRecord record)
+    {
+        Map<String, String> map = parseKeyValPairs(record.data);
+        switch(record.type)
+        {
+            case "SYSCALL":
+                map.put("comm", StringUtils.substringBetween(record.data, "comm=\"", "\""));
+                map.put(AuditEventReader.TIME, record.time);
+                map.put(AuditEventReader.EVENT_ID, record.id);
+                map.put(AuditEventReader.RECORD_TYPE_KEY, "SYSCALL");
+                return map;
+            case "CWD":
+                map.put("cwd", StringUtils.substringBetween(record.data, "cwd=\"", "\""));
+                return map;
+            case "PATH":
+                Map<String, String> pathMap = new HashMap<String, String>();
+                String item = map.get("item");
+                pathMap.put("mode" + item, map.get("mode") == null ? "0" : map.get("mode"));
+                pathMap.put("nametype" + item, map.get("nametype"));
+                pathMap.put("path" + item, StringUtils.substringBetween(record.data, "name=\"", "\""));
+                return pathMap;
+            default:
+                return map;
+        }
+    }
+
+    private static Map<String, String> parseKeyValPairs(String messageData)
+    {
+        Map<String, String> keyValPairs = new HashMap<String, String>();
+        Matcher matcher = pattern_key_value.matcher(messageData);
+        while(matcher.find())
+        {
+            keyValPairs.put(matcher.group(1).trim(), matcher.group(2).trim());
+        }
+        return keyValPairs;
+    }
+
+    private static void generate(File file, int count) throws IOException
+    {
+        Random random = new Random(1);
+        String[] comms = {"bash", "sshd", "python3", "nginx", "postgres"};
+        String[] files = {"/etc/passwd", "/usr/lib/x86_64-linux-gnu/libc.so.6", "/home/user/notes.txt", "/tmp/x y"};
+        try(PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file))))
+        {
+            for(int i = 0; i < count; i++)
+            {
+                String header = "msg=audit(1601587102." + (100 + i % 900) + ":" + (16403 + i) + "): ";
+                int pid = 1000 + random.nextInt(30000);
+                int kind = random.nextInt(3);
+                int syscall = kind == 0 ? 0 : (kind == 1 ? 257 : 42);
+                String comm = comms[random.nextInt(comms.length)];
+                out.println("type=SYSCALL " + header + "arch=c000003e syscall=" + syscall + " success=yes exit="
+                        + random.nextInt(100) + " a0=" + Integer.toHexString(random.nextInt()) + " a1="
+                        + Long.toHexString(random.nextLong()) + " a2=" + Integer.toHexString(random.nextInt(5000))
+                        + " a3=0 items=" + (kind == 1 ? 2 : 0) + " ppid=" + (pid - 1) + " pid=" + pid
+                        + " auid=1000 uid=1000 gid=1000 euid=1000 suid=1000 fsuid=1000 egid=1000 sgid=1000 fsgid=1000"
+                        + " tty=(none) ses=3 comm=\"" + comm + "\" exe=\"/usr/bin/" + comm + "\" key=(null)");
+                if(kind == 1)
+                {
+                    out.println("type=CWD " + header + "cwd=\"/home/user\"");
+                    for(int item = 0; item < 2; item++)
+                    {
+                        out.println("type=PATH " + header + "item=" + item + " name=\""
+                                + files[random.nextInt(files.length)] + "\" inode=" + random.nextInt(1000000)
+                                + " dev=08:01 mode=0100644 ouid=0 ogid=0 rdev=00:00 nametype="
+                                + (item == 0 ? "PARENT" : "NORMAL")
+                                + " cap_fp=0000000000000000 cap_fi=0000000000000000 cap_fe=0 cap_fver=0");
+                    }
+                }
+                else if(kind == 2)
+                {
+                    out.println("type=SOCKADDR " + header + "saddr=02000050C0A80001" + Integer.toHexString(i)
+                            + "0000000000000000");
+                }
+                out.println("type=PROCTITLE " + header + "proctitle=" + Integer.toHexString(i));
+                out.println("type=EOE " + header);
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package reporter;
+
+import spade.core.AbstractEdge;
+import spade.core.AbstractVertex;
+import spade.core.Edge;
+import spade.core.Vertex;
+import spade.reporter.JSONRecordReader;
+import spade.utility.HelperFunctions;
+
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * This class measures the records/sec of the JSON reporter's input parsing: the org.json
+ * JSONTokener path against the JSONRecordReader path. Both build the same vertices and edges.
+ *
+ * Usage: JSONParserBenchmark [path to a SPADE JSON/CamFlow log] [rounds]
+ * Without a path, a CamFlow like log is generated.
+ */
+public class JSONParserBenchmark
+{
+    private static final int generatedRecords = 500000;
+
+    public static void main(String[] args) throws Exception
+    {
+        final File file;
+        if(args.length > 0)
+        {
+            file = new File(args[0]);
+        }
+        else
+        {
+            file = File.createTempFile("camflow", ".json");
+            file.deleteOnExit();
+            generate(file, generatedRecords);
+        }
+        final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        System.out.println("Input: " + file + " (" + file.length() / (1024 * 1024) + " MB)");
+        for(int round = 1; round <= rounds; round++)
+        {
+            long start = System.nanoTime();
+            long records = parseWithTokener(file);
+            long tokenerNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long records2 = parseWithRecordReader(file);
+            long readerNanos = System.nanoTime() - start;
+
+            if(records != records2)
+            {
+                throw new RuntimeException("Record count mismatch: " + records + " != " + records2);
+            }
+            System.out.println(String.format("Round %d: records=%d, JSONTokener=%.0f records/sec, "
+                    + "JSONRecordReader=%.0f records/sec, speedup=%.2fx", round, records,
+                    records / (tokenerNanos / 1e9), records / (readerNanos / 1e9), (double)tokenerNanos / readerNanos));
+        }
+    }
+
+    private static long parseWithTokener(File file) throws Exception
+    {
+        long records = 0;
+        try(BufferedReader reader = new BufferedReader(new FileReader(file)))
+        {
+            JSONTokener tokener = new JSONTokener(reader);
+            while(tokener.skipTo('{') == '{')
+            {
+                JSONObject object = (JSONObject)tokener.nextValue();
+                Map<String, String> annotations = new HashMap<>();
+                annotations.putAll(HelperFunctions.convertJSONObjectToMap(object.optJSONObject("annotations")));
+                String type = object.optString("type", null);
+                annotations.put("type", type);
+                if(AbstractVertex.isVertexType(type))
+                {
+                    Vertex vertex = new Vertex(object.optString("id", null));
+                    vertex.addAnnotations(annotations);
+                }
+                else
+                {
+                    AbstractEdge edge = new Edge(new Vertex(object.optString("from", null)),
+                            new Vertex(object.optString("to", null)));
+                    edge.addAnnotations(annotations);
+                }
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private static long parseWithRecordReader(File file) throws Exception
+    {
+        long records = 0;
+        try(FileReader reader = new FileReader(file))
+        {
+            JSONRecordReader recordReader = new JSONRecordReader(reader);
+            JSONRecordReader.Record record = new JSONRecordReader.Record();
+            while(recordReader.skipToObject())
+            {
+                recordReader.readRecord(record);
+                if(AbstractVertex.isVertexType(record.type))
+                {
+                    Vertex vertex = new Vertex(record.id);
+                    vertex.addAnnotations(record.annotations);
+                    vertex.addAnnotation("type", record.type);
+                }
+                else
+                {
+                    AbstractEdge edge = new Edge(new Vertex(record.from), new Vertex(record.to));
+                    edge.addAnnotations(record.annotations);
+                    edge.addAnnotation("type", record.type);
+                }
+                records++;
+            }
+        }
+        return records;
+    }
+
+    private static void generate(File file, int count) throws IOException
+    {
+        Random random = new Random(1);
+        try(PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file))))
+        {
+            out.println("[");
+            long jiffies = 4295000000L;
+            for(int i = 0; i < count; i++)
+            {
+                jiffies += random.nextInt(3);
+                String id = "AQAAAAAAAEA" + Integer.toHexString(random.nextInt()) + "AAAAA==";
+                if(i % 3 != 2)
+                {
+                    out.print("{\"type\":\"Entity\",\"id\":\"" + id + "\",\"annotations\":{"
+                            + "\"object_id\":\"" + random.nextInt(100000) + "\",\"object_type\":\"inode_file\","
+                            + "\"boot_id\":1,\"cf:machine_id\":\"cf:1883391418\",\"version\":" + random.nextInt(10) + ","
+                            + "\"cf:date\":\"2020:04:17T12:08:43\",\"cf:jiffies\":\"" + jiffies + "\","
+                            + "\"jiffies\":\"" + jiffies + "\",\"uid\":1000,\"gid\":1000,\"mode\":\"0x81a4\","
+                            + "\"secctx\":\"unconfined_u:object_r:user_home_t:s0\",\"ino\":" + random.nextInt(1000000) + ","
+                            + "\"uuid\":\"" + new java.util.UUID(random.nextLong(), random.nextLong()) + "\"}}");
+                }
+                else
+                {
+                    out.print("{\"type\":\"Used\",\"from\":\"" + id + "\",\"to\":\"AQAAAAAAAEB" + i + "\","
+                            + "\"annotations\":{\"id\":\"" + id + "\",\"relation_type\":\"read\",\"boot_id\":1,"
+                            + "\"cf:machine_id\":\"cf:1883391418\",\"cf:date\":\"2020:04:17T12:08:43\","
+                            + "\"cf:jiffies\":\"" + jiffies + "\",\"jiffies\":\"" + jiffies + "\",\"offset\":\"0\","
+                            + "\"flags\":\"0x0\",\"allowed\":\"true\",\"task_id\":" + random.nextInt(100000) + "}}");
+                }
+                out.println(i + 1 < count ? "," : "");
+            }
+            out.println("]");
+        }
+    }
+}